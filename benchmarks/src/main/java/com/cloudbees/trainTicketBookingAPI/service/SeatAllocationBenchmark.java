@@ -0,0 +1,125 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidSeatRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seat allocation on one departure of a train with eight sections of 128 seats, filled to a given occupancy.
+ * Seats are taken at random so that free seats are spread over the train, as they are after some churn.
+ * Benchmarks that allocate a seat vacate it again, so occupancy stays the same throughout a run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeatAllocationBenchmark {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final int SECTIONS = 8;
+    static final int SECTION_SIZE = 128;
+
+    @Param({"0", "50", "90", "99"})
+    int occupancyPercent;
+    SeatAllocationService seatAllocationService;
+    Journey journey;
+    LegRange legs;
+    Seat occupiedSeat;
+    Seat missingSeat;
+
+    @Setup
+    public void setup() {
+        BookingProperties.Train train = new BookingProperties.Train();
+        train.setNumber("BM1");
+        for (int section = 0; section < SECTIONS; section++) {
+            train.getSections().put(String.valueOf((char) ('A' + section)), SECTION_SIZE);
+        }
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getTrains().clear();
+        bookingProperties.getTrains().add(train);
+        seatAllocationService = new SeatAllocationService();
+        seatAllocationService.bookingProperties = bookingProperties;
+        seatAllocationService.clock = Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        seatAllocationService.init();
+        journey = seatAllocationService.resolveJourney(null, null);
+        legs = seatAllocationService.getTrainLayout(journey).wholeRoute();
+        occupiedSeat = seatAllocationService.allocateNewSeat(journey, legs);
+        Random random = new Random(42);
+        int target = SECTIONS * SECTION_SIZE * occupancyPercent / 100;
+        for (int occupied = 1; occupied < target; ) {
+            Seat seat = new Seat(String.valueOf((char) ('A' + random.nextInt(SECTIONS))), 1 + random.nextInt(SECTION_SIZE));
+            try {
+                seatAllocationService.allocateSpecificSeat(journey, legs, seat);
+                occupied++;
+            } catch (SeatOccupiedException e) {
+                // Already taken; draw another seat.
+            }
+        }
+        missingSeat = new Seat("A", SECTION_SIZE + 1);
+    }
+
+    @Benchmark
+    public Seat allocateNewSeat() {
+        Seat seat = seatAllocationService.allocateNewSeat(journey, legs);
+        seatAllocationService.manageVacatedSeat(journey, legs, seat);
+        return seat;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Seat manageVacatedSeatChurn() {
+        Seat seat = seatAllocationService.allocateNewSeat(journey, legs);
+        seatAllocationService.manageVacatedSeat(journey, legs, seat);
+        return seat;
+    }
+
+    @Benchmark
+    public Object allocateSpecificSeatOccupied() {
+        try {
+            return seatAllocationService.allocateSpecificSeat(journey, legs, occupiedSeat);
+        } catch (SeatOccupiedException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object allocateSpecificSeatInvalid() {
+        try {
+            return seatAllocationService.allocateSpecificSeat(journey, legs, missingSeat);
+        } catch (InvalidSeatRequestException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public List<int[]> freeSeatRanges() {
+        return seatAllocationService.freeSeatRanges(journey, legs, "D");
+    }
+
+    @Benchmark
+    public int seatToNumber() {
+        return seatAllocationService.seatToNumber(journey, occupiedSeat);
+    }
+}
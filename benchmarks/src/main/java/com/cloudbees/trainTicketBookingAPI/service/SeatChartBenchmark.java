@@ -0,0 +1,107 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartResponseDTO;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and serializing the seat chart of a departure with a given number of tickets. The seat chart projections
+ * come from an in-memory repository, so the benchmarks measure the mapping and JSON encoding rather than the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeatChartBenchmark {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final int SECTIONS = 10;
+    static final int SECTION_SIZE = 1000;
+
+    @Param({"100", "1000", "10000"})
+    int manifestSize;
+    TicketService ticketService;
+    ObjectMapper objectMapper;
+    List<SeatChartResponseDTO> seatChart;
+
+    @Setup
+    public void setup() {
+        BookingProperties.Train train = new BookingProperties.Train();
+        train.setNumber("BM1");
+        for (int section = 0; section < SECTIONS; section++) {
+            train.getSections().put(String.valueOf((char) ('A' + section)), SECTION_SIZE);
+        }
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getTrains().clear();
+        bookingProperties.getTrains().add(train);
+        Clock clock = Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        SeatAllocationService seatAllocationService = new SeatAllocationService();
+        seatAllocationService.bookingProperties = bookingProperties;
+        seatAllocationService.clock = clock;
+        seatAllocationService.init();
+
+        List<SeatChartEntry> entries = new ArrayList<>(manifestSize);
+        for (int i = 0; i < manifestSize; i++) {
+            entries.add(new SeatChartEntry("firstName" + i, "lastName" + i, "passenger" + i + "@domain.com",
+                String.valueOf((char) ('A' + i / SECTION_SIZE)), i % SECTION_SIZE + 1, i + 1L));
+        }
+        objectMapper = new ObjectMapper().findAndRegisterModules();
+        ticketService = new TicketService();
+        ticketService.ticketRepository = seatChartRepository(entries);
+        ticketService.seatAllocationService = seatAllocationService;
+        ticketService.bookingProperties = bookingProperties;
+        ticketService.objectMapper = objectMapper;
+        ticketService.clock = clock;
+        ticketService.meterRegistry = new SimpleMeterRegistry();
+        ticketService.init();
+        seatChart = ticketService.getSeatChart(null, null);
+    }
+
+    @Benchmark
+    public List<SeatChartResponseDTO> getSeatChart() {
+        return ticketService.getSeatChart(null, null);
+    }
+
+    @Benchmark
+    public byte[] serializeSeatChart() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(seatChart);
+    }
+
+    @Benchmark
+    public byte[] getAndSerializeSeatChart() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(ticketService.getSeatChart(null, null));
+    }
+
+    private static TicketRepository seatChartRepository(List<SeatChartEntry> entries) {
+        return (TicketRepository) Proxy.newProxyInstance(TicketRepository.class.getClassLoader(),
+            new Class<?>[]{TicketRepository.class}, (proxy, method, args) -> {
+                if (method.getName().equals("findSeatChart"))
+                    return entries;
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+}
@@ -0,0 +1,49 @@
+package com.cloudbees.trainTicketBookingAPI.config;
+
+import com.cloudbees.trainTicketBookingAPI.service.TicketCache;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Clock;
+
+@Configuration
+@EnableScheduling
+@EnableConfigurationProperties(BookingProperties.class)
+public class BookingConfiguration {
+
+    /**
+     * Provides the clock used to decide which departures are bookable and which have already left.
+     *
+     * @return the system clock in the default time zone
+     */
+    @Bean
+    public Clock clock() {
+        return Clock.systemDefaultZone();
+    }
+
+    /**
+     * Provides the cache of tickets by PNR that serves receipts and the lookups before a modification or removal.
+     *
+     * @param bookingProperties the booking configuration holding the cache size
+     * @return the ticket cache
+     */
+    @Bean
+    public TicketCache ticketCache(BookingProperties bookingProperties) {
+        return new TicketCache(bookingProperties.getTicketCacheSize());
+    }
+
+    /**
+     * Records the {@code booking.operation} timers of the ticket service methods annotated with {@code @Timed}.
+     *
+     * @param meterRegistry the registry to record the timers in
+     * @return the aspect timing annotated methods
+     */
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
@@ -0,0 +1,225 @@
+package com.cloudbees.trainTicketBookingAPI.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "booking")
+public class BookingProperties {
+    /**
+     * Number of days after today for which departures can be booked.
+     */
+    private int bookingHorizonDays = 90;
+    /**
+     * Largest number of passengers that can be booked together in one group booking.
+     */
+    private int maxPassengersPerBooking = 50;
+    /**
+     * When to drop the seat inventories of departures that have already left.
+     */
+    private String inventoryEvictionCron = "0 5 0 * * *";
+    /**
+     * Largest number of seats returned in one page of a seat chart.
+     */
+    private int maxSeatChartPageSize = 500;
+    /**
+     * Largest number of tickets kept in the PNR receipt cache.
+     */
+    private long ticketCacheSize = 10_000;
+    /**
+     * Number of seconds held seats stay reserved before they are released unless the hold is confirmed.
+     */
+    private long holdTtlSeconds = 300;
+    /**
+     * Length in milliseconds of one tick of the timing wheel that expires holds.
+     */
+    private long holdTickMillis = 1000;
+    /**
+     * Interval in milliseconds at which the free seat gauges pick up departures that were opened or evicted.
+     */
+    private long freeSeatGaugeIntervalMillis = 10_000;
+    /**
+     * Single-writer booking pipeline, which queues purchases, modifications and removals per train.
+     */
+    private Pipeline pipeline = new Pipeline();
+    /**
+     * Memory-mapped booking journal, which acknowledges purchases, modifications and removals before they reach the database.
+     */
+    private Journal journal = new Journal();
+    /**
+     * Snapshots of seat occupancy, which let a restart skip rebuilding it from the database.
+     */
+    private InventorySnapshot inventorySnapshot = new InventorySnapshot();
+    /**
+     * Waitlist of sold-out departures, which gives purchases a place in a queue instead of rejecting them.
+     */
+    private Waitlist waitlist = new Waitlist();
+    /**
+     * Issuing of PNR numbers to new tickets.
+     */
+    private Pnr pnr = new Pnr();
+    /**
+     * Clustered mode, in which several instances sharing one database sell seats of the same departures.
+     */
+    private Cluster cluster = new Cluster();
+    /**
+     * Trains that can be booked. The first train is used when a request does not name one.
+     */
+    private List<Train> trains = new ArrayList<>(List.of(Train.londonToFrance()));
+
+    @Getter
+    @Setter
+    public static class Train {
+        private String number;
+        private String fromStation;
+        private String toStation;
+        /**
+         * Stations the train calls at between its origin and destination, in route order. Passengers can travel
+         * between any two stations of the route, and a seat vacated at a stop can be sold again from there.
+         */
+        private List<String> stops = new ArrayList<>();
+        private Double priceInDollars;
+        /**
+         * Number of seats in each section of the train, in the order in which seats are allocated.
+         */
+        private Map<String, Integer> sections = new LinkedHashMap<>();
+
+        /**
+         * Creates the original London to France train with two sections of 64 seats each.
+         *
+         * @return the default train
+         */
+        public static Train londonToFrance() {
+            Train train = new Train();
+            train.setNumber("LF101");
+            train.setFromStation("London");
+            train.setToStation("France");
+            train.setPriceInDollars(20.0);
+            train.getSections().put("A", 64);
+            train.getSections().put("B", 64);
+            return train;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class Pipeline {
+        /**
+         * Whether purchases, modifications and removals go through the pipeline instead of running on the request thread.
+         */
+        private boolean enabled = false;
+        /**
+         * Number of commands that can wait for the writer of one train before new ones are rejected.
+         */
+        private int queueCapacity = 1024;
+        /**
+         * Largest number of commands whose writes are committed in one transaction.
+         */
+        private int maxBatchSize = 256;
+    }
+
+    @Getter
+    @Setter
+    public static class Journal {
+        /**
+         * Whether purchases, modifications and removals are appended to the journal and written to the database behind.
+         */
+        private boolean enabled = false;
+        /**
+         * Path of the journal file.
+         */
+        private String path = "data/booking.journal";
+        /**
+         * Size in bytes of the journal file. Bookings are rejected while the records not yet in the database fill it.
+         */
+        private int capacityBytes = 64 * 1024 * 1024;
+        /**
+         * Interval in milliseconds between writes of journal records to the database.
+         */
+        private long flushIntervalMillis = 100;
+        /**
+         * Largest number of journal records written to the database in one transaction.
+         */
+        private int flushBatchSize = 500;
+    }
+
+    @Getter
+    @Setter
+    public static class InventorySnapshot {
+        /**
+         * Whether seat occupancy is snapshotted and restored from the newest snapshot and the changes logged after it.
+         */
+        private boolean enabled = false;
+        /**
+         * Directory holding the snapshots and change logs.
+         */
+        private String directory = "data/inventory";
+        /**
+         * Interval in milliseconds between snapshots.
+         */
+        private long intervalMillis = 60_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Waitlist {
+        /**
+         * Whether purchases on a sold-out departure join its waitlist and get a ticket as soon as a seat is freed.
+         */
+        private boolean enabled = false;
+        /**
+         * Largest number of passengers waiting for one departure. Purchases beyond it are rejected as sold out.
+         */
+        private int capacity = 1000;
+        /**
+         * Interval in milliseconds at which seats freed by released or expired holds are handed to waiting passengers.
+         */
+        private long promoteIntervalMillis = 1000;
+        /**
+         * Longest time in seconds a waitlist status request is held back waiting for the passenger to leave the waitlist.
+         */
+        private long maxWaitSeconds = 30;
+        /**
+         * Time in seconds for which the status of a promoted or cancelled waitlist entry can still be read.
+         */
+        private long settledRetentionSeconds = 3600;
+    }
+
+    @Getter
+    @Setter
+    public static class Pnr {
+        /**
+         * Whether PNRs are issued in memory from the time, the node id and a counter instead of from the ticket sequence.
+         */
+        private boolean timeBased = false;
+        /**
+         * Id between 0 and 1023 of this instance, which must differ between instances sharing the database.
+         */
+        private int nodeId = 0;
+    }
+
+    @Getter
+    @Setter
+    public static class Cluster {
+        /**
+         * Whether every ticket claims its seat on each leg of its route in the database, which rejects a claim another
+         * instance already holds. The seat inventory of each instance then only steers allocation towards free seats.
+         */
+        private boolean enabled = false;
+        /**
+         * Interval in milliseconds at which each instance reads the seats claimed by the others into its seat inventory.
+         */
+        private long refreshIntervalMillis = 1000;
+        /**
+         * Number of seats a purchase tries before giving up when other instances have already claimed the seats it was allocated.
+         */
+        private int maxClaimAttempts = 3;
+    }
+}
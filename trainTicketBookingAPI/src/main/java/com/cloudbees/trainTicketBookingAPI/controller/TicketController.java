@@ -3,24 +3,48 @@ package com.cloudbees.trainTicketBookingAPI.controller;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ManifestEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatAvailabilityDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartPageDTO;
 import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartResponseDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatHoldResponseDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.WaitlistStatusDTO;
 import com.cloudbees.trainTicketBookingAPI.exception.InvalidEmailFormatException;
 import com.cloudbees.trainTicketBookingAPI.exception.InvalidSeatRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchSectionException;
+import com.cloudbees.trainTicketBookingAPI.exception.WaitlistedException;
+import com.cloudbees.trainTicketBookingAPI.service.SeatChartSnapshot;
+import com.cloudbees.trainTicketBookingAPI.service.SeatHold;
 import com.cloudbees.trainTicketBookingAPI.service.TicketService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/ticket")
@@ -28,6 +52,8 @@ public class TicketController {
 
     @Autowired
     TicketService ticketService;
+    @Autowired
+    Validator validator;
 
     /**
      * Retrieves a ticket by its Passenger Name Record (PNR) number.
@@ -43,28 +69,218 @@ public class TicketController {
     }
 
     /**
-     * Retrieves the current seat chart of the train, which shows the users and the seat they have been allocated.
+     * Retrieves a ticket by the code printed on its receipt.
+     *
+     * @param code the receipt code of the ticket, read case-insensitively
+     * @return receipt of the ticket with the specified receipt code and allocated seat
+     */
+    @Operation(summary = "Get Ticket Receipt By Code",
+        description = "Get the receipt of a ticket by the 13-character code printed on it in place of the PNR number.")
+    @GetMapping("/receipt/code/{code}")
+    public Ticket getTicketByReceiptCode(@PathVariable String code) {
+        return ticketService.getTicketByReceiptCode(code);
+    }
+
+    /**
+     * Retrieves the tickets of a passenger by their email, compared case-insensitively.
+     *
+     * @param email the email of the passenger
+     * @return the tickets of the passenger, empty if there are none
+     */
+    @Operation(summary = "Get Tickets By Email",
+        description = "Get every ticket of a passenger by their email, compared case-insensitively.")
+    @GetMapping("/by-email/{email}")
+    public List<Ticket> getTicketsByEmail(@PathVariable String email) {
+        return ticketService.getTicketsByEmail(email);
+    }
+
+    /**
+     * Retrieves the current seat chart of a train departure, which shows the users and the seat they have been allocated.
+     * The chart is served from a pre-serialized snapshot with an ETag, so unchanged charts are answered with 304 Not Modified.
      *
-     * @return a list of SeatChartResponseDTO objects representing the current seat chart
+     * @param train the number of the train (defaults to the first configured train)
+     * @param date  the date of departure (defaults to today)
+     * @return the JSON list of SeatChartResponseDTO objects representing the current seat chart
      */
     @Operation(summary = "Get Seat Chart",
-        description = "Get the current seat chart of the train, which shows the users and the seat they have been allocated.")
+        description = "Get the current seat chart of a train departure, which shows the users and the seat they have been allocated. "
+            + "Send the ETag back in If-None-Match to get 304 Not Modified while the chart is unchanged.")
+    @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE,
+        array = @ArraySchema(schema = @Schema(implementation = SeatChartResponseDTO.class))))
     @GetMapping("/seatchart")
-    public List<SeatChartResponseDTO> getSeatChart() {
-        return ticketService.getSeatChart();
+    public ResponseEntity<byte[]> getSeatChart(@RequestParam(required = false) String train,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        SeatChartSnapshot snapshot = ticketService.getSeatChartSnapshot(train, date);
+        return seatChartResponse(snapshot, snapshot.seatChart());
     }
 
     /**
-     * Retrieves the current seat chart of the train, which shows the users and the seat they have been allocated by the requested section.
+     * Retrieves the current seat chart of a train departure, which shows the users and the seat they have been allocated by the requested section.
+     * The chart is served from a pre-serialized snapshot with an ETag, so unchanged charts are answered with 304 Not Modified.
      *
      * @param section the section of the train whose seat chart must be retrieved
-     * @return a list of SeatChartResponseDTO objects representing the seat chart for the requested section
+     * @param train   the number of the train (defaults to the first configured train)
+     * @param date    the date of departure (defaults to today)
+     * @return the JSON list of SeatChartResponseDTO objects representing the seat chart for the requested section
+     * @throws NoSuchSectionException if the train has no section by the requested name
      */
     @Operation(summary = "Get Seat Chart By Section",
-        description = "Get the current seat chart of the requested section of the train, which shows the users and the seat they have been allocated.")
+        description = "Get the current seat chart of the requested section of a train departure, which shows the users and the seat they have been allocated. "
+            + "Send the ETag back in If-None-Match to get 304 Not Modified while the chart is unchanged.")
+    @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE,
+        array = @ArraySchema(schema = @Schema(implementation = SeatChartResponseDTO.class))))
     @GetMapping("/seatchart/{section}")
-    public List<SeatChartResponseDTO> getSeatChartBySection(@PathVariable String section) {
-        return ticketService.getSeatChartBySection(section.toUpperCase());
+    public ResponseEntity<byte[]> getSeatChartBySection(@PathVariable String section,
+                                                        @RequestParam(required = false) String train,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        SeatChartSnapshot snapshot = ticketService.getSeatChartSnapshot(train, date);
+        byte[] seatChart = snapshot.sections().get(section.toUpperCase());
+        if (seatChart == null)
+            throw new NoSuchSectionException();
+        return seatChartResponse(snapshot, seatChart);
+    }
+
+    /**
+     * Retrieves one page of the current seat chart of a train departure, ordered by section and seat number.
+     *
+     * @param limit the largest number of seats in the page
+     * @param after the cursor returned with the previous page (omit for the first page)
+     * @param train the number of the train (defaults to the first configured train)
+     * @param date  the date of departure (defaults to today)
+     * @return the page of the seat chart and the cursor of the next page, if any
+     */
+    @Operation(summary = "Get Seat Chart Page",
+        description = "Get one page of the current seat chart of a train departure. Pass the nextCursor of a page as after to get the page that follows it.")
+    @GetMapping(value = "/seatchart", params = "limit")
+    public SeatChartPageDTO getSeatChartPage(@RequestParam int limit,
+                                             @RequestParam(required = false) String after,
+                                             @RequestParam(required = false) String train,
+                                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return ticketService.getSeatChartPage(train, date, null, after == null ? null : after.toUpperCase(), limit);
+    }
+
+    /**
+     * Retrieves one page of the current seat chart of the requested section of a train departure, ordered by seat number.
+     *
+     * @param section the section of the train whose seat chart must be retrieved
+     * @param limit   the largest number of seats in the page
+     * @param after   the cursor returned with the previous page (omit for the first page)
+     * @param train   the number of the train (defaults to the first configured train)
+     * @param date    the date of departure (defaults to today)
+     * @return the page of the seat chart and the cursor of the next page, if any
+     */
+    @Operation(summary = "Get Seat Chart Page By Section",
+        description = "Get one page of the current seat chart of the requested section of a train departure. Pass the nextCursor of a page as after to get the page that follows it.")
+    @GetMapping(value = "/seatchart/{section}", params = "limit")
+    public SeatChartPageDTO getSeatChartPageBySection(@PathVariable String section,
+                                                      @RequestParam int limit,
+                                                      @RequestParam(required = false) String after,
+                                                      @RequestParam(required = false) String train,
+                                                      @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return ticketService.getSeatChartPage(train, date, section.toUpperCase(), after == null ? null : after.toUpperCase(), limit);
+    }
+
+    /**
+     * Retrieves the free seats of each section of a train departure, straight from the seat inventory.
+     *
+     * @param train       the number of the train (defaults to the first configured train)
+     * @param date        the date of departure (defaults to today)
+     * @param fromStation the station to board at (defaults to the origin of the train)
+     * @param toStation   the station to leave at (defaults to the destination of the train)
+     * @return the number of free seats and the runs of free seat numbers of each section
+     */
+    @Operation(summary = "Get Seat Availability",
+        description = "Get the number of free seats and the ranges of free seat numbers of each section of a train departure, between two stations of its route. "
+            + "Served from memory without reading tickets, so it is a cheap check before modifying a seat.")
+    @GetMapping("/availability")
+    public SeatAvailabilityDTO getAvailability(@RequestParam(required = false) String train,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                               @RequestParam(required = false) String fromStation,
+                                               @RequestParam(required = false) String toStation) {
+        return ticketService.getAvailability(train, date, fromStation, toStation, null);
+    }
+
+    /**
+     * Retrieves the free seats of the requested section of a train departure, straight from the seat inventory.
+     *
+     * @param section     the section of the train whose free seats must be retrieved
+     * @param train       the number of the train (defaults to the first configured train)
+     * @param date        the date of departure (defaults to today)
+     * @param fromStation the station to board at (defaults to the origin of the train)
+     * @param toStation   the station to leave at (defaults to the destination of the train)
+     * @return the number of free seats and the runs of free seat numbers of the section
+     */
+    @Operation(summary = "Get Seat Availability By Section",
+        description = "Get the number of free seats and the ranges of free seat numbers of the requested section of a train departure.")
+    @GetMapping("/availability/{section}")
+    public SeatAvailabilityDTO getAvailabilityBySection(@PathVariable String section,
+                                                        @RequestParam(required = false) String train,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                                        @RequestParam(required = false) String fromStation,
+                                                        @RequestParam(required = false) String toStation) {
+        return ticketService.getAvailability(train, date, fromStation, toStation, section.toUpperCase());
+    }
+
+    /**
+     * Streams the current seat chart of a train departure as newline-delimited JSON, one seat per line,
+     * for clients sending {@code Accept: application/x-ndjson}.
+     *
+     * @param train    the number of the train (defaults to the first configured train)
+     * @param date     the date of departure (defaults to today)
+     * @param response the response the seat chart is written to
+     * @throws IOException if writing the response fails
+     */
+    @Operation(summary = "Stream Seat Chart",
+        description = "Stream the current seat chart of a train departure as newline-delimited JSON, one SeatChartResponseDTO per line.")
+    @GetMapping(value = "/seatchart", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamSeatChart(@RequestParam(required = false) String train,
+                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        ticketService.writeSeatChart(train, date, null, response.getOutputStream());
+    }
+
+    /**
+     * Streams the current seat chart of the requested section of a train departure as newline-delimited JSON,
+     * one seat per line, for clients sending {@code Accept: application/x-ndjson}.
+     *
+     * @param section  the section of the train whose seat chart must be streamed
+     * @param train    the number of the train (defaults to the first configured train)
+     * @param date     the date of departure (defaults to today)
+     * @param response the response the seat chart is written to
+     * @throws IOException if writing the response fails
+     */
+    @Operation(summary = "Stream Seat Chart By Section",
+        description = "Stream the current seat chart of the requested section of a train departure as newline-delimited JSON, one SeatChartResponseDTO per line.")
+    @GetMapping(value = "/seatchart/{section}", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamSeatChartBySection(@PathVariable String section,
+                                         @RequestParam(required = false) String train,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                         HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        ticketService.writeSeatChart(train, date, section.toUpperCase(), response.getOutputStream());
+    }
+
+    /**
+     * Streams the passenger manifest of a train over a range of departure dates as newline-delimited JSON, one ticket per line.
+     *
+     * @param train    the number of the train (defaults to the first configured train)
+     * @param from     the first departure date (defaults to today)
+     * @param to       the last departure date (defaults to the first departure date)
+     * @param response the response the manifest is written to
+     * @throws IOException if writing the response fails
+     */
+    @Operation(summary = "Stream Manifest",
+        description = "Stream the passenger manifest of a train over a range of departure dates as newline-delimited JSON, one ManifestEntry per line.")
+    @ApiResponse(responseCode = "200", content = @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+        schema = @Schema(implementation = ManifestEntry.class)))
+    @GetMapping(value = "/manifest", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamManifest(@RequestParam(required = false) String train,
+                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                               HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        ticketService.writeManifest(train, from, to, response.getOutputStream());
     }
 
     /**
@@ -72,28 +288,116 @@ public class TicketController {
      *
      * @param user          the user purchasing the ticket
      * @param bindingResult the result of validating the user object (email format validation)
-     * @return the purchased ticket
+     * @param train         the number of the train (defaults to the first configured train)
+     * @param date          the date of departure (defaults to today)
+     * @param fromStation   the station to board at (defaults to the origin of the train)
+     * @param toStation     the station to leave at (defaults to the destination of the train)
+     * @return the purchased ticket, once it is committed (asynchronously when the booking pipeline is enabled)
      * @throws InvalidEmailFormatException if the user's email format is invalid
      */
     @Operation(summary = "Purchase Ticket",
-        description = "Purchase a ticket for the specified user in the train from London to France for $20.")
+        description = "Purchase a ticket for the specified user on a train departure. Without a train and date, the ticket is for today's train from London to France for $20. "
+            + "A train with intermediate stops can be booked between any two stations of its route. "
+            + "With the waitlist enabled, a purchase on a sold-out departure is answered with 202 Accepted and the waitlist entry it has joined.")
     @PostMapping("/purchase")
-    public Ticket purchaseTicket(@RequestBody @Valid User user, BindingResult bindingResult) {
+    public CompletableFuture<Ticket> purchaseTicket(@RequestBody @Valid User user, BindingResult bindingResult,
+                                                    @RequestParam(required = false) String train,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                                    @RequestParam(required = false) String fromStation,
+                                                    @RequestParam(required = false) String toStation) {
         if (bindingResult.hasErrors())
             throw new InvalidEmailFormatException();
-        return ticketService.purchaseTicket(user);
+        return ticketService.purchaseTicketAsync(user, train, date, fromStation, toStation);
+    }
+
+    /**
+     * Purchases tickets for a group of users travelling together on the same departure.
+     * Either every user gets a ticket or, if there are not enough seats, none does.
+     *
+     * @param users       the users purchasing the tickets
+     * @param train       the number of the train (defaults to the first configured train)
+     * @param date        the date of departure (defaults to today)
+     * @param fromStation the station to board at (defaults to the origin of the train)
+     * @param toStation   the station to leave at (defaults to the destination of the train)
+     * @param together    whether the users should be seated next to each other in the same section
+     * @return the purchased tickets, in the order of the users
+     * @throws InvalidEmailFormatException if any user is null or their email format is invalid
+     */
+    @Operation(summary = "Purchase Tickets For A Group",
+        description = "Purchase tickets for several users on the same train departure in one request. Either every user gets a ticket or none does. "
+            + "With together=true, the group is seated in adjacent seats of one section where possible, otherwise as close together as possible.")
+    @PostMapping("/purchase/batch")
+    public List<Ticket> purchaseTickets(@RequestBody List<User> users,
+                                        @RequestParam(required = false) String train,
+                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                        @RequestParam(required = false) String fromStation,
+                                        @RequestParam(required = false) String toStation,
+                                        @RequestParam(defaultValue = "false") boolean together) {
+        validatePassengers(users);
+        return ticketService.purchaseTickets(users, train, date, fromStation, toStation, together);
+    }
+
+    /**
+     * Holds seats for a group of users on the same departure while they pay. The seats are released again unless
+     * the hold is confirmed before it expires.
+     *
+     * @param users       the users to hold seats for
+     * @param train       the number of the train (defaults to the first configured train)
+     * @param date        the date of departure (defaults to today)
+     * @param fromStation the station to board at (defaults to the origin of the train)
+     * @param toStation   the station to leave at (defaults to the destination of the train)
+     * @param together    whether the users should be seated next to each other in the same section
+     * @return the token of the hold, when it expires and the held seats, in the order of the users
+     * @throws InvalidEmailFormatException if any user is null or their email format is invalid
+     */
+    @Operation(summary = "Hold Seats",
+        description = "Hold seats for one or more users on a train departure while they pay. Confirm the hold with its token before it expires to get the tickets.")
+    @PostMapping("/hold")
+    public SeatHoldResponseDTO holdSeats(@RequestBody List<User> users,
+                                         @RequestParam(required = false) String train,
+                                         @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                                         @RequestParam(required = false) String fromStation,
+                                         @RequestParam(required = false) String toStation,
+                                         @RequestParam(defaultValue = "false") boolean together) {
+        validatePassengers(users);
+        SeatHold hold = ticketService.holdSeats(users, train, date, fromStation, toStation, together);
+        return new SeatHoldResponseDTO(hold.token(), hold.expiresAt(), hold.seats());
+    }
+
+    /**
+     * Confirms a hold, purchasing tickets for its held seats.
+     *
+     * @param token the token of the hold
+     * @return the purchased tickets, in the order of the users of the hold
+     */
+    @Operation(summary = "Confirm Hold", description = "Purchase the tickets for the seats of a hold that has not expired.")
+    @PostMapping("/hold/{token}/confirm")
+    public List<Ticket> confirmHold(@PathVariable String token) {
+        return ticketService.confirmHold(token);
+    }
+
+    /**
+     * Releases the seats of a hold before it expires.
+     *
+     * @param token the token of the hold
+     */
+    @Operation(summary = "Release Hold", description = "Release the seats of a hold before it expires.")
+    @DeleteMapping("/hold/{token}")
+    public void releaseHold(@PathVariable String token) {
+        ticketService.releaseHold(token);
     }
 
     /**
      * Removes a user's ticket by its PNR number.
      *
      * @param pnr the PNR number of the ticket to be removed
+     * @return a future completed once the ticket is removed
      */
     @Operation(summary = "Remove Ticket",
         description = "Remove a user's ticket by its PNR number.")
     @DeleteMapping("/remove/{pnr}")
-    public void removeUserTicket(@PathVariable Long pnr) {
-        ticketService.removeUserTicket(pnr);
+    public CompletableFuture<Void> removeUserTicket(@PathVariable Long pnr) {
+        return ticketService.removeUserTicketAsync(pnr);
     }
 
     /**
@@ -102,15 +406,78 @@ public class TicketController {
      * @param pnr           the PNR number of the ticket to be modified
      * @param seat          the new seat to be allocated to the ticket
      * @param bindingResult the result of validating the seat object
-     * @return the modified ticket
+     * @return the modified ticket, once it is committed (asynchronously when the booking pipeline is enabled)
      * @throws InvalidSeatRequestException if the seat request is invalid
      */
     @Operation(summary = "Modify Seat",
         description = "Modify the seat allocated to a user's ticket, if present and unoccupied. You may check the seatchart to identify vacant seats.")
     @PutMapping("/modify/{pnr}")
-    public Ticket modifySeat(@PathVariable Long pnr, @RequestBody @Valid Seat seat, BindingResult bindingResult) {
+    public CompletableFuture<Ticket> modifySeat(@PathVariable Long pnr, @RequestBody @Valid Seat seat, BindingResult bindingResult) {
         if (bindingResult.hasErrors())
             throw new InvalidSeatRequestException();
-        return ticketService.modifyUserTicket(pnr, seat);
+        return ticketService.modifyUserTicketAsync(pnr, seat);
+    }
+
+    /**
+     * Retrieves the status of a purchase waiting for a seat on a sold-out departure, optionally waiting for it to
+     * leave the waitlist first.
+     *
+     * @param id   the id of the waitlist entry
+     * @param wait how many seconds to wait for the passenger to get a ticket before answering (defaults to 0)
+     * @return the status of the entry, with the PNR number of its ticket once promoted
+     */
+    @Operation(summary = "Get Waitlist Status",
+        description = "Get the status of a purchase on the waitlist of a sold-out departure: its position while WAITING and the PNR number of its ticket once PROMOTED. "
+            + "With wait, the request is answered as soon as the entry leaves the waitlist or after that many seconds, whichever comes first.")
+    @GetMapping("/waitlist/{id}")
+    public CompletableFuture<WaitlistStatusDTO> getWaitlistStatus(@PathVariable String id,
+                                                                  @RequestParam(defaultValue = "0") long wait) {
+        if (wait <= 0)
+            return CompletableFuture.completedFuture(ticketService.getWaitlistStatus(id));
+        return ticketService.awaitWaitlistStatus(id, wait);
+    }
+
+    /**
+     * Takes a purchase off the waitlist of a sold-out departure.
+     *
+     * @param id the id of the waitlist entry
+     * @return the resulting status of the entry
+     */
+    @Operation(summary = "Cancel Waitlist Entry",
+        description = "Take a purchase off the waitlist of a sold-out departure. An entry that has already been PROMOTED keeps its ticket, which must be removed instead.")
+    @DeleteMapping("/waitlist/{id}")
+    public WaitlistStatusDTO cancelWaitlistEntry(@PathVariable String id) {
+        return ticketService.cancelWaitlistEntry(id);
+    }
+
+    /**
+     * Answers a purchase that has joined the waitlist of a sold-out departure with 202 Accepted, the status of its
+     * waitlist entry and the location to poll it at.
+     */
+    @ExceptionHandler(WaitlistedException.class)
+    public ResponseEntity<WaitlistStatusDTO> waitlisted(WaitlistedException e) {
+        return ResponseEntity.accepted()
+            .location(URI.create("/api/ticket/waitlist/" + e.getEntryId()))
+            .body(ticketService.getWaitlistStatus(e.getEntryId()));
+    }
+
+    /**
+     * Validates the passengers of a group request. A missing or empty list is left to the ticket service, which
+     * rejects it as a passenger count; a null element, as in a body of {@code [null]}, is rejected like an invalid user.
+     */
+    private void validatePassengers(List<User> users) {
+        for (User user : users) {
+            if (user == null || !validator.validate(user).isEmpty())
+                throw new InvalidEmailFormatException();
+        }
+    }
+
+    private ResponseEntity<byte[]> seatChartResponse(SeatChartSnapshot snapshot, byte[] seatChart) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (snapshot.eTag() != null)
+            response.eTag(snapshot.eTag());
+        return response
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(seatChart);
     }
 }
@@ -0,0 +1,37 @@
+package com.cloudbees.trainTicketBookingAPI.domain.entity;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Draws PNR numbers from the ticket sequence, but keeps the PNR of a ticket that already has one.
+ * This lets the booking journal take a PNR from the sequence when it acknowledges a purchase and insert the ticket
+ * under that PNR later.
+ */
+public class PnrGenerator extends SequenceStyleGenerator {
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) throws MappingException {
+        // The sequence and block size Hibernate used for the ticket id before PNRs could be assigned.
+        parameters.putIfAbsent(SEQUENCE_PARAM, "ticket_seq");
+        parameters.putIfAbsent(INCREMENT_PARAM, "50");
+        super.configure(type, parameters, serviceRegistry);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        if (object instanceof Ticket ticket && ticket.getPnr() != null)
+            return ticket.getPnr();
+        return super.generate(session, object);
+    }
+
+    @Override
+    public boolean allowAssignedIdentifiers() {
+        return true;
+    }
+}
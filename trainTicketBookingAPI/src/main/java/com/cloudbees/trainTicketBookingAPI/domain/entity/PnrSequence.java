@@ -0,0 +1,17 @@
+package com.cloudbees.trainTicketBookingAPI.domain.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates the PNR of a ticket from the ticket sequence with {@link PnrGenerator}, unless one has already been assigned.
+ */
+@IdGeneratorType(PnrGenerator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface PnrSequence {
+}
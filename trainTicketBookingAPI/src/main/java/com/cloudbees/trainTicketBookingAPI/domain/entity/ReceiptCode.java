@@ -0,0 +1,104 @@
+package com.cloudbees.trainTicketBookingAPI.domain.entity;
+
+/**
+ * Converts PNR numbers to and from the 13-character codes printed on receipts. The PNR is scrambled by a reversible
+ * mix of its bits before it is written in Crockford base32, so tickets sold one after the other get unrelated codes
+ * and a code cannot be guessed by counting up from another one. The scramble hides the order of PNRs, it is not a secret.
+ * Codes are read case-insensitively, with I and L read as 1 and O as 0.
+ */
+public final class ReceiptCode {
+    static final int LENGTH = 13;
+    private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final long MULTIPLIER_1 = 0xbf58476d1ce4e5b9L;
+    private static final long MULTIPLIER_2 = 0x94d049bb133111ebL;
+    private static final long INVERSE_1 = inverse(MULTIPLIER_1);
+    private static final long INVERSE_2 = inverse(MULTIPLIER_2);
+
+    private ReceiptCode() {
+    }
+
+    /**
+     * Writes the receipt code of a PNR.
+     *
+     * @param pnr the PNR number
+     * @return the 13-character receipt code
+     */
+    public static String of(long pnr) {
+        long bits = scramble(pnr);
+        char[] code = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            code[i] = DIGITS[(int) (bits & 31)];
+            bits >>>= 5;
+        }
+        return new String(code);
+    }
+
+    /**
+     * Reads the PNR of a receipt code.
+     *
+     * @param code the receipt code
+     * @return the PNR number
+     * @throws IllegalArgumentException if the code is not the receipt code of any PNR
+     */
+    public static long toPnr(String code) {
+        if (code.length() != LENGTH)
+            throw new IllegalArgumentException("A receipt code has " + LENGTH + " characters: " + code);
+        // 13 digits hold 65 bits, so the first one only carries the top four bits of the 64.
+        if (digit(code.charAt(0)) > 15)
+            throw new IllegalArgumentException("Not a receipt code: " + code);
+        long bits = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            bits = bits << 5 | digit(code.charAt(i));
+        }
+        long pnr = unscramble(bits);
+        if (pnr <= 0)
+            throw new IllegalArgumentException("Not a receipt code: " + code);
+        return pnr;
+    }
+
+    private static int digit(char c) {
+        char upper = Character.toUpperCase(c);
+        switch (upper) {
+            case 'I', 'L':
+                return 1;
+            case 'O':
+                return 0;
+            default:
+                for (int digit = 0; digit < DIGITS.length; digit++) {
+                    if (DIGITS[digit] == upper)
+                        return digit;
+                }
+                throw new IllegalArgumentException("Not a receipt code character: " + c);
+        }
+    }
+
+    /**
+     * Each step is invertible: xor with the bits shifted down by half the word, and multiplication by an odd number.
+     */
+    private static long scramble(long bits) {
+        bits ^= bits >>> 32;
+        bits *= MULTIPLIER_1;
+        bits ^= bits >>> 32;
+        bits *= MULTIPLIER_2;
+        return bits ^ bits >>> 32;
+    }
+
+    private static long unscramble(long bits) {
+        bits ^= bits >>> 32;
+        bits *= INVERSE_2;
+        bits ^= bits >>> 32;
+        bits *= INVERSE_1;
+        return bits ^ bits >>> 32;
+    }
+
+    /**
+     * Finds the inverse of an odd number modulo 2^64 by Newton's iteration, which doubles the correct low bits each round.
+     */
+    private static long inverse(long odd) {
+        long inverse = odd;
+        for (int i = 0; i < 5; i++) {
+            inverse *= 2 - odd * inverse;
+        }
+        return inverse;
+    }
+}
@@ -1,10 +1,9 @@
 package com.cloudbees.trainTicketBookingAPI.domain.entity;
 
-import com.cloudbees.trainTicketBookingAPI.service.SeatAllocationService;
 import jakarta.persistence.Embeddable;
-import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
-import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -18,10 +17,10 @@ import java.util.Objects;
 @NoArgsConstructor
 @Embeddable
 public class Seat {
-    @Pattern(regexp = "^[AB]$")
+    @NotBlank
     private String section;
+    @NotNull
     @Min(1)
-    @Max(SeatAllocationService.sectionSize)
     private Integer seatNumber;
 
     /**
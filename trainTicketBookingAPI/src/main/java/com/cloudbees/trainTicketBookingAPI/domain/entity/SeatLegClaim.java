@@ -0,0 +1,47 @@
+package com.cloudbees.trainTicketBookingAPI.domain.entity;
+
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * One leg of the route on which a ticket takes a seat of a departure, written alongside the ticket in clustered mode.
+ * The primary key admits one claim per seat and leg, so when several instances sell the same seat at once the
+ * database lets exactly one of them have it, on any overlapping stretch of the route.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Table(name = "seat_leg_claim", indexes = @Index(name = "idx_seat_leg_claim_pnr", columnList = "pnr"))
+@Entity
+public class SeatLegClaim {
+    @EmbeddedId
+    private Key key;
+    /**
+     * The PNR number of the ticket holding the seat on this leg.
+     */
+    private Long pnr;
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @Data
+    @Embeddable
+    public static class Key implements Serializable {
+        private String trainNumber;
+        private LocalDate departureDate;
+        private String section;
+        private Integer seatNumber;
+        /**
+         * The index of the leg, 0 for the leg leaving the origin of the train.
+         */
+        private Integer leg;
+    }
+}
@@ -1,22 +1,39 @@
 package com.cloudbees.trainTicketBookingAPI.domain.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.Embedded;
 import jakarta.persistence.Entity;
-import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import jakarta.persistence.Version;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
+/**
+ * A ticket of one passenger for one departure. The database holds at most one ticket per seat of a departure and
+ * boarding station, so that a seat can be sold again from a stop where it was vacated; the index of that constraint
+ * also serves the seat chart queries in seat order. The constraint only catches two tickets of a seat that board at
+ * the same station: tickets that overlap from different boarding stations, such as London to Paris and Lille to
+ * Paris, are kept apart by the seat inventory alone, or in clustered mode by the per-leg seat claims.
+ */
 @AllArgsConstructor
+@NoArgsConstructor
 @Data
-@Table
+@Table(indexes = {
+    @Index(name = "idx_ticket_departure_date", columnList = "departure_date"),
+    @Index(name = "idx_ticket_email", columnList = "email")
+}, uniqueConstraints = @UniqueConstraint(name = "uk_ticket_journey_seat", columnNames = {"train_number", "departure_date", "section", "seat_number", "from_station"}))
 @Entity
 public class Ticket {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @PnrSequence
     private Long pnr;
+    @Embedded
+    private Journey journey;
     private String fromStation;
     private String toStation;
     @Embedded
@@ -24,14 +41,18 @@ public class Ticket {
     private Double pricePaidInDollars;
     @Embedded
     private Seat seatAllocated;
+    /**
+     * Incremented by every change, so that a change based on an outdated copy of the ticket is rejected.
+     */
+    @JsonIgnore
+    @Version
+    private Long version;
 
     /**
-     * The default constructor for Ticket class.
-     * Fields fromStation, toStation and pricePaidInDollars have been initialized as they are the same for every user.
+     * The code printed on the receipt in place of the PNR, which does not give away how many tickets were sold.
      */
-    public Ticket() {
-        this.fromStation = "London";
-        this.toStation = "France";
-        this.pricePaidInDollars = 20.0;
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public String getReceiptCode() {
+        return pnr == null ? null : ReceiptCode.of(pnr);
     }
 }
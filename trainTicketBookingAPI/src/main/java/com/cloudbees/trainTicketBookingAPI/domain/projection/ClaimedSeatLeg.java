@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.domain.projection;
+
+/**
+ * A seat of a departure claimed on one leg of the route, as read from the seat claims of clustered mode.
+ *
+ * @param section    the section of the seat
+ * @param seatNumber the number of the seat within its section
+ * @param leg        the index of the leg, 0 for the leg leaving the origin of the train
+ */
+public record ClaimedSeatLeg(String section, Integer seatNumber, Integer leg) {
+}
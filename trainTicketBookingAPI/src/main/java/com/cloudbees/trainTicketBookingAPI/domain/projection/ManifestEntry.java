@@ -0,0 +1,23 @@
+package com.cloudbees.trainTicketBookingAPI.domain.projection;
+
+import java.time.LocalDate;
+
+/**
+ * Flat, read-only view of one ticket, as written to a passenger manifest.
+ *
+ * @param pnr                the PNR number of the ticket
+ * @param trainNumber        the number of the train
+ * @param departureDate      the date of departure
+ * @param fromStation        the station the passenger boards at
+ * @param toStation          the station the passenger leaves at
+ * @param firstName          the first name of the passenger
+ * @param lastName           the last name of the passenger
+ * @param email              the email of the passenger
+ * @param pricePaidInDollars the price paid for the ticket
+ * @param section            the section of the allocated seat
+ * @param seatNumber         the number of the allocated seat within its section
+ */
+public record ManifestEntry(Long pnr, String trainNumber, LocalDate departureDate, String fromStation, String toStation,
+                            String firstName, String lastName, String email, Double pricePaidInDollars,
+                            String section, Integer seatNumber) {
+}
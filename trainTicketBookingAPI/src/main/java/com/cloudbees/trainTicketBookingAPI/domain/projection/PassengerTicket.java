@@ -0,0 +1,10 @@
+package com.cloudbees.trainTicketBookingAPI.domain.projection;
+
+/**
+ * The email of a ticket's passenger and the ticket's PNR number, without loading the ticket itself.
+ *
+ * @param email the email of the passenger
+ * @param pnr   the PNR number of the ticket
+ */
+public record PassengerTicket(String email, Long pnr) {
+}
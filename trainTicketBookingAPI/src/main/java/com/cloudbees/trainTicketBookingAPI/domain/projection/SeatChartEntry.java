@@ -0,0 +1,14 @@
+package com.cloudbees.trainTicketBookingAPI.domain.projection;
+
+/**
+ * The columns of a ticket shown on a seat chart, the passenger and their seat, without loading the ticket itself.
+ *
+ * @param firstName  the first name of the passenger
+ * @param lastName   the last name of the passenger
+ * @param email      the email of the passenger
+ * @param section    the section of the allocated seat
+ * @param seatNumber the number of the allocated seat within its section
+ * @param pnr        the PNR number of the ticket, which orders the tickets of a seat sold on several stretches of its route
+ */
+public record SeatChartEntry(String firstName, String lastName, String email, String section, Integer seatNumber, Long pnr) {
+}
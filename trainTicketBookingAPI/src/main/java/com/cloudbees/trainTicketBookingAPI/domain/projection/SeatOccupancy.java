@@ -0,0 +1,16 @@
+package com.cloudbees.trainTicketBookingAPI.domain.projection;
+
+import java.time.LocalDate;
+
+/**
+ * The columns of a ticket needed to rebuild seat occupancy, without loading the ticket itself.
+ *
+ * @param trainNumber   the number of the train
+ * @param departureDate the date of departure
+ * @param section       the section of the allocated seat
+ * @param seatNumber    the number of the allocated seat within its section
+ * @param fromStation   the station the passenger boards at
+ * @param toStation     the station the passenger leaves at
+ */
+public record SeatOccupancy(String trainNumber, LocalDate departureDate, String section, Integer seatNumber, String fromStation, String toStation) {
+}
@@ -0,0 +1,22 @@
+package com.cloudbees.trainTicketBookingAPI.domain.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class SeatAvailabilityDTO {
+    private String trainNumber;
+    private LocalDate departureDate;
+    private String fromStation;
+    private String toStation;
+    private int freeSeats;
+    private List<SectionAvailabilityDTO> sections;
+}
@@ -0,0 +1,20 @@
+package com.cloudbees.trainTicketBookingAPI.domain.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class SeatChartPageDTO {
+    private List<SeatChartResponseDTO> seats;
+    /**
+     * Cursor to pass as {@code after} to fetch the next page, or null on the last page.
+     */
+    private String nextCursor;
+}
@@ -0,0 +1,20 @@
+package com.cloudbees.trainTicketBookingAPI.domain.response;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class SeatHoldResponseDTO {
+    private String token;
+    private Instant expiresAt;
+    private List<Seat> seats;
+}
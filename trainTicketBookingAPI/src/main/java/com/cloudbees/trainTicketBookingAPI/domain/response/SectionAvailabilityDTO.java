@@ -0,0 +1,22 @@
+package com.cloudbees.trainTicketBookingAPI.domain.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class SectionAvailabilityDTO {
+    private String section;
+    private int seats;
+    private int freeSeats;
+    /**
+     * First and last seat number of each run of consecutive free seats, in seat order.
+     */
+    private List<int[]> freeSeatRanges;
+}
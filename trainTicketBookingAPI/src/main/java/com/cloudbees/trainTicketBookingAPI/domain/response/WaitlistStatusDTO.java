@@ -0,0 +1,31 @@
+package com.cloudbees.trainTicketBookingAPI.domain.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class WaitlistStatusDTO {
+    private String id;
+    private String trainNumber;
+    private LocalDate departureDate;
+    /**
+     * One of WAITING, PROMOTING, PROMOTED, CANCELLED or EXPIRED.
+     */
+    private String status;
+    /**
+     * Position in the waitlist while waiting, 1 being the next passenger to get a seat. Passengers ahead who have
+     * cancelled are still counted until their turn comes, so the actual position may be better.
+     */
+    private Long position;
+    /**
+     * PNR number of the ticket, once promoted.
+     */
+    private Long pnr;
+}
@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class BookingQueueFullException extends RuntimeException {
+    public BookingQueueFullException() {
+        super("Too many bookings are waiting for this train. Please try again shortly.");
+    }
+}
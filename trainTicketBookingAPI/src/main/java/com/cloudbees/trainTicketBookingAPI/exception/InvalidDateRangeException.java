@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidDateRangeException extends RuntimeException {
+    public InvalidDateRangeException() {
+        super("The end date of the range must not be before its start date.");
+    }
+}
@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPageRequestException extends RuntimeException {
+    public InvalidPageRequestException(int maxPageSize) {
+        super("A page must hold between 1 and " + maxPageSize + " seats and continue from the cursor returned with the previous page.");
+    }
+}
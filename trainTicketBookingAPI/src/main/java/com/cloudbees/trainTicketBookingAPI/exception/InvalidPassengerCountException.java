@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPassengerCountException extends RuntimeException {
+    public InvalidPassengerCountException(int maxPassengers) {
+        super("A group booking must include between 1 and " + maxPassengers + " passengers.");
+    }
+}
@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidRouteException extends RuntimeException {
+    public InvalidRouteException() {
+        super("Requested route is invalid. Please choose a boarding station that comes before the destination on the route of this train.");
+    }
+}
@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class NoSuchHoldException extends RuntimeException {
+    public NoSuchHoldException() {
+        super("No seat hold found with the requested token. It may have expired, been released or been confirmed already.");
+    }
+}
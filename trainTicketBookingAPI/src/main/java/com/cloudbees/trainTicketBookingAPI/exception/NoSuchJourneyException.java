@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class NoSuchJourneyException extends RuntimeException {
+    public NoSuchJourneyException() {
+        super("No such departure is open for booking. Please check the train number and departure date.");
+    }
+}
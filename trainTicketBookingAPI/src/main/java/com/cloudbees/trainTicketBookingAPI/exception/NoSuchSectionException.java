@@ -6,7 +6,6 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 @ResponseStatus(HttpStatus.NOT_FOUND)
 public class NoSuchSectionException extends RuntimeException {
     public NoSuchSectionException() {
-        super("This train has only two sections: A and B.");
+        super("This train has no section by this name.");
     }
 }
-
@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class NoSuchWaitlistEntryException extends RuntimeException {
+    public NoSuchWaitlistEntryException() {
+        super("No waitlist entry found with the requested id. Its departure may have left already.");
+    }
+}
@@ -0,0 +1,11 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class TicketUpdateConflictException extends RuntimeException {
+    public TicketUpdateConflictException() {
+        super("The ticket was changed by another request at the same time. Please check its receipt and try again.");
+    }
+}
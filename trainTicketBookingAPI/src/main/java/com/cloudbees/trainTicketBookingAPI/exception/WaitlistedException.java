@@ -0,0 +1,24 @@
+package com.cloudbees.trainTicketBookingAPI.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown instead of {@link TicketsSoldOutException} when a purchase has joined the waitlist of a sold-out departure.
+ */
+@ResponseStatus(HttpStatus.ACCEPTED)
+public class WaitlistedException extends RuntimeException {
+    private final String entryId;
+
+    public WaitlistedException(String entryId) {
+        super("Sorry, the train is sold out. You have been added to its waitlist and will get a ticket as soon as a seat is freed.");
+        this.entryId = entryId;
+    }
+
+    /**
+     * @return the id of the waitlist entry of the purchase
+     */
+    public String getEntryId() {
+        return entryId;
+    }
+}
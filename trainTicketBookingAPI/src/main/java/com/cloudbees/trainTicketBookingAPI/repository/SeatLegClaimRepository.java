@@ -0,0 +1,64 @@
+package com.cloudbees.trainTicketBookingAPI.repository;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.SeatLegClaim;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ClaimedSeatLeg;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface SeatLegClaimRepository extends JpaRepository<SeatLegClaim, SeatLegClaim.Key> {
+    /**
+     * Claims a seat of a departure on one leg of the route for a ticket. The claim is a plain insert, so it fails on
+     * the primary key rather than reading first when the seat is already claimed on that leg.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @param section       the section of the seat
+     * @param seatNumber    the number of the seat within its section
+     * @param leg           the index of the leg
+     * @param pnr           the PNR number of the ticket
+     * @return 1, as the claim was inserted
+     * @throws org.springframework.dao.DataIntegrityViolationException if the seat is already claimed on that leg
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into seat_leg_claim (train_number, departure_date, section, seat_number, leg, pnr) "
+        + "values (:trainNumber, :departureDate, :section, :seatNumber, :leg, :pnr)", nativeQuery = true)
+    int claim(String trainNumber, LocalDate departureDate, String section, Integer seatNumber, int leg, Long pnr);
+
+    /**
+     * Drops every claim of a ticket.
+     *
+     * @param pnr the PNR number of the ticket
+     * @return the number of legs that were claimed
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from SeatLegClaim c where c.pnr = :pnr")
+    int releaseClaims(Long pnr);
+
+    /**
+     * Finds the claimed seats and legs of a departure, without loading the claims themselves.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @return the claimed seat legs of the departure
+     */
+    @Transactional(readOnly = true)
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.ClaimedSeatLeg(c.key.section, c.key.seatNumber, c.key.leg) "
+        + "from SeatLegClaim c where c.key.trainNumber = :trainNumber and c.key.departureDate = :departureDate")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    List<ClaimedSeatLeg> findClaimedSeatLegs(String trainNumber, LocalDate departureDate);
+}
@@ -2,14 +2,245 @@ package com.cloudbees.trainTicketBookingAPI.repository;
 
 
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ManifestEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.PassengerTicket;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface TicketRepository extends JpaRepository<Ticket, Long> {
-    List<Ticket> findAllByOrderBySeatAllocatedSectionAscSeatAllocatedSeatNumberAsc();
+    /**
+     * Finds the seat chart of a departure, ordered by section, seat number and PNR. Only the passenger, seat and PNR
+     * columns are selected, and no ticket is loaded into the persistence context.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @return the seat chart entries of the departure
+     */
+    @Transactional(readOnly = true)
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry("
+        + "t.user.firstName, t.user.lastName, t.user.email, t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate = :departureDate "
+        + "order by t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    List<SeatChartEntry> findSeatChart(String trainNumber, LocalDate departureDate);
 
-    List<Ticket> findBySeatAllocatedSectionOrderBySeatAllocatedSeatNumberAsc(String section);
-}
\ No newline at end of file
+    /**
+     * Finds the seat chart of one section of a departure, ordered by seat number and PNR.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @param section       the section
+     * @return the seat chart entries of the section
+     */
+    @Transactional(readOnly = true)
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry("
+        + "t.user.firstName, t.user.lastName, t.user.email, t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate = :departureDate "
+        + "and t.seatAllocated.section = :section "
+        + "order by t.seatAllocated.seatNumber, t.pnr")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    List<SeatChartEntry> findSeatChartBySection(String trainNumber, LocalDate departureDate, String section);
+
+    /**
+     * Streams the seat chart of a departure, optionally limited to one section, ordered by section, seat number and PNR.
+     * Must be consumed inside a transaction and closed.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @param section       the section to include, or null for every section
+     * @return a stream of seat chart entries
+     */
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry("
+        + "t.user.firstName, t.user.lastName, t.user.email, t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate = :departureDate "
+        + "and (:section is null or t.seatAllocated.section = :section) "
+        + "order by t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    Stream<SeatChartEntry> streamSeatChart(String trainNumber, LocalDate departureDate, String section);
+
+    /**
+     * Streams the seat of every ticket departing on or after a date. Must be consumed inside a transaction and closed.
+     *
+     * @param departureDate the earliest departure date to include
+     * @return a stream of seat occupancy projections
+     */
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy("
+        + "t.journey.trainNumber, t.journey.departureDate, t.seatAllocated.section, t.seatAllocated.seatNumber, t.fromStation, t.toStation) "
+        + "from Ticket t where t.journey.departureDate >= :departureDate")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<SeatOccupancy> streamSeatOccupancyDepartingFrom(LocalDate departureDate);
+
+    /**
+     * Finds the seat of every ticket of a departure, to tell which seats the database holds tickets for.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @return the seat occupancy projections of the departure
+     */
+    @Transactional(readOnly = true)
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy("
+        + "t.journey.trainNumber, t.journey.departureDate, t.seatAllocated.section, t.seatAllocated.seatNumber, t.fromStation, t.toStation) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate = :departureDate")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    List<SeatOccupancy> findSeatOccupancy(String trainNumber, LocalDate departureDate);
+
+    /**
+     * Streams the passenger email and PNR number of every ticket that has an email. Must be consumed inside a
+     * transaction and closed.
+     *
+     * @return a stream of passenger ticket projections
+     */
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.PassengerTicket(t.user.email, t.pnr) "
+        + "from Ticket t where t.user.email is not null")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<PassengerTicket> streamPassengerTickets();
+
+    /**
+     * Streams the manifest of a train over a range of departure dates, ordered by departure date and seat.
+     * Must be consumed inside a transaction and closed.
+     *
+     * @param trainNumber the number of the train
+     * @param from        the first departure date to include
+     * @param to          the last departure date to include
+     * @return a stream of manifest entries
+     */
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.ManifestEntry("
+        + "t.pnr, t.journey.trainNumber, t.journey.departureDate, t.fromStation, t.toStation, "
+        + "t.user.firstName, t.user.lastName, t.user.email, t.pricePaidInDollars, t.seatAllocated.section, t.seatAllocated.seatNumber) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate between :from and :to "
+        + "order by t.journey.departureDate, t.seatAllocated.section, t.seatAllocated.seatNumber")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ManifestEntry> streamManifest(String trainNumber, LocalDate from, LocalDate to);
+
+    /**
+     * Finds the page of a departure's seat chart that follows a ticket, ordered by section, seat number and PNR.
+     * The (section, seat number, PNR) comparison lets the database seek straight to the cursor in the seat index; the
+     * PNR tells apart the tickets of a seat sold on several stretches of the route, so none is skipped between pages.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @param section       the section of the last ticket of the previous page, or an empty string for the first page
+     * @param seatNumber    the seat number of the last ticket of the previous page, or 0 for the first page
+     * @param pnr           the PNR number of the last ticket of the previous page, or 0 for the first page
+     * @param limit         the largest number of entries to return
+     * @return the tickets that follow the cursor
+     */
+    @Transactional(readOnly = true)
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry("
+        + "t.user.firstName, t.user.lastName, t.user.email, t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate = :departureDate "
+        + "and (t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr) > (:section, :seatNumber, :pnr) "
+        + "order by t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    List<SeatChartEntry> findSeatChartPage(String trainNumber, LocalDate departureDate, String section, int seatNumber, long pnr, Limit limit);
+
+    /**
+     * Finds the page of a departure's seat chart for one section that follows a ticket, ordered by seat number and PNR.
+     *
+     * @param trainNumber   the number of the train
+     * @param departureDate the date of departure
+     * @param section       the section
+     * @param seatNumber    the seat number of the last ticket of the previous page, or 0 for the first page
+     * @param pnr           the PNR number of the last ticket of the previous page, or 0 for the first page
+     * @param limit         the largest number of entries to return
+     * @return the tickets of the section that follow the cursor
+     */
+    @Transactional(readOnly = true)
+    @Query("select new com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry("
+        + "t.user.firstName, t.user.lastName, t.user.email, t.seatAllocated.section, t.seatAllocated.seatNumber, t.pnr) "
+        + "from Ticket t where t.journey.trainNumber = :trainNumber and t.journey.departureDate = :departureDate "
+        + "and t.seatAllocated.section = :section and (t.seatAllocated.seatNumber, t.pnr) > (:seatNumber, :pnr) "
+        + "order by t.seatAllocated.seatNumber, t.pnr")
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+        @QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL")
+    })
+    List<SeatChartEntry> findSeatChartPageBySection(String trainNumber, LocalDate departureDate, String section, int seatNumber, long pnr, Limit limit);
+
+    /**
+     * Finds the PNR numbers of the tickets of a passenger, comparing emails case-insensitively. Used in clustered mode,
+     * where tickets sold by other instances are not in the passenger index; the comparison cannot use the email index.
+     *
+     * @param email the email of the passenger, in lower case
+     * @return the PNR numbers in ascending order
+     */
+    @Transactional(readOnly = true)
+    @Query("select t.pnr from Ticket t where lower(t.user.email) = :email order by t.pnr")
+    List<Long> findPnrsByEmail(String email);
+
+    /**
+     * Reads the current version of a ticket without loading it.
+     *
+     * @param pnr the PNR number of the ticket
+     * @return the version of the ticket, or empty if there is no such ticket
+     */
+    @Query("select t.version from Ticket t where t.pnr = :pnr")
+    Optional<Long> findVersion(Long pnr);
+
+    /**
+     * Moves a ticket to another seat, provided it has not changed since the given version.
+     *
+     * @param pnr        the PNR number of the ticket
+     * @param version    the version of the ticket the change is based on
+     * @param section    the section of the new seat
+     * @param seatNumber the number of the new seat within its section
+     * @return 1 if the ticket was moved, or 0 if it has been changed or removed since that version
+     */
+    @Transactional
+    @Modifying
+    @Query("update Ticket t set t.seatAllocated.section = :section, t.seatAllocated.seatNumber = :seatNumber, t.version = t.version + 1 "
+        + "where t.pnr = :pnr and t.version = :version")
+    int updateSeatIfUnchanged(Long pnr, Long version, String section, Integer seatNumber);
+
+    /**
+     * Deletes a ticket, provided it has not changed since the given version.
+     *
+     * @param pnr     the PNR number of the ticket
+     * @param version the version of the ticket the removal is based on
+     * @return 1 if the ticket was deleted, or 0 if it has been changed or removed since that version
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from Ticket t where t.pnr = :pnr and t.version = :version")
+    int deleteIfUnchanged(Long pnr, Long version);
+}
@@ -0,0 +1,42 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+/**
+ * One purchase, modification or removal, split into the steps that a single writer runs in order.
+ * A command runs either on its own or, in pipeline mode, together with the other commands of a batch whose
+ * writes share one transaction.
+ *
+ * @param <T> the type of the result of the command
+ */
+interface BookingCommand<T> {
+    /**
+     * Claims seats in the inventory. A failure here fails only this command.
+     */
+    void apply();
+
+    /**
+     * Writes the change to the database, inside the transaction of the command or of its batch.
+     * May run again, in a transaction of its own, if the batch transaction fails, so a change written outside the
+     * transaction, such as to the booking journal, must not be written twice.
+     */
+    void write();
+
+    /**
+     * Completes the command once its write has been committed.
+     *
+     * @return the result of the command
+     */
+    T commit();
+
+    /**
+     * Undoes {@link #apply()} after the write failed or was rolled back.
+     */
+    void rollback();
+
+    /**
+     * Undoes {@link #apply()} after the database rejected the write for breaking a constraint, except for the seats
+     * the database shows are held by other tickets.
+     *
+     * @return true if another ticket holds a seat claimed by {@link #apply()}, which is then why the write was rejected
+     */
+    boolean reject();
+}
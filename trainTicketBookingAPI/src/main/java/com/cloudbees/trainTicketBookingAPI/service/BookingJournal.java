@@ -0,0 +1,612 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.exception.BookingQueueFullException;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of bookings, enabled with {@code booking.journal.enabled=true}.
+ * Purchases, seat changes and removals are appended to the journal file as checksummed records, which are forced to
+ * storage before the booking is acknowledged. A scheduled flusher writes the records to the database in batches and
+ * then moves the checkpoint of the journal past them. Until its records are in the database, a ticket is looked up in
+ * the journal.
+ * <p>
+ * On start-up, before seat occupancy is recovered from the database, records beyond the checkpoint are replayed into
+ * the database, so a booking that was acknowledged survives a crash before the database caught up. Replaying is
+ * idempotent: a purchase is only inserted if its PNR is not in the database yet, and seat changes and removals are
+ * version-checked.
+ * <p>
+ * Once more than half of the file is used, the records not yet in the database are moved to its start under a new
+ * generation. The generation is part of every record's checksum, so stale records left behind are never replayed.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "booking.journal", name = "enabled", havingValue = "true")
+public class BookingJournal implements SmartLifecycle, MeterBinder {
+    private static final int MAGIC = 0x424A4E4C;
+    /**
+     * The header is kept in two slots that are written alternately, so that a torn header write leaves the other intact.
+     */
+    private static final int HEADER_SLOT_SIZE = 32;
+    static final int HEADER_SIZE = 2 * HEADER_SLOT_SIZE;
+    /**
+     * Payload length, checksum and record type.
+     */
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final byte PURCHASE = 1;
+    private static final byte SEAT_CHANGE = 2;
+    private static final byte REMOVAL = 3;
+
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private final Deque<Entry> unflushed = new ArrayDeque<>();
+    private final ConcurrentMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedRecords = new AtomicLong();
+    private TransactionTemplate transactionTemplate;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long headerSequence;
+    private int generation;
+    private int checkpoint;
+    private int position;
+    private volatile boolean running;
+    private volatile Consumer<Journey> flushListener = journey -> {
+    };
+
+    /**
+     * Assigns a PNR to a new ticket, unless it was issued one already, and appends its purchase.
+     *
+     * @param ticket the ticket, with its seat allocated
+     * @throws BookingQueueFullException if the journal is full of records not yet written to the database
+     */
+    public void appendPurchase(Ticket ticket) {
+        if (ticket.getPnr() == null)
+            ticket.setPnr(nextPnr());
+        ticket.setVersion(0L);
+        append(new Purchase(ticket), new Pending(ticket), ticket.getJourney());
+    }
+
+    /**
+     * Appends a change of the seat of a ticket, provided the ticket has not changed since it was read.
+     *
+     * @param ticket the ticket as it was read
+     * @param seat   the new seat
+     * @return true if the change was appended, or false if the ticket has been changed or removed since it was read
+     * @throws BookingQueueFullException if the journal is full of records not yet written to the database
+     */
+    public boolean appendSeatChange(Ticket ticket, Seat seat) {
+        Ticket changed = new Ticket(ticket.getPnr(), ticket.getJourney(), ticket.getFromStation(), ticket.getToStation(),
+            ticket.getUser(), ticket.getPricePaidInDollars(), seat, ticket.getVersion() + 1);
+        synchronized (lock) {
+            if (!isCurrent(ticket))
+                return false;
+            append(new SeatChange(ticket.getPnr(), ticket.getVersion(), seat), new Pending(changed), ticket.getJourney());
+            return true;
+        }
+    }
+
+    /**
+     * Appends the removal of a ticket, provided the ticket has not changed since it was read.
+     *
+     * @param ticket the ticket as it was read
+     * @return true if the removal was appended, or false if the ticket has been changed or removed since it was read
+     * @throws BookingQueueFullException if the journal is full of records not yet written to the database
+     */
+    public boolean appendRemoval(Ticket ticket) {
+        synchronized (lock) {
+            if (!isCurrent(ticket))
+                return false;
+            append(new Removal(ticket.getPnr(), ticket.getVersion()), new Pending(null), ticket.getJourney());
+            return true;
+        }
+    }
+
+    /**
+     * Looks up a ticket in the journal, or in the database if the journal holds no record of it that is not yet there.
+     *
+     * @param pnr the PNR number of the ticket
+     * @return the ticket, or null if there is no such ticket or its removal is in the journal
+     */
+    public Ticket findTicket(Long pnr) {
+        Pending state = pending.get(pnr);
+        if (state != null)
+            return state.ticket();
+        // Records leave the pending map only once they are committed, so the database is up to date for this ticket.
+        return ticketRepository.findById(pnr).orElse(null);
+    }
+
+    /**
+     * @return the number of records not yet written to the database
+     */
+    public int unflushedRecords() {
+        synchronized (lock) {
+            return unflushed.size();
+        }
+    }
+
+    /**
+     * Sets the listener told of each departure whose tickets a flush has changed in the database, once the flush has
+     * committed. Replayed seat changes and removals are written before anything reads the database, so they are not
+     * told of.
+     *
+     * @param listener the listener, called by the flushing thread
+     */
+    public void onFlushed(Consumer<Journey> listener) {
+        flushListener = listener;
+    }
+
+    /**
+     * @return the number of records the database rejected, which were set aside rather than written
+     */
+    public long rejectedRecords() {
+        return rejectedRecords.get();
+    }
+
+    /**
+     * Registers gauges of the records not yet written to the database and of the records it rejected.
+     *
+     * @param registry the registry to register the gauges with
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("booking.journal.unflushed", this, BookingJournal::unflushedRecords)
+            .description("Journal records not yet written to the database")
+            .register(registry);
+        Gauge.builder("booking.journal.rejected", this, BookingJournal::rejectedRecords)
+            .description("Journal records the database rejected, which were set aside")
+            .register(registry);
+    }
+
+    /**
+     * Writes the records not yet in the database, in batches of {@code booking.journal.flush-batch-size}, and moves the
+     * checkpoint past them. A batch that cannot be written is retried on the next run, except that a record the
+     * database rejects for breaking a constraint is logged and set aside, so that it does not hold back the others.
+     */
+    @Scheduled(fixedDelayString = "${booking.journal.flush-interval-millis:100}")
+    public void flush() {
+        if (!running)
+            return;
+        int batchSize = bookingProperties.getJournal().getFlushBatchSize();
+        try {
+            while (flushBatch(batchSize) == batchSize) {
+                // The journal may hold more records than one batch.
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not write journal records to the database, retrying later", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        BookingProperties.Journal journal = bookingProperties.getJournal();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        try {
+            Path path = Path.of(journal.getPath()).toAbsolutePath();
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = Math.max(journal.getCapacityBytes(), channel.size());
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the booking journal " + journal.getPath(), e);
+        }
+        replay();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        flush();
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close the booking journal", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs before seat occupancy is recovered from the database, so that the recovery sees the replayed bookings.
+     *
+     * @return the lifecycle phase of the journal
+     */
+    @Override
+    public int getPhase() {
+        return -1;
+    }
+
+    void replay() {
+        readHeader();
+        int replayed = 0;
+        Entry entry;
+        synchronized (lock) {
+            position = checkpoint;
+            while ((entry = readRecord(position)) != null) {
+                unflushed.addLast(entry);
+                position = entry.end();
+                replayed++;
+            }
+        }
+        int batchSize = bookingProperties.getJournal().getFlushBatchSize();
+        while (flushBatch(batchSize) > 0) {
+            // Everything replayed must be in the database before seat occupancy is recovered from it.
+        }
+        log.info("Replayed {} booking journal records", replayed);
+    }
+
+    private int flushBatch(int batchSize) {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        synchronized (flushLock) {
+            synchronized (lock) {
+                for (Entry entry : unflushed) {
+                    if (batch.size() == batchSize)
+                        break;
+                    batch.add(entry);
+                }
+            }
+            if (batch.isEmpty())
+                return 0;
+            try {
+                transactionTemplate.executeWithoutResult(status -> write(batch));
+            } catch (DataIntegrityViolationException e) {
+                log.warn("The database rejected a batch of {} journal records, writing them one by one", batch.size(), e);
+                batch.forEach(this::writeAlone);
+            }
+            synchronized (lock) {
+                for (Entry entry : batch) {
+                    unflushed.removeFirst();
+                    if (entry.state() != null)
+                        pending.remove(entry.event().pnr(), entry.state());
+                }
+                checkpoint = batch.get(batch.size() - 1).end();
+                compactIfHalfFull();
+                writeHeader();
+            }
+        }
+        batch.stream().map(Entry::journey).filter(Objects::nonNull).distinct().forEach(flushListener);
+        return batch.size();
+    }
+
+    /**
+     * Writes one record in a transaction of its own. Records are idempotent, so those of a batch written before a
+     * record fails for another reason are written again, harmlessly, when the batch is retried.
+     */
+    private void writeAlone(Entry entry) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> write(List.of(entry)));
+        } catch (DataIntegrityViolationException e) {
+            rejectedRecords.incrementAndGet();
+            log.error("The database rejected the {} journal record of PNR {}, setting it aside",
+                entry.event().getClass().getSimpleName(), entry.event().pnr(), e);
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        Set<Long> purchased = new HashSet<>();
+        for (Entry entry : batch) {
+            if (entry.event() instanceof Purchase)
+                purchased.add(entry.event().pnr());
+        }
+        Set<Long> existing = new HashSet<>();
+        ticketRepository.findAllById(purchased).forEach(ticket -> existing.add(ticket.getPnr()));
+        boolean inserted = false;
+        for (Entry entry : batch) {
+            if (entry.event() instanceof Purchase purchase) {
+                if (existing.add(purchase.pnr())) {
+                    Ticket ticket = purchase.ticket();
+                    // A copy without a version, so that it is inserted under its PNR and the journaled ticket is left alone.
+                    ticketRepository.save(new Ticket(ticket.getPnr(), ticket.getJourney(), ticket.getFromStation(),
+                        ticket.getToStation(), ticket.getUser(), ticket.getPricePaidInDollars(), ticket.getSeatAllocated(), null));
+                    inserted = true;
+                }
+                continue;
+            }
+            if (inserted) {
+                ticketRepository.flush();
+                inserted = false;
+            }
+            if (entry.event() instanceof SeatChange change)
+                ticketRepository.updateSeatIfUnchanged(change.pnr(), change.version(), change.seat().getSection(), change.seat().getSeatNumber());
+            else if (entry.event() instanceof Removal removal)
+                ticketRepository.deleteIfUnchanged(removal.pnr(), removal.version());
+        }
+    }
+
+    private boolean isCurrent(Ticket ticket) {
+        Pending state = pending.get(ticket.getPnr());
+        if (state != null)
+            return state.ticket() != null && state.ticket().getVersion().equals(ticket.getVersion());
+        return ticketRepository.findVersion(ticket.getPnr()).filter(ticket.getVersion()::equals).isPresent();
+    }
+
+    private void append(Event event, Pending state, Journey journey) {
+        byte[] payload = encode(event);
+        synchronized (lock) {
+            int start = position;
+            int end = writeRecord(start, event.type(), payload);
+            if (end < 0)
+                throw new BookingQueueFullException();
+            buffer.force(start, end - start);
+            position = end;
+            unflushed.addLast(new Entry(event, state, journey, end));
+            pending.put(event.pnr(), state);
+        }
+    }
+
+    /**
+     * Moves the records not yet in the database to the start of the file under a new generation, once more than half
+     * of the file is used and the records fit below the checkpoint. They are forced to storage before the header points
+     * at them, so a crash in between still replays the old copies.
+     */
+    private void compactIfHalfFull() {
+        int live = position - checkpoint;
+        if (position - HEADER_SIZE < buffer.capacity() / 2 || HEADER_SIZE + live > checkpoint)
+            return;
+        generation++;
+        int end = HEADER_SIZE;
+        List<Entry> moved = new ArrayList<>(unflushed.size());
+        for (Entry entry : unflushed) {
+            end = writeRecord(end, entry.event().type(), encode(entry.event()));
+            moved.add(new Entry(entry.event(), entry.state(), entry.journey(), end));
+        }
+        buffer.force(HEADER_SIZE, end - HEADER_SIZE);
+        unflushed.clear();
+        unflushed.addAll(moved);
+        checkpoint = HEADER_SIZE;
+        position = end;
+    }
+
+    private int writeRecord(int start, byte type, byte[] payload) {
+        int end = start + RECORD_HEADER_SIZE + payload.length;
+        if (end > buffer.capacity())
+            return -1;
+        buffer.putInt(start, payload.length);
+        buffer.putInt(start + 4, checksum(generation, type, payload));
+        buffer.put(start + 8, type);
+        buffer.put(start + RECORD_HEADER_SIZE, payload);
+        return end;
+    }
+
+    private Entry readRecord(int start) {
+        if (start + RECORD_HEADER_SIZE > buffer.capacity())
+            return null;
+        int length = buffer.getInt(start);
+        if (length <= 0 || length > buffer.capacity() - start - RECORD_HEADER_SIZE)
+            return null;
+        byte type = buffer.get(start + 8);
+        byte[] payload = new byte[length];
+        buffer.get(start + RECORD_HEADER_SIZE, payload);
+        if (buffer.getInt(start + 4) != checksum(generation, type, payload))
+            return null;
+        // Replayed records are written to the database before any lookup, so they need no pending state.
+        Event event = decode(type, payload);
+        Journey journey = event instanceof Purchase purchase ? purchase.ticket().getJourney() : null;
+        return new Entry(event, null, journey, start + RECORD_HEADER_SIZE + length);
+    }
+
+    private void readHeader() {
+        headerSequence = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = slot * HEADER_SLOT_SIZE;
+            long sequence = buffer.getLong(offset);
+            if (buffer.getInt(offset + 8) != MAGIC || buffer.getInt(offset + 20) != headerChecksum(offset) || sequence <= headerSequence)
+                continue;
+            headerSequence = sequence;
+            generation = buffer.getInt(offset + 12);
+            checkpoint = buffer.getInt(offset + 16);
+        }
+        if (headerSequence < 0) {
+            headerSequence = 0;
+            generation = 0;
+            checkpoint = HEADER_SIZE;
+        }
+    }
+
+    private void writeHeader() {
+        headerSequence++;
+        int offset = (int) (headerSequence % 2) * HEADER_SLOT_SIZE;
+        buffer.putLong(offset, headerSequence);
+        buffer.putInt(offset + 8, MAGIC);
+        buffer.putInt(offset + 12, generation);
+        buffer.putInt(offset + 16, checkpoint);
+        buffer.putInt(offset + 20, headerChecksum(offset));
+        buffer.force(offset, HEADER_SLOT_SIZE);
+    }
+
+    private int headerChecksum(int offset) {
+        byte[] header = new byte[20];
+        buffer.get(offset, header);
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        return (int) crc.getValue();
+    }
+
+    private static int checksum(int generation, byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(generation >>> 24);
+        crc.update(generation >>> 16);
+        crc.update(generation >>> 8);
+        crc.update(generation);
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private long nextPnr() {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        BeforeExecutionGenerator generator = (BeforeExecutionGenerator) sessionFactory.getMappingMetamodel()
+            .getEntityDescriptor(Ticket.class).getGenerator();
+        try (SharedSessionContractImplementor session = (SharedSessionContractImplementor) sessionFactory.openSession()) {
+            return (Long) generator.generate(session, null, null, EventType.INSERT);
+        }
+    }
+
+    static byte[] encode(Event event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(event.pnr());
+            if (event instanceof Purchase purchase) {
+                Ticket ticket = purchase.ticket();
+                writeString(out, ticket.getJourney().getTrainNumber());
+                out.writeLong(ticket.getJourney().getDepartureDate().toEpochDay());
+                writeString(out, ticket.getFromStation());
+                writeString(out, ticket.getToStation());
+                writeString(out, ticket.getUser().getFirstName());
+                writeString(out, ticket.getUser().getLastName());
+                writeString(out, ticket.getUser().getEmail());
+                out.writeDouble(ticket.getPricePaidInDollars());
+                writeSeat(out, ticket.getSeatAllocated());
+            } else if (event instanceof SeatChange change) {
+                out.writeLong(change.version());
+                writeSeat(out, change.seat());
+            } else if (event instanceof Removal removal) {
+                out.writeLong(removal.version());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Event decode(byte type, byte[] payload) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            long pnr = in.readLong();
+            return switch (type) {
+                case PURCHASE -> {
+                    Journey journey = new Journey(readString(in), LocalDate.ofEpochDay(in.readLong()));
+                    String fromStation = readString(in);
+                    String toStation = readString(in);
+                    User user = new User(readString(in), readString(in), readString(in));
+                    double price = in.readDouble();
+                    yield new Purchase(new Ticket(pnr, journey, fromStation, toStation, user, price, readSeat(in), 0L));
+                }
+                case SEAT_CHANGE -> new SeatChange(pnr, in.readLong(), readSeat(in));
+                case REMOVAL -> new Removal(pnr, in.readLong());
+                default -> throw new IllegalStateException("Unknown booking journal record type " + type);
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeSeat(DataOutputStream out, Seat seat) throws IOException {
+        writeString(out, seat.getSection());
+        out.writeInt(seat.getSeatNumber());
+    }
+
+    private static Seat readSeat(DataInputStream in) throws IOException {
+        return new Seat(readString(in), in.readInt());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    sealed interface Event permits Purchase, SeatChange, Removal {
+        Long pnr();
+
+        byte type();
+    }
+
+    record Purchase(Ticket ticket) implements Event {
+        @Override
+        public Long pnr() {
+            return ticket.getPnr();
+        }
+
+        @Override
+        public byte type() {
+            return PURCHASE;
+        }
+    }
+
+    record SeatChange(Long pnr, Long version, Seat seat) implements Event {
+        @Override
+        public byte type() {
+            return SEAT_CHANGE;
+        }
+    }
+
+    record Removal(Long pnr, Long version) implements Event {
+        @Override
+        public byte type() {
+            return REMOVAL;
+        }
+    }
+
+    /**
+     * The latest state of a ticket according to the journal, where a null ticket means it has been removed.
+     */
+    private record Pending(Ticket ticket) {
+    }
+
+    /**
+     * A record not yet in the database, with the departure it changes, or null if it was replayed and does not say.
+     */
+    private record Entry(Event event, Pending state, Journey journey, int end) {
+    }
+}
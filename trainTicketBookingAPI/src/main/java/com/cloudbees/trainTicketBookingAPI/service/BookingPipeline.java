@@ -0,0 +1,182 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.exception.BookingQueueFullException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single-writer booking pipeline, enabled with {@code booking.pipeline.enabled=true}.
+ * Each train has a bounded queue and one writer thread. The writer drains up to
+ * {@code booking.pipeline.max-batch-size} commands at a time, applies them to the inventory in arrival order and
+ * commits all of their writes in one transaction. If that transaction fails, each command of the batch is retried
+ * in a transaction of its own, so one bad write only fails its own command. A full queue rejects new commands at
+ * once rather than letting latency grow without bound.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "booking.pipeline", name = "enabled", havingValue = "true")
+public class BookingPipeline implements DisposableBean, MeterBinder {
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    private TransactionTemplate transactionTemplate;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Queues a command behind the commands already waiting for the same train.
+     *
+     * @param trainNumber the number of the train the command books
+     * @param command     the command
+     * @param <T>         the type of the result of the command
+     * @return a future completed with the result of the command once its write is committed
+     * @throws BookingQueueFullException if the queue of the train is full
+     */
+    <T> CompletableFuture<T> submit(String trainNumber, BookingCommand<T> command) {
+        if (stopped)
+            throw new IllegalStateException("The booking pipeline has been stopped");
+        Task<T> task = new Task<>(command, new CompletableFuture<>());
+        if (!lanes.computeIfAbsent(trainNumber, Lane::new).queue.offer(task))
+            throw new BookingQueueFullException();
+        return task.future;
+    }
+
+    /**
+     * Registers a gauge of the commands waiting in the queue of each configured train.
+     *
+     * @param registry the registry to register the gauges with
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (BookingProperties.Train train : bookingProperties.getTrains()) {
+            String trainNumber = train.getNumber().toUpperCase();
+            Gauge.builder("booking.pipeline.queued", this, pipeline -> pipeline.queued(trainNumber))
+                .description("Commands waiting for the writer of a train")
+                .tag("train", trainNumber)
+                .register(registry);
+        }
+    }
+
+    private int queued(String trainNumber) {
+        Lane lane = lanes.get(trainNumber);
+        return lane == null ? 0 : lane.queue.size();
+    }
+
+    @Override
+    public void destroy() {
+        stopped = true;
+        lanes.values().forEach(lane -> lane.writer.interrupt());
+        for (Lane lane : lanes.values()) {
+            try {
+                lane.writer.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lane.queue.forEach(task -> task.future.completeExceptionally(new CancellationException("The booking pipeline has been stopped")));
+        }
+    }
+
+    void process(List<Task<?>> batch) {
+        List<Task<?>> applied = new ArrayList<>(batch.size());
+        for (Task<?> task : batch) {
+            try {
+                task.command.apply();
+                applied.add(task);
+            } catch (RuntimeException e) {
+                task.future.completeExceptionally(e);
+            }
+        }
+        if (applied.isEmpty())
+            return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> applied.forEach(task -> task.command.write()));
+        } catch (RuntimeException e) {
+            log.warn("Group commit of {} bookings failed, committing them one by one", applied.size(), e);
+            applied.forEach(this::processAlone);
+            return;
+        }
+        applied.forEach(Task::commit);
+    }
+
+    private void processAlone(Task<?> task) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> task.command.write());
+        } catch (DataIntegrityViolationException e) {
+            task.future.completeExceptionally(task.command.reject() ? TicketService.seatAlreadyTicketed(e) : e);
+            return;
+        } catch (RuntimeException e) {
+            task.command.rollback();
+            task.future.completeExceptionally(e);
+            return;
+        }
+        task.commit();
+    }
+
+    record Task<T>(BookingCommand<T> command, CompletableFuture<T> future) {
+        void commit() {
+            try {
+                future.complete(command.commit());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class Lane {
+        private final BlockingQueue<Task<?>> queue;
+        private final Thread writer;
+
+        Lane(String trainNumber) {
+            BookingProperties.Pipeline pipeline = bookingProperties.getPipeline();
+            queue = new ArrayBlockingQueue<>(pipeline.getQueueCapacity());
+            writer = new Thread(() -> run(pipeline.getMaxBatchSize()), "booking-pipeline-" + trainNumber);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void run(int maxBatchSize) {
+            List<Task<?>> batch = new ArrayList<>(maxBatchSize);
+            while (!stopped) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch, maxBatchSize - 1);
+                try {
+                    process(batch);
+                } catch (RuntimeException e) {
+                    log.error("Booking pipeline batch failed", e);
+                    batch.forEach(task -> task.future.completeExceptionally(e));
+                }
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchWaitlistEntryException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Waitlist of sold-out departures, enabled with {@code booking.waitlist.enabled=true}.
+ * A purchase that finds its departure sold out, or other passengers already waiting for it, joins the departure's
+ * queue instead of failing, and the ticket service gives freed seats to the head of the queue. Joining, taking
+ * the head and putting it back are constant-time operations on a deque guarded by a lock per departure; cancelling
+ * and working out a position walk the deque, whose length is bounded by {@code booking.waitlist.capacity}.
+ * <p>
+ * A cancelled entry leaves its queue at once, so it neither takes up capacity nor keeps purchases waiting. Entries
+ * stay readable by id, for clients polling their status, for {@code booking.waitlist.settled-retention-seconds}
+ * after they are promoted or cancelled, and while still waiting until their departure has left.
+ */
+@Component
+@ConditionalOnProperty(name = "booking.waitlist.enabled", havingValue = "true")
+public class BookingWaitlist implements MeterBinder {
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    Clock clock;
+    private final ConcurrentMap<Journey, Queue> queues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, WaitlistEntry> entries = new ConcurrentHashMap<>();
+    /**
+     * Ids of the promoted and cancelled entries, in the order they were settled, to drop them once their retention ends.
+     */
+    private final ConcurrentLinkedQueue<Settled> settled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Adds a passenger to the end of the waitlist of a departure.
+     *
+     * @param journey the sold-out departure
+     * @param legs    the legs of the route the passenger wants a seat on
+     * @param user    the passenger
+     * @return the waitlist entry of the passenger
+     * @throws TicketsSoldOutException if the waitlist of the departure is full
+     */
+    public WaitlistEntry join(Journey journey, LegRange legs, User user) {
+        Queue queue = queues.computeIfAbsent(journey, key -> new Queue());
+        synchronized (queue) {
+            if (queue.entries.size() >= bookingProperties.getWaitlist().getCapacity())
+                throw new TicketsSoldOutException();
+            WaitlistEntry entry = new WaitlistEntry(UUID.randomUUID().toString(), journey, legs, user, ++queue.joined);
+            entries.put(entry.getId(), entry);
+            queue.entries.addLast(entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Takes the passenger at the head of the waitlist of a departure to give them a seat, skipping cancelled entries.
+     * The caller must either promote the entry or put it back.
+     *
+     * @param journey the departure
+     * @return the entry of the passenger, or null if nobody is waiting
+     */
+    public WaitlistEntry take(Journey journey) {
+        Queue queue = queues.get(journey);
+        if (queue == null)
+            return null;
+        synchronized (queue) {
+            WaitlistEntry entry;
+            while ((entry = queue.entries.pollFirst()) != null) {
+                // Skips an entry cancelled after its status was read but before it was removed.
+                if (entry.claim())
+                    return entry;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Puts a passenger taken from the head of a waitlist back at its head, after giving them a seat failed.
+     *
+     * @param entry the entry of the passenger
+     */
+    public void putBack(WaitlistEntry entry) {
+        Queue queue = queues.get(entry.getJourney());
+        if (queue == null)
+            return;
+        synchronized (queue) {
+            entry.unclaim();
+            queue.entries.addFirst(entry);
+        }
+    }
+
+    /**
+     * Records the ticket a passenger taken from the head of a waitlist was given.
+     *
+     * @param entry the entry of the passenger
+     * @param pnr   the PNR number of the ticket
+     */
+    public void promoted(WaitlistEntry entry, Long pnr) {
+        entry.promote(pnr);
+        settled.add(new Settled(entry.getId(), clock.instant()));
+    }
+
+    /**
+     * Takes a passenger off the waitlist, unless they are already being given a seat or have one.
+     *
+     * @param id the id of the entry
+     * @return the entry, in its resulting status
+     * @throws NoSuchWaitlistEntryException if there is no such entry
+     */
+    public WaitlistEntry cancel(String id) {
+        WaitlistEntry entry = find(id);
+        if (!entry.cancel())
+            return entry;
+        Queue queue = queues.get(entry.getJourney());
+        if (queue != null) {
+            synchronized (queue) {
+                queue.entries.remove(entry);
+            }
+        }
+        settled.add(new Settled(id, clock.instant()));
+        return entry;
+    }
+
+    /**
+     * @param id the id of the entry
+     * @return the entry
+     * @throws NoSuchWaitlistEntryException if there is no such entry
+     */
+    public WaitlistEntry find(String id) {
+        WaitlistEntry entry = entries.get(id);
+        if (entry == null)
+            throw new NoSuchWaitlistEntryException();
+        return entry;
+    }
+
+    /**
+     * Works out the position of a waiting passenger.
+     *
+     * @param entry the entry of the passenger
+     * @return the position, 1 being the next passenger to get a seat, or null unless the passenger is waiting
+     */
+    public Long position(WaitlistEntry entry) {
+        Queue queue = queues.get(entry.getJourney());
+        if (queue == null || entry.getStatus() != WaitlistEntry.Status.WAITING)
+            return null;
+        synchronized (queue) {
+            long position = 0;
+            for (WaitlistEntry queued : queue.entries) {
+                position++;
+                if (queued == entry)
+                    return position;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param journey the departure
+     * @return true if anyone is waiting for the departure
+     */
+    public boolean hasWaiting(Journey journey) {
+        Queue queue = queues.get(journey);
+        if (queue == null)
+            return false;
+        synchronized (queue) {
+            return !queue.entries.isEmpty();
+        }
+    }
+
+    /**
+     * @return the departures whose queue holds anyone
+     */
+    public List<Journey> journeysWithWaiting() {
+        return queues.keySet().stream().filter(this::hasWaiting).toList();
+    }
+
+    /**
+     * Drops the waitlists of departures that have already left. Passengers still waiting are told their entry expired.
+     */
+    @Scheduled(cron = "${booking.inventory-eviction-cron:0 5 0 * * *}")
+    public void evictDepartedJourneys() {
+        LocalDate today = LocalDate.now(clock);
+        queues.keySet().removeIf(journey -> journey.getDepartureDate().isBefore(today));
+        entries.values().removeIf(entry -> {
+            if (!entry.getJourney().getDepartureDate().isBefore(today))
+                return false;
+            entry.expire();
+            return true;
+        });
+    }
+
+    /**
+     * Drops the promoted and cancelled entries whose retention has ended, after which their status can no longer be read.
+     */
+    @Scheduled(fixedDelayString = "${booking.waitlist.promote-interval-millis:1000}")
+    public void evictSettledEntries() {
+        Instant cutoff = clock.instant().minusSeconds(bookingProperties.getWaitlist().getSettledRetentionSeconds());
+        Settled oldest;
+        while ((oldest = settled.peek()) != null && oldest.at().isBefore(cutoff)) {
+            settled.poll();
+            entries.remove(oldest.id());
+        }
+    }
+
+    /**
+     * Publishes the number of passengers in the queues of all departures as {@code booking.waitlist.waiting}.
+     *
+     * @param registry the registry to register the gauge with
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("booking.waitlist.waiting", queues, waitlists -> waitlists.values().stream().mapToInt(Queue::size).sum())
+            .description("Passengers waiting for a seat on a sold-out departure")
+            .register(registry);
+    }
+
+    private static class Queue {
+        private final ArrayDeque<WaitlistEntry> entries = new ArrayDeque<>();
+        /**
+         * Number of passengers who have joined, which numbers each entry.
+         */
+        private long joined;
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private record Settled(String id, Instant at) {
+    }
+}
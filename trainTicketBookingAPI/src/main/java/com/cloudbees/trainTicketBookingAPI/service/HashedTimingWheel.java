@@ -0,0 +1,83 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel that hands items back once their deadline has passed.
+ * Scheduling is O(1) and lock-free: items are queued and only placed into their bucket by the thread that advances
+ * the wheel. Each tick visits one bucket, so expiring items costs time proportional to the items due around that
+ * tick rather than to everything scheduled. Items are never cancelled; owners ignore items they no longer hold.
+ *
+ * @param <T> the type of the scheduled items
+ */
+class HashedTimingWheel<T> {
+    private final long tickMillis;
+    private final int mask;
+    private final ArrayDeque<Timeout<T>>[] buckets;
+    private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+    private long currentTick;
+
+    /**
+     * @param wheelSize   the number of buckets, a power of two
+     * @param tickMillis  the length of one tick in milliseconds
+     * @param startMillis the current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    HashedTimingWheel(int wheelSize, long tickMillis, long startMillis) {
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("The wheel size must be a power of two: " + wheelSize);
+        if (tickMillis <= 0)
+            throw new IllegalArgumentException("The tick must be positive: " + tickMillis);
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = new ArrayDeque[wheelSize];
+        for (int bucket = 0; bucket < wheelSize; bucket++)
+            buckets[bucket] = new ArrayDeque<>();
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules an item. Safe to call from any thread.
+     *
+     * @param item           the item
+     * @param deadlineMillis the time in milliseconds after which the item expires
+     */
+    void schedule(T item, long deadlineMillis) {
+        pending.add(new Timeout<>(item, Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis)));
+    }
+
+    /**
+     * Advances the wheel to the current time and hands over every item whose deadline has passed.
+     *
+     * @param nowMillis the current time in milliseconds
+     * @param expired   receives the expired items
+     */
+    synchronized void advance(long nowMillis, Consumer<T> expired) {
+        long nowTick = nowMillis / tickMillis;
+        for (Timeout<T> timeout = pending.poll(); timeout != null; timeout = pending.poll()) {
+            // Items already due go into the next bucket visited below.
+            long tick = Math.max(timeout.deadlineTick, currentTick + 1);
+            buckets[(int) (tick & mask)].add(timeout);
+        }
+        // After a stall longer than one revolution, visiting every bucket once catches up on all of them.
+        long lastTick = Math.min(nowTick, currentTick + buckets.length);
+        for (long tick = currentTick + 1; tick <= lastTick; tick++) {
+            Iterator<Timeout<T>> timeouts = buckets[(int) (tick & mask)].iterator();
+            while (timeouts.hasNext()) {
+                Timeout<T> timeout = timeouts.next();
+                if (timeout.deadlineTick <= nowTick) {
+                    timeouts.remove();
+                    expired.accept(timeout.item);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+    }
+
+    private record Timeout<T>(T item, long deadlineTick) {
+    }
+}
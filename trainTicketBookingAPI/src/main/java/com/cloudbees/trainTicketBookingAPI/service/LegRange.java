@@ -0,0 +1,15 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+/**
+ * A stretch of a train's route, as the legs between consecutive stations it covers. Leg {@code n} runs from the
+ * {@code n}-th station of the route to the next one.
+ *
+ * @param from the first leg of the stretch, which is also the index of the station the passenger boards at
+ * @param to   the leg after the last leg of the stretch, which is also the index of the station the passenger leaves at
+ */
+public record LegRange(int from, int to) {
+    public LegRange {
+        if (from < 0 || from >= to)
+            throw new IllegalArgumentException("Leg range " + from + " to " + to + " is empty.");
+    }
+}
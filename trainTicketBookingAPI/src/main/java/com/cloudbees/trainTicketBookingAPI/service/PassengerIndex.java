@@ -0,0 +1,190 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.PassengerTicket;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Secondary index of tickets by passenger email, so that the tickets of a passenger are found without a scan.
+ * Emails are compared case-insensitively. Each email maps to a sorted array of PNR numbers that is replaced as a
+ * whole on every change, so a lookup is one hash map read without locking. With one ticket per passenger, the index
+ * holds about 130 bytes per ticket for a 24-character email, most of it the email itself.
+ * <p>
+ * Rebuilt from the persisted tickets in a lifecycle phase that runs after the booking journal is replayed and
+ * before the embedded web server starts. The ticket service then keeps it up to date as tickets are purchased and
+ * removed. A seat change does not change the passenger, so it leaves the index alone.
+ */
+@Slf4j
+@Component
+public class PassengerIndex implements SmartLifecycle, MeterBinder {
+    private static final long[] NO_PNRS = new long[0];
+
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    private final ConcurrentMap<String, long[]> pnrsByEmail = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private volatile boolean rebuilt;
+
+    /**
+     * Finds the PNR numbers of the tickets of a passenger.
+     *
+     * @param email the email of the passenger, in any case
+     * @return the PNR numbers in ascending order, empty if the passenger has no tickets
+     */
+    public long[] find(String email) {
+        long[] pnrs = pnrsByEmail.get(normalize(email));
+        return pnrs == null ? NO_PNRS : pnrs.clone();
+    }
+
+    /**
+     * Indexes a purchased ticket under the email of its passenger. Tickets without an email are not indexed.
+     *
+     * @param ticket the ticket, which must have a PNR number
+     */
+    public void add(Ticket ticket) {
+        if (ticket.getUser() != null)
+            add(ticket.getUser().getEmail(), ticket.getPnr());
+    }
+
+    /**
+     * Drops a removed ticket from the index.
+     *
+     * @param ticket the ticket, which must have a PNR number
+     */
+    public void remove(Ticket ticket) {
+        if (ticket.getUser() == null || ticket.getUser().getEmail() == null)
+            return;
+        long pnr = ticket.getPnr();
+        boolean[] removed = new boolean[1];
+        pnrsByEmail.computeIfPresent(normalize(ticket.getUser().getEmail()), (email, pnrs) -> {
+            int index = Arrays.binarySearch(pnrs, pnr);
+            if (index < 0)
+                return pnrs;
+            removed[0] = true;
+            if (pnrs.length == 1)
+                return null;
+            long[] shrunk = new long[pnrs.length - 1];
+            System.arraycopy(pnrs, 0, shrunk, 0, index);
+            System.arraycopy(pnrs, index + 1, shrunk, index, pnrs.length - index - 1);
+            return shrunk;
+        });
+        if (removed[0])
+            size.decrementAndGet();
+    }
+
+    /**
+     * @return the number of indexed tickets
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * Replaces the contents of the index with the email and PNR number of every persisted ticket, read as projections.
+     */
+    public void rebuild() {
+        long start = System.nanoTime();
+        pnrsByEmail.clear();
+        size.set(0);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<PassengerTicket> tickets = ticketRepository.streamPassengerTickets()) {
+                tickets.forEach(ticket -> add(ticket.email(), ticket.pnr()));
+            }
+        });
+        rebuilt = true;
+        log.info("Indexed {} tickets of {} passengers in {} ms", size.get(), pnrsByEmail.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Publishes the number of indexed tickets and passengers as {@code booking.passenger.index.tickets} and
+     * {@code booking.passenger.index.passengers}.
+     *
+     * @param registry the registry to register the gauges with
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("booking.passenger.index.tickets", size, AtomicLong::get)
+            .description("Number of tickets in the passenger email index")
+            .register(registry);
+        Gauge.builder("booking.passenger.index.passengers", pnrsByEmail, ConcurrentMap::size)
+            .description("Number of distinct passenger emails in the passenger email index")
+            .register(registry);
+    }
+
+    @Override
+    public void start() {
+        if (!rebuilt)
+            rebuild();
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return rebuilt;
+    }
+
+    /**
+     * Runs after the booking journal has been replayed into the database and well before the web server.
+     *
+     * @return the lifecycle phase of the index
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    private void add(String email, long pnr) {
+        if (email == null)
+            return;
+        boolean[] added = new boolean[1];
+        pnrsByEmail.compute(normalize(email), (key, pnrs) -> {
+            if (pnrs == null) {
+                added[0] = true;
+                return new long[]{pnr};
+            }
+            int index = Arrays.binarySearch(pnrs, pnr);
+            if (index >= 0)
+                return pnrs;
+            added[0] = true;
+            int insertion = -index - 1;
+            long[] grown = new long[pnrs.length + 1];
+            System.arraycopy(pnrs, 0, grown, 0, insertion);
+            grown[insertion] = pnr;
+            System.arraycopy(pnrs, insertion, grown, insertion + 1, pnrs.length - insertion);
+            return grown;
+        });
+        if (added[0])
+            size.incrementAndGet();
+    }
+
+    /**
+     * Lower-cases an email. An email that is already lower case is returned as is, so the index shares the string
+     * with the ticket rather than holding a copy.
+     */
+    private static String normalize(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
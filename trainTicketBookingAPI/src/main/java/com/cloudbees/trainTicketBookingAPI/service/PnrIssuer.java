@@ -0,0 +1,61 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues PNR numbers in memory, enabled with {@code booking.pnr.time-based=true}, so that a purchase does not wait for
+ * the ticket sequence. A PNR packs, from the top, 41 bits of milliseconds since 2024-01-01, 10 bits of
+ * {@code booking.pnr.node-id} and 12 bits of a counter, so instances with distinct node ids never issue the same PNR
+ * and PNRs of one instance only ever increase.
+ * <p>
+ * Issuing is one compare-and-set on the last issued millisecond and counter. More than 4096 PNRs in one millisecond,
+ * or a clock that steps back, borrow the following milliseconds until the clock catches up. An instance restarted
+ * under a clock that has stepped back further than it was down could reissue PNRs, so node ids must not be reused
+ * across hosts whose clocks disagree.
+ */
+@Component
+@ConditionalOnProperty(name = "booking.pnr.time-based", havingValue = "true")
+public class PnrIssuer {
+    static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int COUNTER_BITS = 12;
+    static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    Clock clock;
+    private long node;
+    /**
+     * Milliseconds since the epoch of the last issued PNR, shifted above its counter.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        int nodeId = bookingProperties.getPnr().getNodeId();
+        if (nodeId < 0 || nodeId > MAX_NODE_ID)
+            throw new IllegalStateException("booking.pnr.node-id must be between 0 and " + MAX_NODE_ID + ", was " + nodeId);
+        node = (long) nodeId << COUNTER_BITS;
+    }
+
+    /**
+     * Issues the next PNR of this instance.
+     *
+     * @return a positive PNR greater than any this instance has issued before
+     */
+    public long next() {
+        long now = (clock.millis() - EPOCH_MILLIS) << COUNTER_BITS;
+        long issued = last.accumulateAndGet(now, (previous, tick) -> Math.max(previous + 1, tick));
+        return (issued >>> COUNTER_BITS) << (NODE_BITS + COUNTER_BITS) | node | (issued & COUNTER_MASK);
+    }
+}
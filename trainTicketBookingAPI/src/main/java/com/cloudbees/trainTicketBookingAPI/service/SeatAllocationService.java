@@ -1,80 +1,590 @@
 package com.cloudbees.trainTicketBookingAPI.service;
 
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ClaimedSeatLeg;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidRouteException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidSeatRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchJourneyException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchSectionException;
 import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
 import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+@Slf4j
 @Service
-public class SeatAllocationService {
-    public static final int sectionSize = 64;
-    Map<Integer, Boolean> seatOccupiedMap = new HashMap<>();
-    Queue<Seat> seatOrder = new LinkedList<>();
+public class SeatAllocationService implements MeterBinder {
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    Clock clock;
+    @Autowired(required = false)
+    SeatInventorySnapshotStore snapshotStore;
+    Map<String, TrainLayout> trainLayouts;
+    String defaultTrainNumber;
+    final ConcurrentMap<Journey, SeatInventory> inventories = new ConcurrentHashMap<>();
+    /**
+     * With snapshots enabled, the seats that tickets may hold, as opposed to {@link #inventories}, which also has the
+     * seats of holds and of purchases still being written. These are what snapshots and change logs record, so a
+     * restart never restores a seat that no ticket holds for good, and never frees one that a ticket may hold.
+     */
+    final ConcurrentMap<Journey, SeatInventory> ticketedSeats = new ConcurrentHashMap<>();
+    /**
+     * In clustered mode, the seats occupied in {@link #inventories} because the database has them claimed: by tickets
+     * of any instance, including this one once its write has succeeded, or restored at start-up. These are let go
+     * once the database no longer has them claimed. Seats held, or still being written, are not among them, so they
+     * are only released by the request that claimed them.
+     */
+    final ConcurrentMap<Journey, SeatInventory> claimedInDatabase = new ConcurrentHashMap<>();
+    /**
+     * Orders changes of {@link #ticketedSeats} with their change log records.
+     */
+    private final Object ticketedSeatsLock = new Object();
+    /**
+     * Meters, set once bound to a registry. Allocations only touch the rejection counters when they fail.
+     */
+    private Counter soldOutRejections;
+    private Counter seatOccupiedRejections;
+    private MultiGauge freeSeats;
 
     /**
-     * Initializes the seatOrder queue with seats from sections A and B.
+     * Builds the layout of every configured train and discards any existing seat inventories.
      */
     @PostConstruct
     public void init() {
-        for (int seats = 0; seats < sectionSize * 2; seats++) {
-            seatOrder.add(new Seat(seats < sectionSize ? "A" : "B", seats % sectionSize + 1));
+        Map<String, TrainLayout> layouts = new LinkedHashMap<>();
+        for (BookingProperties.Train train : bookingProperties.getTrains()) {
+            TrainLayout layout = new TrainLayout(train);
+            if (layouts.put(layout.getTrainNumber(), layout) != null)
+                throw new IllegalStateException("Train " + layout.getTrainNumber() + " is configured more than once.");
         }
+        if (layouts.isEmpty())
+            throw new IllegalStateException("At least one train must be configured.");
+        trainLayouts = layouts;
+        defaultTrainNumber = layouts.keySet().iterator().next();
+        inventories.clear();
+        ticketedSeats.clear();
+        claimedInDatabase.clear();
+    }
+
+    /**
+     * Resolves the departure a request refers to, falling back to the default train and today's date.
+     *
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @return the requested journey
+     * @throws NoSuchJourneyException if no such train is configured
+     */
+    public Journey resolveJourney(String trainNumber, LocalDate departureDate) {
+        String number = trainNumber == null ? defaultTrainNumber : trainNumber.toUpperCase();
+        if (!trainLayouts.containsKey(number))
+            throw new NoSuchJourneyException();
+        return new Journey(number, departureDate == null ? LocalDate.now(clock) : departureDate);
+    }
+
+    /**
+     * Retrieves the layout of the train running a journey.
+     *
+     * @param journey the journey
+     * @return the layout of the train
+     * @throws NoSuchJourneyException if no such train is configured
+     */
+    public TrainLayout getTrainLayout(Journey journey) {
+        TrainLayout layout = trainLayouts.get(journey.getTrainNumber());
+        if (layout == null)
+            throw new NoSuchJourneyException();
+        return layout;
     }
 
     /**
-     * Allocates the next available seat.
+     * Allocates the available seat of a journey that fits the travelled legs best. On a route with intermediate
+     * stops, this is the seat whose free legs are used up most closely, such as one vacated at the boarding station,
+     * so that seats free over long stretches stay available for longer journeys.
      *
+     * @param journey the journey to allocate the seat on
+     * @param legs    the legs of the route to allocate the seat for
      * @return the allocated seat
      * @throws TicketsSoldOutException if all tickets are sold out
+     * @throws NoSuchJourneyException  if the journey is not open for booking
      */
-    public Seat allocateNewSeat() {
-        while (!seatOrder.isEmpty() && seatOccupiedMap.getOrDefault(seatToNumber(seatOrder.peek()), false)) {
-            seatOrder.poll();
+    public Seat allocateNewSeat(Journey journey, LegRange legs) {
+        SeatInventory inventory = inventoryFor(journey);
+        int slot = inventory.claimBestFit(legs.from(), legs.to());
+        if (slot < 0) {
+            countRejection(soldOutRejections);
+            throw new TicketsSoldOutException();
         }
-        if (seatOrder.isEmpty())
+        return slotToSeat(getTrainLayout(journey), inventory, slot);
+    }
+
+    /**
+     * Allocates the next available seat of a journey for a passenger on its waitlist. Unlike
+     * {@link #allocateNewSeat(Journey, LegRange)}, a sold-out journey is not counted as a rejection, as the
+     * passenger's purchase already was.
+     *
+     * @param journey the journey to allocate the seat on
+     * @param legs    the legs of the route to allocate the seat for
+     * @return the allocated seat, or null if the journey is sold out
+     * @throws NoSuchJourneyException if the journey is not open for booking
+     */
+    public Seat allocateWaitlistedSeat(Journey journey, LegRange legs) {
+        SeatInventory inventory = inventoryFor(journey);
+        int slot = inventory.claimBestFit(legs.from(), legs.to());
+        return slot < 0 ? null : slotToSeat(getTrainLayout(journey), inventory, slot);
+    }
+
+    /**
+     * Allocates several seats of a journey at once. Either every seat is allocated or none is.
+     * A group that wants to sit together gets adjacent seats in one section if there are any, otherwise the
+     * tightest cluster of free seats in one section, and only if no section can take the whole group are its
+     * seats spread over the train.
+     *
+     * @param journey  the journey to allocate the seats on
+     * @param legs     the legs of the route to allocate the seats for
+     * @param count    the number of seats to allocate
+     * @param together whether the seats should be next to each other
+     * @return the allocated seats
+     * @throws TicketsSoldOutException if fewer seats are available than requested
+     * @throws NoSuchJourneyException  if the journey is not open for booking
+     */
+    public List<Seat> allocateNewSeats(Journey journey, LegRange legs, int count, boolean together) {
+        SeatInventory inventory = inventoryFor(journey);
+        int[] slots = new int[count];
+        if (!(together && inventory.claimBlock(slots, legs.from(), legs.to())) && !inventory.claimAny(slots, legs.from(), legs.to())) {
+            countRejection(soldOutRejections);
             throw new TicketsSoldOutException();
-        Seat nextSeat = seatOrder.poll();
-        seatOccupiedMap.put(seatToNumber(nextSeat), true);
-        return nextSeat;
+        }
+        TrainLayout layout = getTrainLayout(journey);
+        List<Seat> seats = new ArrayList<>(count);
+        for (int slot : slots) {
+            seats.add(slotToSeat(layout, inventory, slot));
+        }
+        return seats;
     }
 
     /**
-     * Allocates a requested seat if it is available.
+     * Allocates a requested seat of a journey if it is available.
      *
-     * @param seat the seat to allocate
+     * @param journey the journey to allocate the seat on
+     * @param legs    the legs of the route to allocate the seat for
+     * @param seat    the seat to allocate
      * @return the allocated seat
-     * @throws SeatOccupiedException if the seat is already occupied
+     * @throws SeatOccupiedException       if the seat is already occupied on any of the legs
+     * @throws InvalidSeatRequestException if the train has no such seat
+     * @throws NoSuchJourneyException      if the journey is not open for booking
      */
-    public Seat allocateSpecificSeat(Seat seat) {
-        if (seatOccupiedMap.getOrDefault(seatToNumber(seat), false))
+    public Seat allocateSpecificSeat(Journey journey, LegRange legs, Seat seat) {
+        SeatInventory inventory = inventoryFor(journey);
+        if (!inventory.claim(seatToSlot(getTrainLayout(journey), inventory, seat), legs.from(), legs.to())) {
+            countRejection(seatOccupiedRejections);
             throw new SeatOccupiedException();
-        seatOccupiedMap.put(seatToNumber(seat), true);
+        }
         return seat;
     }
 
     /**
-     * Manages a vacated seat by marking it as available and adding it back to the seat order queue.
+     * Lists the seats of one section of a journey free over some legs of the route as runs of consecutive seat
+     * numbers, straight from the seat inventory. Held seats and seats of purchases still being written count as occupied.
+     *
+     * @param journey the journey
+     * @param legs    the legs of the route the seats must be free on
+     * @param section the name of the section
+     * @return the first and last seat number of each run of free seats, in seat order
+     * @throws NoSuchSectionException if the train has no such section
+     * @throws NoSuchJourneyException if the journey is not open for booking
+     */
+    public List<int[]> freeSeatRanges(Journey journey, LegRange legs, String section) {
+        int index = getTrainLayout(journey).sectionIndex(section);
+        if (index < 0)
+            throw new NoSuchSectionException();
+        List<int[]> runs = inventoryFor(journey).freeRuns(index, legs.from(), legs.to());
+        for (int[] run : runs) {
+            run[0]++;
+            run[1]++;
+        }
+        return runs;
+    }
+
+    /**
+     * Records that seats allocated to tickets are about to be written, so that a restart from a snapshot keeps them
+     * occupied. Must be called before the tickets are written; does nothing unless snapshots are enabled.
+     *
+     * @param journey the journey the seats belong to
+     * @param legs    the legs of the route the tickets are for
+     * @param seats   the seats of the tickets
+     */
+    public void recordTicketedSeats(Journey journey, LegRange legs, List<Seat> seats) {
+        if (snapshotStore == null)
+            return;
+        TrainLayout layout = getTrainLayout(journey);
+        for (Seat seat : seats) {
+            recordTicketedSeat(journey, layout, seatToSlot(layout, inventoryFor(journey), seat), legs, true);
+        }
+    }
+
+    /**
+     * Manages a vacated seat by marking it as available for allocation again.
+     * Seats of departures whose inventory has already been dropped need no bookkeeping and are ignored.
+     *
+     * @param journey the journey the seat belongs to
+     * @param legs    the legs of the route the seat is vacated on
+     * @param seat    the seat vacated due to removal or modification of ticket
+     */
+    public void manageVacatedSeat(Journey journey, LegRange legs, Seat seat) {
+        SeatInventory inventory = inventories.get(journey);
+        if (inventory == null)
+            return;
+        TrainLayout layout = getTrainLayout(journey);
+        int slot = seatToSlot(layout, inventory, seat);
+        // Logged before the seat can be claimed again, so the change log has the changes of one seat in order.
+        if (snapshotStore != null)
+            recordTicketedSeat(journey, layout, slot, legs, false);
+        SeatInventory claimed = claimedInDatabase.get(journey);
+        if (claimed != null)
+            claimed.release(slot, legs.from(), legs.to());
+        inventory.release(slot, legs.from(), legs.to());
+    }
+
+    /**
+     * Marks a seat that is already held by a persisted ticket as occupied, creating the departure's inventory if needed.
+     * Unlike allocation, this ignores the booking horizon so that tickets sold before a configuration change are still honoured.
      *
-     * @param seat the seat vacated due to removal or modification of ticket
+     * @param journey     the journey the seat belongs to
+     * @param fromStation the station the ticket's passenger boards at
+     * @param toStation   the station the ticket's passenger leaves at
+     * @param seat        the seat held by the ticket
+     * @return true if the seat was marked occupied, false if the train has no such seat or route, or the seat was
+     * already occupied on part of the route
      */
-    public void manageVacatedSeat(Seat seat) {
-        seatOccupiedMap.put(seatToNumber(seat), false);
-        seatOrder.add(seat);
+    public boolean restoreOccupiedSeat(Journey journey, String fromStation, String toStation, Seat seat) {
+        TrainLayout layout = trainLayouts.get(journey.getTrainNumber());
+        if (layout == null)
+            return false;
+        SeatInventory inventory = inventories.computeIfAbsent(journey, key -> layout.newInventory());
+        int slot;
+        LegRange legs;
+        try {
+            slot = seatToSlot(layout, inventory, seat);
+            legs = layout.legRange(fromStation, toStation);
+        } catch (InvalidSeatRequestException | InvalidRouteException e) {
+            return false;
+        }
+        if (snapshotStore != null)
+            ticketedSeats.computeIfAbsent(journey, key -> layout.newInventory()).claim(slot, legs.from(), legs.to());
+        if (!inventory.claim(slot, legs.from(), legs.to()))
+            return false;
+        if (bookingProperties.getCluster().isEnabled())
+            claimedInDatabase.computeIfAbsent(journey, key -> layout.newInventory()).claim(slot, legs.from(), legs.to());
+        return true;
     }
 
     /**
-     * Converts a seat object to a unique seat number based on section and seatNumber.
+     * Records that the database has seats claimed, either by the tickets just written for them or by other tickets
+     * that made the database reject the claims, so that the seats, occupied in the inventory, are let go by
+     * {@link #syncClaimedSeats} once the database has them free again.
      *
-     * @param seat the seat to convert
+     * @param journey the journey the seats belong to
+     * @param legs    the legs of the route the seats are claimed on
+     * @param seats   the seats
+     */
+    public void markClaimedInDatabase(Journey journey, LegRange legs, List<Seat> seats) {
+        if (!inventories.containsKey(journey))
+            return;
+        TrainLayout layout = getTrainLayout(journey);
+        SeatInventory claimed = claimedInDatabase.computeIfAbsent(journey, key -> layout.newInventory());
+        for (Seat seat : seats) {
+            int slot = seatToSlot(layout, claimed, seat);
+            for (int leg = legs.from(); leg < legs.to(); leg++) {
+                claimed.claimBit(claimed.bitOf(slot, leg));
+            }
+        }
+    }
+
+    /**
+     * Brings the seat inventory of a journey in line with the seat legs claimed in the database in clustered mode.
+     * Seat legs claimed there but free here are occupied, and seat legs occupied here because they were claimed there,
+     * and no longer are, are freed. Seats this instance holds or is still writing are left alone, so the inventory
+     * only errs towards offering a seat that the database then refuses, until the next sync.
+     *
+     * @param journey the journey
+     * @param claims  the seat legs of the journey claimed in the database
+     * @return true if the inventory changed
+     */
+    public boolean syncClaimedSeats(Journey journey, List<ClaimedSeatLeg> claims) {
+        SeatInventory inventory = inventories.get(journey);
+        if (inventory == null)
+            return false;
+        TrainLayout layout = getTrainLayout(journey);
+        SeatInventory database = layout.newInventory();
+        for (ClaimedSeatLeg claim : claims) {
+            try {
+                int slot = seatToSlot(layout, database, new Seat(claim.section(), claim.seatNumber()));
+                database.claimBit(database.bitOf(slot, claim.leg()));
+            } catch (InvalidSeatRequestException | IndexOutOfBoundsException e) {
+                log.warn("Ignoring claim of seat {}{} on leg {} of {}, which the train does not have", claim.section(), claim.seatNumber(), claim.leg(), journey);
+            }
+        }
+        SeatInventory known = claimedInDatabase.computeIfAbsent(journey, key -> layout.newInventory());
+        long[] databaseWords = database.copyWords();
+        long[] knownWords = known.copyWords();
+        boolean changed = false;
+        for (int word = 0; word < databaseWords.length; word++) {
+            for (long learned = databaseWords[word] & ~knownWords[word]; learned != 0; learned &= learned - 1) {
+                int bit = word * Long.SIZE + Long.numberOfTrailingZeros(learned);
+                if (inventory.claimBit(bit)) {
+                    known.claimBit(bit);
+                    changed = true;
+                }
+            }
+            for (long freed = knownWords[word] & ~databaseWords[word]; freed != 0; freed &= freed - 1) {
+                int bit = word * Long.SIZE + Long.numberOfTrailingZeros(freed);
+                if (known.releaseBit(bit)) {
+                    inventory.releaseBit(bit);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the journeys that currently have a seat inventory
+     */
+    public List<Journey> openJourneys() {
+        return List.copyOf(inventories.keySet());
+    }
+
+    /**
+     * Snapshots the seats held by tickets of every upcoming departure. The snapshot reads the bitmaps word by word
+     * while allocation carries on; changes it may miss are in the change log started just before it.
+     * Does nothing unless snapshots are enabled.
+     */
+    @Scheduled(fixedDelayString = "${booking.inventory-snapshot.interval-millis:60000}", initialDelayString = "${booking.inventory-snapshot.interval-millis:60000}")
+    public void snapshotInventories() {
+        if (snapshotStore == null)
+            return;
+        long sequence;
+        synchronized (ticketedSeatsLock) {
+            sequence = snapshotStore.startSnapshot();
+        }
+        LocalDate today = LocalDate.now(clock);
+        List<SeatInventoryImage> images = new ArrayList<>();
+        for (Map.Entry<Journey, SeatInventory> entry : ticketedSeats.entrySet()) {
+            TrainLayout layout = trainLayouts.get(entry.getKey().getTrainNumber());
+            if (layout != null && !entry.getKey().getDepartureDate().isBefore(today))
+                images.add(new SeatInventoryImage(entry.getKey(), layout.getSections(), layout.getSectionSizes(), entry.getValue().copyWords()));
+        }
+        snapshotStore.writeSnapshot(sequence, images);
+    }
+
+    /**
+     * Restores the seats held by tickets from the newest snapshot and the changes logged after it.
+     * Nothing is restored if snapshots are disabled, there is no snapshot, or the layout or route of a train has changed since.
+     *
+     * @return the number of occupied seats restored, or -1 if nothing was restored
+     */
+    public long restoreSnapshot() {
+        if (snapshotStore == null)
+            return -1;
+        Optional<SeatInventorySnapshotStore.Snapshot> snapshot = snapshotStore.readLatestSnapshot();
+        if (snapshot.isEmpty())
+            return -1;
+        LocalDate today = LocalDate.now(clock);
+        Map<Journey, SeatInventory> restored = new HashMap<>();
+        for (SeatInventoryImage image : snapshot.get().images()) {
+            TrainLayout layout = trainLayouts.get(image.journey().getTrainNumber());
+            if (layout == null || !layout.getSections().equals(image.sections()) || !Arrays.equals(layout.getSectionSizes(), image.sectionSizes()))
+                return -1;
+            if (image.journey().getDepartureDate().isBefore(today))
+                continue;
+            SeatInventory inventory = layout.newInventory();
+            try {
+                inventory.loadWords(image.words());
+            } catch (IllegalArgumentException e) {
+                // The train calls at a different number of stations than when the snapshot was taken.
+                return -1;
+            }
+            restored.put(image.journey(), inventory);
+        }
+        for (SeatInventorySnapshotStore.Change change : snapshotStore.readChangesSince(snapshot.get().sequence())) {
+            TrainLayout layout = trainLayouts.get(change.journey().getTrainNumber());
+            if (layout == null)
+                return -1;
+            if (change.journey().getDepartureDate().isBefore(today))
+                continue;
+            SeatInventory inventory = restored.computeIfAbsent(change.journey(), key -> layout.newInventory());
+            if (change.occupied())
+                inventory.claimBit(change.bit());
+            else
+                inventory.releaseBit(change.bit());
+        }
+        long occupied = 0;
+        for (Map.Entry<Journey, SeatInventory> entry : restored.entrySet()) {
+            SeatInventory inventory = entry.getValue();
+            SeatInventory ticketed = trainLayouts.get(entry.getKey().getTrainNumber()).newInventory();
+            ticketed.loadWords(inventory.copyWords());
+            inventories.put(entry.getKey(), inventory);
+            ticketedSeats.put(entry.getKey(), ticketed);
+            occupied += inventory.capacity() - inventory.freeCount();
+        }
+        return occupied;
+    }
+
+    /**
+     * Converts a seat object to a seat number that is unique within its train, based on section and seatNumber.
+     *
+     * @param journey the journey the seat belongs to
+     * @param seat    the seat to convert
      * @return the unique seat number
+     * @throws InvalidSeatRequestException if the train has no such seat
+     */
+    public int seatToNumber(Journey journey, Seat seat) {
+        return seatToSlot(getTrainLayout(journey), inventoryFor(journey), seat) + 1;
+    }
+
+    /**
+     * Converts a unique seat number back to the seat it represents.
+     *
+     * @param journey the journey the seat belongs to
+     * @param number  the unique seat number, as produced by {@link #seatToNumber(Journey, Seat)}
+     * @return the seat with the corresponding section and seatNumber
+     */
+    public Seat numberToSeat(Journey journey, int number) {
+        return slotToSeat(getTrainLayout(journey), inventoryFor(journey), number - 1);
+    }
+
+    /**
+     * Drops the seat inventories of departures that have already left, so that only upcoming departures stay in memory.
      */
-    public int seatToNumber(Seat seat) {
-        return (seat.getSection().equals("A") ? 0 : sectionSize) + seat.getSeatNumber();
+    @Scheduled(cron = "${booking.inventory-eviction-cron:0 5 0 * * *}")
+    public void evictDepartedJourneys() {
+        LocalDate today = LocalDate.now(clock);
+        inventories.keySet().removeIf(journey -> journey.getDepartureDate().isBefore(today));
+        ticketedSeats.keySet().removeIf(journey -> journey.getDepartureDate().isBefore(today));
+        claimedInDatabase.keySet().removeIf(journey -> journey.getDepartureDate().isBefore(today));
+    }
+
+    /**
+     * Registers the counters of allocations rejected because the train is sold out or the requested seat is taken,
+     * and a gauge of the free seats in each section of every departure with a seat inventory.
+     *
+     * @param registry the registry to register the meters with
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        soldOutRejections = Counter.builder("booking.rejections")
+            .description("Seat allocations rejected")
+            .tag("reason", "sold_out")
+            .register(registry);
+        seatOccupiedRejections = Counter.builder("booking.rejections")
+            .description("Seat allocations rejected")
+            .tag("reason", "seat_occupied")
+            .register(registry);
+        freeSeats = MultiGauge.builder("booking.seats.free")
+            .description("Free seats in a section of a departure")
+            .register(registry);
+        publishFreeSeats();
+    }
+
+    /**
+     * Updates the free seat gauges to the departures that currently have a seat inventory. The gauges read the
+     * inventories when they are scraped; this only adds the departures opened and drops those evicted since the last run.
+     */
+    @Scheduled(fixedDelayString = "${booking.free-seat-gauge-interval-millis:10000}")
+    public void publishFreeSeats() {
+        if (freeSeats == null)
+            return;
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        for (Journey journey : inventories.keySet()) {
+            TrainLayout layout = trainLayouts.get(journey.getTrainNumber());
+            for (int section = 0; section < layout.getSections().size(); section++) {
+                int index = section;
+                Tags tags = Tags.of("train", journey.getTrainNumber(), "date", journey.getDepartureDate().toString(), "section", layout.getSections().get(section));
+                rows.add(MultiGauge.Row.of(tags, () -> {
+                    SeatInventory inventory = inventories.get(journey);
+                    return inventory == null ? Double.NaN : inventory.freeCount(index);
+                }));
+            }
+        }
+        freeSeats.register(rows, true);
+    }
+
+    /**
+     * Tells whether a journey departs within the booking window, from today to {@code booking.booking-horizon-days}
+     * ahead, so that it has a seat inventory.
+     *
+     * @param journey the journey
+     * @return true if the departure is open for booking
+     */
+    public boolean isOpenForBooking(Journey journey) {
+        LocalDate today = LocalDate.now(clock);
+        LocalDate departureDate = journey.getDepartureDate();
+        return departureDate != null && !departureDate.isBefore(today) && !departureDate.isAfter(today.plusDays(bookingProperties.getBookingHorizonDays()));
+    }
+
+    /**
+     * Retrieves the seat inventory of a journey, creating it on first use.
+     *
+     * @param journey the journey
+     * @return the seat inventory of the journey
+     * @throws NoSuchJourneyException if the train is unknown or the departure date is outside the booking window
+     */
+    SeatInventory inventoryFor(Journey journey) {
+        SeatInventory inventory = inventories.get(journey);
+        if (inventory != null)
+            return inventory;
+        TrainLayout layout = getTrainLayout(journey);
+        if (!isOpenForBooking(journey))
+            throw new NoSuchJourneyException();
+        return inventories.computeIfAbsent(new Journey(journey.getTrainNumber(), journey.getDepartureDate()), key -> layout.newInventory());
+    }
+
+    private static void countRejection(Counter rejections) {
+        if (rejections != null)
+            rejections.increment();
+    }
+
+    private void recordTicketedSeat(Journey journey, TrainLayout layout, int slot, LegRange legs, boolean occupied) {
+        synchronized (ticketedSeatsLock) {
+            SeatInventory ticketed = ticketedSeats.computeIfAbsent(journey, key -> layout.newInventory());
+            for (int leg = legs.from(); leg < legs.to(); leg++) {
+                int bit = ticketed.bitOf(slot, leg);
+                if (occupied ? ticketed.claimBit(bit) : ticketed.releaseBit(bit))
+                    snapshotStore.appendChange(journey, bit, occupied);
+            }
+        }
+    }
+
+    private int seatToSlot(TrainLayout layout, SeatInventory inventory, Seat seat) {
+        int section = layout.sectionIndex(seat.getSection());
+        if (section < 0 || seat.getSeatNumber() == null || seat.getSeatNumber() < 1 || seat.getSeatNumber() > layout.getSectionSizes()[section])
+            throw new InvalidSeatRequestException();
+        return inventory.slotOf(section, seat.getSeatNumber() - 1);
+    }
+
+    private Seat slotToSeat(TrainLayout layout, SeatInventory inventory, int slot) {
+        return new Seat(layout.getSections().get(inventory.sectionOf(slot)), inventory.offsetOf(slot) + 1);
     }
 }
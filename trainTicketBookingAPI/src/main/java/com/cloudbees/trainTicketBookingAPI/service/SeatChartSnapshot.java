@@ -0,0 +1,15 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import java.util.Map;
+
+/**
+ * Immutable, already-serialized seat chart of one departure, for the whole train and for each section.
+ * The bytes are shared between requests and must not be modified.
+ *
+ * @param version   the seat chart version of the departure this snapshot was built from, or -1 if it is not cached
+ * @param eTag      the entity tag identifying this version, or null if the snapshot is not cached
+ * @param seatChart the JSON seat chart of the whole train
+ * @param sections  the JSON seat chart of each section, by section name
+ */
+public record SeatChartSnapshot(long version, String eTag, byte[] seatChart, Map<String, byte[]> sections) {
+}
@@ -0,0 +1,21 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Seats claimed in the inventory for a group of users until they are confirmed as tickets or the hold expires.
+ *
+ * @param token     the token identifying the hold
+ * @param journey   the journey the seats are held on
+ * @param legs      the legs of the route the seats are held for
+ * @param users     the users the seats are held for
+ * @param seats     the held seats, in the order of the users
+ * @param expiresAt when the seats are released unless the hold has been confirmed
+ */
+public record SeatHold(String token, Journey journey, LegRange legs, List<User> users, List<Seat> seats, Instant expiresAt) {
+}
@@ -0,0 +1,115 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchHoldException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchJourneyException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@Service
+public class SeatHoldService {
+    private static final int WHEEL_SIZE = 512;
+
+    @Autowired
+    SeatAllocationService seatAllocationService;
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    Clock clock;
+    private final ConcurrentMap<String, SeatHold> holds = new ConcurrentHashMap<>();
+    private HashedTimingWheel<SeatHold> expiries;
+
+    @PostConstruct
+    public void init() {
+        expiries = new HashedTimingWheel<>(WHEEL_SIZE, bookingProperties.getHoldTickMillis(), clock.millis());
+    }
+
+    /**
+     * Claims seats for a group of users until the hold is confirmed, released or expires.
+     *
+     * @param journey  the journey to hold the seats on
+     * @param legs     the legs of the route to hold the seats for
+     * @param users    the users to hold the seats for
+     * @param together whether the users should be seated next to each other
+     * @return the hold
+     * @throws TicketsSoldOutException if there are not enough seats for the whole group
+     * @throws NoSuchJourneyException  if the journey is not open for booking
+     */
+    public SeatHold hold(Journey journey, LegRange legs, List<User> users, boolean together) {
+        List<Seat> seats = seatAllocationService.allocateNewSeats(journey, legs, users.size(), together);
+        Instant expiresAt = clock.instant().plusSeconds(bookingProperties.getHoldTtlSeconds());
+        SeatHold hold = new SeatHold(UUID.randomUUID().toString(), journey, legs, List.copyOf(users), List.copyOf(seats), expiresAt);
+        holds.put(hold.token(), hold);
+        expiries.schedule(hold, expiresAt.toEpochMilli());
+        return hold;
+    }
+
+    /**
+     * Takes over a hold to confirm it. From then on the caller owns the held seats and must release them if
+     * the confirmation fails.
+     *
+     * @param token the token of the hold
+     * @return the hold
+     * @throws NoSuchHoldException if there is no such hold or it has expired
+     */
+    public SeatHold take(String token) {
+        SeatHold hold = holds.remove(token);
+        if (hold == null)
+            throw new NoSuchHoldException();
+        if (!clock.instant().isBefore(hold.expiresAt())) {
+            releaseSeats(hold);
+            throw new NoSuchHoldException();
+        }
+        return hold;
+    }
+
+    /**
+     * Releases the seats of a hold before it expires.
+     *
+     * @param token the token of the hold
+     * @throws NoSuchHoldException if there is no such hold
+     */
+    public void release(String token) {
+        SeatHold hold = holds.remove(token);
+        if (hold == null)
+            throw new NoSuchHoldException();
+        releaseSeats(hold);
+    }
+
+    /**
+     * Releases the seats of the holds that have expired. Only the bucket of the timing wheel for each elapsed tick
+     * is visited, not every outstanding hold.
+     */
+    @Scheduled(fixedRateString = "${booking.hold-tick-millis:1000}")
+    public void expireHolds() {
+        expiries.advance(clock.millis(), hold -> {
+            // A hold that was confirmed or released has already left the map; its seats are not ours to free.
+            if (holds.remove(hold.token(), hold))
+                releaseSeats(hold);
+        });
+    }
+
+    /**
+     * @return the number of holds that are neither confirmed, released nor expired yet
+     */
+    public int outstandingHolds() {
+        return holds.size();
+    }
+
+    private void releaseSeats(SeatHold hold) {
+        hold.seats().forEach(seat -> seatAllocationService.manageVacatedSeat(hold.journey(), hold.legs(), seat));
+    }
+}
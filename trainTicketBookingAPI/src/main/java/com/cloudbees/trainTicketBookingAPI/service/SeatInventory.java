@@ -0,0 +1,692 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free occupancy bitmap for the seats of one train departure.
+ * Every seat is one bit in a packed array of 64-bit words (1 = occupied), and all updates are compare-and-set
+ * operations on a single word, so claims and releases never block and never allocate.
+ * Each section starts on a word boundary; the unused bits at the end of a section's last word are kept
+ * permanently set, so a full word always reads as -1 and a word never holds seats of two sections.
+ * <p>
+ * A train with intermediate stops has one such bitmap per leg of its route, one after the other, so that a seat
+ * given up at a stop can be sold again for the rest of the route. A seat is free over a stretch of the route if its
+ * bit is clear on every leg of the stretch, which is read for 64 seats at once by or-ing the words of those legs.
+ * A claim over several legs sets the seat's bit leg by leg in route order, and clears the legs it already set if one
+ * turns out to be taken, so of two overlapping claims the one that reaches their first common leg first wins.
+ * Methods that take no legs cover the whole route.
+ */
+public class SeatInventory {
+    private static final int WORD_BITS = Long.SIZE;
+    private static final int MAX_BLOCK_ATTEMPTS = 8;
+
+    private final int[] sectionSizes;
+    private final int[] sectionStarts;
+    private final int capacity;
+    private final int legCount;
+    private final int wordsPerLeg;
+    private final AtomicLongArray words;
+    /**
+     * The lowest word that may still contain a seat free over the whole route.
+     */
+    private final AtomicInteger firstFreeWordHint = new AtomicInteger();
+
+    /**
+     * Creates an inventory with every seat free, for a train without intermediate stops.
+     *
+     * @param sectionSizes the number of seats in each section, in section order
+     */
+    public SeatInventory(int... sectionSizes) {
+        this(sectionSizes, 1);
+    }
+
+    /**
+     * Creates an inventory with every seat free on every leg of the route.
+     *
+     * @param sectionSizes the number of seats in each section, in section order
+     * @param legCount     the number of legs of the route, one more than the number of intermediate stops
+     */
+    public SeatInventory(int[] sectionSizes, int legCount) {
+        if (sectionSizes.length == 0)
+            throw new IllegalArgumentException("Seat inventory needs at least one section.");
+        if (legCount < 1)
+            throw new IllegalArgumentException("Seat inventory needs at least one leg.");
+        this.sectionSizes = sectionSizes.clone();
+        this.sectionStarts = new int[sectionSizes.length];
+        int wordCount = 0;
+        int seats = 0;
+        for (int section = 0; section < sectionSizes.length; section++) {
+            if (sectionSizes[section] <= 0)
+                throw new IllegalArgumentException("Every section must have at least one seat.");
+            sectionStarts[section] = wordCount * WORD_BITS;
+            wordCount += (sectionSizes[section] + WORD_BITS - 1) / WORD_BITS;
+            seats += sectionSizes[section];
+        }
+        this.capacity = seats;
+        this.legCount = legCount;
+        this.wordsPerLeg = wordCount;
+        this.words = new AtomicLongArray(wordCount * legCount);
+        for (int leg = 0; leg < legCount; leg++) {
+            for (int section = 0; section < sectionSizes.length; section++) {
+                int end = sectionStarts[section] + sectionSizes[section];
+                if (end % WORD_BITS != 0)
+                    words.set(leg * wordsPerLeg + end / WORD_BITS, -1L << end);
+            }
+        }
+    }
+
+    /**
+     * Claims the lowest seat free over the whole route, starting from the first word that may still contain one.
+     *
+     * @return the slot of the claimed seat, or -1 if every seat is occupied on some leg
+     */
+    public int claimAny() {
+        int startWord = firstFreeWordHint.get();
+        int slot = claimFrom(startWord);
+        // The hint is only advisory: a release racing with a hint advance can leave a free seat below it.
+        if (slot < 0 && startWord > 0)
+            slot = claimFrom(0);
+        return slot;
+    }
+
+    /**
+     * Claims the free seat that fits a stretch of the route best, which is the one leaving the fewest free legs
+     * next to the stretch, so that the legs left free stay in long unbroken stretches that later passengers can use.
+     * Among equally good seats the lowest is taken, and over the whole route this is {@link #claimAny()}.
+     * <p>
+     * Seats are rated a word at a time: a seat leaves at most {@code gap} free legs if, for some split of
+     * {@code gap} into {@code i} legs before the stretch and {@code j} after it, the seat is occupied or the route
+     * ends within {@code i + 1} legs before the stretch and within {@code j + 1} legs after it.
+     *
+     * @param fromLeg the first leg of the stretch
+     * @param toLeg   the leg after the last leg of the stretch
+     * @return the slot of the claimed seat, or -1 if no seat is free over the stretch
+     */
+    public int claimBestFit(int fromLeg, int toLeg) {
+        checkLegs(fromLeg, toLeg);
+        if (fromLeg == 0 && toLeg == legCount)
+            return claimAny();
+        int maxGap = fromLeg + legCount - toLeg;
+        for (int gap = 0; gap <= maxGap; gap++) {
+            for (int wordIndex = 0; wordIndex < wordsPerLeg; wordIndex++) {
+                long fitting;
+                while ((fitting = fitting(wordIndex, fromLeg, toLeg, gap)) != 0) {
+                    long bit = Long.lowestOneBit(fitting);
+                    if (claimLegs(wordIndex, bit, fromLeg, toLeg))
+                        return wordIndex * WORD_BITS + Long.numberOfTrailingZeros(bit);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Claims several seats over the whole route in a single pass over the inventory.
+     *
+     * @param slots an array to receive the slots of the claimed seats; its length is the number of seats to claim
+     * @return true if all seats were claimed, false if there were not enough free seats and nothing was claimed
+     * @see #claimAny(int[], int, int)
+     */
+    public boolean claimAny(int[] slots) {
+        return claimAny(slots, 0, legCount);
+    }
+
+    /**
+     * Claims several seats in a single pass over the inventory, taking the lowest free seats of each word at once.
+     * The claim is all-or-nothing: if fewer seats are free than requested, every seat claimed so far is released again.
+     *
+     * @param slots   an array to receive the slots of the claimed seats; its length is the number of seats to claim
+     * @param fromLeg the first leg to claim the seats on
+     * @param toLeg   the leg after the last leg to claim the seats on
+     * @return true if all seats were claimed, false if there were not enough free seats and nothing was claimed
+     */
+    public boolean claimAny(int[] slots, int fromLeg, int toLeg) {
+        checkLegs(fromLeg, toLeg);
+        int startWord = fromLeg == 0 && toLeg == legCount ? firstFreeWordHint.get() : 0;
+        int claimed = claimFrom(startWord, wordsPerLeg, slots, 0, fromLeg, toLeg);
+        if (claimed < slots.length && startWord > 0)
+            claimed = claimFrom(0, Math.min(startWord, wordsPerLeg), slots, claimed, fromLeg, toLeg);
+        if (claimed < slots.length) {
+            for (int index = 0; index < claimed; index++) {
+                release(slots[index], fromLeg, toLeg);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Claims seats over the whole route for a group that should sit together.
+     *
+     * @param slots an array to receive the slots of the claimed seats, in seat order; its length is the group size
+     * @return true if the seats were claimed, false if no section has enough free seats for the whole group
+     * @see #claimBlock(int[], int, int)
+     */
+    public boolean claimBlock(int[] slots) {
+        return claimBlock(slots, 0, legCount);
+    }
+
+    /**
+     * Claims seats for a group that should sit together, all within one section.
+     * Looks first for a run of adjacent free seats using word-level bit operations; if no section has such a run,
+     * it takes the tightest cluster of free seats, i.e. the one spanning the fewest seats within a section.
+     *
+     * @param slots   an array to receive the slots of the claimed seats, in seat order; its length is the group size
+     * @param fromLeg the first leg to claim the seats on
+     * @param toLeg   the leg after the last leg to claim the seats on
+     * @return true if the seats were claimed, false if no section has enough free seats for the whole group
+     */
+    public boolean claimBlock(int[] slots, int fromLeg, int toLeg) {
+        checkLegs(fromLeg, toLeg);
+        for (int attempt = 0; attempt < MAX_BLOCK_ATTEMPTS; attempt++) {
+            int start = findFreeRun(slots.length, fromLeg, toLeg);
+            if (start >= 0) {
+                for (int index = 0; index < slots.length; index++) {
+                    slots[index] = start + index;
+                }
+            } else if (!findTightestCluster(slots, fromLeg, toLeg)) {
+                return false;
+            }
+            if (claimAll(slots, fromLeg, toLeg))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Claims a specific seat over the whole route if it is free.
+     *
+     * @param slot the slot of the seat to claim
+     * @return true if the seat was free and is now claimed by the caller, false if it was already occupied
+     */
+    public boolean claim(int slot) {
+        return claim(slot, 0, legCount);
+    }
+
+    /**
+     * Claims a specific seat over a stretch of the route if it is free on every leg of it.
+     *
+     * @param slot    the slot of the seat to claim
+     * @param fromLeg the first leg to claim the seat on
+     * @param toLeg   the leg after the last leg to claim the seat on
+     * @return true if the seat was free and is now claimed by the caller, false if it was occupied on some leg
+     */
+    public boolean claim(int slot, int fromLeg, int toLeg) {
+        checkSlot(slot);
+        checkLegs(fromLeg, toLeg);
+        return claimLegs(slot / WORD_BITS, 1L << slot, fromLeg, toLeg);
+    }
+
+    /**
+     * Releases a seat over the whole route so that it can be claimed again.
+     *
+     * @param slot the slot of the seat to release
+     * @return true if the seat was occupied and has been released, false if it was already free
+     */
+    public boolean release(int slot) {
+        return release(slot, 0, legCount);
+    }
+
+    /**
+     * Releases a seat over a stretch of the route so that it can be claimed again.
+     *
+     * @param slot    the slot of the seat to release
+     * @param fromLeg the first leg to release the seat on
+     * @param toLeg   the leg after the last leg to release the seat on
+     * @return true if the seat was occupied on some leg of the stretch and has been released, false if it was free
+     */
+    public boolean release(int slot, int fromLeg, int toLeg) {
+        checkSlot(slot);
+        checkLegs(fromLeg, toLeg);
+        int wordIndex = slot / WORD_BITS;
+        boolean released = false;
+        for (int leg = fromLeg; leg < toLeg; leg++) {
+            released |= releaseMask(leg * wordsPerLeg + wordIndex, 1L << slot);
+        }
+        if (released) {
+            int hint;
+            while ((hint = firstFreeWordHint.get()) > wordIndex && !firstFreeWordHint.compareAndSet(hint, wordIndex)) {
+                Thread.onSpinWait();
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Checks whether a seat is currently occupied on any leg of the route.
+     *
+     * @param slot the slot of the seat to check
+     * @return true if the seat is occupied
+     */
+    public boolean isClaimed(int slot) {
+        checkSlot(slot);
+        return (occupied(slot / WORD_BITS, 0, legCount) & (1L << slot)) != 0;
+    }
+
+    /**
+     * Finds the bit of a seat on one leg among the words returned by {@link #copyWords()}. On a route without
+     * intermediate stops, this is the slot of the seat.
+     *
+     * @param slot the slot of the seat
+     * @param leg  the leg of the route
+     * @return the position of the bit
+     */
+    public int bitOf(int slot, int leg) {
+        checkSlot(slot);
+        checkLegs(leg, leg + 1);
+        return leg * wordsPerLeg * WORD_BITS + slot;
+    }
+
+    /**
+     * Claims a seat on one leg, given as its bit.
+     *
+     * @param bit the bit of the seat on the leg, as returned by {@link #bitOf(int, int)}
+     * @return true if the seat was free on the leg and is now claimed, false if it was already occupied
+     */
+    public boolean claimBit(int bit) {
+        int leg = bit / (wordsPerLeg * WORD_BITS);
+        return claim(bit % (wordsPerLeg * WORD_BITS), leg, leg + 1);
+    }
+
+    /**
+     * Releases a seat on one leg, given as its bit.
+     *
+     * @param bit the bit of the seat on the leg, as returned by {@link #bitOf(int, int)}
+     * @return true if the seat was occupied on the leg and has been released, false if it was already free
+     */
+    public boolean releaseBit(int bit) {
+        int leg = bit / (wordsPerLeg * WORD_BITS);
+        return release(bit % (wordsPerLeg * WORD_BITS), leg, leg + 1);
+    }
+
+    /**
+     * Copies the occupancy bitmaps of every leg, one word at a time. Words changed during the copy may or may not be included.
+     *
+     * @return a copy of the words of the bitmaps, leg after leg
+     */
+    public long[] copyWords() {
+        long[] copy = new long[words.length()];
+        for (int wordIndex = 0; wordIndex < copy.length; wordIndex++) {
+            copy[wordIndex] = words.get(wordIndex);
+        }
+        return copy;
+    }
+
+    /**
+     * Replaces the occupancy bitmaps with words copied from an inventory of the same layout.
+     *
+     * @param copy the words, as returned by {@link #copyWords()}
+     * @throws IllegalArgumentException if the copy has a different number of words
+     */
+    public void loadWords(long[] copy) {
+        if (copy.length != words.length())
+            throw new IllegalArgumentException("Seat inventory has " + words.length() + " words, not " + copy.length + ".");
+        for (int wordIndex = 0; wordIndex < copy.length; wordIndex++) {
+            words.set(wordIndex, copy[wordIndex]);
+        }
+        firstFreeWordHint.set(0);
+    }
+
+    /**
+     * Counts the seats that are currently free over the whole route.
+     *
+     * @return the number of free seats
+     */
+    public int freeCount() {
+        int free = 0;
+        for (int wordIndex = 0; wordIndex < wordsPerLeg; wordIndex++) {
+            free += Long.bitCount(~occupied(wordIndex, 0, legCount));
+        }
+        return free;
+    }
+
+    /**
+     * Counts the seats of one section that are currently free over the whole route.
+     *
+     * @param section the index of the section
+     * @return the number of free seats in the section
+     */
+    public int freeCount(int section) {
+        return freeCount(section, 0, legCount);
+    }
+
+    /**
+     * Counts the seats of one section that are currently free over a stretch of the route.
+     *
+     * @param section the index of the section
+     * @param fromLeg the first leg of the stretch
+     * @param toLeg   the leg after the last leg of the stretch
+     * @return the number of seats of the section free on every leg of the stretch
+     */
+    public int freeCount(int section, int fromLeg, int toLeg) {
+        checkLegs(fromLeg, toLeg);
+        int free = 0;
+        int firstWord = sectionStarts[section] / WORD_BITS;
+        int lastWord = (sectionStarts[section] + sectionSizes[section] - 1) / WORD_BITS;
+        for (int wordIndex = firstWord; wordIndex <= lastWord; wordIndex++) {
+            free += Long.bitCount(~occupied(wordIndex, fromLeg, toLeg));
+        }
+        return free;
+    }
+
+    /**
+     * Lists the seats of one section free over the whole route as runs of consecutive positions.
+     *
+     * @param section the index of the section
+     * @return the first and last zero-based position of each run of free seats, in seat order
+     * @see #freeRuns(int, int, int)
+     */
+    public List<int[]> freeRuns(int section) {
+        return freeRuns(section, 0, legCount);
+    }
+
+    /**
+     * Lists the seats of one section free over a stretch of the route as runs of consecutive positions, reading
+     * one word at a time. Words changed during the scan may or may not be reflected.
+     *
+     * @param section the index of the section
+     * @param fromLeg the first leg of the stretch
+     * @param toLeg   the leg after the last leg of the stretch
+     * @return the first and last zero-based position of each run of free seats, in seat order
+     */
+    public List<int[]> freeRuns(int section, int fromLeg, int toLeg) {
+        checkLegs(fromLeg, toLeg);
+        List<int[]> runs = new ArrayList<>();
+        int start = sectionStarts[section];
+        int end = start + sectionSizes[section];
+        int runStart = -1;
+        for (int wordIndex = start / WORD_BITS; wordIndex * WORD_BITS < end; wordIndex++) {
+            long word = occupied(wordIndex, fromLeg, toLeg);
+            int bit = 0;
+            while (true) {
+                // Look for the next free seat outside a run, or the next occupied seat inside one.
+                long remaining = (runStart < 0 ? ~word : word) >>> bit;
+                if (remaining == 0)
+                    break;
+                bit += Long.numberOfTrailingZeros(remaining);
+                int slot = wordIndex * WORD_BITS + bit;
+                if (slot >= end)
+                    break;
+                if (runStart < 0) {
+                    runStart = slot;
+                } else {
+                    runs.add(new int[]{runStart - start, slot - 1 - start});
+                    runStart = -1;
+                }
+            }
+        }
+        if (runStart >= 0)
+            runs.add(new int[]{runStart - start, end - 1 - start});
+        return runs;
+    }
+
+    /**
+     * Converts a position within a section to the slot used by this inventory.
+     *
+     * @param section the index of the section
+     * @param offset  the zero-based position of the seat within the section
+     * @return the slot of the seat
+     */
+    public int slotOf(int section, int offset) {
+        if (offset < 0 || offset >= sectionSizes[section])
+            throw new IndexOutOfBoundsException("Seat offset " + offset + " is outside a section of " + sectionSizes[section] + " seats.");
+        return sectionStarts[section] + offset;
+    }
+
+    /**
+     * Finds the section a slot belongs to.
+     *
+     * @param slot the slot of the seat
+     * @return the index of the section containing the slot
+     */
+    public int sectionOf(int slot) {
+        int section = sectionStarts.length - 1;
+        while (sectionStarts[section] > slot) {
+            section--;
+        }
+        return section;
+    }
+
+    /**
+     * Finds the zero-based position of a slot within its section.
+     *
+     * @param slot the slot of the seat
+     * @return the position of the seat within its section
+     */
+    public int offsetOf(int slot) {
+        return slot - sectionStarts[sectionOf(slot)];
+    }
+
+    /**
+     * @return the number of seats tracked by this inventory
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of sections tracked by this inventory
+     */
+    public int sectionCount() {
+        return sectionSizes.length;
+    }
+
+    /**
+     * @return the number of legs of the route tracked by this inventory
+     */
+    public int legCount() {
+        return legCount;
+    }
+
+    private int claimFrom(int startWord) {
+        for (int wordIndex = startWord; wordIndex < wordsPerLeg; wordIndex++) {
+            long word = occupied(wordIndex, 0, legCount);
+            while (word != -1L) {
+                long bit = Long.lowestOneBit(~word);
+                if (claimLegs(wordIndex, bit, 0, legCount))
+                    return wordIndex * WORD_BITS + Long.numberOfTrailingZeros(bit);
+                word = occupied(wordIndex, 0, legCount);
+            }
+            firstFreeWordHint.compareAndSet(wordIndex, wordIndex + 1);
+        }
+        return -1;
+    }
+
+    private int claimFrom(int startWord, int endWord, int[] slots, int claimed, int fromLeg, int toLeg) {
+        for (int wordIndex = startWord; wordIndex < endWord && claimed < slots.length; wordIndex++) {
+            long word = occupied(wordIndex, fromLeg, toLeg);
+            while (word != -1L) {
+                long free = ~word;
+                long taken = 0;
+                for (int needed = slots.length - claimed; needed > 0 && free != 0; needed--) {
+                    long bit = Long.lowestOneBit(free);
+                    taken |= bit;
+                    free ^= bit;
+                }
+                if (claimLegs(wordIndex, taken, fromLeg, toLeg)) {
+                    for (long bits = taken; bits != 0; bits &= bits - 1) {
+                        slots[claimed++] = wordIndex * WORD_BITS + Long.numberOfTrailingZeros(bits);
+                    }
+                    break;
+                }
+                word = occupied(wordIndex, fromLeg, toLeg);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Finds the seats of a word free over a stretch that leave at most a number of free legs next to it.
+     */
+    private long fitting(int wordIndex, int fromLeg, int toLeg, int gap) {
+        long free = ~occupied(wordIndex, fromLeg, toLeg);
+        if (free == 0)
+            return 0;
+        long bounded = 0;
+        for (int before = 0; before <= gap && bounded != -1L; before++) {
+            long boundedBefore = fromLeg - before - 1 < 0 ? -1L : occupied(wordIndex, fromLeg - before - 1, fromLeg);
+            int after = gap - before;
+            long boundedAfter = toLeg + after + 1 > legCount ? -1L : occupied(wordIndex, toLeg, toLeg + after + 1);
+            bounded |= boundedBefore & boundedAfter;
+        }
+        return free & bounded;
+    }
+
+    /**
+     * Finds the first run of adjacent free seats within a single section.
+     * Within a word, run starts are found by and-ing the free mask with shifted copies of itself (doubling the
+     * covered length each step); runs that cross a word boundary are found by carrying the free run at the top
+     * of each word into the next one.
+     *
+     * @param length the number of adjacent seats needed
+     * @return the slot of the first seat of the run, or -1 if no section has such a run
+     */
+    private int findFreeRun(int length, int fromLeg, int toLeg) {
+        for (int section = 0; section < sectionSizes.length; section++) {
+            if (sectionSizes[section] < length)
+                continue;
+            int firstWord = sectionStarts[section] / WORD_BITS;
+            int lastWord = (sectionStarts[section] + sectionSizes[section] - 1) / WORD_BITS;
+            int carry = 0;
+            for (int wordIndex = firstWord; wordIndex <= lastWord; wordIndex++) {
+                long free = ~occupied(wordIndex, fromLeg, toLeg);
+                if (carry > 0 && carry + Long.numberOfTrailingZeros(~free) >= length)
+                    return wordIndex * WORD_BITS - carry;
+                if (length <= WORD_BITS) {
+                    long runStarts = free;
+                    for (int covered = 1; covered < length && runStarts != 0; ) {
+                        int shift = Math.min(covered, length - covered);
+                        runStarts &= runStarts >>> shift;
+                        covered += shift;
+                    }
+                    if (runStarts != 0)
+                        return wordIndex * WORD_BITS + Long.numberOfTrailingZeros(runStarts);
+                }
+                carry = free == -1L ? carry + WORD_BITS : Long.numberOfLeadingZeros(~free);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the group of free seats within one section that spans the fewest seats.
+     *
+     * @param slots an array to receive the slots of the cluster; its length is the group size
+     * @return true if a cluster was found, false if no section has enough free seats
+     */
+    private boolean findTightestCluster(int[] slots, int fromLeg, int toLeg) {
+        int bestSpan = Integer.MAX_VALUE;
+        int[] free = null;
+        for (int section = 0; section < sectionSizes.length; section++) {
+            if (freeCount(section, fromLeg, toLeg) < slots.length)
+                continue;
+            if (free == null || free.length < sectionSizes[section])
+                free = new int[sectionSizes[section]];
+            int freeSeats = 0;
+            int firstWord = sectionStarts[section] / WORD_BITS;
+            int lastWord = (sectionStarts[section] + sectionSizes[section] - 1) / WORD_BITS;
+            for (int wordIndex = firstWord; wordIndex <= lastWord; wordIndex++) {
+                for (long bits = ~occupied(wordIndex, fromLeg, toLeg); bits != 0 && freeSeats < free.length; bits &= bits - 1) {
+                    free[freeSeats++] = wordIndex * WORD_BITS + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            for (int first = 0; first + slots.length <= freeSeats; first++) {
+                int span = free[first + slots.length - 1] - free[first];
+                if (span < bestSpan) {
+                    bestSpan = span;
+                    System.arraycopy(free, first, slots, 0, slots.length);
+                }
+            }
+        }
+        return bestSpan != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Claims a set of seats given in ascending slot order, one compare-and-set per word and leg.
+     * If any seat has been taken in the meantime, the seats claimed so far are released again.
+     *
+     * @param slots the slots to claim, in ascending order
+     * @return true if every seat was claimed, false if nothing was claimed
+     */
+    private boolean claimAll(int[] slots, int fromLeg, int toLeg) {
+        int index = 0;
+        while (index < slots.length) {
+            int wordIndex = slots[index] / WORD_BITS;
+            long mask = 0;
+            int next = index;
+            while (next < slots.length && slots[next] / WORD_BITS == wordIndex) {
+                mask |= 1L << slots[next++];
+            }
+            if (!claimLegs(wordIndex, mask, fromLeg, toLeg)) {
+                for (int claimed = 0; claimed < index; claimed++) {
+                    release(slots[claimed], fromLeg, toLeg);
+                }
+                return false;
+            }
+            index = next;
+        }
+        return true;
+    }
+
+    /**
+     * Claims seats of one word on every leg of a stretch, in leg order, undoing the legs already claimed if the
+     * seats are taken on a later one.
+     */
+    private boolean claimLegs(int wordIndex, long mask, int fromLeg, int toLeg) {
+        for (int leg = fromLeg; leg < toLeg; leg++) {
+            if (!claimMask(leg * wordsPerLeg + wordIndex, mask)) {
+                for (int claimed = fromLeg; claimed < leg; claimed++) {
+                    releaseMask(claimed * wordsPerLeg + wordIndex, mask);
+                }
+                return false;
+            }
+        }
+        if (occupied(wordIndex, 0, legCount) == -1L)
+            firstFreeWordHint.compareAndSet(wordIndex, wordIndex + 1);
+        return true;
+    }
+
+    private boolean claimMask(int index, long mask) {
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & mask) != 0)
+                return false;
+        } while (!words.compareAndSet(index, word, word | mask));
+        return true;
+    }
+
+    private boolean releaseMask(int index, long mask) {
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & mask) == 0)
+                return false;
+        } while (!words.compareAndSet(index, word, word & ~mask));
+        return true;
+    }
+
+    /**
+     * Reads the seats of a word that are occupied on any leg of a stretch.
+     */
+    private long occupied(int wordIndex, int fromLeg, int toLeg) {
+        long word = 0;
+        for (int leg = fromLeg; leg < toLeg; leg++) {
+            word |= words.get(leg * wordsPerLeg + wordIndex);
+        }
+        return word;
+    }
+
+    private void checkSlot(int slot) {
+        if (slot < 0 || slot >= wordsPerLeg * WORD_BITS)
+            throw new IndexOutOfBoundsException("Seat slot " + slot + " is outside this inventory.");
+    }
+
+    private void checkLegs(int fromLeg, int toLeg) {
+        if (fromLeg < 0 || toLeg > legCount || fromLeg >= toLeg)
+            throw new IndexOutOfBoundsException("Legs " + fromLeg + " to " + toLeg + " are outside a route of " + legCount + " legs.");
+    }
+}
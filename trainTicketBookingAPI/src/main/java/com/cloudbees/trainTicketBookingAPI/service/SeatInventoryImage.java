@@ -0,0 +1,17 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+
+import java.util.List;
+
+/**
+ * The occupancy bitmap of one departure as stored in an inventory snapshot, together with the layout it was taken
+ * with, so that a snapshot taken before the layout of a train changed is recognised and not loaded.
+ *
+ * @param journey      the departure
+ * @param sections     the names of the sections of the train, in section order
+ * @param sectionSizes the number of seats in each section
+ * @param words        the words of the occupancy bitmap
+ */
+public record SeatInventoryImage(Journey journey, List<String> sections, int[] sectionSizes, long[] words) {
+}
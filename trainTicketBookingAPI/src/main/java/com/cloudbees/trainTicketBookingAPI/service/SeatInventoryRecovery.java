@@ -0,0 +1,128 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+/**
+ * Rebuilds seat occupancy from persisted tickets when the application starts.
+ * Runs as a lifecycle phase before the embedded web server starts, so no request can be allocated a seat that an
+ * existing ticket already holds. Only seats of departures from today onwards are read, as projections, so start-up
+ * cost follows the number of upcoming bookings rather than the size of the ticket history.
+ * With inventory snapshots enabled, occupancy is restored from the newest snapshot and the changes logged after it
+ * instead, and the database is only read if there is no usable snapshot. Either way a new snapshot is taken.
+ * Also reports, as a health indicator included in the readiness group, whether recovery has finished.
+ */
+@Slf4j
+@Component
+public class SeatInventoryRecovery implements SmartLifecycle, HealthIndicator {
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    SeatAllocationService seatAllocationService;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    Clock clock;
+    private volatile boolean recovered;
+    private volatile long recoveredSeats;
+    private volatile Duration recoveryTime;
+    private volatile String recoverySource;
+
+    /**
+     * Restores seat occupancy from the newest inventory snapshot if there is a usable one, and otherwise streams the
+     * seats of all upcoming tickets into the seat inventories.
+     */
+    public void recover() {
+        long start = System.nanoTime();
+        long seats = seatAllocationService.restoreSnapshot();
+        recoverySource = "snapshot";
+        if (seats < 0) {
+            seats = recoverFromTickets();
+            recoverySource = "database";
+        }
+        seatAllocationService.snapshotInventories();
+        recoveredSeats = seats;
+        recoveryTime = Duration.ofNanos(System.nanoTime() - start);
+        recovered = true;
+        log.info("Recovered {} occupied seats from the {} in {} ms", seats, recoverySource, recoveryTime.toMillis());
+    }
+
+    private long recoverFromTickets() {
+        LocalDate today = LocalDate.now(clock);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        return transactionTemplate.execute(status -> {
+            long restored = 0;
+            try (Stream<SeatOccupancy> occupancies = ticketRepository.streamSeatOccupancyDepartingFrom(today)) {
+                for (SeatOccupancy occupancy : (Iterable<SeatOccupancy>) occupancies::iterator) {
+                    Journey journey = new Journey(occupancy.trainNumber(), occupancy.departureDate());
+                    Seat seat = new Seat(occupancy.section(), occupancy.seatNumber());
+                    if (seatAllocationService.restoreOccupiedSeat(journey, occupancy.fromStation(), occupancy.toStation(), seat))
+                        restored++;
+                    else
+                        log.warn("Could not restore seat {}{} of {} from {} to {} held by a persisted ticket", seat.getSection(), seat.getSeatNumber(), journey,
+                            occupancy.fromStation(), occupancy.toStation());
+                }
+            }
+            return restored;
+        });
+    }
+
+    /**
+     * @return true once seat occupancy has been rebuilt from persisted tickets
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    @Override
+    public Health health() {
+        if (!recovered)
+            return Health.outOfService().build();
+        return Health.up()
+            .withDetail("recoveredSeats", recoveredSeats)
+            .withDetail("recoverySource", recoverySource)
+            .withDetail("recoveryTimeMs", recoveryTime.toMillis())
+            .build();
+    }
+
+    @Override
+    public void start() {
+        if (!recovered)
+            recover();
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return recovered;
+    }
+
+    /**
+     * Runs well before the web server, which starts in one of the last lifecycle phases.
+     *
+     * @return the lifecycle phase of the recovery
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+}
@@ -0,0 +1,335 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores seat inventory snapshots and the seat changes logged after each of them, enabled with
+ * {@code booking.inventory-snapshot.enabled=true}.
+ * Every snapshot has a sequence number, and the changes made after it are appended to the change log of the same
+ * sequence number. A snapshot is written to a temporary file that is moved into place once complete, and ends with a
+ * checksum, so a snapshot cut short by a crash is skipped in favour of the one before it. Change log records are
+ * checksummed too, and reading a log stops at the first torn record.
+ * Change log records are handed to the operating system as they are appended, so they survive a crash of the process;
+ * they are forced to storage when the next snapshot is taken.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "booking.inventory-snapshot", name = "enabled", havingValue = "true")
+public class SeatInventorySnapshotStore {
+    private static final int MAGIC = 0x53494E56;
+    private static final int FORMAT = 1;
+    private static final String PREFIX = "inventory-";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String CHANGES_SUFFIX = ".changes";
+    /**
+     * Snapshots kept besides the newest, in case the newest cannot be read.
+     */
+    private static final int SPARE_SNAPSHOTS = 1;
+
+    @Autowired
+    BookingProperties bookingProperties;
+    private Path directory;
+    private long sequence;
+    private FileChannel changes;
+
+    @PostConstruct
+    public void init() {
+        directory = Path.of(bookingProperties.getInventorySnapshot().getDirectory()).toAbsolutePath();
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the inventory snapshot directory " + directory, e);
+        }
+        sequence = sequences(SNAPSHOT_SUFFIX).stream().mapToLong(Long::longValue).max().orElse(0);
+        sequence = Math.max(sequence, sequences(CHANGES_SUFFIX).stream().mapToLong(Long::longValue).max().orElse(0));
+    }
+
+    /**
+     * Appends a seat change to the change log of the current snapshot.
+     *
+     * @param journey  the departure of the seat
+     * @param bit      the bit of the seat on one leg of the route, as returned by {@link SeatInventory#bitOf(int, int)}
+     * @param occupied true if the seat became occupied, false if it was vacated
+     */
+    public synchronized void appendChange(Journey journey, int bit, boolean occupied) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeUTF(journey.getTrainNumber());
+            out.writeLong(journey.getDepartureDate().toEpochDay());
+            out.writeInt(bit);
+            out.writeBoolean(occupied);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.limit() - 8);
+        record.putInt(0, record.limit() - 8);
+        record.putInt(4, (int) crc.getValue());
+        try {
+            if (changes == null)
+                changes = openChanges(sequence);
+            while (record.hasRemaining()) {
+                changes.write(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not log a seat change", e);
+        }
+    }
+
+    /**
+     * Starts the change log of a new snapshot. Changes appended from now on belong to the new snapshot, which must
+     * therefore be taken after this returns.
+     *
+     * @return the sequence number of the new snapshot
+     */
+    public synchronized long startSnapshot() {
+        try {
+            if (changes != null) {
+                changes.force(false);
+                changes.close();
+            }
+            changes = openChanges(++sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start a seat change log", e);
+        }
+        return sequence;
+    }
+
+    /**
+     * Writes a snapshot and deletes the snapshots and change logs it makes unnecessary.
+     *
+     * @param snapshotSequence the sequence number returned by {@link #startSnapshot()}
+     * @param images           the occupancy of every departure
+     */
+    public void writeSnapshot(long snapshotSequence, Collection<SeatInventoryImage> images) {
+        Path target = snapshotPath(snapshotSequence);
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(snapshotSequence);
+                out.writeInt(images.size());
+                for (SeatInventoryImage image : images) {
+                    out.writeUTF(image.journey().getTrainNumber());
+                    out.writeLong(image.journey().getDepartureDate().toEpochDay());
+                    out.writeInt(image.sections().size());
+                    for (int section = 0; section < image.sections().size(); section++) {
+                        out.writeUTF(image.sections().get(section));
+                        out.writeInt(image.sectionSizes()[section]);
+                    }
+                    out.writeInt(image.words().length);
+                    for (long word : image.words()) {
+                        out.writeLong(word);
+                    }
+                }
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the inventory snapshot " + target, e);
+        }
+        deleteBefore(snapshotSequence);
+    }
+
+    /**
+     * Reads the newest snapshot that is complete.
+     *
+     * @return the newest readable snapshot, or empty if there is none
+     */
+    public Optional<Snapshot> readLatestSnapshot() {
+        for (Long snapshotSequence : sequences(SNAPSHOT_SUFFIX).descendingSet()) {
+            try {
+                return Optional.of(readSnapshot(snapshotSequence));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Skipping unreadable inventory snapshot {}", snapshotPath(snapshotSequence), e);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Reads the seat changes logged since a snapshot was started, in the order they were made.
+     *
+     * @param snapshotSequence the sequence number of the snapshot
+     * @return the changes logged after the snapshot
+     */
+    public List<Change> readChangesSince(long snapshotSequence) {
+        List<Change> read = new ArrayList<>();
+        for (Long changesSequence : sequences(CHANGES_SUFFIX).tailSet(snapshotSequence)) {
+            try {
+                readChanges(changesPath(changesSequence), read);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the seat change log " + changesPath(changesSequence), e);
+            }
+        }
+        return read;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (changes != null) {
+            changes.force(false);
+            changes.close();
+            changes = null;
+        }
+    }
+
+    private Snapshot readSnapshot(long snapshotSequence) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath(snapshotSequence))), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readLong() != snapshotSequence)
+                throw new IOException("Not an inventory snapshot of this format");
+            int journeys = in.readInt();
+            List<SeatInventoryImage> images = new ArrayList<>(journeys);
+            for (int index = 0; index < journeys; index++) {
+                Journey journey = new Journey(in.readUTF(), LocalDate.ofEpochDay(in.readLong()));
+                int sectionCount = in.readInt();
+                List<String> sections = new ArrayList<>(sectionCount);
+                int[] sectionSizes = new int[sectionCount];
+                for (int section = 0; section < sectionCount; section++) {
+                    sections.add(in.readUTF());
+                    sectionSizes[section] = in.readInt();
+                }
+                long[] words = new long[in.readInt()];
+                for (int word = 0; word < words.length; word++) {
+                    words[word] = in.readLong();
+                }
+                images.add(new SeatInventoryImage(journey, List.copyOf(sections), sectionSizes, words));
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum)
+                throw new IOException("Checksum mismatch");
+            return new Snapshot(snapshotSequence, images);
+        }
+    }
+
+    private void readChanges(Path path, List<Change> read) throws IOException {
+        byte[] log = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(log);
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining())
+                break;
+            CRC32 crc = new CRC32();
+            crc.update(log, buffer.position(), length);
+            if ((int) crc.getValue() != checksum)
+                break;
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(log, buffer.position(), length))) {
+                Journey journey = new Journey(in.readUTF(), LocalDate.ofEpochDay(in.readLong()));
+                read.add(new Change(journey, in.readInt(), in.readBoolean()));
+            }
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    private FileChannel openChanges(long changesSequence) throws IOException {
+        return FileChannel.open(changesPath(changesSequence), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void deleteBefore(long snapshotSequence) {
+        NavigableSet<Long> snapshots = sequences(SNAPSHOT_SUFFIX).headSet(snapshotSequence, false);
+        long oldestKept = snapshotSequence;
+        for (int spare = 0; spare < SPARE_SNAPSHOTS && !snapshots.isEmpty(); spare++) {
+            oldestKept = snapshots.pollLast();
+        }
+        try {
+            for (Long old : snapshots) {
+                Files.deleteIfExists(snapshotPath(old));
+            }
+            for (Long old : sequences(CHANGES_SUFFIX).headSet(oldestKept, false)) {
+                Files.deleteIfExists(changesPath(old));
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete old inventory snapshots", e);
+        }
+    }
+
+    private TreeSet<Long> sequences(String suffix) {
+        TreeSet<Long> found = new TreeSet<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                .filter(name -> name.startsWith(PREFIX) && name.endsWith(suffix))
+                .forEach(name -> {
+                    try {
+                        found.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        log.debug("Ignoring {} in the inventory snapshot directory", name);
+                    }
+                });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list the inventory snapshot directory " + directory, e);
+        }
+        return found;
+    }
+
+    private Path snapshotPath(long snapshotSequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, snapshotSequence, SNAPSHOT_SUFFIX));
+    }
+
+    private Path changesPath(long changesSequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, changesSequence, CHANGES_SUFFIX));
+    }
+
+    /**
+     * A snapshot read back from disk.
+     *
+     * @param sequence the sequence number of the snapshot
+     * @param images   the occupancy of every departure in the snapshot
+     */
+    public record Snapshot(long sequence, List<SeatInventoryImage> images) {
+    }
+
+    /**
+     * A seat change logged after a snapshot.
+     *
+     * @param journey  the departure of the seat
+     * @param bit      the bit of the seat on one leg of the route, as returned by {@link SeatInventory#bitOf(int, int)}
+     * @param occupied true if the seat became occupied, false if it was vacated
+     */
+    public record Change(Journey journey, int bit, boolean occupied) {
+    }
+}
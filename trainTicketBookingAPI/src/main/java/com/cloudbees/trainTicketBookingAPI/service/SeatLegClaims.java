@@ -0,0 +1,158 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.repository.SeatLegClaimRepository;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Clustered mode, enabled with {@code booking.cluster.enabled=true}, in which several instances sharing one database
+ * sell seats of the same departures. Every ticket claims its seat on each leg of its route in the
+ * {@code seat_leg_claim} table, in the same transaction as the ticket itself, and the primary key of that table
+ * rejects a claim that another instance already holds. The database therefore decides who gets a seat, and the seat
+ * inventory of each instance only steers allocation towards seats that are likely free: the seats claimed through
+ * other instances are read into it every {@code booking.cluster.refresh-interval-millis}, and so are the seats freed
+ * through them, including seats this instance sold. A seat the database refuses stays occupied until it is free there.
+ * <p>
+ * Holds and waitlists stay local to an instance, so a hold can lose a seat to another instance before it is confirmed.
+ * The booking journal and inventory snapshots acknowledge and restore seats without asking the database, so neither
+ * can be combined with clustered mode.
+ */
+@Component
+@ConditionalOnProperty(name = "booking.cluster.enabled", havingValue = "true")
+public class SeatLegClaims {
+    @Autowired
+    SeatLegClaimRepository seatLegClaimRepository;
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    SeatAllocationService seatAllocationService;
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        if (bookingProperties.getJournal().isEnabled() || bookingProperties.getInventorySnapshot().isEnabled())
+            throw new IllegalStateException("booking.cluster.enabled cannot be combined with booking.journal.enabled or booking.inventory-snapshot.enabled.");
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Inserts a new ticket together with the claims of its seat.
+     *
+     * @param ticket the ticket, with its seat allocated
+     * @param legs   the legs of the route the ticket is for
+     * @throws DataIntegrityViolationException if another ticket already claims the seat on one of the legs
+     */
+    public void saveTicket(Ticket ticket, LegRange legs) {
+        saveTickets(List.of(ticket), legs);
+    }
+
+    /**
+     * Inserts new tickets of one departure together with the claims of their seats, all or nothing.
+     *
+     * @param tickets the tickets, with their seats allocated
+     * @param legs    the legs of the route the tickets are for
+     * @throws DataIntegrityViolationException if another ticket already claims one of the seats on one of the legs
+     */
+    public void saveTickets(List<Ticket> tickets, LegRange legs) {
+        List<Seat> seats = tickets.stream().map(Ticket::getSeatAllocated).toList();
+        Journey journey = tickets.get(0).getJourney();
+        write(journey, legs, seats, () -> {
+            if (tickets.size() == 1)
+                ticketRepository.save(tickets.get(0));
+            else
+                ticketRepository.saveAllAndFlush(tickets);
+            tickets.forEach(ticket -> claim(journey, legs, ticket.getSeatAllocated(), ticket.getPnr()));
+            return null;
+        });
+        seatAllocationService.markClaimedInDatabase(journey, legs, seats);
+    }
+
+    /**
+     * Moves a ticket and its claims to another seat, provided the ticket has not changed since it was read.
+     *
+     * @param ticket the ticket as it was read
+     * @param legs   the legs of the route the ticket is for
+     * @param seat   the new seat
+     * @return 1 if the ticket was moved, or 0 if it has been changed or removed since it was read
+     * @throws DataIntegrityViolationException if another ticket already claims the new seat on one of the legs
+     */
+    public int changeSeat(Ticket ticket, LegRange legs, Seat seat) {
+        int updated = write(ticket.getJourney(), legs, List.of(seat), () -> {
+            int changed = ticketRepository.updateSeatIfUnchanged(ticket.getPnr(), ticket.getVersion(), seat.getSection(), seat.getSeatNumber());
+            if (changed == 1) {
+                seatLegClaimRepository.releaseClaims(ticket.getPnr());
+                claim(ticket.getJourney(), legs, seat, ticket.getPnr());
+            }
+            return changed;
+        });
+        if (updated == 1)
+            seatAllocationService.markClaimedInDatabase(ticket.getJourney(), legs, List.of(seat));
+        return updated;
+    }
+
+    /**
+     * Deletes a ticket and its claims, provided the ticket has not changed since it was read.
+     *
+     * @param ticket the ticket as it was read
+     * @return 1 if the ticket was deleted, or 0 if it has been changed or removed since it was read
+     */
+    public int removeTicket(Ticket ticket) {
+        return transactionTemplate.execute(status -> {
+            int deleted = ticketRepository.deleteIfUnchanged(ticket.getPnr(), ticket.getVersion());
+            if (deleted == 1)
+                seatLegClaimRepository.releaseClaims(ticket.getPnr());
+            return deleted;
+        });
+    }
+
+    /**
+     * Reads the claimed seats of every departure with a seat inventory into that inventory.
+     *
+     * @return the departures whose inventory changed
+     */
+    public List<Journey> refresh() {
+        List<Journey> changed = new ArrayList<>();
+        for (Journey journey : seatAllocationService.openJourneys()) {
+            if (seatAllocationService.syncClaimedSeats(journey, seatLegClaimRepository.findClaimedSeatLegs(journey.getTrainNumber(), journey.getDepartureDate())))
+                changed.add(journey);
+        }
+        return changed;
+    }
+
+    private void claim(Journey journey, LegRange legs, Seat seat, Long pnr) {
+        for (int leg = legs.from(); leg < legs.to(); leg++) {
+            seatLegClaimRepository.claim(journey.getTrainNumber(), journey.getDepartureDate(), seat.getSection(), seat.getSeatNumber(), leg, pnr);
+        }
+    }
+
+    /**
+     * Runs a write in a transaction, joining the one already in progress if any. When the database refuses a claim,
+     * the seats are recorded as claimed in the database, so that the inventory lets them go once they are free there.
+     */
+    private <T> T write(Journey journey, LegRange legs, List<Seat> seats, Supplier<T> write) {
+        try {
+            return transactionTemplate.execute(status -> write.get());
+        } catch (DataIntegrityViolationException e) {
+            seatAllocationService.markClaimedInDatabase(journey, legs, seats);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.function.Function;
+
+/**
+ * Size-bounded cache of tickets by PNR, evicting with Caffeine's W-TinyLFU policy.
+ * Cached tickets are shared between requests: a caller that changes one must put it back once it is saved,
+ * or invalidate it if saving fails.
+ */
+public class TicketCache implements MeterBinder {
+    private final Cache<Long, Ticket> tickets;
+    private final long maximumSize;
+
+    public TicketCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        this.tickets = Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Retrieves a ticket, loading it on a miss. Tickets the loader does not find are not cached.
+     *
+     * @param pnr    the PNR number of the ticket
+     * @param loader loads the ticket with a PNR number, or returns null if there is none
+     * @return the ticket, or null if there is none
+     */
+    public Ticket get(Long pnr, Function<Long, Ticket> loader) {
+        return tickets.get(pnr, loader);
+    }
+
+    /**
+     * Stores the latest state of a ticket.
+     *
+     * @param ticket the ticket, which must have a PNR number
+     */
+    public void put(Ticket ticket) {
+        tickets.put(ticket.getPnr(), ticket);
+    }
+
+    /**
+     * Drops a ticket, so that the next lookup reads it again.
+     *
+     * @param pnr the PNR number of the ticket
+     */
+    public void invalidate(Long pnr) {
+        tickets.invalidate(pnr);
+    }
+
+    /**
+     * Publishes the size, hit, miss and eviction counts of the cache as the {@code cache.*} meters of the cache named {@code tickets}.
+     *
+     * @param registry the registry to register the meters with
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, tickets, "tickets");
+    }
+
+    /**
+     * Retrieves the hit, miss and eviction counts of the cache since start-up.
+     *
+     * @return the cache statistics
+     */
+    public Statistics statistics() {
+        CacheStats stats = tickets.stats();
+        return new Statistics(tickets.estimatedSize(), maximumSize, stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     *
+     * @param size          the approximate number of cached tickets
+     * @param maximumSize   the largest number of tickets the cache keeps
+     * @param hitCount      the number of lookups served from the cache
+     * @param missCount     the number of lookups that went to the database
+     * @param hitRate       the ratio of hits to lookups, or 1 if there were none
+     * @param evictionCount the number of tickets evicted to stay within the maximum size
+     */
+    public record Statistics(long size, long maximumSize, long hitCount, long missCount, double hitRate, long evictionCount) {
+    }
+}
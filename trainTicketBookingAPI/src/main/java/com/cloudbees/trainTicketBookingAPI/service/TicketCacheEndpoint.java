@@ -0,0 +1,21 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the PNR receipt cache statistics at {@code /actuator/ticketcache}, to size {@code booking.ticket-cache-size}.
+ */
+@Component
+@Endpoint(id = "ticketcache")
+public class TicketCacheEndpoint {
+    @Autowired
+    TicketCache ticketCache;
+
+    @ReadOperation
+    public TicketCache.Statistics statistics() {
+        return ticketCache.statistics();
+    }
+}
@@ -1,114 +1,1154 @@
 package com.cloudbees.trainTicketBookingAPI.service;
 
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.ReceiptCode;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ManifestEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatAvailabilityDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartPageDTO;
 import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartResponseDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SectionAvailabilityDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.WaitlistStatusDTO;
+import com.cloudbees.trainTicketBookingAPI.exception.BookingQueueFullException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidDateRangeException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidPageRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidPassengerCountException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidRouteException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchHoldException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchJourneyException;
 import com.cloudbees.trainTicketBookingAPI.exception.NoSuchSectionException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchWaitlistEntryException;
 import com.cloudbees.trainTicketBookingAPI.exception.NoTicketFoundException;
 import com.cloudbees.trainTicketBookingAPI.exception.RequestedSeatSameAsAllocatedException;
+import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketUpdateConflictException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import com.cloudbees.trainTicketBookingAPI.exception.WaitlistedException;
 import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+@Slf4j
 @Service
 public class TicketService {
+    /**
+     * Distinguishes the seat chart versions of this run from those of earlier runs in entity tags.
+     */
+    private static final long SEAT_CHART_EPOCH = System.currentTimeMillis();
+
     @Autowired
     TicketRepository ticketRepository;
     @Autowired
     SeatAllocationService seatAllocationService;
+    @Autowired
+    BookingProperties bookingProperties;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    Clock clock;
+    @Autowired
+    TicketCache ticketCache;
+    @Autowired
+    SeatHoldService seatHoldService;
+    @Autowired
+    MeterRegistry meterRegistry;
+    @Autowired
+    PassengerIndex passengerIndex;
+    @Autowired(required = false)
+    BookingPipeline bookingPipeline;
+    @Autowired(required = false)
+    BookingJournal bookingJournal;
+    @Autowired(required = false)
+    BookingWaitlist bookingWaitlist;
+    @Autowired(required = false)
+    PnrIssuer pnrIssuer;
+    @Autowired(required = false)
+    SeatLegClaims seatLegClaims;
+    private final ConcurrentMap<Journey, AtomicLong> seatChartVersions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Journey, SeatChartSnapshot> seatChartSnapshots = new ConcurrentHashMap<>();
+    /**
+     * Timers of the phases of each operation, registered once so that timing a phase costs no meter lookup.
+     */
+    private Timer purchaseAllocationTimer;
+    private Timer purchasePersistenceTimer;
+    private Timer purchaseGroupAllocationTimer;
+    private Timer purchaseGroupPersistenceTimer;
+    private Timer holdAllocationTimer;
+    private Timer confirmHoldPersistenceTimer;
+    private Timer modifyAllocationTimer;
+    private Timer modifyPersistenceTimer;
+    private Timer removePersistenceTimer;
+    private Timer lookupPersistenceTimer;
+    private Timer seatChartPersistenceTimer;
+    private Timer seatChartPagePersistenceTimer;
+    private Timer seatChartSerializationTimer;
+
+    @PostConstruct
+    public void init() {
+        purchaseAllocationTimer = phaseTimer("purchase", "allocation");
+        purchasePersistenceTimer = phaseTimer("purchase", "persistence");
+        purchaseGroupAllocationTimer = phaseTimer("purchase_group", "allocation");
+        purchaseGroupPersistenceTimer = phaseTimer("purchase_group", "persistence");
+        holdAllocationTimer = phaseTimer("hold", "allocation");
+        confirmHoldPersistenceTimer = phaseTimer("confirm_hold", "persistence");
+        modifyAllocationTimer = phaseTimer("modify", "allocation");
+        modifyPersistenceTimer = phaseTimer("modify", "persistence");
+        removePersistenceTimer = phaseTimer("remove", "persistence");
+        lookupPersistenceTimer = phaseTimer("lookup", "persistence");
+        seatChartPersistenceTimer = phaseTimer("seat_chart", "persistence");
+        seatChartPagePersistenceTimer = phaseTimer("seat_chart_page", "persistence");
+        seatChartSerializationTimer = phaseTimer("seat_chart", "serialization");
+        // Seat charts are built from the database, which has journaled bookings only once they are flushed.
+        if (bookingJournal != null)
+            bookingJournal.onFlushed(this::seatChartChanged);
+    }
 
     /**
      * Purchases a new ticket for the specified user.
+     * With the waitlist enabled, a purchase on a sold-out departure, or on one that others are already waiting for,
+     * joins the departure's waitlist instead and the ticket is created once a seat is freed.
      *
-     * @param user the user purchasing the ticket
+     * @param user          the user purchasing the ticket
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param fromStation   the station to board at, or null for the origin of the train
+     * @param toStation     the station to leave at, or null for the destination of the train
      * @return the purchased ticket
+     * @throws NoSuchJourneyException  if the requested departure is not open for booking
+     * @throws InvalidRouteException   if the train does not call at both stations in that order
+     * @throws TicketsSoldOutException if the departure is sold out and the waitlist is disabled or full
+     * @throws WaitlistedException     if the purchase has joined the waitlist of the departure
+     * @throws SeatOccupiedException   in clustered mode, if other instances claimed every seat the purchase was allocated
      */
-    public Ticket purchaseTicket(User user) {
-        Ticket ticket = new Ticket();
-        ticket.setUser(user);
-        ticket.setSeatAllocated(seatAllocationService.allocateNewSeat());
-        ticketRepository.save(ticket);
-        return ticket;
+    @Timed(value = "booking.operation", extraTags = {"operation", "purchase"})
+    public Ticket purchaseTicket(User user, String trainNumber, LocalDate departureDate, String fromStation, String toStation) {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        return purchase(journey, legRange(journey, fromStation, toStation), user);
+    }
+
+    /**
+     * Purchases a new ticket for the specified user, through the booking pipeline of the train when it is enabled.
+     *
+     * @param user          the user purchasing the ticket
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param fromStation   the station to board at, or null for the origin of the train
+     * @param toStation     the station to leave at, or null for the destination of the train
+     * @return a future completed with the purchased ticket
+     * @throws NoSuchJourneyException     if no such train is configured
+     * @throws InvalidRouteException      if the train does not call at both stations in that order
+     * @throws BookingQueueFullException if the pipeline of the train is full
+     * @throws WaitlistedException        if the purchase has joined the waitlist of the departure
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "purchase"})
+    public CompletableFuture<Ticket> purchaseTicketAsync(User user, String trainNumber, LocalDate departureDate, String fromStation, String toStation) {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        LegRange legs = legRange(journey, fromStation, toStation);
+        if (bookingPipeline == null)
+            return CompletableFuture.completedFuture(purchase(journey, legs, user));
+        return submitPurchase(journey, legs, user, 1);
     }
 
     /**
-     * Retrieves a ticket by its PNR (Passenger Name Record) number.
+     * Purchases tickets for a group of users on the same departure, all or nothing.
+     * Seats for the whole group are allocated in one pass over the inventory and the tickets are inserted in a
+     * single transaction using JDBC batching. If the insert fails, the allocated seats are released again.
+     *
+     * @param users         the users purchasing the tickets
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param fromStation   the station to board at, or null for the origin of the train
+     * @param toStation     the station to leave at, or null for the destination of the train
+     * @param together      whether the users should be seated next to each other
+     * @return the purchased tickets, in the order of the users
+     * @throws InvalidPassengerCountException if the group is empty or larger than allowed
+     * @throws TicketsSoldOutException        if there are not enough seats for the whole group
+     * @throws NoSuchJourneyException         if the requested departure is not open for booking
+     * @throws InvalidRouteException          if the train does not call at both stations in that order
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "purchase_group"})
+    public List<Ticket> purchaseTickets(List<User> users, String trainNumber, LocalDate departureDate, String fromStation, String toStation,
+                                        boolean together) {
+        int maxPassengers = bookingProperties.getMaxPassengersPerBooking();
+        if (users.isEmpty() || users.size() > maxPassengers)
+            throw new InvalidPassengerCountException(maxPassengers);
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        LegRange legs = legRange(journey, fromStation, toStation);
+        List<Seat> seats = purchaseGroupAllocationTimer.record(() -> seatAllocationService.allocateNewSeats(journey, legs, users.size(), together));
+        return saveTickets(purchaseGroupPersistenceTimer, journey, legs, users, seats);
+    }
+
+    /**
+     * Holds seats for a group of users on the same departure while they pay, all or nothing.
+     * The seats are taken out of the inventory until the hold is confirmed, released or expires.
+     *
+     * @param users         the users to hold seats for
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param fromStation   the station to board at, or null for the origin of the train
+     * @param toStation     the station to leave at, or null for the destination of the train
+     * @param together      whether the users should be seated next to each other
+     * @return the hold, with the token to confirm or release it
+     * @throws InvalidPassengerCountException if the group is empty or larger than allowed
+     * @throws TicketsSoldOutException        if there are not enough seats for the whole group
+     * @throws NoSuchJourneyException         if the requested departure is not open for booking
+     * @throws InvalidRouteException          if the train does not call at both stations in that order
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "hold"})
+    public SeatHold holdSeats(List<User> users, String trainNumber, LocalDate departureDate, String fromStation, String toStation, boolean together) {
+        int maxPassengers = bookingProperties.getMaxPassengersPerBooking();
+        if (users.isEmpty() || users.size() > maxPassengers)
+            throw new InvalidPassengerCountException(maxPassengers);
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        LegRange legs = legRange(journey, fromStation, toStation);
+        return holdAllocationTimer.record(() -> seatHoldService.hold(journey, legs, users, together));
+    }
+
+    /**
+     * Turns a hold into tickets for its held seats. If the tickets cannot be saved, the seats are released.
+     *
+     * @param token the token of the hold
+     * @return the purchased tickets, in the order of the users of the hold
+     * @throws NoSuchHoldException if there is no such hold or it has expired
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "confirm_hold"})
+    public List<Ticket> confirmHold(String token) {
+        SeatHold hold = seatHoldService.take(token);
+        return saveTickets(confirmHoldPersistenceTimer, hold.journey(), hold.legs(), hold.users(), hold.seats());
+    }
+
+    /**
+     * Releases the seats of a hold before it expires.
+     *
+     * @param token the token of the hold
+     * @throws NoSuchHoldException if there is no such hold
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "release_hold"})
+    public void releaseHold(String token) {
+        seatHoldService.release(token);
+    }
+
+    /**
+     * Retrieves a ticket by its PNR (Passenger Name Record) number, from the ticket cache when it holds it.
+     * With the booking journal enabled, a ticket whose latest change is not yet in the database is read from the journal.
+     * In clustered mode, the ticket is always read from the database, as other instances may have changed it.
      *
      * @param pnr the PNR number of the ticket
      * @return receipt of the ticket with the specified PNR number and allocated seat
      * @throws NoTicketFoundException if no ticket is found with the specified PNR number
      */
+    @Timed(value = "booking.operation", extraTags = {"operation", "receipt"})
     public Ticket getTicketByPnr(Long pnr) {
-        Optional<Ticket> ticket = ticketRepository.findById(pnr);
-        if (ticket.isEmpty()) throw new NoTicketFoundException();
-        return ticket.get();
+        Ticket ticket = findTicket(pnr);
+        if (ticket == null) throw new NoTicketFoundException();
+        return ticket;
     }
 
     /**
-     * Retrieves the current seat chart of the train, which shows the users and the seat they have been allocated.
+     * Retrieves a ticket by the receipt code of its PNR number, read like {@link #getTicketByPnr(Long)}.
      *
+     * @param code the receipt code of the ticket
+     * @return receipt of the ticket with the specified receipt code and allocated seat
+     * @throws NoTicketFoundException if the code is not a receipt code or no ticket is found with its PNR number
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "receipt"})
+    public Ticket getTicketByReceiptCode(String code) {
+        long pnr;
+        try {
+            pnr = ReceiptCode.toPnr(code);
+        } catch (IllegalArgumentException e) {
+            throw new NoTicketFoundException();
+        }
+        return getTicketByPnr(pnr);
+    }
+
+    /**
+     * Retrieves the tickets of a passenger by email, compared case-insensitively. The PNR numbers come from the
+     * passenger index, so no tickets are scanned, and each ticket is then read like a receipt. In clustered mode, the
+     * index lacks the tickets sold by other instances, so the PNR numbers are read from the database instead.
+     *
+     * @param email the email of the passenger
+     * @return the tickets of the passenger in PNR order, or an empty list if there are none
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "lookup_by_email"})
+    public List<Ticket> getTicketsByEmail(String email) {
+        long[] pnrs = seatLegClaims != null
+            ? ticketRepository.findPnrsByEmail(email.toLowerCase(Locale.ROOT)).stream().mapToLong(Long::longValue).toArray()
+            : passengerIndex.find(email);
+        List<Ticket> tickets = new ArrayList<>(pnrs.length);
+        for (long pnr : pnrs) {
+            // A ticket removed since the index was read is skipped.
+            Ticket ticket = findTicket(pnr);
+            if (ticket != null)
+                tickets.add(ticket);
+        }
+        return tickets;
+    }
+
+    /**
+     * Retrieves the current seat chart of a train departure, which shows the users and the seat they have been allocated.
+     *
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
      * @return a list of SeatChartResponseDTO objects representing the current seat chart
+     * @throws NoSuchJourneyException if no such train is configured
      */
-    public List<SeatChartResponseDTO> getSeatChart() {
-        List<Ticket> allTickets = ticketRepository.findAllByOrderBySeatAllocatedSectionAscSeatAllocatedSeatNumberAsc();
-        return allTickets
+    @Timed(value = "booking.operation", extraTags = {"operation", "seat_chart"})
+    public List<SeatChartResponseDTO> getSeatChart(String trainNumber, LocalDate departureDate) {
+        return seatChartOf(seatAllocationService.resolveJourney(trainNumber, departureDate));
+    }
+
+    /**
+     * Retrieves the current seat chart of a train departure, which shows the users and the seat they have been allocated by the requested section.
+     *
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param section       the section of the train whose seat chart must be retrieved
+     * @return a list of SeatChartResponseDTO objects representing the seat chart for the specified section
+     * @throws NoSuchSectionException if the train has no section by the specified name
+     * @throws NoSuchJourneyException if no such train is configured
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "seat_chart"})
+    public List<SeatChartResponseDTO> getSeatChartBySection(String trainNumber, LocalDate departureDate, String section) {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        if (seatAllocationService.getTrainLayout(journey).sectionIndex(section) < 0)
+            throw new NoSuchSectionException();
+        List<SeatChartEntry> entries = seatChartPersistenceTimer
+            .record(() -> ticketRepository.findSeatChartBySection(journey.getTrainNumber(), journey.getDepartureDate(), section));
+        return entries
             .stream()
-            .map(ticket -> new SeatChartResponseDTO(ticket.getUser(), ticket.getSeatAllocated()))
+            .map(TicketService::toSeatChartResponse)
             .collect(Collectors.toList());
     }
 
     /**
-     * Retrieves the current seat chart of the train, which shows the users and the seat they have been allocated by the requested section.
+     * Retrieves the serialized seat chart of a train departure, for the whole train and for each section.
+     * Snapshots are rebuilt only after a purchase, modification or removal has changed the departure's chart
+     * version; otherwise the same bytes are served to every request. Only departures open for booking are cached, so
+     * requests for arbitrary dates cannot grow the cache; the chart of any other departure is built on every read and
+     * has no entity tag.
      *
-     * @param section the section of the train whose seat chart must be retrieved (must be A or B)
-     * @return a list of SeatChartResponseDTO objects representing the seat chart for the specified section
-     * @throws NoSuchSectionException if the specified section is not A or B
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @return the current seat chart snapshot
+     * @throws NoSuchJourneyException if no such train is configured
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "seat_chart"})
+    public SeatChartSnapshot getSeatChartSnapshot(String trainNumber, LocalDate departureDate) {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        if (!seatAllocationService.isOpenForBooking(journey))
+            return buildSeatChartSnapshot(journey, -1);
+        // Read the version before the tickets: a write that lands in between bumps it, so the next read rebuilds.
+        long version = seatChartVersions.computeIfAbsent(journey, key -> new AtomicLong()).get();
+        SeatChartSnapshot snapshot = seatChartSnapshots.get(journey);
+        if (snapshot != null && snapshot.version() == version)
+            return snapshot;
+        SeatChartSnapshot rebuilt = buildSeatChartSnapshot(journey, version);
+        return seatChartSnapshots.merge(journey, rebuilt, (current, latest) -> latest.version() >= current.version() ? latest : current);
+    }
+
+    /**
+     * Retrieves the free seats of a train departure from the seat inventory, without reading any tickets.
+     * Free seats are given per section as a count and as runs of consecutive seat numbers, so that a client can pick
+     * a seat before asking for it. Held seats count as occupied. On a route with intermediate stops, a seat is free
+     * between two stations if it is free on every leg between them.
+     *
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param fromStation   the station to board at, or null for the origin of the train
+     * @param toStation     the station to leave at, or null for the destination of the train
+     * @param section       the section of the train whose free seats must be retrieved, or null for every section
+     * @return the free seats of the departure
+     * @throws NoSuchSectionException if the train has no section by the specified name
+     * @throws NoSuchJourneyException if the requested departure is not open for booking
+     * @throws InvalidRouteException  if the train does not call at both stations in that order
      */
-    public List<SeatChartResponseDTO> getSeatChartBySection(String section) {
-        if (!Objects.equals(section, "A") && !Objects.equals(section, "B"))
+    @Timed(value = "booking.operation", extraTags = {"operation", "availability"})
+    public SeatAvailabilityDTO getAvailability(String trainNumber, LocalDate departureDate, String fromStation, String toStation, String section) {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        TrainLayout layout = seatAllocationService.getTrainLayout(journey);
+        LegRange legs = layout.legRange(fromStation, toStation);
+        List<SectionAvailabilityDTO> sections = new ArrayList<>();
+        int freeSeats = 0;
+        for (int index = 0; index < layout.getSections().size(); index++) {
+            String name = layout.getSections().get(index);
+            if (section != null && !section.equals(name))
+                continue;
+            List<int[]> ranges = seatAllocationService.freeSeatRanges(journey, legs, name);
+            int free = ranges.stream().mapToInt(range -> range[1] - range[0] + 1).sum();
+            sections.add(new SectionAvailabilityDTO(name, layout.getSectionSizes()[index], free, ranges));
+            freeSeats += free;
+        }
+        if (sections.isEmpty())
             throw new NoSuchSectionException();
-        List<Ticket> allTickets = ticketRepository.findBySeatAllocatedSectionOrderBySeatAllocatedSeatNumberAsc(section);
-        return allTickets
+        return new SeatAvailabilityDTO(journey.getTrainNumber(), journey.getDepartureDate(), layout.getStations().get(legs.from()),
+            layout.getStations().get(legs.to()), freeSeats, sections);
+    }
+
+    /**
+     * Retrieves one page of the current seat chart of a train departure, ordered by section and seat number.
+     * Pages are keyed on the last ticket of the previous page, by its seat and the receipt code of its PNR, so each page
+     * is an index seek however deep the client has paged, and the tickets of a seat sold on several stretches of the
+     * route are never split across pages with one of them skipped.
+     *
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param section       the section of the train whose seat chart must be retrieved, or null for the whole train
+     * @param after         the cursor returned with the previous page, or null for the first page
+     * @param limit         the largest number of seats in the page
+     * @return the page of the seat chart and the cursor of the next page, if any
+     * @throws InvalidPageRequestException if the limit is out of range or the cursor is malformed
+     * @throws NoSuchSectionException      if the train has no section by the specified name
+     * @throws NoSuchJourneyException      if no such train is configured
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "seat_chart_page"})
+    public SeatChartPageDTO getSeatChartPage(String trainNumber, LocalDate departureDate, String section, String after, int limit) {
+        int maxPageSize = bookingProperties.getMaxSeatChartPageSize();
+        if (limit < 1 || limit > maxPageSize)
+            throw new InvalidPageRequestException(maxPageSize);
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        if (section != null && seatAllocationService.getTrainLayout(journey).sectionIndex(section) < 0)
+            throw new NoSuchSectionException();
+        String afterSection = section == null ? "" : section;
+        int afterSeatNumber = 0;
+        long afterPnr = 0;
+        if (after != null) {
+            int pnrSeparator = after.lastIndexOf(':');
+            int seatSeparator = pnrSeparator < 0 ? -1 : after.lastIndexOf(':', pnrSeparator - 1);
+            try {
+                afterSection = after.substring(0, seatSeparator);
+                afterSeatNumber = Integer.parseInt(after.substring(seatSeparator + 1, pnrSeparator));
+                afterPnr = ReceiptCode.toPnr(after.substring(pnrSeparator + 1));
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new InvalidPageRequestException(maxPageSize);
+            }
+            if (section != null && !section.equals(afterSection))
+                throw new InvalidPageRequestException(maxPageSize);
+        }
+        // Fetch one seat more than asked for to learn whether another page follows.
+        String pageSection = afterSection;
+        int pageSeatNumber = afterSeatNumber;
+        long pagePnr = afterPnr;
+        List<SeatChartEntry> entries = seatChartPagePersistenceTimer.record(() -> section == null
+            ? ticketRepository.findSeatChartPage(journey.getTrainNumber(), journey.getDepartureDate(), pageSection, pageSeatNumber, pagePnr, Limit.of(limit + 1))
+            : ticketRepository.findSeatChartPageBySection(journey.getTrainNumber(), journey.getDepartureDate(), section, pageSeatNumber, pagePnr, Limit.of(limit + 1)));
+        List<SeatChartResponseDTO> seats = entries
             .stream()
-            .map(ticket -> new SeatChartResponseDTO(ticket.getUser(), ticket.getSeatAllocated()))
+            .limit(limit)
+            .map(TicketService::toSeatChartResponse)
             .collect(Collectors.toList());
+        String nextCursor = null;
+        if (entries.size() > limit) {
+            SeatChartEntry last = entries.get(limit - 1);
+            nextCursor = last.section() + ":" + last.seatNumber() + ":" + ReceiptCode.of(last.pnr());
+        }
+        return new SeatChartPageDTO(seats, nextCursor);
+    }
+
+    /**
+     * Writes the current seat chart of a train departure as newline-delimited JSON, one SeatChartResponseDTO per line.
+     * Tickets are read through a database cursor and written as they arrive, so memory use does not grow with the chart.
+     *
+     * @param trainNumber   the number of the train, or null for the default train
+     * @param departureDate the date of departure, or null for today
+     * @param section       the section of the train whose seat chart must be written, or null for the whole train
+     * @param out           the stream to write to, which is left open
+     * @throws NoSuchSectionException if the train has no section by the specified name
+     * @throws NoSuchJourneyException if no such train is configured
+     * @throws IOException            if writing to the stream fails
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "seat_chart_stream"})
+    @Transactional(readOnly = true)
+    public void writeSeatChart(String trainNumber, LocalDate departureDate, String section, OutputStream out) throws IOException {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, departureDate);
+        if (section != null && seatAllocationService.getTrainLayout(journey).sectionIndex(section) < 0)
+            throw new NoSuchSectionException();
+        try (Stream<SeatChartEntry> entries = ticketRepository.streamSeatChart(journey.getTrainNumber(),
+            journey.getDepartureDate(), section)) {
+            writeLines(entries.map(TicketService::toSeatChartResponse), out);
+        }
+    }
+
+    /**
+     * Writes the passenger manifest of a train over a range of departure dates as newline-delimited JSON,
+     * one ManifestEntry per line. Tickets are read through a database cursor and written as they arrive,
+     * so memory use does not grow with the manifest.
+     *
+     * @param trainNumber the number of the train, or null for the default train
+     * @param from        the first departure date, or null for today
+     * @param to          the last departure date, or null for the first departure date
+     * @param out         the stream to write to, which is left open
+     * @throws InvalidDateRangeException if the last departure date is before the first
+     * @throws NoSuchJourneyException    if no such train is configured
+     * @throws IOException               if writing to the stream fails
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "manifest"})
+    @Transactional(readOnly = true)
+    public void writeManifest(String trainNumber, LocalDate from, LocalDate to, OutputStream out) throws IOException {
+        Journey journey = seatAllocationService.resolveJourney(trainNumber, from);
+        LocalDate lastDepartureDate = to == null ? journey.getDepartureDate() : to;
+        if (lastDepartureDate.isBefore(journey.getDepartureDate()))
+            throw new InvalidDateRangeException();
+        try (Stream<ManifestEntry> entries = ticketRepository.streamManifest(journey.getTrainNumber(),
+            journey.getDepartureDate(), lastDepartureDate)) {
+            writeLines(entries, out);
+        }
+    }
+
+    /**
+     * Retrieves the status of a purchase waiting for a seat on a sold-out departure.
+     *
+     * @param id the id of the waitlist entry
+     * @return the status of the entry, with its position while it is waiting and its PNR number once promoted
+     * @throws NoSuchWaitlistEntryException if there is no such entry or the waitlist is disabled
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "waitlist_status"})
+    public WaitlistStatusDTO getWaitlistStatus(String id) {
+        return toWaitlistStatus(waitlist().find(id));
+    }
+
+    /**
+     * Waits for a purchase to leave the waitlist of a sold-out departure, so that clients can long-poll rather than
+     * repeat requests. The wait ends early once the passenger has been given a ticket, has cancelled or the departure
+     * has left.
+     *
+     * @param id          the id of the waitlist entry
+     * @param waitSeconds how long to wait, capped at {@code booking.waitlist.max-wait-seconds}
+     * @return a future completed with the status of the entry once it has left the waitlist or the wait is over
+     * @throws NoSuchWaitlistEntryException if there is no such entry or the waitlist is disabled
+     */
+    public CompletableFuture<WaitlistStatusDTO> awaitWaitlistStatus(String id, long waitSeconds) {
+        WaitlistEntry entry = waitlist().find(id);
+        long timeout = Math.max(0, Math.min(waitSeconds, bookingProperties.getWaitlist().getMaxWaitSeconds()));
+        return entry.settled()
+            .completeOnTimeout(entry, timeout, TimeUnit.SECONDS)
+            .thenApply(this::toWaitlistStatus);
+    }
+
+    /**
+     * Takes a purchase off the waitlist of a sold-out departure. A passenger who is already being given a seat or
+     * holds a ticket stays as they are, and must remove the ticket instead.
+     *
+     * @param id the id of the waitlist entry
+     * @return the resulting status of the entry
+     * @throws NoSuchWaitlistEntryException if there is no such entry or the waitlist is disabled
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "waitlist_cancel"})
+    public WaitlistStatusDTO cancelWaitlistEntry(String id) {
+        return toWaitlistStatus(waitlist().cancel(id));
+    }
+
+    /**
+     * Hands seats freed other than by a removal or modification, such as by a released or expired hold or a failed
+     * write, to the passengers waiting for them, and retries passengers whose purchase failed.
+     */
+    @Scheduled(fixedDelayString = "${booking.waitlist.promote-interval-millis:1000}")
+    public void promoteWaitlistedPassengers() {
+        if (bookingWaitlist == null)
+            return;
+        bookingWaitlist.journeysWithWaiting().forEach(this::promoteWaitlisted);
+    }
+
+    /**
+     * In clustered mode, reads the seats claimed by other instances into the seat inventories, and has the seat charts
+     * of the departures whose seats changed rebuilt on their next read.
+     */
+    @Scheduled(fixedDelayString = "${booking.cluster.refresh-interval-millis:1000}")
+    public void refreshClaimedSeats() {
+        if (seatLegClaims == null)
+            return;
+        seatLegClaims.refresh().forEach(this::seatChartChanged);
+    }
+
+    /**
+     * Drops the seat chart snapshots of departures that have already left.
+     */
+    @Scheduled(cron = "${booking.inventory-eviction-cron:0 5 0 * * *}")
+    public void evictDepartedSeatCharts() {
+        LocalDate today = LocalDate.now(clock);
+        seatChartSnapshots.keySet().removeIf(journey -> journey.getDepartureDate().isBefore(today));
+        seatChartVersions.keySet().removeIf(journey -> journey.getDepartureDate().isBefore(today));
     }
 
     /**
      * Removes a user's ticket by its PNR number.
+     * The row is deleted only if the ticket is unchanged since it was read, and its seat is released only once the
+     * delete has succeeded, so a removal racing another change of the same ticket cannot release a seat twice.
      *
      * @param pnr the PNR number of the ticket to be removed
+     * @throws NoTicketFoundException         if no ticket is found with the specified PNR number
+     * @throws TicketUpdateConflictException if the ticket was changed or removed by another request meanwhile
      */
+    @Timed(value = "booking.operation", extraTags = {"operation", "remove"})
     public void removeUserTicket(Long pnr) {
+        execute(new RemoveCommand(getTicketByPnr(pnr)));
+    }
+
+    /**
+     * Removes a user's ticket by its PNR number, through the booking pipeline of its train when it is enabled.
+     *
+     * @param pnr the PNR number of the ticket to be removed
+     * @return a future completed once the ticket is removed
+     * @throws NoTicketFoundException     if no ticket is found with the specified PNR number
+     * @throws BookingQueueFullException if the pipeline of the train is full
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "remove"})
+    public CompletableFuture<Void> removeUserTicketAsync(Long pnr) {
         Ticket ticket = getTicketByPnr(pnr);
-        Seat freeSeat = ticket.getSeatAllocated();
-        seatAllocationService.manageVacatedSeat(freeSeat);
-        ticketRepository.deleteById(pnr);
+        return submit(ticket.getJourney(), new RemoveCommand(ticket));
     }
 
     /**
      * Modifies the seat allocated to a user's ticket, if present and unoccupied.
+     * The requested seat is claimed first and the row is updated only if the ticket is unchanged since it was read.
+     * If the update fails or conflicts, the claimed seat is released again; the previous seat is released only once the
+     * update has succeeded. Concurrent changes of one ticket therefore fail fast instead of leaking seats.
      *
      * @param pnr  the PNR number of the ticket to be modified
      * @param seat the new seat requested to be allocated to the ticket
      * @return the modified ticket
      * @throws RequestedSeatSameAsAllocatedException if the requested seat is the same as the allocated seat
+     * @throws NoTicketFoundException                if no ticket is found with the specified PNR number
+     * @throws TicketUpdateConflictException        if the ticket was changed or removed by another request meanwhile
      */
+    @Timed(value = "booking.operation", extraTags = {"operation", "modify"})
     public Ticket modifyUserTicket(Long pnr, Seat seat) {
+        return execute(modifyCommand(pnr, seat));
+    }
+
+    /**
+     * Modifies the seat allocated to a user's ticket, through the booking pipeline of its train when it is enabled.
+     *
+     * @param pnr  the PNR number of the ticket to be modified
+     * @param seat the new seat requested to be allocated to the ticket
+     * @return a future completed with the modified ticket
+     * @throws RequestedSeatSameAsAllocatedException if the requested seat is the same as the allocated seat
+     * @throws NoTicketFoundException                if no ticket is found with the specified PNR number
+     * @throws BookingQueueFullException            if the pipeline of the train is full
+     */
+    @Timed(value = "booking.operation", extraTags = {"operation", "modify"})
+    public CompletableFuture<Ticket> modifyUserTicketAsync(Long pnr, Seat seat) {
+        ModifyCommand command = modifyCommand(pnr, seat);
+        return submit(command.ticket.getJourney(), command);
+    }
+
+    private ModifyCommand modifyCommand(Long pnr, Seat seat) {
         Ticket ticket = getTicketByPnr(pnr);
+        seat.setSection(seat.getSection().toUpperCase());
         if (ticket.getSeatAllocated().equals(seat))
             throw new RequestedSeatSameAsAllocatedException();
-        Seat previousSeat = ticket.getSeatAllocated();
-        seat.setSection(seat.getSection().toUpperCase());
-        ticket.setSeatAllocated(seatAllocationService.allocateSpecificSeat(seat));
-        seatAllocationService.manageVacatedSeat(previousSeat);
-        ticketRepository.save(ticket);
+        return new ModifyCommand(ticket, seat);
+    }
+
+    /**
+     * Runs a purchase. In clustered mode, a purchase whose seat turns out to be claimed by another instance is run
+     * again, up to {@code booking.cluster.max-claim-attempts} times; the seat stays occupied in the inventory, so
+     * the next attempt is allocated another one.
+     */
+    private Ticket purchase(Journey journey, LegRange legs, User user) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return execute(new PurchaseCommand(journey, legs, user));
+            } catch (SeatOccupiedException e) {
+                if (seatLegClaims == null || attempt >= bookingProperties.getCluster().getMaxClaimAttempts())
+                    throw e;
+            }
+        }
+    }
+
+    /**
+     * Queues a purchase in the booking pipeline, retried like {@link #purchase} in clustered mode.
+     */
+    private CompletableFuture<Ticket> submitPurchase(Journey journey, LegRange legs, User user, int attempt) {
+        CompletableFuture<Ticket> purchase = submit(journey, new PurchaseCommand(journey, legs, user));
+        if (seatLegClaims == null || attempt >= bookingProperties.getCluster().getMaxClaimAttempts())
+            return purchase;
+        return purchase.exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            return cause instanceof SeatOccupiedException
+                ? submitPurchase(journey, legs, user, attempt + 1)
+                : CompletableFuture.failedFuture(e);
+        });
+    }
+
+    private <T> T execute(BookingCommand<T> command) {
+        command.apply();
+        try {
+            command.write();
+        } catch (DataIntegrityViolationException e) {
+            if (command.reject())
+                throw seatAlreadyTicketed(e);
+            throw e;
+        } catch (RuntimeException e) {
+            command.rollback();
+            throw e;
+        }
+        return command.commit();
+    }
+
+    private <T> CompletableFuture<T> submit(Journey journey, BookingCommand<T> command) {
+        if (bookingPipeline == null)
+            return CompletableFuture.completedFuture(execute(command));
+        return bookingPipeline.submit(journey.getTrainNumber(), command);
+    }
+
+    private class PurchaseCommand implements BookingCommand<Ticket> {
+        private final Journey journey;
+        private final LegRange legs;
+        private final User user;
+        private Seat seat;
+        private Ticket ticket;
+        private boolean journaled;
+
+        PurchaseCommand(Journey journey, LegRange legs, User user) {
+            this.journey = journey;
+            this.legs = legs;
+            this.user = user;
+        }
+
+        /**
+         * A purchase for a waitlisted passenger of a seat that has already been claimed for them.
+         */
+        PurchaseCommand(Journey journey, LegRange legs, User user, Seat seat) {
+            this(journey, legs, user);
+            this.seat = seat;
+        }
+
+        @Override
+        public void apply() {
+            if (seat != null)
+                return;
+            // Passengers already waiting get the next freed seats before new purchases do.
+            if (bookingWaitlist != null && bookingWaitlist.hasWaiting(journey))
+                throw joinWaitlist(journey, legs, user);
+            try {
+                seat = purchaseAllocationTimer.record(() -> seatAllocationService.allocateNewSeat(journey, legs));
+            } catch (TicketsSoldOutException e) {
+                if (bookingWaitlist == null)
+                    throw e;
+                throw joinWaitlist(journey, legs, user);
+            }
+        }
+
+        @Override
+        public void write() {
+            // A journaled purchase stays journaled whatever becomes of the transaction, so a retry must not append it again.
+            if (journaled)
+                return;
+            // A fresh ticket on every attempt, as a failed insert may have left its id and version set.
+            ticket = newTicket(journey, legs, user);
+            ticket.setSeatAllocated(seat);
+            seatAllocationService.recordTicketedSeats(journey, legs, List.of(seat));
+            purchasePersistenceTimer.record(() -> {
+                if (bookingJournal != null) {
+                    bookingJournal.appendPurchase(ticket);
+                    journaled = true;
+                } else if (seatLegClaims != null)
+                    seatLegClaims.saveTicket(ticket, legs);
+                else
+                    ticketRepository.save(ticket);
+            });
+        }
+
+        @Override
+        public Ticket commit() {
+            ticketCache.put(ticket);
+            passengerIndex.add(ticket);
+            seatChartChanged(journey);
+            return ticket;
+        }
+
+        @Override
+        public void rollback() {
+            seatAllocationService.manageVacatedSeat(journey, legs, seat);
+        }
+
+        @Override
+        public boolean reject() {
+            return releaseRejectedSeats(journey, legs, List.of(seat));
+        }
+    }
+
+    private class ModifyCommand implements BookingCommand<Ticket> {
+        private final Ticket ticket;
+        private final LegRange legs;
+        private final Seat requestedSeat;
+        private Seat newSeat;
+        private int updated;
+        private boolean journaled;
+
+        ModifyCommand(Ticket ticket, Seat requestedSeat) {
+            this.ticket = ticket;
+            this.legs = legsOf(ticket);
+            this.requestedSeat = requestedSeat;
+        }
+
+        @Override
+        public void apply() {
+            newSeat = modifyAllocationTimer.record(() -> seatAllocationService.allocateSpecificSeat(ticket.getJourney(), legs, requestedSeat));
+        }
+
+        @Override
+        public void write() {
+            // Once journaled, the change would no longer be current, so a retry must not append it again.
+            if (journaled)
+                return;
+            seatAllocationService.recordTicketedSeats(ticket.getJourney(), legs, List.of(newSeat));
+            updated = modifyPersistenceTimer.record(() -> {
+                if (bookingJournal != null) {
+                    journaled = bookingJournal.appendSeatChange(ticket, newSeat);
+                    return journaled ? 1 : 0;
+                }
+                if (seatLegClaims != null)
+                    return seatLegClaims.changeSeat(ticket, legs, newSeat);
+                return ticketRepository.updateSeatIfUnchanged(ticket.getPnr(), ticket.getVersion(), newSeat.getSection(), newSeat.getSeatNumber());
+            });
+        }
+
+        @Override
+        public Ticket commit() {
+            if (updated == 0) {
+                rollback();
+                throw new TicketUpdateConflictException();
+            }
+            // The cached ticket may be read by other requests, so the change is published as a new instance.
+            Ticket modified = new Ticket(ticket.getPnr(), ticket.getJourney(), ticket.getFromStation(), ticket.getToStation(),
+                ticket.getUser(), ticket.getPricePaidInDollars(), newSeat, ticket.getVersion() + 1);
+            ticketCache.put(modified);
+            vacate(ticket.getJourney(), legs, ticket.getSeatAllocated());
+            seatChartChanged(ticket.getJourney());
+            return modified;
+        }
+
+        @Override
+        public void rollback() {
+            seatAllocationService.manageVacatedSeat(ticket.getJourney(), legs, newSeat);
+            ticketCache.invalidate(ticket.getPnr());
+        }
+
+        @Override
+        public boolean reject() {
+            ticketCache.invalidate(ticket.getPnr());
+            return releaseRejectedSeats(ticket.getJourney(), legs, List.of(newSeat));
+        }
+    }
+
+    private class RemoveCommand implements BookingCommand<Void> {
+        private final Ticket ticket;
+        private final LegRange legs;
+        private int deleted;
+        private boolean journaled;
+
+        RemoveCommand(Ticket ticket) {
+            this.ticket = ticket;
+            this.legs = legsOf(ticket);
+        }
+
+        @Override
+        public void apply() {
+        }
+
+        @Override
+        public void write() {
+            if (journaled)
+                return;
+            deleted = removePersistenceTimer.record(() -> {
+                if (bookingJournal != null) {
+                    journaled = bookingJournal.appendRemoval(ticket);
+                    return journaled ? 1 : 0;
+                }
+                if (seatLegClaims != null)
+                    return seatLegClaims.removeTicket(ticket);
+                return ticketRepository.deleteIfUnchanged(ticket.getPnr(), ticket.getVersion());
+            });
+        }
+
+        @Override
+        public Void commit() {
+            ticketCache.invalidate(ticket.getPnr());
+            if (deleted == 0)
+                throw new TicketUpdateConflictException();
+            passengerIndex.remove(ticket);
+            vacate(ticket.getJourney(), legs, ticket.getSeatAllocated());
+            seatChartChanged(ticket.getJourney());
+            return null;
+        }
+
+        @Override
+        public void rollback() {
+        }
+
+        @Override
+        public boolean reject() {
+            return false;
+        }
+    }
+
+    private List<SeatChartResponseDTO> seatChartOf(Journey journey) {
+        List<SeatChartEntry> entries = seatChartPersistenceTimer
+            .record(() -> ticketRepository.findSeatChart(journey.getTrainNumber(), journey.getDepartureDate()));
+        return entries
+            .stream()
+            .map(TicketService::toSeatChartResponse)
+            .collect(Collectors.toList());
+    }
+
+    private SeatChartSnapshot buildSeatChartSnapshot(Journey journey, long version) {
+        List<SeatChartResponseDTO> seatChart = seatChartOf(journey);
+        Map<String, List<SeatChartResponseDTO>> seatChartBySection = new LinkedHashMap<>();
+        for (String section : seatAllocationService.getTrainLayout(journey).getSections()) {
+            seatChartBySection.put(section, new ArrayList<>());
+        }
+        for (SeatChartResponseDTO seat : seatChart) {
+            seatChartBySection.computeIfAbsent(seat.getSeat().getSection(), section -> new ArrayList<>()).add(seat);
+        }
+        Timer.Sample serialization = Timer.start();
+        try {
+            Map<String, byte[]> sections = new HashMap<>();
+            for (Map.Entry<String, List<SeatChartResponseDTO>> section : seatChartBySection.entrySet()) {
+                sections.put(section.getKey(), objectMapper.writeValueAsBytes(section.getValue()));
+            }
+            String eTag = version < 0 ? null : "\"" + Long.toHexString(SEAT_CHART_EPOCH) + "-" + version + "\"";
+            return new SeatChartSnapshot(version, eTag, objectMapper.writeValueAsBytes(seatChart), Map.copyOf(sections));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize the seat chart of " + journey, e);
+        } finally {
+            serialization.stop(seatChartSerializationTimer);
+        }
+    }
+
+    private List<Ticket> saveTickets(Timer persistenceTimer, Journey journey, LegRange legs, List<User> users, List<Seat> seats) {
+        List<Ticket> tickets = new ArrayList<>(users.size());
+        for (int passenger = 0; passenger < users.size(); passenger++) {
+            Ticket ticket = newTicket(journey, legs, users.get(passenger));
+            ticket.setSeatAllocated(seats.get(passenger));
+            tickets.add(ticket);
+        }
+        try {
+            seatAllocationService.recordTicketedSeats(journey, legs, seats);
+            persistenceTimer.record(() -> {
+                if (seatLegClaims != null)
+                    seatLegClaims.saveTickets(tickets, legs);
+                else
+                    ticketRepository.saveAllAndFlush(tickets);
+            });
+        } catch (DataIntegrityViolationException e) {
+            if (releaseRejectedSeats(journey, legs, seats))
+                throw seatAlreadyTicketed(e);
+            throw e;
+        } catch (RuntimeException e) {
+            seats.forEach(seat -> seatAllocationService.manageVacatedSeat(journey, legs, seat));
+            throw e;
+        }
+        tickets.forEach(ticketCache::put);
+        tickets.forEach(passengerIndex::add);
+        seatChartChanged(journey);
+        return tickets;
+    }
+
+    /**
+     * Handles a write rejected because another ticket already holds one of its seats, which means the seat inventory
+     * handed out a seat that was taken. The request fails as if the seat had been seen to be occupied.
+     */
+    static SeatOccupiedException seatAlreadyTicketed(DataIntegrityViolationException e) {
+        log.warn("The database rejected a seat the inventory considered free", e);
+        return new SeatOccupiedException();
+    }
+
+    /**
+     * Releases the seats claimed for a write the database rejected for breaking a constraint. The tickets of the
+     * departure are read back, and a seat stays claimed only on the legs where another ticket holds it, as the inventory
+     * wrongly had it free there. Whatever constraint was broken, no other seat is left claimed.
+     *
+     * @return true if another ticket holds one of the seats
+     */
+    private boolean releaseRejectedSeats(Journey journey, LegRange legs, List<Seat> seats) {
+        TrainLayout layout = seatAllocationService.getTrainLayout(journey);
+        List<SeatOccupancy> ticketed = ticketRepository.findSeatOccupancy(journey.getTrainNumber(), journey.getDepartureDate());
+        boolean taken = false;
+        for (Seat seat : seats) {
+            boolean[] held = new boolean[legs.to()];
+            for (SeatOccupancy occupancy : ticketed) {
+                if (!seat.getSection().equals(occupancy.section()) || !seat.getSeatNumber().equals(occupancy.seatNumber()))
+                    continue;
+                LegRange other;
+                try {
+                    other = layout.legRange(occupancy.fromStation(), occupancy.toStation());
+                } catch (InvalidRouteException e) {
+                    continue;
+                }
+                for (int leg = Math.max(legs.from(), other.from()); leg < Math.min(legs.to(), other.to()); leg++) {
+                    held[leg] = true;
+                    taken = true;
+                }
+            }
+            // Release each run of legs that no other ticket holds.
+            int leg = legs.from();
+            while (leg < legs.to()) {
+                int end = leg;
+                while (end < legs.to() && !held[end])
+                    end++;
+                if (end > leg)
+                    seatAllocationService.manageVacatedSeat(journey, new LegRange(leg, end), seat);
+                leg = end + 1;
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Releases the legs of a seat given up by a ticket, then offers the departure's free seats to its waitlist.
+     */
+    private void vacate(Journey journey, LegRange legs, Seat seat) {
+        seatAllocationService.manageVacatedSeat(journey, legs, seat);
+        if (bookingWaitlist != null)
+            promoteWaitlisted(journey);
+    }
+
+    /**
+     * Purchases free seats of a departure for its waiting passengers, in the order they joined, until a passenger's
+     * stretch of the route has no free seat. Passengers further back wait as well, even if their stretch has one, so
+     * that nobody is overtaken. If a purchase fails, the passenger is put back at the head to be retried on the next sweep.
+     */
+    private void promoteWaitlisted(Journey journey) {
+        WaitlistEntry entry;
+        while ((entry = bookingWaitlist.take(journey)) != null) {
+            Seat seat;
+            try {
+                seat = seatAllocationService.allocateWaitlistedSeat(journey, entry.getLegs());
+            } catch (NoSuchJourneyException e) {
+                bookingWaitlist.putBack(entry);
+                return;
+            }
+            if (seat == null) {
+                bookingWaitlist.putBack(entry);
+                return;
+            }
+            try {
+                Ticket ticket = execute(new PurchaseCommand(journey, entry.getLegs(), entry.getUser(), seat));
+                bookingWaitlist.promoted(entry, ticket.getPnr());
+            } catch (RuntimeException e) {
+                log.warn("Could not give a freed seat of {} to a waitlisted passenger, retrying later", journey, e);
+                bookingWaitlist.putBack(entry);
+                return;
+            }
+        }
+    }
+
+    private WaitlistedException joinWaitlist(Journey journey, LegRange legs, User user) {
+        WaitlistEntry entry = bookingWaitlist.join(journey, legs, user);
+        // A seat freed while the passenger was joining is handed over now rather than on the next sweep.
+        promoteWaitlisted(journey);
+        return new WaitlistedException(entry.getId());
+    }
+
+    private BookingWaitlist waitlist() {
+        if (bookingWaitlist == null)
+            throw new NoSuchWaitlistEntryException();
+        return bookingWaitlist;
+    }
+
+    private WaitlistStatusDTO toWaitlistStatus(WaitlistEntry entry) {
+        return new WaitlistStatusDTO(entry.getId(), entry.getJourney().getTrainNumber(), entry.getJourney().getDepartureDate(),
+            entry.getStatus().name(), bookingWaitlist.position(entry), entry.getPnr());
+    }
+
+    private Ticket findTicket(Long pnr) {
+        if (seatLegClaims != null)
+            return lookupPersistenceTimer.record(() -> ticketRepository.findById(pnr).orElse(null));
+        return ticketCache.get(pnr, key -> lookupPersistenceTimer.record(() -> bookingJournal != null
+            ? bookingJournal.findTicket(key)
+            : ticketRepository.findById(key).orElse(null)));
+    }
+
+    /**
+     * Registers the timer of one phase of an operation, so that the time spent allocating seats, reading and writing
+     * tickets and serializing seat charts can be told apart.
+     */
+    private Timer phaseTimer(String operation, String phase) {
+        return Timer.builder("booking.phase")
+            .description("Time spent in one phase of a booking operation")
+            .tag("operation", operation)
+            .tag("phase", phase)
+            .register(meterRegistry);
+    }
+
+    private static SeatChartResponseDTO toSeatChartResponse(SeatChartEntry entry) {
+        return new SeatChartResponseDTO(new User(entry.firstName(), entry.lastName(), entry.email()),
+            new Seat(entry.section(), entry.seatNumber()));
+    }
+
+    private void writeLines(Stream<?> values, OutputStream out) throws IOException {
+        Iterator<?> iterator = values.iterator();
+        while (iterator.hasNext()) {
+            out.write(objectMapper.writeValueAsBytes(iterator.next()));
+            out.write('\n');
+        }
+    }
+
+    private void seatChartChanged(Journey journey) {
+        AtomicLong version = seatChartVersions.get(journey);
+        if (version != null)
+            version.incrementAndGet();
+    }
+
+    private LegRange legRange(Journey journey, String fromStation, String toStation) {
+        return seatAllocationService.getTrainLayout(journey).legRange(fromStation, toStation);
+    }
+
+    /**
+     * Finds the legs of the route a ticket was sold for.
+     */
+    private LegRange legsOf(Ticket ticket) {
+        return legRange(ticket.getJourney(), ticket.getFromStation(), ticket.getToStation());
+    }
+
+    private Ticket newTicket(Journey journey, LegRange legs, User user) {
+        TrainLayout layout = seatAllocationService.getTrainLayout(journey);
+        Ticket ticket = new Ticket();
+        if (pnrIssuer != null)
+            ticket.setPnr(pnrIssuer.next());
+        ticket.setJourney(journey);
+        ticket.setFromStation(layout.getStations().get(legs.from()));
+        ticket.setToStation(layout.getStations().get(legs.to()));
+        ticket.setPricePaidInDollars(layout.getPriceInDollars());
+        ticket.setUser(user);
         return ticket;
     }
 }
@@ -0,0 +1,114 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidRouteException;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable description of a train: its route, fare and the sections of its coaches.
+ * The route is the list of stations the train calls at, from its origin to its destination; the legs of the route
+ * are the stretches between consecutive stations.
+ */
+@Getter
+public class TrainLayout {
+    private final String trainNumber;
+    private final String fromStation;
+    private final String toStation;
+    private final List<String> stations;
+    private final Double priceInDollars;
+    private final List<String> sections;
+    private final int[] sectionSizes;
+    private final Map<String, Integer> sectionIndexes = new HashMap<>();
+    private final Map<String, Integer> stationIndexes = new HashMap<>();
+
+    /**
+     * Builds the layout of a configured train.
+     *
+     * @param train the train configuration
+     * @throws IllegalStateException if the train has no number, no valid sections or calls at a station twice
+     */
+    public TrainLayout(BookingProperties.Train train) {
+        if (train.getNumber() == null || train.getNumber().isBlank())
+            throw new IllegalStateException("Every configured train needs a number.");
+        if (train.getSections().isEmpty())
+            throw new IllegalStateException("Train " + train.getNumber() + " has no sections.");
+        this.trainNumber = train.getNumber().toUpperCase();
+        this.fromStation = train.getFromStation();
+        this.toStation = train.getToStation();
+        List<String> route = new ArrayList<>();
+        route.add(fromStation);
+        route.addAll(train.getStops());
+        route.add(toStation);
+        this.stations = Collections.unmodifiableList(route);
+        this.priceInDollars = train.getPriceInDollars();
+        this.sections = train.getSections().keySet().stream().map(String::toUpperCase).toList();
+        this.sectionSizes = train.getSections().values().stream().mapToInt(Integer::intValue).toArray();
+        for (int section = 0; section < sections.size(); section++) {
+            if (sectionSizes[section] <= 0)
+                throw new IllegalStateException("Section " + sections.get(section) + " of train " + trainNumber + " has no seats.");
+            if (sectionIndexes.put(sections.get(section), section) != null)
+                throw new IllegalStateException("Train " + trainNumber + " has section " + sections.get(section) + " more than once.");
+        }
+        for (int station = 0; station < stations.size(); station++) {
+            if (stations.get(station) == null)
+                continue;
+            if (stationIndexes.put(stations.get(station).toUpperCase(), station) != null)
+                throw new IllegalStateException("Train " + trainNumber + " calls at " + stations.get(station) + " more than once.");
+        }
+    }
+
+    /**
+     * Finds the position of a section in this layout.
+     *
+     * @param section the name of the section
+     * @return the index of the section, or -1 if the train has no such section
+     */
+    public int sectionIndex(String section) {
+        return section == null ? -1 : sectionIndexes.getOrDefault(section, -1);
+    }
+
+    /**
+     * @return the number of legs of the route, one more than the number of intermediate stops
+     */
+    public int legCount() {
+        return stations.size() - 1;
+    }
+
+    /**
+     * Finds the legs of the route travelled between two stations, which are matched ignoring case.
+     *
+     * @param fromStation the station to board at, or null for the origin of the train
+     * @param toStation   the station to leave at, or null for the destination of the train
+     * @return the legs between the two stations
+     * @throws InvalidRouteException if the train does not call at either station, or not in that order
+     */
+    public LegRange legRange(String fromStation, String toStation) {
+        int from = fromStation == null ? 0 : stationIndexes.getOrDefault(fromStation.toUpperCase(), -1);
+        int to = toStation == null ? legCount() : stationIndexes.getOrDefault(toStation.toUpperCase(), -1);
+        if (from < 0 || to <= from)
+            throw new InvalidRouteException();
+        return new LegRange(from, to);
+    }
+
+    /**
+     * @return the legs of the whole route, from the origin of the train to its destination
+     */
+    public LegRange wholeRoute() {
+        return new LegRange(0, legCount());
+    }
+
+    /**
+     * Creates an empty seat inventory for one departure of this train.
+     *
+     * @return a seat inventory with every seat free on every leg
+     */
+    public SeatInventory newInventory() {
+        return new SeatInventory(sectionSizes, legCount());
+    }
+}
@@ -0,0 +1,125 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A passenger waiting for a seat on a sold-out departure, and what has become of their purchase since.
+ */
+public class WaitlistEntry {
+    public enum Status {
+        /**
+         * In the queue of the departure.
+         */
+        WAITING,
+        /**
+         * Taken from the queue and being given a freed seat.
+         */
+        PROMOTING,
+        /**
+         * Holds a ticket.
+         */
+        PROMOTED,
+        /**
+         * Left the waitlist at the passenger's request.
+         */
+        CANCELLED,
+        /**
+         * The departure left before a seat was freed.
+         */
+        EXPIRED
+    }
+
+    private final String id;
+    private final Journey journey;
+    private final LegRange legs;
+    private final User user;
+    private final long sequence;
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.WAITING);
+    private final CompletableFuture<WaitlistEntry> settled = new CompletableFuture<>();
+    private volatile Long pnr;
+
+    WaitlistEntry(String id, Journey journey, LegRange legs, User user, long sequence) {
+        this.id = id;
+        this.journey = journey;
+        this.legs = legs;
+        this.user = user;
+        this.sequence = sequence;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Journey getJourney() {
+        return journey;
+    }
+
+    /**
+     * @return the legs of the route the passenger is waiting for a seat on
+     */
+    public LegRange getLegs() {
+        return legs;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    /**
+     * @return the number of passengers who joined the waitlist of the departure up to and including this one
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Status getStatus() {
+        return status.get();
+    }
+
+    /**
+     * @return the PNR number of the ticket, or null unless promoted
+     */
+    public Long getPnr() {
+        return pnr;
+    }
+
+    /**
+     * @return a future completed with this entry once it is promoted, cancelled or expired
+     */
+    public CompletableFuture<WaitlistEntry> settled() {
+        return settled.copy();
+    }
+
+    boolean claim() {
+        return status.compareAndSet(Status.WAITING, Status.PROMOTING);
+    }
+
+    void unclaim() {
+        status.compareAndSet(Status.PROMOTING, Status.WAITING);
+    }
+
+    void promote(Long pnr) {
+        this.pnr = pnr;
+        status.set(Status.PROMOTED);
+        settled.complete(this);
+    }
+
+    boolean cancel() {
+        return settle(Status.CANCELLED);
+    }
+
+    boolean expire() {
+        return settle(Status.EXPIRED);
+    }
+
+    private boolean settle(Status outcome) {
+        if (!status.compareAndSet(Status.WAITING, outcome))
+            return false;
+        settled.complete(this);
+        return true;
+    }
+}
@@ -3,31 +3,68 @@ package com.cloudbees.trainTicketBookingAPI.controller;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatAvailabilityDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartPageDTO;
 import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartResponseDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SectionAvailabilityDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.WaitlistStatusDTO;
+import com.cloudbees.trainTicketBookingAPI.exception.BookingQueueFullException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidDateRangeException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidPageRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidRouteException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidSeatRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchHoldException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchJourneyException;
 import com.cloudbees.trainTicketBookingAPI.exception.NoSuchSectionException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchWaitlistEntryException;
 import com.cloudbees.trainTicketBookingAPI.exception.NoTicketFoundException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketUpdateConflictException;
+import com.cloudbees.trainTicketBookingAPI.exception.WaitlistedException;
+import com.cloudbees.trainTicketBookingAPI.service.SeatChartSnapshot;
+import com.cloudbees.trainTicketBookingAPI.service.SeatHold;
 import com.cloudbees.trainTicketBookingAPI.service.TicketService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(controllers = TicketController.class)
 class TicketControllerTest {
 
+    private static final String ETAG = "\"18f0-1\"";
+
     @MockBean
     TicketService ticketService;
 
@@ -52,6 +89,18 @@ class TicketControllerTest {
             .andExpect(jsonPath("$.seatAllocated.seatNumber").value(1));
     }
 
+    @Test
+    void testGetTicketByReceiptCode() throws Exception {
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        ticket.setSeatAllocated(new Seat("A", 1));
+        when(ticketService.getTicketByReceiptCode(ticket.getReceiptCode())).thenReturn(ticket);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/receipt/code/{code}", ticket.getReceiptCode()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.pnr").value(1))
+            .andExpect(jsonPath("$.receiptCode").value(ticket.getReceiptCode()));
+    }
+
     @Test
     void testGetTicketNotFound() throws Exception {
         Long pnr = 1L;
@@ -60,51 +109,253 @@ class TicketControllerTest {
             .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testGetTicketsByEmail() throws Exception {
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        ticket.setUser(new User("firstName", "lastName", "email@domain.com"));
+        ticket.setSeatAllocated(new Seat("A", 1));
+        when(ticketService.getTicketsByEmail("Email@Domain.com")).thenReturn(List.of(ticket));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/by-email/{email}", "Email@Domain.com"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1))
+            .andExpect(jsonPath("$[0].pnr").value(1))
+            .andExpect(jsonPath("$[0].user.email").value("email@domain.com"));
+    }
+
     @Test
     void testGetSeatChart() throws Exception {
         List<SeatChartResponseDTO> seatChart = List.of(new SeatChartResponseDTO(), new SeatChartResponseDTO());
-        when(ticketService.getSeatChart()).thenReturn(seatChart);
+        when(ticketService.getSeatChartSnapshot(null, null)).thenReturn(snapshotOf(seatChart, Map.of()));
         mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart"))
             .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, ETAG))
             .andExpect(jsonPath("$.length()").value(2));
     }
 
+    @Test
+    void testGetSeatChartWithoutETag() throws Exception {
+        SeatChartSnapshot snapshot = snapshotOf(List.of(), Map.of());
+        when(ticketService.getSeatChartSnapshot(null, null))
+            .thenReturn(new SeatChartSnapshot(-1, null, snapshot.seatChart(), snapshot.sections()));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void testGetAvailability() throws Exception {
+        SeatAvailabilityDTO availability = new SeatAvailabilityDTO("LF101", LocalDate.of(2024, 6, 1), "London", "France", 62,
+            List.of(new SectionAvailabilityDTO("A", 64, 62, List.of(new int[]{2, 10}, new int[]{12, 64}))));
+        when(ticketService.getAvailability(null, null, null, null, null)).thenReturn(availability);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/availability"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.freeSeats").value(62))
+            .andExpect(jsonPath("$.sections[0].section").value("A"))
+            .andExpect(jsonPath("$.sections[0].freeSeatRanges[1][0]").value(12))
+            .andExpect(jsonPath("$.sections[0].freeSeatRanges[1][1]").value(64));
+    }
+
+    @Test
+    void testGetAvailabilityBetweenStations() throws Exception {
+        SeatAvailabilityDTO availability = new SeatAvailabilityDTO("LP201", LocalDate.of(2024, 6, 1), "Lille", "Paris", 64,
+            List.of(new SectionAvailabilityDTO("A", 64, 64, List.<int[]>of(new int[]{1, 64}))));
+        when(ticketService.getAvailability("LP201", null, "Lille", "Paris", null)).thenReturn(availability);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/availability")
+                .param("train", "LP201")
+                .param("fromStation", "Lille")
+                .param("toStation", "Paris"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.fromStation").value("Lille"))
+            .andExpect(jsonPath("$.freeSeats").value(64));
+    }
+
+    @Test
+    void testGetAvailabilityBySectionNotFound() throws Exception {
+        when(ticketService.getAvailability(null, null, null, null, "Z")).thenThrow(NoSuchSectionException.class);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/availability/z"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetSeatChartNotModified() throws Exception {
+        List<SeatChartResponseDTO> seatChart = List.of(new SeatChartResponseDTO());
+        when(ticketService.getSeatChartSnapshot(null, null)).thenReturn(snapshotOf(seatChart, Map.of()));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart").header(HttpHeaders.IF_NONE_MATCH, ETAG))
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+    }
+
+    @Test
+    void testGetSeatChartForJourney() throws Exception {
+        List<SeatChartResponseDTO> seatChart = List.of(new SeatChartResponseDTO());
+        when(ticketService.getSeatChartSnapshot("EP202", LocalDate.of(2024, 6, 2))).thenReturn(snapshotOf(seatChart, Map.of()));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart")
+                .param("train", "EP202")
+                .param("date", "2024-06-02"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1));
+    }
+
+    @Test
+    void testGetSeatChartNoSuchJourney() throws Exception {
+        when(ticketService.getSeatChartSnapshot("XX1", null)).thenThrow(NoSuchJourneyException.class);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart").param("train", "XX1"))
+            .andExpect(status().isNotFound());
+    }
+
     @Test
     void testGetSeatChartBySectionValidSection() throws Exception {
-        String section = "A";
         SeatChartResponseDTO seatChartResponseDTO1 = new SeatChartResponseDTO(new User(), new Seat("A", 10));
         SeatChartResponseDTO seatChartResponseDTO2 = new SeatChartResponseDTO(new User(), new Seat("B", 20));
         SeatChartResponseDTO seatChartResponseDTO3 = new SeatChartResponseDTO(new User(), new Seat("A", 5));
         List<SeatChartResponseDTO> seatChart = List.of(seatChartResponseDTO1, seatChartResponseDTO2, seatChartResponseDTO3);
-        when(ticketService.getSeatChartBySection(section)).thenReturn(seatChart
-            .stream()
-            .filter(seatChartResponseDTO -> seatChartResponseDTO.getSeat()
-                .getSection()
-                .equals(section))
-            .collect(Collectors.toList()));
-        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket//seatchart/{section}", section))
+        when(ticketService.getSeatChartSnapshot(null, null)).thenReturn(snapshotOf(seatChart, Map.of(
+            "A", List.of(seatChartResponseDTO1, seatChartResponseDTO3),
+            "B", List.of(seatChartResponseDTO2))));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket//seatchart/{section}", "a"))
             .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.ETAG, ETAG))
             .andExpect(jsonPath("$.length()").value(2));
     }
 
     @Test
     void testGetSeatChartBySectionInvalidSection() throws Exception {
-        String section = "C";
-        when(ticketService.getSeatChartBySection(section)).thenThrow(NoSuchSectionException.class);
-        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket//seatchart/{section}", section))
+        when(ticketService.getSeatChartSnapshot(null, null)).thenReturn(snapshotOf(List.of(), Map.of("A", List.of(), "B", List.of())));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket//seatchart/{section}", "C"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testGetSeatChartPage() throws Exception {
+        SeatChartPageDTO page = new SeatChartPageDTO(List.of(new SeatChartResponseDTO(new User(), new Seat("A", 4))), "A:4");
+        when(ticketService.getSeatChartPage(null, null, null, "A:2", 1)).thenReturn(page);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart")
+                .param("limit", "1")
+                .param("after", "a:2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.seats.length()").value(1))
+            .andExpect(jsonPath("$.nextCursor").value("A:4"));
+        verify(ticketService, never()).getSeatChartSnapshot(any(), any());
+    }
+
+    @Test
+    void testGetSeatChartPageBySectionInvalidPageRequest() throws Exception {
+        when(ticketService.getSeatChartPage(null, null, "A", null, 0)).thenThrow(InvalidPageRequestException.class);
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart/{section}", "a").param("limit", "0"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testStreamSeatChart() throws Exception {
+        doAnswer(invocation -> {
+            invocation.getArgument(3, OutputStream.class).write("{\"seat\":{\"section\":\"A\",\"seatNumber\":1}}\n".getBytes());
+            return null;
+        }).when(ticketService).writeSeatChart(isNull(), isNull(), isNull(), any(OutputStream.class));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart").accept(MediaType.APPLICATION_NDJSON))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+            .andExpect(content().string("{\"seat\":{\"section\":\"A\",\"seatNumber\":1}}\n"));
+        verify(ticketService, never()).getSeatChartSnapshot(any(), any());
+    }
+
+    @Test
+    void testStreamSeatChartBySectionInvalidSection() throws Exception {
+        doThrow(NoSuchSectionException.class).when(ticketService).writeSeatChart(isNull(), isNull(), eq("C"), any(OutputStream.class));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/seatchart/{section}", "c").accept(MediaType.APPLICATION_NDJSON))
             .andExpect(status().isNotFound());
     }
 
+    @Test
+    void testStreamManifest() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/manifest")
+                .param("train", "LF101")
+                .param("from", "2024-06-01")
+                .param("to", "2024-06-07"))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.APPLICATION_NDJSON));
+        verify(ticketService, times(1)).writeManifest(eq("LF101"), eq(LocalDate.of(2024, 6, 1)), eq(LocalDate.of(2024, 6, 7)), any(OutputStream.class));
+    }
+
+    @Test
+    void testStreamManifestInvalidDateRange() throws Exception {
+        doThrow(InvalidDateRangeException.class).when(ticketService).writeManifest(isNull(), any(), any(), any(OutputStream.class));
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/manifest")
+                .param("from", "2024-06-07")
+                .param("to", "2024-06-01"))
+            .andExpect(status().isBadRequest());
+    }
+
     @Test
     void testPurchaseTicketValidEmail() throws Exception {
         User user = new User("firstName", "lastName", "email@domain.com");
         Ticket ticket = new Ticket();
         ticket.setUser(user);
-        when(ticketService.purchaseTicket(user)).thenReturn(ticket);
+        when(ticketService.purchaseTicketAsync(any(User.class), isNull(), isNull(), isNull(), isNull())).thenReturn(CompletableFuture.completedFuture(ticket));
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(user)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.user.email").value("email@domain.com"));
+    }
+
+    @Test
+    void testPurchaseTicketInvalidRoute() throws Exception {
+        User user = new User("firstName", "lastName", "email@domain.com");
+        when(ticketService.purchaseTicketAsync(any(User.class), isNull(), isNull(), eq("Paris"), eq("Lille"))).thenThrow(InvalidRouteException.class);
         mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase")
+                .param("fromStation", "Paris")
+                .param("toStation", "Lille")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(new ObjectMapper().writeValueAsString(user)))
-            .andExpect(status().isOk());
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testPurchaseTicketQueueFull() throws Exception {
+        User user = new User("firstName", "lastName", "email@domain.com");
+        when(ticketService.purchaseTicketAsync(any(User.class), isNull(), isNull(), isNull(), isNull())).thenThrow(BookingQueueFullException.class);
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(user)))
+            .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    void testPurchaseTicketWaitlisted() throws Exception {
+        User user = new User("firstName", "lastName", "email@domain.com");
+        when(ticketService.purchaseTicketAsync(any(User.class), isNull(), isNull(), isNull(), isNull())).thenThrow(new WaitlistedException("entry"));
+        when(ticketService.getWaitlistStatus("entry")).thenReturn(new WaitlistStatusDTO("entry", "LF101", LocalDate.of(2024, 6, 1), "WAITING", 3L, null));
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(user)))
+            .andExpect(status().isAccepted())
+            .andExpect(header().string(HttpHeaders.LOCATION, "/api/ticket/waitlist/entry"))
+            .andExpect(jsonPath("$.status").value("WAITING"))
+            .andExpect(jsonPath("$.position").value(3));
+    }
+
+    @Test
+    void testGetWaitlistStatusLongPoll() throws Exception {
+        when(ticketService.awaitWaitlistStatus("entry", 20)).thenReturn(CompletableFuture.completedFuture(
+            new WaitlistStatusDTO("entry", "LF101", LocalDate.of(2024, 6, 1), "PROMOTED", null, 7L)));
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/ticket/waitlist/{id}", "entry").param("wait", "20"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.status").value("PROMOTED"))
+            .andExpect(jsonPath("$.pnr").value(7));
+    }
+
+    @Test
+    void testCancelUnknownWaitlistEntry() throws Exception {
+        when(ticketService.cancelWaitlistEntry("entry")).thenThrow(NoSuchWaitlistEntryException.class);
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/ticket/waitlist/{id}", "entry"))
+            .andExpect(status().isNotFound());
     }
 
     @Test
@@ -116,13 +367,110 @@ class TicketControllerTest {
             .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void testPurchaseTicketsValidEmails() throws Exception {
+        List<User> users = List.of(new User("first1", "last1", "one@domain.com"), new User("first2", "last2", "two@domain.com"));
+        when(ticketService.purchaseTickets(anyList(), eq("LF101"), isNull(), isNull(), isNull(), eq(true))).thenReturn(List.of(new Ticket(), new Ticket()));
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase/batch")
+                .param("train", "LF101")
+                .param("together", "true")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(users)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    void testPurchaseTicketsInvalidEmail() throws Exception {
+        List<User> users = List.of(new User("first1", "last1", "one@domain.com"), new User("first2", "last2", "two"));
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(users)))
+            .andExpect(status().isBadRequest());
+        verify(ticketService, never()).purchaseTickets(anyList(), any(), any(), any(), any(), anyBoolean());
+    }
+
+    @Test
+    void testPurchaseTicketsMissingPassenger() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[null]"))
+            .andExpect(status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/purchase/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("null"))
+            .andExpect(status().isBadRequest());
+        verify(ticketService, never()).purchaseTickets(anyList(), any(), any(), any(), any(), anyBoolean());
+    }
+
+    @Test
+    void testHoldSeats() throws Exception {
+        List<User> users = List.of(new User("first1", "last1", "one@domain.com"));
+        SeatHold hold = new SeatHold("token", null, null, users, List.of(new Seat("A", 1)), Instant.parse("2024-06-01T10:05:00Z"));
+        when(ticketService.holdSeats(anyList(), isNull(), isNull(), isNull(), isNull(), eq(false))).thenReturn(hold);
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/hold")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(users)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.token").value("token"))
+            .andExpect(jsonPath("$.expiresAt").value("2024-06-01T10:05:00Z"))
+            .andExpect(jsonPath("$.seats[0].section").value("A"));
+    }
+
+    @Test
+    void testHoldSeatsMissingPassenger() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/hold")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[null]"))
+            .andExpect(status().isBadRequest());
+        verify(ticketService, never()).holdSeats(anyList(), any(), any(), any(), any(), anyBoolean());
+    }
+
+    @Test
+    void testConfirmHold() throws Exception {
+        when(ticketService.confirmHold("token")).thenReturn(List.of(new Ticket()));
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/hold/{token}/confirm", "token"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1));
+    }
+
+    @Test
+    void testConfirmExpiredHold() throws Exception {
+        when(ticketService.confirmHold("token")).thenThrow(NoSuchHoldException.class);
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/ticket/hold/{token}/confirm", "token"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testReleaseHold() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.delete("/api/ticket/hold/{token}", "token"))
+            .andExpect(status().isOk());
+        verify(ticketService, times(1)).releaseHold("token");
+    }
+
     @Test
     void testRemoveUserTicket() throws Exception {
         Long pnr = 1L;
-        mockMvc.perform(MockMvcRequestBuilders.delete("/api/ticket/remove/{pnr}", pnr)
+        when(ticketService.removeUserTicketAsync(pnr)).thenReturn(CompletableFuture.completedFuture(null));
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.delete("/api/ticket/remove/{pnr}", pnr)
                 .contentType(MediaType.APPLICATION_JSON))
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
             .andExpect(status().isOk());
-        verify(ticketService, times(1)).removeUserTicket(pnr);
+        verify(ticketService, times(1)).removeUserTicketAsync(pnr);
+    }
+
+    @Test
+    void testModifySeatConflict() throws Exception {
+        Long pnr = 1L;
+        Seat seat = new Seat("B", 1);
+        when(ticketService.modifyUserTicketAsync(eq(pnr), any(Seat.class))).thenReturn(CompletableFuture.failedFuture(new TicketUpdateConflictException()));
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.put("/api/ticket/modify/{pnr}", pnr)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(seat)))
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isConflict());
     }
 
     @Test
@@ -132,17 +480,21 @@ class TicketControllerTest {
         Ticket ticket = new Ticket();
         ticket.setPnr(pnr);
         ticket.setSeatAllocated(seat);
-        when(ticketService.modifyUserTicket(pnr, seat)).thenReturn(ticket);
-        mockMvc.perform(MockMvcRequestBuilders.put("/api/ticket/modify/{pnr}", pnr)
+        when(ticketService.modifyUserTicketAsync(eq(pnr), any(Seat.class))).thenReturn(CompletableFuture.completedFuture(ticket));
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.put("/api/ticket/modify/{pnr}", pnr)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(new ObjectMapper().writeValueAsString(seat)))
-            .andExpect(status().isOk());
+            .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.seatAllocated.section").value("B"));
     }
 
     @Test
     void testModifySeatInvalidSeatSection() throws Exception {
         Long pnr = 1L;
         Seat seat = new Seat("C", 1);
+        when(ticketService.modifyUserTicketAsync(eq(pnr), any(Seat.class))).thenThrow(InvalidSeatRequestException.class);
         mockMvc.perform(MockMvcRequestBuilders.put("/api/ticket/modify/{pnr}", pnr)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(new ObjectMapper().writeValueAsString(seat)))
@@ -153,9 +505,29 @@ class TicketControllerTest {
     void testModifySeatInvalidSeatNumber() throws Exception {
         Long pnr = 1L;
         Seat seat = new Seat("A", 1000);
+        when(ticketService.modifyUserTicketAsync(eq(pnr), any(Seat.class))).thenThrow(InvalidSeatRequestException.class);
         mockMvc.perform(MockMvcRequestBuilders.put("/api/ticket/modify/{pnr}", pnr)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(new ObjectMapper().writeValueAsString(seat)))
             .andExpect(status().isBadRequest());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testModifySeatMissingSeatNumber() throws Exception {
+        Long pnr = 1L;
+        Seat seat = new Seat("A", null);
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/ticket/modify/{pnr}", pnr)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(seat)))
+            .andExpect(status().isBadRequest());
+    }
+
+    private static SeatChartSnapshot snapshotOf(List<SeatChartResponseDTO> seatChart,
+                                                Map<String, List<SeatChartResponseDTO>> sections) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, byte[]> serializedSections = new HashMap<>();
+        for (Map.Entry<String, List<SeatChartResponseDTO>> section : sections.entrySet())
+            serializedSections.put(section.getKey(), objectMapper.writeValueAsBytes(section.getValue()));
+        return new SeatChartSnapshot(1, ETAG, objectMapper.writeValueAsBytes(seatChart), serializedSections);
+    }
+}
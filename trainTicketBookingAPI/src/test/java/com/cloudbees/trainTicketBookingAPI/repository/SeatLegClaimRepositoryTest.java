@@ -0,0 +1,55 @@
+package com.cloudbees.trainTicketBookingAPI.repository;
+
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ClaimedSeatLeg;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class SeatLegClaimRepositoryTest {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+
+    @Autowired
+    SeatLegClaimRepository seatLegClaimRepository;
+
+    @AfterEach
+    void teardown() {
+        seatLegClaimRepository.deleteAll();
+    }
+
+    @Test
+    void testClaimSeatLegOnce() {
+        assertEquals(1, seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 0, 1L));
+        assertThrows(DataIntegrityViolationException.class, () -> seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 0, 2L));
+    }
+
+    @Test
+    void testClaimSameSeatOnOtherLegsAndDepartures() {
+        seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 0, 1L);
+        seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 1, 2L);
+        seatLegClaimRepository.claim("LP201", TODAY.plusDays(1), "A", 1, 0, 3L);
+        seatLegClaimRepository.claim("LF101", TODAY, "A", 1, 0, 4L);
+        assertThat(seatLegClaimRepository.findClaimedSeatLegs("LP201", TODAY))
+            .containsExactlyInAnyOrder(new ClaimedSeatLeg("A", 1, 0), new ClaimedSeatLeg("A", 1, 1));
+    }
+
+    @Test
+    void testReleaseClaimsOfTicket() {
+        seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 0, 1L);
+        seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 1, 1L);
+        seatLegClaimRepository.claim("LP201", TODAY, "A", 2, 0, 2L);
+        assertEquals(2, seatLegClaimRepository.releaseClaims(1L));
+        assertThat(seatLegClaimRepository.findClaimedSeatLegs("LP201", TODAY)).containsExactly(new ClaimedSeatLeg("A", 2, 0));
+        assertEquals(1, seatLegClaimRepository.claim("LP201", TODAY, "A", 1, 0, 3L));
+    }
+}
@@ -1,31 +1,50 @@
 package com.cloudbees.trainTicketBookingAPI.repository;
 
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ManifestEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy;
+import org.hibernate.Session;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @DataJpaTest
 @ActiveProfiles("test")
 class TicketRepositoryTest {
     @Autowired
     TicketRepository ticketRepository;
+    @Autowired
+    TestEntityManager entityManager;
     private Ticket ticket;
+    private final Journey journey = new Journey("LF101", LocalDate.of(2024, 6, 1));
 
     @BeforeEach
     void setup() {
         ticket = new Ticket();
+        ticket.setJourney(journey);
+        ticket.setFromStation("London");
+        ticket.setToStation("France");
         ticket.setUser(new User("firstName", "lastName", "email@domain.com"));
         ticket.setSeatAllocated(new Seat("A", 1));
     }
@@ -42,6 +61,29 @@ class TicketRepositoryTest {
         assertNotEquals(savedTicket.getPnr(), null);
     }
 
+    @Test
+    void testSaveSeatAlreadyTicketed() {
+        ticketRepository.saveAndFlush(ticket);
+        Ticket sameSeat = new Ticket();
+        sameSeat.setJourney(journey);
+        sameSeat.setFromStation("London");
+        sameSeat.setToStation("Lille");
+        sameSeat.setSeatAllocated(new Seat("A", 1));
+        assertThrows(DataIntegrityViolationException.class, () -> ticketRepository.saveAndFlush(sameSeat));
+    }
+
+    @Test
+    void testSaveSeatTicketedFromAnotherStation() {
+        ticket.setToStation("Lille");
+        ticketRepository.saveAndFlush(ticket);
+        Ticket sameSeat = new Ticket();
+        sameSeat.setJourney(journey);
+        sameSeat.setFromStation("Lille");
+        sameSeat.setToStation("Paris");
+        sameSeat.setSeatAllocated(new Seat("A", 1));
+        assertThat(ticketRepository.saveAndFlush(sameSeat).getPnr()).isNotNull();
+    }
+
     @Test
     void testFindByIdFound() {
         Ticket savedTicket = ticketRepository.save(ticket);
@@ -50,6 +92,16 @@ class TicketRepositoryTest {
         assertThat(foundTicket.get()).usingRecursiveComparison().ignoringFields("pnr").isEqualTo(savedTicket);
     }
 
+    @Test
+    void testSaveKeepsAssignedPnr() {
+        Ticket generated = ticketRepository.saveAndFlush(ticket);
+        Ticket assigned = new Ticket(generated.getPnr() + 1000, journey, "London", "France",
+            new User("first2", "last2", "two@domain.com"), 20.0, new Seat("A", 2), null);
+        ticketRepository.saveAndFlush(assigned);
+        assertThat(ticketRepository.findById(generated.getPnr() + 1000)).isPresent();
+        assertThat(ticketRepository.findVersion(generated.getPnr() + 1000)).contains(0L);
+    }
+
     @Test
     void testFindByIdNotFound() {
         Long pnr = 0L;
@@ -66,39 +118,214 @@ class TicketRepositoryTest {
     }
 
     @Test
-    void findAllByOrderBySeatAllocatedSectionAscSeatAllocatedSeatNumberAsc() {
+    void findSeatChart() {
         Ticket ticket1 = new Ticket();
+        ticket1.setJourney(journey);
+        ticket1.setUser(new User("first1", "last1", "one@domain.com"));
         ticket1.setSeatAllocated(new Seat("A", 10));
-        Ticket savedTicket1 = ticketRepository.save(ticket1);
+        ticketRepository.save(ticket1);
         Ticket ticket2 = new Ticket();
+        ticket2.setJourney(journey);
         ticket2.setSeatAllocated(new Seat("B", 20));
-        Ticket savedTicket2 = ticketRepository.save(ticket2);
+        ticketRepository.save(ticket2);
         Ticket ticket3 = new Ticket();
+        ticket3.setJourney(journey);
         ticket3.setSeatAllocated(new Seat("A", 5));
-        Ticket savedTicket3 = ticketRepository.save(ticket3);
+        ticketRepository.save(ticket3);
+        Ticket otherDeparture = new Ticket();
+        otherDeparture.setJourney(new Journey("LF101", LocalDate.of(2024, 6, 2)));
+        otherDeparture.setSeatAllocated(new Seat("A", 1));
+        ticketRepository.save(otherDeparture);
+        entityManager.flush();
+        entityManager.clear();
 
-        List<Ticket> tickets = List.of(savedTicket3, savedTicket1, savedTicket2);
-        List<Ticket> result = ticketRepository.findAllByOrderBySeatAllocatedSectionAscSeatAllocatedSeatNumberAsc();
-        assertThat(result).hasSize(3);
-        assertThat(result).isEqualTo(tickets);
+        List<SeatChartEntry> result = ticketRepository.findSeatChart("LF101", journey.getDepartureDate());
+        assertThat(result).containsExactly(
+            new SeatChartEntry(null, null, null, "A", 5, ticket3.getPnr()),
+            new SeatChartEntry("first1", "last1", "one@domain.com", "A", 10, ticket1.getPnr()),
+            new SeatChartEntry(null, null, null, "B", 20, ticket2.getPnr()));
+        assertThat(entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount()).isZero();
     }
 
     @Test
-    void findBySeatAllocatedSectionOrderBySeatAllocatedSeatNumberAsc() {
+    void findSeatChartBySection() {
         String section = "A";
         Ticket ticket1 = new Ticket();
+        ticket1.setJourney(journey);
         ticket1.setSeatAllocated(new Seat("A", 10));
-        Ticket savedTicket1 = ticketRepository.save(ticket1);
+        ticketRepository.save(ticket1);
         Ticket ticket2 = new Ticket();
+        ticket2.setJourney(journey);
         ticket2.setSeatAllocated(new Seat("B", 20));
-        Ticket savedTicket2 = ticketRepository.save(ticket2);
+        ticketRepository.save(ticket2);
         Ticket ticket3 = new Ticket();
+        ticket3.setJourney(journey);
         ticket3.setSeatAllocated(new Seat("A", 5));
-        Ticket savedTicket3 = ticketRepository.save(ticket3);
+        ticketRepository.save(ticket3);
+        Ticket otherTrain = new Ticket();
+        otherTrain.setJourney(new Journey("EP202", journey.getDepartureDate()));
+        otherTrain.setSeatAllocated(new Seat("A", 1));
+        ticketRepository.save(otherTrain);
+        // Seat chart reads never flush, so pending inserts must be flushed before reading them back.
+        entityManager.flush();
+
+        List<SeatChartEntry> result = ticketRepository.findSeatChartBySection("LF101", journey.getDepartureDate(), section);
+        assertThat(result).extracting(SeatChartEntry::section, SeatChartEntry::seatNumber)
+            .containsExactly(tuple("A", 5), tuple("A", 10));
+    }
+
+    @Test
+    void streamSeatChart() {
+        ticketRepository.save(ticket);
+        Ticket sectionB = new Ticket();
+        sectionB.setJourney(journey);
+        sectionB.setUser(new User("first2", "last2", "two@domain.com"));
+        sectionB.setSeatAllocated(new Seat("B", 2));
+        ticketRepository.save(sectionB);
+        Ticket nextDay = new Ticket();
+        nextDay.setJourney(new Journey("LF101", journey.getDepartureDate().plusDays(1)));
+        nextDay.setSeatAllocated(new Seat("A", 3));
+        ticketRepository.save(nextDay);
+        entityManager.flush();
 
-        List<Ticket> tickets = List.of(savedTicket3, savedTicket1);
-        List<Ticket> result = ticketRepository.findBySeatAllocatedSectionOrderBySeatAllocatedSeatNumberAsc(section);
-        assertThat(result).hasSize(2);
-        assertThat(result).isEqualTo(tickets);
+        try (Stream<SeatChartEntry> entries = ticketRepository.streamSeatChart("LF101", journey.getDepartureDate(), null)) {
+            assertThat(entries.map(SeatChartEntry::seatNumber).toList()).containsExactly(1, 2);
+        }
+        try (Stream<SeatChartEntry> entries = ticketRepository.streamSeatChart("LF101", journey.getDepartureDate(), "B")) {
+            assertThat(entries.toList()).containsExactly(new SeatChartEntry("first2", "last2", "two@domain.com", "B", 2, sectionB.getPnr()));
+        }
+    }
+
+    @Test
+    void streamSeatOccupancyDepartingFrom() {
+        ticketRepository.save(ticket);
+        Ticket departed = new Ticket();
+        departed.setJourney(new Journey("LF101", journey.getDepartureDate().minusDays(1)));
+        departed.setSeatAllocated(new Seat("B", 2));
+        ticketRepository.save(departed);
+
+        try (Stream<SeatOccupancy> occupancies = ticketRepository.streamSeatOccupancyDepartingFrom(journey.getDepartureDate())) {
+            assertThat(occupancies.toList()).containsExactly(new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 1, "London", "France"));
+        }
+    }
+
+    @Test
+    void streamManifest() {
+        Ticket savedTicket = ticketRepository.save(ticket);
+        Ticket nextDay = new Ticket();
+        nextDay.setJourney(new Journey("LF101", journey.getDepartureDate().plusDays(1)));
+        nextDay.setUser(new User("first2", "last2", "two@domain.com"));
+        nextDay.setSeatAllocated(new Seat("B", 2));
+        Ticket savedNextDay = ticketRepository.save(nextDay);
+        Ticket outOfRange = new Ticket();
+        outOfRange.setJourney(new Journey("LF101", journey.getDepartureDate().plusDays(2)));
+        outOfRange.setSeatAllocated(new Seat("A", 1));
+        ticketRepository.save(outOfRange);
+        Ticket otherTrain = new Ticket();
+        otherTrain.setJourney(new Journey("EP202", journey.getDepartureDate()));
+        otherTrain.setSeatAllocated(new Seat("A", 2));
+        ticketRepository.save(otherTrain);
+
+        try (Stream<ManifestEntry> entries = ticketRepository.streamManifest("LF101", journey.getDepartureDate(),
+            journey.getDepartureDate().plusDays(1))) {
+            List<ManifestEntry> manifest = entries.toList();
+            assertThat(manifest.stream().map(ManifestEntry::pnr)).containsExactly(savedTicket.getPnr(), savedNextDay.getPnr());
+            assertThat(manifest.get(1)).isEqualTo(new ManifestEntry(savedNextDay.getPnr(), "LF101",
+                journey.getDepartureDate().plusDays(1), null, null, "first2", "last2", "two@domain.com", null, "B", 2));
+        }
+    }
+
+    @Test
+    void findSeatChartPage() {
+        for (Seat seat : List.of(new Seat("B", 1), new Seat("A", 2), new Seat("A", 10), new Seat("B", 3))) {
+            Ticket seated = new Ticket();
+            seated.setJourney(journey);
+            seated.setSeatAllocated(seat);
+            ticketRepository.save(seated);
+        }
+        Ticket otherDeparture = new Ticket();
+        otherDeparture.setJourney(new Journey("LF101", journey.getDepartureDate().plusDays(1)));
+        otherDeparture.setSeatAllocated(new Seat("A", 5));
+        ticketRepository.save(otherDeparture);
+        entityManager.flush();
+
+        List<SeatChartEntry> firstPage = ticketRepository.findSeatChartPage("LF101", journey.getDepartureDate(), "", 0, 0, Limit.of(2));
+        assertThat(firstPage).extracting(SeatChartEntry::section, SeatChartEntry::seatNumber)
+            .containsExactly(tuple("A", 2), tuple("A", 10));
+        SeatChartEntry last = firstPage.get(1);
+        List<SeatChartEntry> secondPage = ticketRepository.findSeatChartPage("LF101", journey.getDepartureDate(), last.section(), last.seatNumber(), last.pnr(), Limit.of(2));
+        assertThat(secondPage).extracting(SeatChartEntry::section, SeatChartEntry::seatNumber)
+            .containsExactly(tuple("B", 1), tuple("B", 3));
+        SeatChartEntry first = secondPage.get(0);
+        List<SeatChartEntry> sectionPage = ticketRepository.findSeatChartPageBySection("LF101", journey.getDepartureDate(), "B", first.seatNumber(), first.pnr(), Limit.of(2));
+        assertThat(sectionPage).extracting(SeatChartEntry::section, SeatChartEntry::seatNumber)
+            .containsExactly(tuple("B", 3));
+    }
+
+    @Test
+    void findSeatChartPageKeepsTicketsOfOneSeatAcrossPages() {
+        Journey lp201 = new Journey("LP201", journey.getDepartureDate());
+        List<Long> pnrs = new ArrayList<>();
+        for (Ticket seated : List.of(
+            new Ticket(null, lp201, "London", "Lille", null, null, new Seat("A", 1), null),
+            new Ticket(null, lp201, "Lille", "Paris", null, null, new Seat("A", 1), null),
+            new Ticket(null, lp201, "London", "Paris", null, null, new Seat("A", 2), null))) {
+            pnrs.add(ticketRepository.save(seated).getPnr());
+        }
+        entityManager.flush();
+
+        // The page ends on the first of the two tickets of seat A1, so the second must open the next page.
+        List<SeatChartEntry> firstPage = ticketRepository.findSeatChartPage("LP201", lp201.getDepartureDate(), "", 0, 0, Limit.of(1));
+        assertThat(firstPage).extracting(SeatChartEntry::pnr).containsExactly(pnrs.get(0));
+        List<SeatChartEntry> secondPage = ticketRepository.findSeatChartPage("LP201", lp201.getDepartureDate(), "A", 1, pnrs.get(0), Limit.of(2));
+        assertThat(secondPage).extracting(SeatChartEntry::pnr).containsExactly(pnrs.get(1), pnrs.get(2));
+        List<SeatChartEntry> sectionPage = ticketRepository.findSeatChartPageBySection("LP201", lp201.getDepartureDate(), "A", 1, pnrs.get(0), Limit.of(2));
+        assertThat(sectionPage).extracting(SeatChartEntry::pnr).containsExactly(pnrs.get(1), pnrs.get(2));
+    }
+
+    @Test
+    void updateSeatIfUnchanged() {
+        Ticket savedTicket = ticketRepository.saveAndFlush(ticket);
+        Long version = savedTicket.getVersion();
+        assertThat(ticketRepository.updateSeatIfUnchanged(savedTicket.getPnr(), version, "B", 7)).isEqualTo(1);
+        assertThat(ticketRepository.updateSeatIfUnchanged(savedTicket.getPnr(), version, "B", 8)).isZero();
+        entityManager.clear();
+        Ticket updatedTicket = ticketRepository.findById(savedTicket.getPnr()).orElseThrow();
+        assertThat(updatedTicket.getSeatAllocated().getSeatNumber()).isEqualTo(7);
+        assertThat(updatedTicket.getVersion()).isEqualTo(version + 1);
+    }
+
+    @Test
+    void deleteIfUnchanged() {
+        Ticket savedTicket = ticketRepository.saveAndFlush(ticket);
+        assertThat(ticketRepository.deleteIfUnchanged(savedTicket.getPnr(), savedTicket.getVersion() + 1)).isZero();
+        assertThat(ticketRepository.deleteIfUnchanged(savedTicket.getPnr(), savedTicket.getVersion())).isEqualTo(1);
+        entityManager.clear();
+        assertThat(ticketRepository.findById(savedTicket.getPnr())).isEmpty();
+    }
+
+    @Test
+    void findPnrsByEmail() {
+        Ticket first = ticketRepository.saveAndFlush(ticket);
+        Ticket other = new Ticket();
+        other.setJourney(journey);
+        other.setFromStation("London");
+        other.setToStation("France");
+        other.setUser(new User("firstName", "lastName", "Email@Domain.com"));
+        other.setSeatAllocated(new Seat("A", 2));
+        Ticket second = ticketRepository.saveAndFlush(other);
+        assertThat(ticketRepository.findPnrsByEmail("email@domain.com")).containsExactly(first.getPnr(), second.getPnr());
+        assertThat(ticketRepository.findPnrsByEmail("other@domain.com")).isEmpty();
+    }
+
+    @Test
+    void findSeatOccupancy() {
+        ticketRepository.saveAndFlush(ticket);
+        Ticket nextDay = new Ticket();
+        nextDay.setJourney(new Journey("LF101", journey.getDepartureDate().plusDays(1)));
+        nextDay.setSeatAllocated(new Seat("A", 2));
+        ticketRepository.saveAndFlush(nextDay);
+        assertThat(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate()))
+            .containsExactly(new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 1, "London", "France"));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.exception.BookingQueueFullException;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BookingJournalTest {
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @TempDir
+    Path directory;
+    private final Journey journey = new Journey("LF101", LocalDate.of(2024, 6, 1));
+
+    @AfterEach
+    void teardown() {
+        ticketRepository.deleteAll();
+    }
+
+    @Test
+    void testPurchaseIsReadFromJournalUntilFlushed() {
+        BookingJournal journal = open(1 << 20);
+        Ticket ticket = newTicket("A", 1);
+        journal.appendPurchase(ticket);
+
+        assertTrue(ticketRepository.findById(ticket.getPnr()).isEmpty());
+        assertSame(ticket, journal.findTicket(ticket.getPnr()));
+        assertEquals(1, journal.unflushedRecords());
+
+        journal.flush();
+
+        assertEquals(0, journal.unflushedRecords());
+        assertEquals("A", ticketRepository.findById(ticket.getPnr()).orElseThrow().getSeatAllocated().getSection());
+        assertEquals(0L, journal.findTicket(ticket.getPnr()).getVersion());
+    }
+
+    @Test
+    void testReplayWritesAcknowledgedBookings() {
+        BookingJournal journal = open(1 << 20);
+        Ticket moved = newTicket("A", 1);
+        Ticket removed = newTicket("A", 2);
+        journal.appendPurchase(moved);
+        journal.appendPurchase(removed);
+        assertTrue(journal.appendSeatChange(moved, new Seat("B", 5)));
+        assertTrue(journal.appendRemoval(removed));
+
+        // The process dies before the flusher runs; the next one replays the journal.
+        BookingJournal restarted = open(1 << 20);
+
+        Ticket replayed = ticketRepository.findById(moved.getPnr()).orElseThrow();
+        assertEquals("B", replayed.getSeatAllocated().getSection());
+        assertEquals(5, replayed.getSeatAllocated().getSeatNumber());
+        assertEquals(1L, replayed.getVersion());
+        assertTrue(ticketRepository.findById(removed.getPnr()).isEmpty());
+        assertEquals(0, restarted.unflushedRecords());
+    }
+
+    @Test
+    void testReplayIsIdempotent() throws Exception {
+        BookingJournal journal = open(1 << 20);
+        Ticket ticket = newTicket("A", 1);
+        journal.appendPurchase(ticket);
+        assertTrue(journal.appendSeatChange(ticket, new Seat("A", 7)));
+        Path beforeCheckpoint = directory.resolve("copy.journal");
+        Files.copy(directory.resolve("booking.journal"), beforeCheckpoint, StandardCopyOption.REPLACE_EXISTING);
+        journal.flush();
+
+        // As if the process died after the records were committed but before the checkpoint was moved.
+        Files.copy(beforeCheckpoint, directory.resolve("booking.journal"), StandardCopyOption.REPLACE_EXISTING);
+        open(1 << 20);
+
+        assertEquals(1, ticketRepository.count());
+        Ticket replayed = ticketRepository.findById(ticket.getPnr()).orElseThrow();
+        assertEquals(7, replayed.getSeatAllocated().getSeatNumber());
+        assertEquals(1L, replayed.getVersion());
+    }
+
+    @Test
+    void testReplayStopsAtTornRecord() throws Exception {
+        BookingJournal journal = open(1 << 20);
+        Ticket kept = newTicket("A", 1);
+        Ticket torn = newTicket("A", 2);
+        journal.appendPurchase(kept);
+        journal.appendPurchase(torn);
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("booking.journal").toFile(), "rw")) {
+            // Corrupt the last byte of the second record, the seat number of its ticket.
+            int secondRecordEnd = 2 * (BookingJournal.encode(new BookingJournal.Purchase(kept)).length + 9) + BookingJournal.HEADER_SIZE;
+            file.seek(secondRecordEnd - 1);
+            file.write(99);
+        }
+
+        open(1 << 20);
+
+        assertTrue(ticketRepository.findById(kept.getPnr()).isPresent());
+        assertTrue(ticketRepository.findById(torn.getPnr()).isEmpty());
+    }
+
+    @Test
+    void testStaleChangesAreRejected() {
+        BookingJournal journal = open(1 << 20);
+        Ticket ticket = newTicket("A", 1);
+        journal.appendPurchase(ticket);
+        assertTrue(journal.appendSeatChange(ticket, new Seat("A", 2)));
+        assertFalse(journal.appendSeatChange(ticket, new Seat("A", 3)));
+        assertFalse(journal.appendRemoval(ticket));
+
+        journal.flush();
+        assertFalse(journal.appendRemoval(ticket));
+        assertTrue(journal.appendRemoval(journal.findTicket(ticket.getPnr())));
+        assertNull(journal.findTicket(ticket.getPnr()));
+    }
+
+    @Test
+    void testFlushTellsOfChangedDeparturesOnceCommitted() {
+        BookingJournal journal = open(1 << 20);
+        List<Journey> flushed = new ArrayList<>();
+        journal.onFlushed(changed -> {
+            assertTrue(ticketRepository.count() > 0);
+            flushed.add(changed);
+        });
+        Ticket ticket = newTicket("A", 1);
+        journal.appendPurchase(ticket);
+        assertTrue(journal.appendSeatChange(ticket, new Seat("A", 2)));
+        assertTrue(flushed.isEmpty());
+
+        journal.flush();
+
+        assertEquals(List.of(journey), flushed);
+    }
+
+    @Test
+    void testRecordRejectedByDatabaseIsSetAside() {
+        ticketRepository.saveAndFlush(newTicket("A", 1));
+        BookingJournal journal = open(1 << 20);
+        Ticket rejected = newTicket("A", 1);
+        Ticket written = newTicket("A", 2);
+        journal.appendPurchase(rejected);
+        journal.appendPurchase(written);
+
+        journal.flush();
+
+        assertEquals(0, journal.unflushedRecords());
+        assertEquals(1, journal.rejectedRecords());
+        assertTrue(ticketRepository.findById(written.getPnr()).isPresent());
+        assertTrue(ticketRepository.findById(rejected.getPnr()).isEmpty());
+        // The checkpoint moved past the rejected record, so it is not replayed on the next start either.
+        assertEquals(0, open(1 << 20).rejectedRecords());
+        assertEquals(2, ticketRepository.count());
+    }
+
+    @Test
+    void testJournalIsReusedOnceFlushed() {
+        BookingJournal journal = open(4096);
+        for (int seat = 1; seat <= 200; seat++) {
+            journal.appendPurchase(newTicket("A", seat));
+            journal.flush();
+        }
+        assertEquals(200, ticketRepository.count());
+
+        assertThrows(BookingQueueFullException.class, () -> {
+            for (int seat = 1; seat <= 200; seat++) {
+                journal.appendPurchase(newTicket("B", seat));
+            }
+        });
+    }
+
+    private BookingJournal open(int capacityBytes) {
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getJournal().setPath(directory.resolve("booking.journal").toString());
+        bookingProperties.getJournal().setCapacityBytes(capacityBytes);
+        BookingJournal journal = new BookingJournal();
+        journal.bookingProperties = bookingProperties;
+        journal.ticketRepository = ticketRepository;
+        journal.transactionManager = transactionManager;
+        journal.entityManagerFactory = entityManagerFactory;
+        journal.start();
+        return journal;
+    }
+
+    private Ticket newTicket(String section, int seatNumber) {
+        Ticket ticket = new Ticket();
+        ticket.setJourney(journey);
+        ticket.setFromStation("London");
+        ticket.setToStation("France");
+        ticket.setUser(new User("firstName", "lastName", "email@domain.com"));
+        ticket.setPricePaidInDollars(20.0);
+        ticket.setSeatAllocated(new Seat(section, seatNumber));
+        return ticket;
+    }
+}
@@ -0,0 +1,245 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives concurrent purchases, seat modifications, removals and seat chart reads against the application on an
+ * embedded server, reports throughput and latency per operation, then checks that no seat was sold twice and that
+ * the seat inventory agrees with the tickets in the database.
+ * <p>
+ * Tagged {@code load} and only run with {@code mvn -P load-test test}. The run is configured with the system
+ * properties {@code load.threads}, {@code load.operations} and {@code load.mix}, the relative weights of the
+ * operations, for example {@code purchase=40,modify=25,remove=15,seatchart=20}. Any {@code booking.*} property
+ * can be passed the same way, for example {@code -Dbooking.pipeline.enabled=true}.
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class BookingLoadTest {
+    @LocalServerPort
+    int port;
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    SeatAllocationService seatAllocationService;
+    @Autowired(required = false)
+    BookingJournal bookingJournal;
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<Long> pnrs = new ArrayList<>();
+
+    enum Operation { PURCHASE, MODIFY, REMOVE, SEATCHART }
+
+    @Test
+    void testConcurrentBookingsKeepInventoryConsistent() throws Exception {
+        int threads = Integer.getInteger("load.threads", 16);
+        int operations = Integer.getInteger("load.operations", 5000);
+        Operation[] mix = parseMix(System.getProperty("load.mix", "purchase=40,modify=25,remove=15,seatchart=20"));
+        Journey journey = seatAllocationService.resolveJourney(null, null);
+        TrainLayout layout = seatAllocationService.getTrainLayout(journey);
+
+        AtomicInteger remaining = new AtomicInteger(operations);
+        List<Worker> workers = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Worker worker = new Worker(operations / threads + 1, mix, layout, remaining);
+                workers.add(worker);
+                futures.add(executor.submit(() -> {
+                    worker.run();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        report(workers, operations, elapsedNanos);
+
+        for (Worker worker : workers) {
+            assertTrue(worker.serverErrors.isEmpty(), () -> "Unexpected server errors: " + worker.serverErrors);
+        }
+        if (bookingJournal != null)
+            bookingJournal.flush();
+        checkInvariants(journey, layout);
+    }
+
+    private void checkInvariants(Journey journey, TrainLayout layout) {
+        Map<String, Long> holders = new HashMap<>();
+        for (Ticket ticket : ticketRepository.findAll()) {
+            if (!journey.equals(ticket.getJourney()))
+                continue;
+            String seat = ticket.getSeatAllocated().getSection() + ticket.getSeatAllocated().getSeatNumber();
+            Long other = holders.put(seat, ticket.getPnr());
+            assertTrue(other == null, () -> "Seat " + seat + " is held by PNRs " + other + " and " + ticket.getPnr());
+        }
+        SeatInventory inventory = seatAllocationService.inventoryFor(journey);
+        for (int slot = 0; slot < inventory.capacity(); slot++) {
+            String seat = layout.getSections().get(inventory.sectionOf(slot)) + (inventory.offsetOf(slot) + 1);
+            boolean claimed = inventory.isClaimed(slot);
+            assertEquals(holders.containsKey(seat), claimed, () -> "Seat " + seat + " is " + (claimed ? "claimed without a ticket" : "ticketed but free"));
+        }
+        log.info("Checked {} seats, {} ticketed", inventory.capacity(), holders.size());
+    }
+
+    private void report(List<Worker> workers, int operations, long elapsedNanos) {
+        log.info("{} operations on {} threads in {} ms: {} operations/s", operations, workers.size(), elapsedNanos / 1_000_000,
+            String.format("%.0f", operations * 1e9 / elapsedNanos));
+        for (Operation operation : Operation.values()) {
+            long[] latencies = workers.stream()
+                .flatMapToLong(worker -> Arrays.stream(worker.latencies, 0, worker.count).filter(sample -> worker.operationOf(sample) == operation).map(Worker::nanosOf))
+                .sorted()
+                .toArray();
+            if (latencies.length == 0)
+                continue;
+            Map<Integer, Integer> statuses = new HashMap<>();
+            workers.forEach(worker -> worker.statuses.get(operation).forEach((status, count) -> statuses.merge(status, count, Integer::sum)));
+            log.info("{}: {} calls, p50 {} us, p99 {} us, p999 {} us, statuses {}", operation, latencies.length,
+                percentile(latencies, 0.50) / 1000, percentile(latencies, 0.99) / 1000, percentile(latencies, 0.999) / 1000, statuses);
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private static Operation[] parseMix(String mix) {
+        List<Operation> weighted = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            for (int i = 0; i < Integer.parseInt(parts[1].trim()); i++) {
+                weighted.add(operation);
+            }
+        }
+        return weighted.toArray(Operation[]::new);
+    }
+
+    private class Worker {
+        private final Operation[] mix;
+        private final TrainLayout layout;
+        private final AtomicInteger remaining;
+        /**
+         * One sample per call: the operation in the top byte, the latency in nanoseconds below it.
+         */
+        private final long[] latencies;
+        private int count;
+        private final Map<Operation, Map<Integer, Integer>> statuses = new EnumMap<>(Operation.class);
+        private final List<String> serverErrors = new ArrayList<>();
+
+        Worker(int maxOperations, Operation[] mix, TrainLayout layout, AtomicInteger remaining) {
+            this.mix = mix;
+            this.layout = layout;
+            this.remaining = remaining;
+            this.latencies = new long[maxOperations];
+            for (Operation operation : Operation.values()) {
+                statuses.put(operation, new HashMap<>());
+            }
+        }
+
+        void run() throws Exception {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (remaining.getAndDecrement() > 0 && count < latencies.length) {
+                Operation operation = mix[random.nextInt(mix.length)];
+                Long pnr = operation == Operation.MODIFY || operation == Operation.REMOVE ? randomPnr(random) : null;
+                if (pnr == null && (operation == Operation.MODIFY || operation == Operation.REMOVE))
+                    operation = Operation.PURCHASE;
+                HttpRequest request = switch (operation) {
+                    case PURCHASE -> request("/purchase").header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"firstName\":\"Load\",\"lastName\":\"Test\",\"email\":\"load" + random.nextInt(1_000_000) + "@domain.com\"}"))
+                        .build();
+                    case MODIFY -> request("/modify/" + pnr).header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(randomSeat(random))))
+                        .build();
+                    case REMOVE -> request("/remove/" + pnr).DELETE().build();
+                    case SEATCHART -> request("/seatchart").GET().build();
+                };
+                long start = System.nanoTime();
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                long nanos = System.nanoTime() - start;
+                latencies[count++] = (long) operation.ordinal() << 56 | Math.min(nanos, (1L << 56) - 1);
+                statuses.get(operation).merge(response.statusCode(), 1, Integer::sum);
+                // 503 is the booking pipeline shedding load, which is expected when its queues fill up.
+                if (response.statusCode() >= 500 && response.statusCode() != 503)
+                    serverErrors.add(operation + " " + response.statusCode() + " " + response.body());
+                else if (response.statusCode() == 200)
+                    recordOutcome(operation, pnr, response.body());
+            }
+        }
+
+        Operation operationOf(long sample) {
+            return Operation.values()[(int) (sample >>> 56)];
+        }
+
+        static long nanosOf(long sample) {
+            return sample & ((1L << 56) - 1);
+        }
+
+        private void recordOutcome(Operation operation, Long pnr, String body) throws Exception {
+            if (operation == Operation.PURCHASE) {
+                JsonNode ticket = objectMapper.readTree(body);
+                synchronized (pnrs) {
+                    pnrs.add(ticket.get("pnr").asLong());
+                }
+            } else if (operation == Operation.REMOVE) {
+                synchronized (pnrs) {
+                    pnrs.remove(pnr);
+                }
+            }
+        }
+
+        private Long randomPnr(ThreadLocalRandom random) {
+            synchronized (pnrs) {
+                return pnrs.isEmpty() ? null : pnrs.get(random.nextInt(pnrs.size()));
+            }
+        }
+
+        private Seat randomSeat(ThreadLocalRandom random) {
+            int section = random.nextInt(layout.getSections().size());
+            return new Seat(layout.getSections().get(section), 1 + random.nextInt(layout.getSectionSizes()[section]));
+        }
+
+        private HttpRequest.Builder request(String path) {
+            return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/ticket" + path));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.exception.BookingQueueFullException;
+import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BookingPipelineTest {
+
+    PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    BookingPipeline bookingPipeline;
+
+    @BeforeEach
+    public void setup() {
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getPipeline().setQueueCapacity(2);
+        bookingPipeline = new BookingPipeline();
+        bookingPipeline.bookingProperties = bookingProperties;
+        bookingPipeline.transactionManager = transactionManager;
+        bookingPipeline.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        bookingPipeline.destroy();
+    }
+
+    @Test
+    void testCommandsWaitingTogetherShareOneTransaction() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestCommand first = new TestCommand("first", release);
+        CompletableFuture<String> firstResult = bookingPipeline.submit("LF101", first);
+        assertTrue(first.applying.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = bookingPipeline.submit("LF101", new TestCommand("second", null));
+        CompletableFuture<String> third = bookingPipeline.submit("LF101", new TestCommand("third", null));
+        release.countDown();
+        assertEquals("first", firstResult.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        assertEquals("third", third.get(5, TimeUnit.SECONDS));
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    void testFullQueueRejectsCommands() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TestCommand first = new TestCommand("first", release);
+        bookingPipeline.submit("LF101", first);
+        assertTrue(first.applying.await(5, TimeUnit.SECONDS));
+        bookingPipeline.submit("LF101", new TestCommand("second", null));
+        bookingPipeline.submit("LF101", new TestCommand("third", null));
+        assertThrows(BookingQueueFullException.class, () -> bookingPipeline.submit("LF101", new TestCommand("fourth", null)));
+        CompletableFuture<String> otherTrain = bookingPipeline.submit("LF102", new TestCommand("other", null));
+        assertEquals("other", otherTrain.get(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void testFailedApplyOnlyFailsItsCommand() {
+        TestCommand soldOut = new TestCommand("soldOut", null);
+        soldOut.failApply = true;
+        TestCommand booked = new TestCommand("booked", null);
+        BookingPipeline.Task<String> soldOutTask = new BookingPipeline.Task<>(soldOut, new CompletableFuture<>());
+        BookingPipeline.Task<String> bookedTask = new BookingPipeline.Task<>(booked, new CompletableFuture<>());
+        bookingPipeline.process(List.of(soldOutTask, bookedTask));
+        CompletionException exception = assertThrows(CompletionException.class, soldOutTask.future()::join);
+        assertInstanceOf(TicketsSoldOutException.class, exception.getCause());
+        assertFalse(soldOut.written);
+        assertEquals("booked", bookedTask.future().join());
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    void testFailedGroupCommitFallsBackToOneTransactionPerCommand() {
+        TestCommand broken = new TestCommand("broken", null);
+        broken.failWrite = true;
+        TestCommand booked = new TestCommand("booked", null);
+        BookingPipeline.Task<String> brokenTask = new BookingPipeline.Task<>(broken, new CompletableFuture<>());
+        BookingPipeline.Task<String> bookedTask = new BookingPipeline.Task<>(booked, new CompletableFuture<>());
+        bookingPipeline.process(List.of(brokenTask, bookedTask));
+        assertThrows(CompletionException.class, brokenTask.future()::join);
+        assertTrue(broken.rolledBack);
+        assertEquals("booked", bookedTask.future().join());
+        assertFalse(booked.rolledBack);
+        verify(transactionManager, times(2)).rollback(any());
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    void testRejectedWriteFailsWithOccupiedSeatOnlyIfTheSeatIsTaken() {
+        TestCommand taken = new TestCommand("taken", null);
+        taken.violateConstraint = true;
+        taken.seatTaken = true;
+        TestCommand otherConstraint = new TestCommand("otherConstraint", null);
+        otherConstraint.violateConstraint = true;
+        BookingPipeline.Task<String> takenTask = new BookingPipeline.Task<>(taken, new CompletableFuture<>());
+        BookingPipeline.Task<String> otherConstraintTask = new BookingPipeline.Task<>(otherConstraint, new CompletableFuture<>());
+        bookingPipeline.process(List.of(takenTask, otherConstraintTask));
+        assertInstanceOf(SeatOccupiedException.class, assertThrows(CompletionException.class, takenTask.future()::join).getCause());
+        assertInstanceOf(DataIntegrityViolationException.class, assertThrows(CompletionException.class, otherConstraintTask.future()::join).getCause());
+        assertTrue(taken.rejected);
+        assertTrue(otherConstraint.rejected);
+        assertFalse(taken.rolledBack);
+    }
+
+    private static class TestCommand implements BookingCommand<String> {
+        private final String result;
+        private final CountDownLatch release;
+        private final CountDownLatch applying = new CountDownLatch(1);
+        private boolean failApply;
+        private boolean failWrite;
+        private boolean violateConstraint;
+        private boolean seatTaken;
+        private boolean written;
+        private boolean rolledBack;
+        private boolean rejected;
+
+        TestCommand(String result, CountDownLatch release) {
+            this.result = result;
+            this.release = release;
+        }
+
+        @Override
+        public void apply() {
+            applying.countDown();
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failApply)
+                throw new TicketsSoldOutException();
+        }
+
+        @Override
+        public void write() {
+            if (failWrite)
+                throw new IllegalStateException("write failed");
+            if (violateConstraint)
+                throw new DataIntegrityViolationException("constraint violated");
+            written = true;
+        }
+
+        @Override
+        public String commit() {
+            return result;
+        }
+
+        @Override
+        public void rollback() {
+            rolledBack = true;
+        }
+
+        @Override
+        public boolean reject() {
+            rejected = true;
+            return seatTaken;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchWaitlistEntryException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookingWaitlistTest {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final LegRange WHOLE_ROUTE = new LegRange(0, 1);
+
+    BookingWaitlist bookingWaitlist = new BookingWaitlist();
+    Journey journey = new Journey("LF101", TODAY);
+    User one = new User("first1", "last1", "one@domain.com");
+    User two = new User("first2", "last2", "two@domain.com");
+    User three = new User("first3", "last3", "three@domain.com");
+
+    @BeforeEach
+    void setup() {
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getWaitlist().setCapacity(3);
+        bookingWaitlist.bookingProperties = bookingProperties;
+        bookingWaitlist.clock = Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+    }
+
+    @Test
+    void testPassengersAreTakenInOrder() {
+        WaitlistEntry first = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        WaitlistEntry second = bookingWaitlist.join(journey, WHOLE_ROUTE, two);
+        assertEquals(1L, bookingWaitlist.position(first));
+        assertEquals(2L, bookingWaitlist.position(second));
+
+        assertSame(first, bookingWaitlist.take(journey));
+        assertEquals(WaitlistEntry.Status.PROMOTING, first.getStatus());
+        assertNull(bookingWaitlist.position(first));
+        assertEquals(1L, bookingWaitlist.position(second));
+
+        bookingWaitlist.promoted(first, 7L);
+        assertEquals(WaitlistEntry.Status.PROMOTED, first.getStatus());
+        assertEquals(7L, first.getPnr());
+        assertTrue(first.settled().isDone());
+        assertSame(second, bookingWaitlist.take(journey));
+        assertNull(bookingWaitlist.take(journey));
+        assertFalse(bookingWaitlist.hasWaiting(journey));
+    }
+
+    @Test
+    void testPutBackKeepsPassengerAtHead() {
+        WaitlistEntry first = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        WaitlistEntry second = bookingWaitlist.join(journey, WHOLE_ROUTE, two);
+        bookingWaitlist.putBack(bookingWaitlist.take(journey));
+        assertEquals(WaitlistEntry.Status.WAITING, first.getStatus());
+        assertEquals(1L, bookingWaitlist.position(first));
+        assertEquals(2L, bookingWaitlist.position(second));
+        assertSame(first, bookingWaitlist.take(journey));
+    }
+
+    @Test
+    void testCancelledPassengersAreSkipped() {
+        WaitlistEntry first = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        WaitlistEntry second = bookingWaitlist.join(journey, WHOLE_ROUTE, two);
+        assertSame(first, bookingWaitlist.cancel(first.getId()));
+        assertEquals(WaitlistEntry.Status.CANCELLED, first.getStatus());
+        assertTrue(first.settled().isDone());
+        assertEquals(1L, bookingWaitlist.position(second));
+
+        assertSame(second, bookingWaitlist.take(journey));
+        assertSame(first, bookingWaitlist.find(first.getId()));
+    }
+
+    @Test
+    void testCancelledPassengersFreeTheirPlace() {
+        WaitlistEntry first = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        bookingWaitlist.join(journey, WHOLE_ROUTE, two);
+        bookingWaitlist.join(journey, WHOLE_ROUTE, three);
+        bookingWaitlist.cancel(first.getId());
+        assertSame(one, bookingWaitlist.join(journey, WHOLE_ROUTE, one).getUser());
+
+        Journey tomorrow = new Journey("LF101", TODAY.plusDays(1));
+        bookingWaitlist.cancel(bookingWaitlist.join(tomorrow, WHOLE_ROUTE, one).getId());
+        assertFalse(bookingWaitlist.hasWaiting(tomorrow));
+        assertEquals(List.of(journey), bookingWaitlist.journeysWithWaiting());
+    }
+
+    @Test
+    void testSettledEntriesAreDroppedAfterRetention() {
+        WaitlistEntry cancelled = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        WaitlistEntry promoted = bookingWaitlist.join(journey, WHOLE_ROUTE, two);
+        WaitlistEntry waiting = bookingWaitlist.join(journey, WHOLE_ROUTE, three);
+        bookingWaitlist.cancel(cancelled.getId());
+        bookingWaitlist.promoted(bookingWaitlist.take(journey), 7L);
+
+        bookingWaitlist.evictSettledEntries();
+        assertSame(cancelled, bookingWaitlist.find(cancelled.getId()));
+        assertSame(promoted, bookingWaitlist.find(promoted.getId()));
+
+        bookingWaitlist.clock = Clock.offset(bookingWaitlist.clock, Duration.ofSeconds(3601));
+        bookingWaitlist.evictSettledEntries();
+
+        assertThrows(NoSuchWaitlistEntryException.class, () -> bookingWaitlist.find(cancelled.getId()));
+        assertThrows(NoSuchWaitlistEntryException.class, () -> bookingWaitlist.find(promoted.getId()));
+        assertSame(waiting, bookingWaitlist.find(waiting.getId()));
+    }
+
+    @Test
+    void testPromotingPassengerCannotCancel() {
+        WaitlistEntry first = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        bookingWaitlist.take(journey);
+        bookingWaitlist.cancel(first.getId());
+        assertEquals(WaitlistEntry.Status.PROMOTING, first.getStatus());
+    }
+
+    @Test
+    void testFullWaitlistRejectsPassengers() {
+        bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        bookingWaitlist.join(journey, WHOLE_ROUTE, two);
+        bookingWaitlist.join(journey, WHOLE_ROUTE, three);
+        assertThrows(TicketsSoldOutException.class, () -> bookingWaitlist.join(journey, WHOLE_ROUTE, one));
+        assertSame(one, bookingWaitlist.join(new Journey("LF101", TODAY.plusDays(1)), WHOLE_ROUTE, one).getUser());
+    }
+
+    @Test
+    void testFindUnknownEntry() {
+        assertThrows(NoSuchWaitlistEntryException.class, () -> bookingWaitlist.find("unknown"));
+    }
+
+    @Test
+    void testEvictDepartedJourneysExpiresWaitingPassengers() {
+        WaitlistEntry departed = bookingWaitlist.join(journey, WHOLE_ROUTE, one);
+        Journey tomorrow = new Journey("LF101", TODAY.plusDays(1));
+        WaitlistEntry waiting = bookingWaitlist.join(tomorrow, WHOLE_ROUTE, two);
+        bookingWaitlist.clock = Clock.fixed(TODAY.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+
+        bookingWaitlist.evictDepartedJourneys();
+
+        assertEquals(WaitlistEntry.Status.EXPIRED, departed.getStatus());
+        assertThrows(NoSuchWaitlistEntryException.class, () -> bookingWaitlist.find(departed.getId()));
+        assertEquals(List.of(tomorrow), bookingWaitlist.journeysWithWaiting());
+        assertSame(waiting, bookingWaitlist.find(waiting.getId()));
+    }
+}
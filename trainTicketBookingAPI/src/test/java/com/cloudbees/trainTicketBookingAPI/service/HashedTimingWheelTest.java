@@ -0,0 +1,68 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimingWheelTest {
+
+    @Test
+    void testExpiresOnlyAfterDeadline() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(8, 100, 0);
+        List<String> expired = new ArrayList<>();
+        wheel.schedule("a", 250);
+        wheel.schedule("b", 500);
+        wheel.advance(200, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(300, expired::add);
+        assertEquals(List.of("a"), expired);
+        wheel.advance(499, expired::add);
+        assertEquals(List.of("a"), expired);
+        wheel.advance(500, expired::add);
+        assertEquals(List.of("a", "b"), expired);
+    }
+
+    @Test
+    void testDeadlinesBeyondOneRevolution() {
+        HashedTimingWheel<Integer> wheel = new HashedTimingWheel<>(4, 10, 0);
+        List<Integer> expired = new ArrayList<>();
+        wheel.schedule(1, 20);
+        wheel.schedule(2, 60);
+        wheel.schedule(3, 100);
+        for (long now = 10; now <= 60; now += 10)
+            wheel.advance(now, expired::add);
+        assertEquals(List.of(1, 2), expired);
+        for (long now = 70; now <= 100; now += 10)
+            wheel.advance(now, expired::add);
+        assertEquals(List.of(1, 2, 3), expired);
+    }
+
+    @Test
+    void testCatchesUpAfterStall() {
+        HashedTimingWheel<Integer> wheel = new HashedTimingWheel<>(4, 10, 0);
+        List<Integer> expired = new ArrayList<>();
+        for (int item = 1; item <= 20; item++)
+            wheel.schedule(item, item * 10L);
+        wheel.advance(1000, expired::add);
+        assertEquals(20, expired.size());
+    }
+
+    @Test
+    void testAlreadyDueItemExpiresOnNextAdvance() {
+        HashedTimingWheel<String> wheel = new HashedTimingWheel<>(8, 100, 1000);
+        List<String> expired = new ArrayList<>();
+        wheel.schedule("late", 500);
+        wheel.advance(1100, expired::add);
+        assertEquals(List.of("late"), expired);
+    }
+
+    @Test
+    void testWheelSizeMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<>(6, 100, 0));
+    }
+}
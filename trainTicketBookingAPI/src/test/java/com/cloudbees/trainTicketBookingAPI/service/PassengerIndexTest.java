@@ -0,0 +1,101 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PassengerIndexTest {
+    @Autowired
+    TicketRepository ticketRepository;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    private final Journey journey = new Journey("LF101", LocalDate.of(2024, 6, 1));
+
+    @AfterEach
+    void teardown() {
+        ticketRepository.deleteAll();
+    }
+
+    @Test
+    void testFindIgnoresCase() {
+        PassengerIndex index = open();
+        index.add(ticket(3L, "Email@Domain.com", 3));
+        index.add(ticket(1L, "email@domain.com", 1));
+        index.add(ticket(2L, "other@domain.com", 2));
+        assertArrayEquals(new long[]{1L, 3L}, index.find("EMAIL@DOMAIN.COM"));
+        assertArrayEquals(new long[0], index.find("nobody@domain.com"));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void testAddIsIdempotentAndRemoveDropsEmptyEntries() {
+        PassengerIndex index = open();
+        Ticket first = ticket(1L, "email@domain.com", 1);
+        Ticket second = ticket(2L, "email@domain.com", 2);
+        index.add(first);
+        index.add(first);
+        index.add(second);
+        index.add(ticket(4L, null, 4));
+        assertEquals(2, index.size());
+
+        index.remove(first);
+        index.remove(first);
+        assertArrayEquals(new long[]{2L}, index.find("email@domain.com"));
+        index.remove(second);
+        assertArrayEquals(new long[0], index.find("email@domain.com"));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void testRebuildReadsPersistedTickets() {
+        Ticket first = ticketRepository.save(ticket(null, "email@domain.com", 1));
+        Ticket second = ticketRepository.save(ticket(null, "EMAIL@domain.com", 2));
+        ticketRepository.save(ticket(null, null, 3));
+        PassengerIndex index = open();
+        index.add(ticket(99L, "stale@domain.com", 99));
+
+        index.start();
+
+        assertArrayEquals(new long[]{first.getPnr(), second.getPnr()}, index.find("email@domain.com"));
+        assertArrayEquals(new long[0], index.find("stale@domain.com"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        index.bindTo(registry);
+        assertEquals(2.0, registry.get("booking.passenger.index.tickets").gauge().value());
+        assertEquals(1.0, registry.get("booking.passenger.index.passengers").gauge().value());
+    }
+
+    private PassengerIndex open() {
+        PassengerIndex index = new PassengerIndex();
+        index.ticketRepository = ticketRepository;
+        index.transactionManager = transactionManager;
+        return index;
+    }
+
+    private Ticket ticket(Long pnr, String email, int seatNumber) {
+        Ticket ticket = new Ticket();
+        ticket.setPnr(pnr);
+        ticket.setJourney(journey);
+        ticket.setUser(new User("firstName", "lastName", email));
+        ticket.setSeatAllocated(new Seat("A", seatNumber));
+        return ticket;
+    }
+}
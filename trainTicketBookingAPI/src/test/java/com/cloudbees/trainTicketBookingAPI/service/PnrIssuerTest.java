@@ -0,0 +1,85 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PnrIssuerTest {
+    static final Instant NOW = Instant.parse("2024-06-01T00:00:00Z");
+
+    private PnrIssuer issuer(int nodeId, Instant now) {
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getPnr().setNodeId(nodeId);
+        PnrIssuer pnrIssuer = new PnrIssuer();
+        pnrIssuer.bookingProperties = bookingProperties;
+        pnrIssuer.clock = Clock.fixed(now, ZoneOffset.UTC);
+        pnrIssuer.init();
+        return pnrIssuer;
+    }
+
+    private static long millisOf(long pnr) {
+        return (pnr >>> (PnrIssuer.NODE_BITS + PnrIssuer.COUNTER_BITS)) + PnrIssuer.EPOCH_MILLIS;
+    }
+
+    private static long nodeOf(long pnr) {
+        return pnr >>> PnrIssuer.COUNTER_BITS & PnrIssuer.MAX_NODE_ID;
+    }
+
+    @Test
+    void testPnrsPackTimeNodeAndCounter() {
+        PnrIssuer pnrIssuer = issuer(5, NOW);
+        long first = pnrIssuer.next();
+        long second = pnrIssuer.next();
+        assertTrue(first > 0);
+        assertEquals(NOW.toEpochMilli(), millisOf(first));
+        assertEquals(5, nodeOf(first));
+        assertEquals(first + 1, second);
+    }
+
+    @Test
+    void testFullCounterBorrowsNextMillisecond() {
+        PnrIssuer pnrIssuer = issuer(1, NOW);
+        long last = 0;
+        for (int i = 0; i <= 1 << PnrIssuer.COUNTER_BITS; i++) {
+            long pnr = pnrIssuer.next();
+            assertTrue(pnr > last);
+            last = pnr;
+        }
+        assertEquals(NOW.toEpochMilli() + 1, millisOf(last));
+        assertEquals(1, nodeOf(last));
+    }
+
+    @Test
+    void testClockSteppingBackKeepsPnrsIncreasing() {
+        PnrIssuer pnrIssuer = issuer(0, NOW);
+        long before = pnrIssuer.next();
+        pnrIssuer.clock = Clock.fixed(NOW.minusSeconds(10), ZoneOffset.UTC);
+        assertTrue(pnrIssuer.next() > before);
+    }
+
+    @Test
+    void testNodesNeverIssueTheSamePnr() {
+        PnrIssuer one = issuer(1, NOW);
+        PnrIssuer two = issuer(2, NOW);
+        Set<Long> pnrs = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(pnrs.add(one.next()));
+            assertTrue(pnrs.add(two.next()));
+        }
+    }
+
+    @Test
+    void testNodeIdOutOfRange() {
+        assertThrows(IllegalStateException.class, () -> issuer(PnrIssuer.MAX_NODE_ID + 1, NOW));
+        assertThrows(IllegalStateException.class, () -> issuer(-1, NOW));
+    }
+}
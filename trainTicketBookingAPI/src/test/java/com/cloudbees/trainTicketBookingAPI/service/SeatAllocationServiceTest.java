@@ -1,75 +1,218 @@
 package com.cloudbees.trainTicketBookingAPI.service;
 
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ClaimedSeatLeg;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidRouteException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidSeatRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchJourneyException;
 import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
 import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 class SeatAllocationServiceTest {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final LegRange WHOLE_ROUTE = new LegRange(0, 1);
+    static final int SECTION_SIZE = 64;
+
     @InjectMocks
     SeatAllocationService seatAllocationService;
+    Journey journey;
 
     @BeforeEach
     void setup() {
+        BookingProperties bookingProperties = new BookingProperties();
+        BookingProperties.Train train = new BookingProperties.Train();
+        train.setNumber("EP202");
+        train.getSections().put("C", 10);
+        train.getSections().put("D", 100);
+        bookingProperties.getTrains().add(train);
+        seatAllocationService.bookingProperties = bookingProperties;
+        seatAllocationService.clock = Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
         seatAllocationService.init();
+        journey = seatAllocationService.resolveJourney(null, null);
+    }
+
+    @Test
+    void testResolveJourneyDefaults() {
+        assertEquals("LF101", journey.getTrainNumber());
+        assertEquals(TODAY, journey.getDepartureDate());
+        assertThrows(NoSuchJourneyException.class, () -> seatAllocationService.resolveJourney("XX1", TODAY));
     }
 
     @Test
     void testAllocateNewSeat() {
-        Seat seat1 = seatAllocationService.allocateNewSeat();
-        Seat seat2 = seatAllocationService.allocateNewSeat();
+        Seat seat1 = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        Seat seat2 = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
         assertNotEquals(seat1, seat2);
         assertThat(seat1.getSection()).isIn("A", "B");
-        assertThat(seat1.getSeatNumber()).isBetween(1, SeatAllocationService.sectionSize);
+        assertThat(seat1.getSeatNumber()).isBetween(1, SECTION_SIZE);
         assertThat(seat2.getSection()).isIn("A", "B");
-        assertThat(seat2.getSeatNumber()).isBetween(1, SeatAllocationService.sectionSize);
+        assertThat(seat2.getSeatNumber()).isBetween(1, SECTION_SIZE);
+    }
+
+    @Test
+    void testRejectionsAndFreeSeatsAreMetered() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        seatAllocationService.bindTo(registry);
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 1));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 1)));
+        seatAllocationService.publishFreeSeats();
+        assertEquals(SECTION_SIZE - 1, registry.get("booking.seats.free").tags("train", "LF101", "date", TODAY.toString(), "section", "A").gauge().value());
+        assertEquals(SECTION_SIZE, registry.get("booking.seats.free").tags("train", "LF101", "date", TODAY.toString(), "section", "B").gauge().value());
+
+        for (int seat = 1; seat < 2 * SECTION_SIZE; seat++) {
+            seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        }
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE));
+        assertEquals(0, registry.get("booking.seats.free").tags("train", "LF101", "section", "B").gauge().value());
+        assertEquals(1, registry.get("booking.rejections").tag("reason", "sold_out").counter().count());
+        assertEquals(1, registry.get("booking.rejections").tag("reason", "seat_occupied").counter().count());
     }
 
     @Test
     void testAllocateNewSeatSkipOccupiedSeatInQueue() {
-        seatAllocationService.allocateSpecificSeat(new Seat("A", 1));
-        Seat seat2 = seatAllocationService.allocateNewSeat();
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 1));
+        Seat seat2 = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
         assertEquals(seat2.getSection(), "A");
         assertEquals(seat2.getSeatNumber(), 2);
     }
 
     @Test
     void testAllocateNewSeatSoldOut() {
-        for (int seat = 0; seat < SeatAllocationService.sectionSize * 2; seat++) {
-            seatAllocationService.allocateNewSeat();
+        for (int seat = 0; seat < SECTION_SIZE * 2; seat++) {
+            seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        }
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE));
+    }
+
+    @Test
+    void testAllocateNewSeatShardsAreIndependent() {
+        Journey tomorrow = seatAllocationService.resolveJourney("LF101", TODAY.plusDays(1));
+        Journey otherTrain = seatAllocationService.resolveJourney("ep202", TODAY);
+        for (int seat = 0; seat < SECTION_SIZE * 2; seat++) {
+            seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        }
+        Seat seat = seatAllocationService.allocateNewSeat(tomorrow, WHOLE_ROUTE);
+        assertEquals("A", seat.getSection());
+        assertEquals(1, seat.getSeatNumber());
+        Seat otherTrainSeat = seatAllocationService.allocateNewSeat(otherTrain, WHOLE_ROUTE);
+        assertEquals("C", otherTrainSeat.getSection());
+        assertEquals(1, otherTrainSeat.getSeatNumber());
+    }
+
+    @Test
+    void testAllocateNewSeatConfiguredLayout() {
+        Journey otherTrain = seatAllocationService.resolveJourney("EP202", TODAY);
+        for (int seat = 0; seat < 10; seat++) {
+            seatAllocationService.allocateNewSeat(otherTrain, WHOLE_ROUTE);
+        }
+        Seat seat = seatAllocationService.allocateNewSeat(otherTrain, WHOLE_ROUTE);
+        assertEquals("D", seat.getSection());
+        assertEquals(1, seat.getSeatNumber());
+        for (int remaining = 1; remaining < 100; remaining++) {
+            seatAllocationService.allocateNewSeat(otherTrain, WHOLE_ROUTE);
+        }
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(otherTrain, WHOLE_ROUTE));
+    }
+
+    @Test
+    void testAllocateNewSeatOutsideBookingWindow() {
+        assertThrows(NoSuchJourneyException.class, () -> seatAllocationService.allocateNewSeat(new Journey("LF101", TODAY.minusDays(1)), WHOLE_ROUTE));
+        assertThrows(NoSuchJourneyException.class, () -> seatAllocationService.allocateNewSeat(new Journey("LF101", TODAY.plusDays(91)), WHOLE_ROUTE));
+    }
+
+    @Test
+    void testIsOpenForBooking() {
+        assertTrue(seatAllocationService.isOpenForBooking(new Journey("LF101", TODAY)));
+        assertTrue(seatAllocationService.isOpenForBooking(new Journey("LF101", TODAY.plusDays(90))));
+        assertFalse(seatAllocationService.isOpenForBooking(new Journey("LF101", TODAY.minusDays(1))));
+        assertFalse(seatAllocationService.isOpenForBooking(new Journey("LF101", TODAY.plusDays(91))));
+    }
+
+    @Test
+    void testAllocateNewSeats() {
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 2));
+        List<Seat> seats = seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 3, false);
+        assertEquals(List.of(1, 3, 4), seats.stream().map(Seat::getSeatNumber).toList());
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, SECTION_SIZE * 2, false));
+        Seat nextSeat = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        assertEquals(5, nextSeat.getSeatNumber());
+    }
+
+    @Test
+    void testAllocateNewSeatsTogether() {
+        for (int seatNumber = 1; seatNumber <= SECTION_SIZE; seatNumber += 2) {
+            seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", seatNumber));
+        }
+        List<Seat> seats = seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 4, true);
+        assertEquals(List.of("B", "B", "B", "B"), seats.stream().map(Seat::getSection).toList());
+        assertEquals(List.of(1, 2, 3, 4), seats.stream().map(Seat::getSeatNumber).toList());
+    }
+
+    @Test
+    void testAllocateNewSeatsTogetherSpreadsWhenNoSectionFits() {
+        for (int seat = 0; seat < SECTION_SIZE * 2 - 4; seat++) {
+            seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
         }
-        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat());
+        seatAllocationService.manageVacatedSeat(journey, WHOLE_ROUTE, new Seat("A", 10));
+        seatAllocationService.manageVacatedSeat(journey, WHOLE_ROUTE, new Seat("A", 20));
+        List<Seat> seats = seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 6, true);
+        assertEquals(6, seats.size());
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE));
     }
 
     @Test
     void testAllocateSpecificSeat() {
         Seat seat = new Seat("A", 1);
-        Seat allocatedSeat = seatAllocationService.allocateSpecificSeat(seat);
+        Seat allocatedSeat = seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat);
         assertEquals(allocatedSeat, seat);
     }
 
     @Test
     void testAllocateSpecificOccupied() {
         Seat seat = new Seat("A", 1);
-        seatAllocationService.allocateSpecificSeat(seat);
-        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(seat));
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat);
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat));
+    }
+
+    @Test
+    void testAllocateSpecificSeatInvalid() {
+        assertThrows(InvalidSeatRequestException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("C", 1)));
+        assertThrows(InvalidSeatRequestException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", SECTION_SIZE + 1)));
     }
 
     @Test
     void testManageVacatedSeat() {
         Seat seat = new Seat("A", 1);
-        seatAllocationService.allocateSpecificSeat(seat);
-        seatAllocationService.manageVacatedSeat(seat);
-        Seat nextSeat = seatAllocationService.allocateSpecificSeat(seat);
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat);
+        seatAllocationService.manageVacatedSeat(journey, WHOLE_ROUTE, seat);
+        Seat nextSeat = seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat);
         assertEquals(seat, nextSeat);
     }
 
@@ -77,7 +220,258 @@ class SeatAllocationServiceTest {
     void testSeatToNumber() {
         Seat seat = new Seat("B", 42);
         int expectedNumber = 64 + 42;
-        int result = seatAllocationService.seatToNumber(seat);
+        int result = seatAllocationService.seatToNumber(journey, seat);
         assertEquals(expectedNumber, result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAllocateNewSeatConcurrentlyNeverDoubleAllocates() throws InterruptedException {
+        Set<Integer> allocatedSeats = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int seat = 0; seat < SECTION_SIZE * 2; seat++) {
+            executor.submit(() -> allocatedSeats.add(seatAllocationService.seatToNumber(journey, seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE))));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertEquals(SECTION_SIZE * 2, allocatedSeats.size());
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE));
+    }
+
+    @Test
+    void testManageVacatedSeatChurnReusesSeat() {
+        for (int seat = 0; seat < SECTION_SIZE * 2; seat++) {
+            seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        }
+        Seat vacatedSeat = new Seat("B", 7);
+        for (int round = 0; round < 1000; round++) {
+            seatAllocationService.manageVacatedSeat(journey, WHOLE_ROUTE, vacatedSeat);
+            Seat nextSeat = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+            assertEquals(vacatedSeat.getSection(), nextSeat.getSection());
+            assertEquals(vacatedSeat.getSeatNumber(), nextSeat.getSeatNumber());
+        }
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE));
+    }
+
+    @Test
+    void testNumberToSeat() {
+        Seat seat = seatAllocationService.numberToSeat(journey, 64 + 42);
+        assertEquals("B", seat.getSection());
+        assertEquals(42, seat.getSeatNumber());
+    }
+
+    @Test
+    void testEvictDepartedJourneys() {
+        seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        seatAllocationService.allocateNewSeat(seatAllocationService.resolveJourney(null, TODAY.plusDays(1)), WHOLE_ROUTE);
+        seatAllocationService.clock = Clock.fixed(TODAY.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        seatAllocationService.evictDepartedJourneys();
+        assertThat(seatAllocationService.inventories).hasSize(1);
+        assertThat(seatAllocationService.inventories).containsKey(new Journey("LF101", TODAY.plusDays(1)));
+    }
+
+    @Test
+    void testRestoreSnapshotKeepsOnlyTicketedSeats(@TempDir Path directory) throws Exception {
+        SeatInventorySnapshotStore snapshotStore = snapshotStore(directory);
+        seatAllocationService.snapshotStore = snapshotStore;
+        Seat kept = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        seatAllocationService.recordTicketedSeats(journey, WHOLE_ROUTE, List.of(kept));
+        seatAllocationService.snapshotInventories();
+        Seat vacated = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        seatAllocationService.recordTicketedSeats(journey, WHOLE_ROUTE, List.of(vacated));
+        Seat bookedLater = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        seatAllocationService.recordTicketedSeats(journey, WHOLE_ROUTE, List.of(bookedLater));
+        Seat held = seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE);
+        seatAllocationService.manageVacatedSeat(journey, WHOLE_ROUTE, vacated);
+        snapshotStore.close();
+
+        SeatAllocationService restarted = new SeatAllocationService();
+        restarted.bookingProperties = seatAllocationService.bookingProperties;
+        restarted.clock = seatAllocationService.clock;
+        restarted.snapshotStore = snapshotStore(directory);
+        restarted.init();
+
+        assertEquals(2, restarted.restoreSnapshot());
+        assertThrows(SeatOccupiedException.class, () -> restarted.allocateSpecificSeat(journey, WHOLE_ROUTE, kept));
+        assertThrows(SeatOccupiedException.class, () -> restarted.allocateSpecificSeat(journey, WHOLE_ROUTE, bookedLater));
+        assertEquals(vacated, restarted.allocateSpecificSeat(journey, WHOLE_ROUTE, vacated));
+        assertEquals(held, restarted.allocateSpecificSeat(journey, WHOLE_ROUTE, held));
+        restarted.snapshotStore.close();
+    }
+
+    @Test
+    void testRestoreSnapshotIgnoresChangedLayout(@TempDir Path directory) throws Exception {
+        seatAllocationService.snapshotStore = snapshotStore(directory);
+        seatAllocationService.recordTicketedSeats(journey, WHOLE_ROUTE, List.of(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)));
+        seatAllocationService.snapshotInventories();
+        seatAllocationService.snapshotStore.close();
+
+        SeatAllocationService restarted = new SeatAllocationService();
+        restarted.bookingProperties = new BookingProperties();
+        restarted.bookingProperties.getTrains().get(0).getSections().put("C", 10);
+        restarted.clock = seatAllocationService.clock;
+        restarted.snapshotStore = snapshotStore(directory);
+        restarted.init();
+
+        assertEquals(-1, restarted.restoreSnapshot());
+        restarted.snapshotStore.close();
+    }
+
+    @Test
+    void testAllocateSeatsBetweenStations() {
+        Journey stopping = seatAllocationService.resolveJourney(addStoppingTrain().getNumber(), null);
+        TrainLayout layout = seatAllocationService.getTrainLayout(stopping);
+        LegRange londonToLille = layout.legRange("london", "LILLE");
+        LegRange lilleToParis = layout.legRange("Lille", null);
+
+        assertTrue(new Seat("A", 1).equals(seatAllocationService.allocateNewSeat(stopping, londonToLille)));
+        assertTrue(new Seat("A", 2).equals(seatAllocationService.allocateNewSeat(stopping, layout.wholeRoute())));
+        assertTrue(new Seat("A", 1).equals(seatAllocationService.allocateNewSeat(stopping, lilleToParis)));
+        assertThrows(TicketsSoldOutException.class, () -> seatAllocationService.allocateNewSeat(stopping, lilleToParis));
+        assertThat(seatAllocationService.freeSeatRanges(stopping, lilleToParis, "A")).isEmpty();
+
+        seatAllocationService.manageVacatedSeat(stopping, londonToLille, new Seat("A", 1));
+        assertThat(seatAllocationService.freeSeatRanges(stopping, londonToLille, "A")).containsExactly(new int[]{1, 1});
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(stopping, layout.wholeRoute(), new Seat("A", 1)));
+        assertTrue(new Seat("A", 1).equals(seatAllocationService.allocateSpecificSeat(stopping, londonToLille, new Seat("A", 1))));
+    }
+
+    @Test
+    void testLegRangeRejectsInvalidRoute() {
+        TrainLayout layout = seatAllocationService.getTrainLayout(seatAllocationService.resolveJourney(addStoppingTrain().getNumber(), null));
+        assertEquals(new LegRange(0, 2), layout.legRange(null, null));
+        assertEquals(new LegRange(1, 2), layout.legRange("Lille", "Paris"));
+        assertThrows(InvalidRouteException.class, () -> layout.legRange("Paris", "Lille"));
+        assertThrows(InvalidRouteException.class, () -> layout.legRange("Lille", "Lille"));
+        assertThrows(InvalidRouteException.class, () -> layout.legRange("Brussels", null));
+    }
+
+    @Test
+    void testRestoreOccupiedSeatOfTicketBetweenStations() {
+        Journey stopping = seatAllocationService.resolveJourney(addStoppingTrain().getNumber(), null);
+        assertTrue(seatAllocationService.restoreOccupiedSeat(stopping, "London", "Lille", new Seat("A", 1)));
+        assertTrue(seatAllocationService.restoreOccupiedSeat(stopping, "Lille", "Paris", new Seat("A", 1)));
+        assertFalse(seatAllocationService.restoreOccupiedSeat(stopping, "London", "Paris", new Seat("A", 1)));
+        assertFalse(seatAllocationService.restoreOccupiedSeat(stopping, "Paris", "London", new Seat("A", 2)));
+    }
+
+    @Test
+    void testRestoreSnapshotOfTrainWithStops(@TempDir Path directory) throws Exception {
+        BookingProperties.Train train = addStoppingTrain();
+        Journey stopping = seatAllocationService.resolveJourney(train.getNumber(), null);
+        LegRange lilleToParis = seatAllocationService.getTrainLayout(stopping).legRange("Lille", "Paris");
+        SeatInventorySnapshotStore snapshotStore = snapshotStore(directory);
+        seatAllocationService.snapshotStore = snapshotStore;
+        Seat beforeSnapshot = seatAllocationService.allocateNewSeat(stopping, lilleToParis);
+        seatAllocationService.recordTicketedSeats(stopping, lilleToParis, List.of(beforeSnapshot));
+        seatAllocationService.snapshotInventories();
+        Seat afterSnapshot = seatAllocationService.allocateNewSeat(stopping, lilleToParis);
+        seatAllocationService.recordTicketedSeats(stopping, lilleToParis, List.of(afterSnapshot));
+        snapshotStore.close();
+
+        SeatAllocationService restarted = new SeatAllocationService();
+        restarted.bookingProperties = seatAllocationService.bookingProperties;
+        restarted.clock = seatAllocationService.clock;
+        restarted.snapshotStore = snapshotStore(directory);
+        restarted.init();
+
+        assertEquals(2, restarted.restoreSnapshot());
+        assertThrows(TicketsSoldOutException.class, () -> restarted.allocateNewSeat(stopping, lilleToParis));
+        assertEquals(2, restarted.freeSeatRanges(stopping, new LegRange(0, 1), "A").get(0)[1]);
+        restarted.snapshotStore.close();
+
+        train.getStops().add("Calais");
+        restarted.snapshotStore = snapshotStore(directory);
+        restarted.init();
+        assertEquals(-1, restarted.restoreSnapshot());
+        restarted.snapshotStore.close();
+    }
+
+    @Test
+    void testSyncClaimedSeatsLearnsAndForgetsSeatsClaimedInDatabase() {
+        Seat own = seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 1));
+        List<ClaimedSeatLeg> claims = List.of(new ClaimedSeatLeg("A", 1, 0), new ClaimedSeatLeg("B", 5, 0));
+
+        assertTrue(seatAllocationService.syncClaimedSeats(journey, claims));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("B", 5)));
+        assertFalse(seatAllocationService.syncClaimedSeats(journey, claims));
+
+        // Only the seat learned from the database is let go; the seat held here, or still being written, stays occupied.
+        assertTrue(seatAllocationService.syncClaimedSeats(journey, List.of()));
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("B", 5));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, own));
+    }
+
+    @Test
+    void testSyncClaimedSeatsFreesSeatsRefusedByTheDatabase() {
+        Seat seat = seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 2));
+        seatAllocationService.markClaimedInDatabase(journey, WHOLE_ROUTE, List.of(seat));
+
+        assertFalse(seatAllocationService.syncClaimedSeats(journey, List.of(new ClaimedSeatLeg("A", 2, 0))));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat));
+        assertTrue(seatAllocationService.syncClaimedSeats(journey, List.of()));
+        assertTrue(seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, seat).equals(seat));
+    }
+
+    @Test
+    void testSyncClaimedSeatsPerLeg() {
+        addStoppingTrain();
+        Journey stopping = seatAllocationService.resolveJourney("LP201", TODAY);
+        seatAllocationService.allocateSpecificSeat(stopping, new LegRange(1, 2), new Seat("A", 2));
+
+        assertTrue(seatAllocationService.syncClaimedSeats(stopping, List.of(new ClaimedSeatLeg("A", 1, 0))));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(stopping, new LegRange(0, 1), new Seat("A", 1)));
+        assertTrue(seatAllocationService.allocateSpecificSeat(stopping, new LegRange(1, 2), new Seat("A", 1)).equals(new Seat("A", 1)));
+        assertEquals(List.of(stopping), seatAllocationService.openJourneys());
+    }
+
+    @Test
+    void testRestoredSeatsAreReleasedOnceNoLongerClaimedInClusteredMode() {
+        seatAllocationService.bookingProperties.getCluster().setEnabled(true);
+        Seat restored = new Seat("A", 3);
+        Seat vacated = new Seat("A", 4);
+        assertTrue(seatAllocationService.restoreOccupiedSeat(journey, null, null, restored));
+        assertTrue(seatAllocationService.restoreOccupiedSeat(journey, null, null, vacated));
+
+        // A seat vacated here is no longer claimed in the database, so a later hold of it here is not let go by a sync.
+        seatAllocationService.manageVacatedSeat(journey, WHOLE_ROUTE, vacated);
+        seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, vacated);
+        assertTrue(seatAllocationService.syncClaimedSeats(journey, List.of()));
+
+        assertTrue(seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, restored).equals(restored));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, vacated));
+    }
+
+    @Test
+    void testSeatsWrittenHereAreFreedOnceRemovedThroughAnotherInstance() {
+        Seat sold = seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, new Seat("A", 5));
+        seatAllocationService.markClaimedInDatabase(journey, WHOLE_ROUTE, List.of(sold));
+
+        assertFalse(seatAllocationService.syncClaimedSeats(journey, List.of(new ClaimedSeatLeg("A", 5, 0))));
+        assertTrue(seatAllocationService.syncClaimedSeats(journey, List.of()));
+        assertTrue(seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, sold).equals(sold));
+    }
+
+    /**
+     * Adds a train from London to Paris calling at Lille, with a single section of two seats.
+     */
+    private BookingProperties.Train addStoppingTrain() {
+        BookingProperties.Train train = new BookingProperties.Train();
+        train.setNumber("LP201");
+        train.setFromStation("London");
+        train.getStops().add("Lille");
+        train.setToStation("Paris");
+        train.getSections().put("A", 2);
+        seatAllocationService.bookingProperties.getTrains().add(train);
+        seatAllocationService.init();
+        return train;
+    }
+
+    private SeatInventorySnapshotStore snapshotStore(Path directory) {
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getInventorySnapshot().setDirectory(directory.toString());
+        SeatInventorySnapshotStore snapshotStore = new SeatInventorySnapshotStore();
+        snapshotStore.bookingProperties = bookingProperties;
+        snapshotStore.init();
+        return snapshotStore;
+    }
+}
@@ -0,0 +1,91 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchHoldException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SeatHoldServiceTest {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final LegRange WHOLE_ROUTE = new LegRange(0, 1);
+    static final Instant START = TODAY.atStartOfDay().toInstant(ZoneOffset.UTC);
+
+    SeatAllocationService seatAllocationService = new SeatAllocationService();
+    SeatHoldService seatHoldService = new SeatHoldService();
+    Journey journey = new Journey("LF101", TODAY);
+    List<User> users = List.of(new User("first1", "last1", "one@domain.com"), new User("first2", "last2", "two@domain.com"));
+
+    @BeforeEach
+    void setup() {
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.setHoldTtlSeconds(60);
+        seatAllocationService.bookingProperties = bookingProperties;
+        seatAllocationService.clock = Clock.fixed(START, ZoneOffset.UTC);
+        seatAllocationService.init();
+        seatHoldService.seatAllocationService = seatAllocationService;
+        seatHoldService.bookingProperties = bookingProperties;
+        seatHoldService.clock = Clock.fixed(START, ZoneOffset.UTC);
+        seatHoldService.init();
+    }
+
+    @Test
+    void testHoldClaimsSeats() {
+        SeatHold hold = seatHoldService.hold(journey, WHOLE_ROUTE, users, true);
+        assertEquals(2, hold.seats().size());
+        assertEquals(START.plusSeconds(60), hold.expiresAt());
+        assertEquals(126, seatAllocationService.inventoryFor(journey).freeCount());
+    }
+
+    @Test
+    void testExpiredHoldReleasesSeats() {
+        seatHoldService.hold(journey, WHOLE_ROUTE, users, false);
+        advanceTo(START.plusSeconds(59));
+        assertEquals(1, seatHoldService.outstandingHolds());
+        advanceTo(START.plusSeconds(60));
+        assertEquals(0, seatHoldService.outstandingHolds());
+        assertEquals(128, seatAllocationService.inventoryFor(journey).freeCount());
+    }
+
+    @Test
+    void testTakenHoldIsNotReleasedOnExpiry() {
+        SeatHold hold = seatHoldService.hold(journey, WHOLE_ROUTE, users, false);
+        assertEquals(hold, seatHoldService.take(hold.token()));
+        advanceTo(START.plusSeconds(120));
+        assertEquals(126, seatAllocationService.inventoryFor(journey).freeCount());
+        assertThrows(NoSuchHoldException.class, () -> seatHoldService.take(hold.token()));
+    }
+
+    @Test
+    void testTakeAfterDeadlineReleasesSeats() {
+        SeatHold hold = seatHoldService.hold(journey, WHOLE_ROUTE, users, false);
+        seatHoldService.clock = Clock.fixed(START.plusSeconds(60), ZoneOffset.UTC);
+        assertThrows(NoSuchHoldException.class, () -> seatHoldService.take(hold.token()));
+        assertEquals(128, seatAllocationService.inventoryFor(journey).freeCount());
+    }
+
+    @Test
+    void testRelease() {
+        SeatHold hold = seatHoldService.hold(journey, WHOLE_ROUTE, users, false);
+        seatHoldService.release(hold.token());
+        assertEquals(128, seatAllocationService.inventoryFor(journey).freeCount());
+        assertThrows(NoSuchHoldException.class, () -> seatHoldService.release(hold.token()));
+        advanceTo(START.plusSeconds(120));
+        assertEquals(128, seatAllocationService.inventoryFor(journey).freeCount());
+    }
+
+    private void advanceTo(Instant now) {
+        seatHoldService.clock = Clock.fixed(now, ZoneOffset.UTC);
+        seatHoldService.expireHolds();
+    }
+}
@@ -0,0 +1,81 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy;
+import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+class SeatInventoryRecoveryTest {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final LegRange WHOLE_ROUTE = new LegRange(0, 1);
+
+    @Mock
+    TicketRepository ticketRepository;
+    @Mock
+    PlatformTransactionManager transactionManager;
+    @InjectMocks
+    SeatInventoryRecovery seatInventoryRecovery;
+    SeatAllocationService seatAllocationService = new SeatAllocationService();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        Clock clock = Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        seatAllocationService.bookingProperties = new BookingProperties();
+        seatAllocationService.clock = clock;
+        seatAllocationService.init();
+        seatInventoryRecovery.seatAllocationService = seatAllocationService;
+        seatInventoryRecovery.clock = clock;
+    }
+
+    @Test
+    void testRecoverRestoresOccupiedSeats() {
+        when(ticketRepository.streamSeatOccupancyDepartingFrom(TODAY)).thenReturn(Stream.of(
+            new SeatOccupancy("LF101", TODAY, "A", 1, "London", "France"),
+            new SeatOccupancy("LF101", TODAY.plusDays(3), "B", 64, "London", "France"),
+            new SeatOccupancy("XX1", TODAY, "A", 1, "London", "France")));
+        assertEquals(Status.OUT_OF_SERVICE, seatInventoryRecovery.health().getStatus());
+
+        seatInventoryRecovery.start();
+
+        assertTrue(seatInventoryRecovery.isRecovered());
+        assertEquals(Status.UP, seatInventoryRecovery.health().getStatus());
+        assertEquals(2L, seatInventoryRecovery.health().getDetails().get("recoveredSeats"));
+        Journey today = new Journey("LF101", TODAY);
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(today, WHOLE_ROUTE, new Seat("A", 1)));
+        assertThrows(SeatOccupiedException.class, () -> seatAllocationService.allocateSpecificSeat(new Journey("LF101", TODAY.plusDays(3)), WHOLE_ROUTE, new Seat("B", 64)));
+        Seat nextSeat = seatAllocationService.allocateNewSeat(today, WHOLE_ROUTE);
+        assertEquals("A", nextSeat.getSection());
+        assertEquals(2, nextSeat.getSeatNumber());
+    }
+
+    @Test
+    void testRecoverSkipsDuplicateSeats() {
+        when(ticketRepository.streamSeatOccupancyDepartingFrom(TODAY)).thenReturn(Stream.of(
+            new SeatOccupancy("LF101", TODAY, "A", 1, "London", "France"),
+            new SeatOccupancy("LF101", TODAY, "A", 1, "London", "France")));
+        seatInventoryRecovery.recover();
+        assertEquals(1L, seatInventoryRecovery.health().getDetails().get("recoveredSeats"));
+        assertFalse(seatAllocationService.restoreOccupiedSeat(new Journey("LF101", TODAY), "London", "France", new Seat("A", 1)));
+    }
+}
@@ -0,0 +1,121 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SeatInventorySnapshotStoreTest {
+    @TempDir
+    Path directory;
+    SeatInventorySnapshotStore store;
+    Journey journey = new Journey("LF101", LocalDate.of(2024, 6, 1));
+
+    @BeforeEach
+    void setup() {
+        store = open();
+    }
+
+    @AfterEach
+    void teardown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    void testReadsSnapshotAndLaterChanges() throws IOException {
+        store.appendChange(journey, 1, true);
+        long sequence = store.startSnapshot();
+        store.appendChange(journey, 2, true);
+        store.appendChange(journey, 1, false);
+        store.writeSnapshot(sequence, List.of(image(0b11L)));
+        store.close();
+
+        SeatInventorySnapshotStore reopened = open();
+        SeatInventorySnapshotStore.Snapshot snapshot = reopened.readLatestSnapshot().orElseThrow();
+        assertEquals(sequence, snapshot.sequence());
+        assertEquals(journey, snapshot.images().get(0).journey());
+        assertEquals(List.of("A", "B"), snapshot.images().get(0).sections());
+        assertArrayEquals(new long[]{0b11L, 0L}, snapshot.images().get(0).words());
+        assertEquals(List.of(new SeatInventorySnapshotStore.Change(journey, 2, true), new SeatInventorySnapshotStore.Change(journey, 1, false)),
+            reopened.readChangesSince(sequence));
+        assertTrue(reopened.startSnapshot() > sequence);
+        reopened.close();
+    }
+
+    @Test
+    void testStopsAtTornChange() throws IOException {
+        long sequence = store.startSnapshot();
+        store.writeSnapshot(sequence, List.of(image(0L)));
+        store.appendChange(journey, 1, true);
+        store.appendChange(journey, 2, true);
+        store.close();
+        Path changes = only(".changes");
+        try (RandomAccessFile file = new RandomAccessFile(changes.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        assertEquals(List.of(new SeatInventorySnapshotStore.Change(journey, 1, true)), open().readChangesSince(sequence));
+    }
+
+    @Test
+    void testSkipsCorruptSnapshot() throws IOException {
+        long first = store.startSnapshot();
+        store.writeSnapshot(first, List.of(image(1L)));
+        long second = store.startSnapshot();
+        store.writeSnapshot(second, List.of(image(3L)));
+        Path newest = directory.resolve(String.format("inventory-%020d.snapshot", second));
+        try (RandomAccessFile file = new RandomAccessFile(newest.toFile(), "rw")) {
+            file.seek(file.length() - 9);
+            file.write(0xFF);
+        }
+
+        SeatInventorySnapshotStore.Snapshot snapshot = store.readLatestSnapshot().orElseThrow();
+        assertEquals(first, snapshot.sequence());
+        assertEquals(1L, snapshot.images().get(0).words()[0]);
+    }
+
+    @Test
+    void testDeletesSnapshotsNoLongerNeeded() throws IOException {
+        for (int snapshot = 0; snapshot < 4; snapshot++) {
+            long sequence = store.startSnapshot();
+            store.appendChange(journey, snapshot, true);
+            store.writeSnapshot(sequence, List.of(image(snapshot)));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(4, files.count());
+        }
+    }
+
+    private SeatInventorySnapshotStore open() {
+        BookingProperties bookingProperties = new BookingProperties();
+        bookingProperties.getInventorySnapshot().setDirectory(directory.toString());
+        SeatInventorySnapshotStore opened = new SeatInventorySnapshotStore();
+        opened.bookingProperties = bookingProperties;
+        opened.init();
+        return opened;
+    }
+
+    private SeatInventoryImage image(long firstWord) {
+        return new SeatInventoryImage(journey, List.of("A", "B"), new int[]{64, 64}, new long[]{firstWord, 0L});
+    }
+
+    private Path only(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).findFirst().orElseThrow();
+        }
+    }
+}
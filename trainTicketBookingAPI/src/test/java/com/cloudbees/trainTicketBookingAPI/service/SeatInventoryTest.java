@@ -0,0 +1,273 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SeatInventoryTest {
+
+    @Test
+    void testClaimAnyReturnsLowestFreeSeat() {
+        SeatInventory seatInventory = new SeatInventory(100);
+        assertEquals(0, seatInventory.claimAny());
+        assertEquals(1, seatInventory.claimAny());
+        assertTrue(seatInventory.release(0));
+        assertEquals(0, seatInventory.claimAny());
+        assertEquals(2, seatInventory.claimAny());
+    }
+
+    @Test
+    void testFreeRunsStayWithinSection() {
+        SeatInventory seatInventory = new SeatInventory(64, 100);
+        assertTrue(seatInventory.claim(seatInventory.slotOf(1, 0)));
+        assertTrue(seatInventory.claim(seatInventory.slotOf(1, 70)));
+        assertTrue(seatInventory.claim(seatInventory.slotOf(1, 99)));
+        assertArrayEquals(new int[]{0, 63}, seatInventory.freeRuns(0).get(0));
+        assertEquals(1, seatInventory.freeRuns(0).size());
+        List<int[]> runs = seatInventory.freeRuns(1);
+        assertEquals(2, runs.size());
+        assertArrayEquals(new int[]{1, 69}, runs.get(0));
+        assertArrayEquals(new int[]{71, 98}, runs.get(1));
+
+        for (int seat = 0; seat < 64; seat++) {
+            seatInventory.claim(seatInventory.slotOf(0, seat));
+        }
+        assertTrue(seatInventory.freeRuns(0).isEmpty());
+    }
+
+    @Test
+    void testClaimAnyUntilFull() {
+        SeatInventory seatInventory = new SeatInventory(70);
+        for (int seat = 0; seat < 70; seat++) {
+            assertEquals(seat, seatInventory.claimAny());
+        }
+        assertEquals(-1, seatInventory.claimAny());
+        assertEquals(0, seatInventory.freeCount());
+    }
+
+    @Test
+    void testReleaseBelowHintIsFoundAgain() {
+        SeatInventory seatInventory = new SeatInventory(130);
+        for (int seat = 0; seat < 130; seat++) {
+            seatInventory.claimAny();
+        }
+        assertTrue(seatInventory.release(3));
+        assertTrue(seatInventory.release(129));
+        assertEquals(3, seatInventory.claimAny());
+        assertEquals(129, seatInventory.claimAny());
+        assertEquals(-1, seatInventory.claimAny());
+    }
+
+    @Test
+    void testClaimAndReleaseSpecificSeat() {
+        SeatInventory seatInventory = new SeatInventory(64);
+        assertTrue(seatInventory.claim(63));
+        assertFalse(seatInventory.claim(63));
+        assertTrue(seatInventory.isClaimed(63));
+        assertEquals(63, seatInventory.freeCount());
+        assertTrue(seatInventory.release(63));
+        assertFalse(seatInventory.release(63));
+        assertEquals(64, seatInventory.freeCount());
+    }
+
+    @Test
+    void testIndexOutOfRange() {
+        SeatInventory seatInventory = new SeatInventory(10);
+        assertFalse(seatInventory.claim(10));
+        assertThrows(IndexOutOfBoundsException.class, () -> seatInventory.claim(64));
+        assertThrows(IndexOutOfBoundsException.class, () -> seatInventory.release(-1));
+    }
+
+    @Test
+    void testSectionsStartOnWordBoundaries() {
+        SeatInventory seatInventory = new SeatInventory(3, 70);
+        assertEquals(73, seatInventory.capacity());
+        assertEquals(0, seatInventory.claimAny());
+        assertEquals(1, seatInventory.claimAny());
+        assertEquals(2, seatInventory.claimAny());
+        int slot = seatInventory.claimAny();
+        assertEquals(64, slot);
+        assertEquals(1, seatInventory.sectionOf(slot));
+        assertEquals(0, seatInventory.offsetOf(slot));
+        assertEquals(seatInventory.slotOf(1, 69), 133);
+        assertEquals(0, seatInventory.freeCount(0));
+        assertEquals(69, seatInventory.freeCount(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> seatInventory.slotOf(0, 3));
+    }
+
+    @Test
+    void testClaimAnyBatchAcrossWords() {
+        SeatInventory seatInventory = new SeatInventory(60, 60);
+        assertTrue(seatInventory.claim(1));
+        int[] slots = new int[62];
+        assertTrue(seatInventory.claimAny(slots));
+        assertEquals(0, slots[0]);
+        assertEquals(2, slots[1]);
+        assertEquals(59, slots[58]);
+        assertEquals(64, slots[59]);
+        assertEquals(66, slots[61]);
+        assertEquals(57, seatInventory.freeCount());
+    }
+
+    @Test
+    void testClaimAnyBatchIsAllOrNothing() {
+        SeatInventory seatInventory = new SeatInventory(10);
+        assertTrue(seatInventory.claimAny(new int[8]));
+        assertFalse(seatInventory.claimAny(new int[3]));
+        assertEquals(2, seatInventory.freeCount());
+        assertTrue(seatInventory.claimAny(new int[2]));
+        assertEquals(0, seatInventory.freeCount());
+    }
+
+    @Test
+    void testClaimBlockFindsRunWithinWord() {
+        SeatInventory seatInventory = new SeatInventory(64);
+        for (int slot : new int[]{0, 2, 5, 9}) {
+            seatInventory.claim(slot);
+        }
+        int[] slots = new int[3];
+        assertTrue(seatInventory.claimBlock(slots));
+        assertArrayEquals(new int[]{6, 7, 8}, slots);
+    }
+
+    @Test
+    void testClaimBlockFindsRunAcrossWords() {
+        SeatInventory seatInventory = new SeatInventory(200);
+        for (int slot = 0; slot < 62; slot++) {
+            seatInventory.claim(slot);
+        }
+        seatInventory.claim(66);
+        int[] slots = new int[4];
+        assertTrue(seatInventory.claimBlock(slots));
+        assertArrayEquals(new int[]{62, 63, 64, 65}, slots);
+        int[] longRun = new int[130];
+        assertTrue(seatInventory.claimBlock(longRun));
+        assertEquals(67, longRun[0]);
+        assertEquals(196, longRun[129]);
+    }
+
+    @Test
+    void testClaimBlockDoesNotSpanSections() {
+        SeatInventory seatInventory = new SeatInventory(4, 4);
+        seatInventory.claim(0);
+        seatInventory.claim(64);
+        int[] slots = new int[3];
+        assertTrue(seatInventory.claimBlock(slots));
+        assertArrayEquals(new int[]{1, 2, 3}, slots);
+        assertTrue(seatInventory.claimBlock(slots));
+        assertArrayEquals(new int[]{65, 66, 67}, slots);
+    }
+
+    @Test
+    void testClaimBlockFallsBackToTightestCluster() {
+        SeatInventory seatInventory = new SeatInventory(20, 20);
+        for (int slot = 0; slot < 20; slot += 2) {
+            seatInventory.claim(slot);
+        }
+        for (int slot = 64; slot < 84; slot++) {
+            if (slot != 70 && slot != 72 && slot != 73)
+                seatInventory.claim(slot);
+        }
+        int[] slots = new int[3];
+        assertTrue(seatInventory.claimBlock(slots));
+        assertArrayEquals(new int[]{70, 72, 73}, slots);
+        assertFalse(seatInventory.claimBlock(new int[11]));
+        assertEquals(10, seatInventory.freeCount());
+    }
+
+    @Test
+    void testLoadWordsRestoresCopiedOccupancy() {
+        SeatInventory seatInventory = new SeatInventory(10, 70);
+        seatInventory.claim(3);
+        seatInventory.claim(64 + 65);
+        SeatInventory restored = new SeatInventory(10, 70);
+        restored.loadWords(seatInventory.copyWords());
+        assertTrue(restored.isClaimed(3));
+        assertTrue(restored.isClaimed(64 + 65));
+        assertEquals(seatInventory.freeCount(), restored.freeCount());
+        assertEquals(0, restored.claimAny());
+        assertThrows(IllegalArgumentException.class, () -> new SeatInventory(10).loadWords(seatInventory.copyWords()));
+    }
+
+    @Test
+    void testSeatFreedAtStopIsClaimedForRestOfRoute() {
+        SeatInventory seatInventory = new SeatInventory(new int[]{4}, 3);
+        assertTrue(seatInventory.claim(0, 0, 1));
+        assertTrue(seatInventory.isClaimed(0));
+        assertTrue(seatInventory.claim(0, 1, 3));
+        assertFalse(seatInventory.claim(0, 0, 2));
+        assertEquals(3, seatInventory.freeCount(0, 0, 1));
+        assertTrue(seatInventory.release(0, 1, 3));
+        assertEquals(4, seatInventory.freeCount(0, 1, 3));
+        assertEquals(3, seatInventory.freeCount());
+    }
+
+    @Test
+    void testFailedClaimLeavesEarlierLegsFree() {
+        SeatInventory seatInventory = new SeatInventory(new int[]{4}, 3);
+        assertTrue(seatInventory.claim(1, 2, 3));
+        assertFalse(seatInventory.claim(1, 0, 3));
+        assertTrue(seatInventory.claim(1, 0, 2));
+        assertFalse(seatInventory.claimAny(new int[4], 1, 3));
+        assertEquals(3, seatInventory.freeCount(0, 1, 3));
+    }
+
+    @Test
+    void testFreeRunsOverLegs() {
+        SeatInventory seatInventory = new SeatInventory(new int[]{70}, 2);
+        assertTrue(seatInventory.claim(5, 0, 1));
+        assertTrue(seatInventory.claim(66, 1, 2));
+        List<int[]> firstLeg = seatInventory.freeRuns(0, 0, 1);
+        assertEquals(2, firstLeg.size());
+        assertArrayEquals(new int[]{6, 69}, firstLeg.get(1));
+        List<int[]> wholeRoute = seatInventory.freeRuns(0);
+        assertEquals(3, wholeRoute.size());
+        assertArrayEquals(new int[]{6, 65}, wholeRoute.get(1));
+        assertArrayEquals(new int[]{67, 69}, wholeRoute.get(2));
+    }
+
+    @Test
+    void testClaimBestFitPrefersSeatFreedAtBoardingStation() {
+        SeatInventory seatInventory = new SeatInventory(new int[]{4}, 3);
+        // Seat 1 is taken up to the second station and seat 2 from the third, so seat 1 leaves no leg unused from the second station to the end.
+        assertTrue(seatInventory.claim(1, 0, 1));
+        assertTrue(seatInventory.claim(2, 2, 3));
+        assertEquals(1, seatInventory.claimBestFit(1, 3));
+        // From the second to the third station, seat 2 leaves the first leg free and seat 0 both others; seat 2 fits best.
+        assertEquals(2, seatInventory.claimBestFit(1, 2));
+        assertEquals(0, seatInventory.claimBestFit(1, 2));
+        assertEquals(3, seatInventory.claimBestFit(1, 2));
+        assertEquals(-1, seatInventory.claimBestFit(1, 2));
+        assertEquals(0, seatInventory.claimBestFit(0, 1));
+    }
+
+    @Test
+    void testClaimBestFitOverWholeRouteTakesLowestFreeSeat() {
+        SeatInventory seatInventory = new SeatInventory(new int[]{100}, 2);
+        seatInventory.claim(0, 0, 1);
+        assertEquals(1, seatInventory.claimBestFit(0, 2));
+        assertEquals(0, seatInventory.claimBestFit(1, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> seatInventory.claimBestFit(1, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> seatInventory.claimBestFit(0, 3));
+    }
+
+    @Test
+    void testBitsOfSingleLegRouteAreSlots() {
+        SeatInventory seatInventory = new SeatInventory(10, 70);
+        assertEquals(64 + 65, seatInventory.bitOf(64 + 65, 0));
+        SeatInventory stops = new SeatInventory(new int[]{10, 70}, 2);
+        int bit = stops.bitOf(3, 1);
+        assertEquals(3 * 64 + 3, bit);
+        assertTrue(stops.claimBit(bit));
+        assertTrue(stops.isClaimed(3));
+        assertEquals(10, stops.freeCount(0, 0, 1));
+        assertTrue(stops.releaseBit(bit));
+        assertEquals(80, stops.freeCount());
+    }
+}
@@ -0,0 +1,118 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ClaimedSeatLeg;
+import com.cloudbees.trainTicketBookingAPI.repository.SeatLegClaimRepository;
+import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeatLegClaimsTest {
+    static final LocalDate TODAY = LocalDate.of(2024, 6, 1);
+    static final LegRange BOTH_LEGS = new LegRange(0, 2);
+
+    SeatLegClaims seatLegClaims = new SeatLegClaims();
+    SeatLegClaimRepository seatLegClaimRepository = mock(SeatLegClaimRepository.class);
+    TicketRepository ticketRepository = mock(TicketRepository.class);
+    SeatAllocationService seatAllocationService = mock(SeatAllocationService.class);
+    PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+    Journey journey = new Journey("LP201", TODAY);
+    Ticket ticket;
+
+    @BeforeEach
+    void setup() {
+        when(transactionManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+        seatLegClaims.seatLegClaimRepository = seatLegClaimRepository;
+        seatLegClaims.ticketRepository = ticketRepository;
+        seatLegClaims.seatAllocationService = seatAllocationService;
+        seatLegClaims.bookingProperties = new BookingProperties();
+        seatLegClaims.transactionManager = transactionManager;
+        seatLegClaims.init();
+        ticket = new Ticket(7L, journey, "London", "Paris", new User("firstName", "lastName", "email@domain.com"), 20.0, new Seat("A", 1), 0L);
+    }
+
+    @Test
+    void testSaveTicketClaimsEveryLeg() {
+        seatLegClaims.saveTicket(ticket, BOTH_LEGS);
+        verify(ticketRepository).save(ticket);
+        verify(seatLegClaimRepository).claim("LP201", TODAY, "A", 1, 0, 7L);
+        verify(seatLegClaimRepository).claim("LP201", TODAY, "A", 1, 1, 7L);
+        verify(seatAllocationService).markClaimedInDatabase(journey, BOTH_LEGS, List.of(ticket.getSeatAllocated()));
+    }
+
+    @Test
+    void testRefusedClaimIsMarkedClaimedInDatabase() {
+        when(seatLegClaimRepository.claim(eq("LP201"), eq(TODAY), eq("A"), eq(1), eq(1), anyLong()))
+            .thenThrow(new DataIntegrityViolationException("seat_leg_claim"));
+        assertThrows(DataIntegrityViolationException.class, () -> seatLegClaims.saveTicket(ticket, BOTH_LEGS));
+        verify(seatAllocationService).markClaimedInDatabase(journey, BOTH_LEGS, List.of(ticket.getSeatAllocated()));
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    void testChangeSeatMovesClaims() {
+        Seat seat = new Seat("A", 2);
+        when(ticketRepository.updateSeatIfUnchanged(7L, 0L, "A", 2)).thenReturn(1);
+        assertEquals(1, seatLegClaims.changeSeat(ticket, BOTH_LEGS, seat));
+        verify(seatLegClaimRepository).releaseClaims(7L);
+        verify(seatLegClaimRepository).claim("LP201", TODAY, "A", 2, 0, 7L);
+        verify(seatLegClaimRepository).claim("LP201", TODAY, "A", 2, 1, 7L);
+        verify(seatAllocationService).markClaimedInDatabase(journey, BOTH_LEGS, List.of(seat));
+    }
+
+    @Test
+    void testChangedTicketKeepsClaims() {
+        when(ticketRepository.updateSeatIfUnchanged(7L, 0L, "A", 2)).thenReturn(0);
+        assertEquals(0, seatLegClaims.changeSeat(ticket, BOTH_LEGS, new Seat("A", 2)));
+        when(ticketRepository.deleteIfUnchanged(7L, 0L)).thenReturn(0);
+        assertEquals(0, seatLegClaims.removeTicket(ticket));
+        verify(seatLegClaimRepository, never()).releaseClaims(anyLong());
+        verify(seatLegClaimRepository, never()).claim(any(), any(), any(), any(), anyInt(), any());
+        verify(seatAllocationService, never()).markClaimedInDatabase(any(), any(), any());
+    }
+
+    @Test
+    void testRemoveTicketReleasesClaims() {
+        when(ticketRepository.deleteIfUnchanged(7L, 0L)).thenReturn(1);
+        assertEquals(1, seatLegClaims.removeTicket(ticket));
+        verify(seatLegClaimRepository).releaseClaims(7L);
+    }
+
+    @Test
+    void testRefreshReportsChangedJourneys() {
+        Journey tomorrow = new Journey("LP201", TODAY.plusDays(1));
+        List<ClaimedSeatLeg> claims = List.of(new ClaimedSeatLeg("A", 1, 0));
+        when(seatAllocationService.openJourneys()).thenReturn(List.of(journey, tomorrow));
+        when(seatLegClaimRepository.findClaimedSeatLegs("LP201", TODAY)).thenReturn(claims);
+        when(seatLegClaimRepository.findClaimedSeatLegs("LP201", TODAY.plusDays(1))).thenReturn(List.of());
+        when(seatAllocationService.syncClaimedSeats(journey, claims)).thenReturn(true);
+        assertEquals(List.of(journey), seatLegClaims.refresh());
+    }
+
+    @Test
+    void testCannotBeCombinedWithJournal() {
+        seatLegClaims.bookingProperties.getJournal().setEnabled(true);
+        assertThrows(IllegalStateException.class, seatLegClaims::init);
+    }
+}
@@ -0,0 +1,60 @@
+package com.cloudbees.trainTicketBookingAPI.service;
+
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TicketCacheTest {
+
+    @Test
+    void testGetLoadsOnMissOnly() {
+        TicketCache ticketCache = new TicketCache(10);
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        assertSame(ticket, ticketCache.get(1L, pnr -> ticket));
+        assertSame(ticket, ticketCache.get(1L, pnr -> null));
+        TicketCache.Statistics statistics = ticketCache.statistics();
+        assertEquals(1, statistics.hitCount());
+        assertEquals(1, statistics.missCount());
+        assertEquals(1, statistics.size());
+        assertEquals(10, statistics.maximumSize());
+    }
+
+    @Test
+    void testMissingTicketNotCached() {
+        TicketCache ticketCache = new TicketCache(10);
+        assertNull(ticketCache.get(1L, pnr -> null));
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        assertSame(ticket, ticketCache.get(1L, pnr -> ticket));
+        assertEquals(2, ticketCache.statistics().missCount());
+    }
+
+    @Test
+    void testPutAndInvalidate() {
+        TicketCache ticketCache = new TicketCache(10);
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        ticketCache.put(ticket);
+        assertSame(ticket, ticketCache.get(1L, pnr -> null));
+        ticketCache.invalidate(1L);
+        assertNull(ticketCache.get(1L, pnr -> null));
+    }
+
+    @Test
+    void testBindsCacheMetrics() {
+        TicketCache ticketCache = new TicketCache(10);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ticketCache.bindTo(registry);
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        ticketCache.get(1L, pnr -> ticket);
+        ticketCache.get(1L, pnr -> null);
+        assertEquals(1, registry.get("cache.gets").tags("cache", "tickets", "result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tags("cache", "tickets", "result", "miss").functionCounter().count());
+    }
+}
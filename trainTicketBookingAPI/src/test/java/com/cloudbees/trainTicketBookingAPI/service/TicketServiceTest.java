@@ -1,57 +1,331 @@
 package com.cloudbees.trainTicketBookingAPI.service;
 
+import com.cloudbees.trainTicketBookingAPI.config.BookingProperties;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.Journey;
+import com.cloudbees.trainTicketBookingAPI.domain.entity.ReceiptCode;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Seat;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.Ticket;
 import com.cloudbees.trainTicketBookingAPI.domain.entity.User;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.ManifestEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatChartEntry;
+import com.cloudbees.trainTicketBookingAPI.domain.projection.SeatOccupancy;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatAvailabilityDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartPageDTO;
 import com.cloudbees.trainTicketBookingAPI.domain.response.SeatChartResponseDTO;
+import com.cloudbees.trainTicketBookingAPI.domain.response.WaitlistStatusDTO;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidDateRangeException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidPageRequestException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidPassengerCountException;
+import com.cloudbees.trainTicketBookingAPI.exception.InvalidRouteException;
 import com.cloudbees.trainTicketBookingAPI.exception.NoSuchSectionException;
+import com.cloudbees.trainTicketBookingAPI.exception.NoSuchWaitlistEntryException;
 import com.cloudbees.trainTicketBookingAPI.exception.NoTicketFoundException;
 import com.cloudbees.trainTicketBookingAPI.exception.RequestedSeatSameAsAllocatedException;
+import com.cloudbees.trainTicketBookingAPI.exception.SeatOccupiedException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketUpdateConflictException;
+import com.cloudbees.trainTicketBookingAPI.exception.TicketsSoldOutException;
+import com.cloudbees.trainTicketBookingAPI.exception.WaitlistedException;
 import com.cloudbees.trainTicketBookingAPI.repository.TicketRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.Clock;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
 class TicketServiceTest {
+    static final LegRange WHOLE_ROUTE = new LegRange(0, 1);
 
     @Mock
     TicketRepository ticketRepository;
     @Mock
     SeatAllocationService seatAllocationService;
+    @Mock
+    SeatHoldService seatHoldService;
+    @Spy
+    BookingProperties bookingProperties = new BookingProperties();
+    @Spy
+    TicketCache ticketCache = new TicketCache(100);
+    @Spy
+    ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    @Spy
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @Spy
+    PassengerIndex passengerIndex = new PassengerIndex();
     @InjectMocks
     TicketService ticketService;
+    Journey journey = new Journey("LF101", LocalDate.of(2024, 6, 1));
 
     @BeforeEach
     public void setup() {
         MockitoAnnotations.openMocks(this);
+        ticketService.init();
+        when(seatAllocationService.resolveJourney(null, null)).thenReturn(journey);
+        when(seatAllocationService.isOpenForBooking(journey)).thenReturn(true);
+        when(seatAllocationService.getTrainLayout(journey)).thenReturn(new TrainLayout(BookingProperties.Train.londonToFrance()));
+        // Persisting assigns the PNR, as the database would.
+        AtomicLong pnrs = new AtomicLong();
+        when(ticketRepository.save(any(Ticket.class))).thenAnswer(invocation -> {
+            Ticket ticket = invocation.getArgument(0);
+            if (ticket.getPnr() == null)
+                ticket.setPnr(pnrs.incrementAndGet());
+            ticket.setVersion(0L);
+            return ticket;
+        });
+        when(ticketRepository.saveAllAndFlush(anyList())).thenAnswer(invocation -> {
+            List<Ticket> tickets = invocation.getArgument(0);
+            tickets.forEach(ticket -> {
+                ticket.setPnr(pnrs.incrementAndGet());
+                ticket.setVersion(0L);
+            });
+            return tickets;
+        });
     }
 
     @Test
     void testPurchaseTicket() {
         User user = new User("firstName", "lastName", "email@domain.com");
         Seat seat = new Seat("A", 1);
-        Ticket ticket = new Ticket();
-        when(seatAllocationService.allocateNewSeat()).thenReturn(seat);
-        when(ticketRepository.save(any(Ticket.class))).thenReturn(ticket);
-        Ticket result = ticketService.purchaseTicket(user);
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(seat);
+        Ticket result = ticketService.purchaseTicket(user, null, null, null, null);
         assertEquals(user, result.getUser());
         assertEquals(seat, result.getSeatAllocated());
+        assertEquals(journey, result.getJourney());
+        assertEquals("London", result.getFromStation());
+        assertEquals("France", result.getToStation());
+        assertEquals(20.0, result.getPricePaidInDollars());
+    }
+
+    @Test
+    void testPurchaseTicketBetweenStations() {
+        BookingProperties.Train train = BookingProperties.Train.londonToFrance();
+        train.setToStation("Paris");
+        train.getStops().add("Lille");
+        when(seatAllocationService.getTrainLayout(journey)).thenReturn(new TrainLayout(train));
+        Seat seat = new Seat("A", 1);
+        when(seatAllocationService.allocateNewSeat(journey, new LegRange(1, 2))).thenReturn(seat);
+        Ticket result = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, "lille", null);
+        assertEquals("Lille", result.getFromStation());
+        assertEquals("Paris", result.getToStation());
+        assertEquals(seat, result.getSeatAllocated());
+        assertThrows(InvalidRouteException.class,
+            () -> ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, "Paris", "Lille"));
+    }
+
+    @Test
+    void testRemoveUserTicketReleasesItsLegs() {
+        BookingProperties.Train train = BookingProperties.Train.londonToFrance();
+        train.setToStation("Paris");
+        train.getStops().add("Lille");
+        when(seatAllocationService.getTrainLayout(journey)).thenReturn(new TrainLayout(train));
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        ticket.setJourney(journey);
+        ticket.setFromStation("London");
+        ticket.setToStation("Lille");
+        ticket.setSeatAllocated(new Seat("A", 1));
+        ticket.setVersion(0L);
+        when(ticketRepository.findById(1L)).thenReturn(Optional.of(ticket));
+        when(ticketRepository.deleteIfUnchanged(1L, 0L)).thenReturn(1);
+        ticketService.removeUserTicket(1L);
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, new LegRange(0, 1), ticket.getSeatAllocated());
+    }
+
+    @Test
+    void testPurchaseTicketTimesAllocationAndPersistence() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        int meters = meterRegistry.getMeters().size();
+        ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        // The phase timers are registered up front, so timing a purchase registers nothing.
+        assertEquals(meters, meterRegistry.getMeters().size());
+        assertEquals(1, meterRegistry.get("booking.phase").tags("operation", "purchase", "phase", "allocation").timer().count());
+        assertEquals(1, meterRegistry.get("booking.phase").tags("operation", "purchase", "phase", "persistence").timer().count());
+    }
+
+    @Test
+    void testGetAvailabilityReadsInventoryOnly() {
+        when(seatAllocationService.freeSeatRanges(journey, WHOLE_ROUTE, "A")).thenReturn(List.of(new int[]{2, 10}, new int[]{12, 64}));
+        when(seatAllocationService.freeSeatRanges(journey, WHOLE_ROUTE, "B")).thenReturn(List.of());
+        SeatAvailabilityDTO availability = ticketService.getAvailability(null, null, null, null, null);
+        assertEquals(62, availability.getFreeSeats());
+        assertEquals(2, availability.getSections().size());
+        assertEquals(62, availability.getSections().get(0).getFreeSeats());
+        assertEquals(64, availability.getSections().get(0).getSeats());
+        assertEquals(0, availability.getSections().get(1).getFreeSeats());
+
+        SeatAvailabilityDTO sectionB = ticketService.getAvailability(null, null, null, null, "B");
+        assertEquals(1, sectionB.getSections().size());
+        assertThrows(NoSuchSectionException.class, () -> ticketService.getAvailability(null, null, null, null, "Z"));
+        verifyNoInteractions(ticketRepository);
+    }
+
+    @Test
+    void testPurchaseTickets() {
+        List<User> users = List.of(new User("first1", "last1", "one@domain.com"), new User("first2", "last2", "two@domain.com"));
+        List<Seat> seats = List.of(new Seat("A", 1), new Seat("A", 2));
+        when(seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 2, false)).thenReturn(seats);
+        List<Ticket> result = ticketService.purchaseTickets(users, null, null, null, null, false);
+        assertEquals(2, result.size());
+        for (int passenger = 0; passenger < 2; passenger++) {
+            assertEquals(users.get(passenger), result.get(passenger).getUser());
+            assertEquals(seats.get(passenger), result.get(passenger).getSeatAllocated());
+            assertEquals(journey, result.get(passenger).getJourney());
+        }
+        verify(ticketRepository, times(1)).saveAllAndFlush(result);
+    }
+
+    @Test
+    void testPurchaseTicketsSoldOut() {
+        List<User> users = List.of(new User(), new User());
+        when(seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 2, false)).thenThrow(TicketsSoldOutException.class);
+        assertThrows(TicketsSoldOutException.class, () -> ticketService.purchaseTickets(users, null, null, null, null, false));
+        verify(ticketRepository, never()).saveAllAndFlush(anyList());
+    }
+
+    @Test
+    void testPurchaseTicketsSaveFailureReleasesSeats() {
+        List<User> users = List.of(new User(), new User());
+        List<Seat> seats = List.of(new Seat("A", 1), new Seat("A", 2));
+        when(seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 2, false)).thenReturn(seats);
+        when(ticketRepository.saveAllAndFlush(anyList())).thenThrow(new IllegalStateException("insert failed"));
+        assertThrows(IllegalStateException.class, () -> ticketService.purchaseTickets(users, null, null, null, null, false));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, seats.get(0));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, seats.get(1));
+    }
+
+    @Test
+    void testPurchaseTicketsSeatAlreadyTicketedKeepsOnlyTakenSeatClaimed() {
+        List<User> users = List.of(new User(), new User());
+        List<Seat> seats = List.of(new Seat("A", 1), new Seat("A", 2));
+        when(seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 2, false)).thenReturn(seats);
+        when(ticketRepository.saveAllAndFlush(anyList())).thenThrow(new DataIntegrityViolationException("uk_ticket_journey_seat"));
+        when(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate())).thenReturn(List.of(
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 2, "London", "France")));
+        assertThrows(SeatOccupiedException.class, () -> ticketService.purchaseTickets(users, null, null, null, null, false));
+        verify(seatAllocationService).manageVacatedSeat(journey, WHOLE_ROUTE, seats.get(0));
+        verify(seatAllocationService, never()).manageVacatedSeat(journey, WHOLE_ROUTE, seats.get(1));
+    }
+
+    @Test
+    void testPurchaseTicketSeatAlreadyTicketedKeepsSeatClaimed() {
+        Seat seat = new Seat("A", 1);
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(seat);
+        when(ticketRepository.save(any(Ticket.class))).thenThrow(new DataIntegrityViolationException("uk_ticket_journey_seat"));
+        when(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate())).thenReturn(List.of(
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 1, "London", "France")));
+        assertThrows(SeatOccupiedException.class, () -> ticketService.purchaseTicket(new User(), null, null, null, null));
+        verify(seatAllocationService, never()).manageVacatedSeat(any(), any(), any());
+    }
+
+    @Test
+    void testPurchaseTicketRejectedForAnotherConstraintReleasesSeat() {
+        Seat seat = new Seat("A", 1);
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(seat);
+        when(ticketRepository.save(any(Ticket.class))).thenThrow(new DataIntegrityViolationException("primary key"));
+        when(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate())).thenReturn(List.of(
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 2, "London", "France")));
+        assertThrows(DataIntegrityViolationException.class, () -> ticketService.purchaseTicket(new User(), null, null, null, null));
+        verify(seatAllocationService).manageVacatedSeat(journey, WHOLE_ROUTE, seat);
+    }
+
+    @Test
+    void testRejectedSeatIsReleasedOnLegsNoOtherTicketHolds() {
+        BookingProperties.Train train = BookingProperties.Train.londonToFrance();
+        train.setToStation("Paris");
+        train.getStops().add("Lille");
+        train.getStops().add("Calais");
+        when(seatAllocationService.getTrainLayout(journey)).thenReturn(new TrainLayout(train));
+        Seat seat = new Seat("A", 1);
+        when(seatAllocationService.allocateNewSeat(journey, new LegRange(0, 3))).thenReturn(seat);
+        when(ticketRepository.save(any(Ticket.class))).thenThrow(new DataIntegrityViolationException("uk_ticket_journey_seat"));
+        when(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate())).thenReturn(List.of(
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 1, "Lille", "Calais")));
+        assertThrows(SeatOccupiedException.class, () -> ticketService.purchaseTicket(new User(), null, null, null, null));
+        verify(seatAllocationService).manageVacatedSeat(journey, new LegRange(0, 1), seat);
+        verify(seatAllocationService).manageVacatedSeat(journey, new LegRange(2, 3), seat);
+        verify(seatAllocationService, times(2)).manageVacatedSeat(any(), any(), any());
+    }
+
+    @Test
+    void testPurchaseTicketsInvalidPassengerCount() {
+        assertThrows(InvalidPassengerCountException.class, () -> ticketService.purchaseTickets(List.of(), null, null, null, null, false));
+        bookingProperties.setMaxPassengersPerBooking(1);
+        assertThrows(InvalidPassengerCountException.class, () -> ticketService.purchaseTickets(List.of(new User(), new User()), null, null, null, null, false));
+        verify(seatAllocationService, never()).allocateNewSeats(any(), any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void testHoldSeats() {
+        List<User> users = List.of(new User("first1", "last1", "one@domain.com"));
+        SeatHold hold = new SeatHold("token", journey, WHOLE_ROUTE, users, List.of(new Seat("A", 1)), Instant.EPOCH);
+        when(seatHoldService.hold(journey, WHOLE_ROUTE, users, true)).thenReturn(hold);
+        assertSame(hold, ticketService.holdSeats(users, null, null, null, null, true));
+        assertThrows(InvalidPassengerCountException.class, () -> ticketService.holdSeats(List.of(), null, null, null, null, false));
+    }
+
+    @Test
+    void testConfirmHold() {
+        List<User> users = List.of(new User("first1", "last1", "one@domain.com"), new User("first2", "last2", "two@domain.com"));
+        List<Seat> seats = List.of(new Seat("A", 1), new Seat("A", 2));
+        when(seatHoldService.take("token")).thenReturn(new SeatHold("token", journey, WHOLE_ROUTE, users, seats, Instant.EPOCH));
+        List<Ticket> result = ticketService.confirmHold("token");
+        assertEquals(2, result.size());
+        assertEquals(seats.get(1), result.get(1).getSeatAllocated());
+        assertEquals(users.get(1), result.get(1).getUser());
+        verify(seatAllocationService, never()).allocateNewSeats(any(), any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void testConfirmHoldSaveFailureReleasesSeats() {
+        List<Seat> seats = List.of(new Seat("A", 1));
+        when(seatHoldService.take("token")).thenReturn(new SeatHold("token", journey, WHOLE_ROUTE, List.of(new User()), seats, Instant.EPOCH));
+        when(ticketRepository.saveAllAndFlush(anyList())).thenThrow(new DataAccessResourceFailureException("down"));
+        assertThrows(DataAccessResourceFailureException.class, () -> ticketService.confirmHold("token"));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, seats.get(0));
     }
 
     @Test
@@ -65,6 +339,114 @@ class TicketServiceTest {
         assertEquals(pnr, result.getPnr());
     }
 
+    @Test
+    void testGetTicketByPnrCached() {
+        Long pnr = 1L;
+        Ticket ticket = new Ticket();
+        ticket.setPnr(pnr);
+        when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
+        ticketService.getTicketByPnr(pnr);
+        assertSame(ticket, ticketService.getTicketByPnr(pnr));
+        verify(ticketRepository, times(1)).findById(pnr);
+        assertEquals(1, ticketCache.statistics().hitCount());
+    }
+
+    @Test
+    void testPurchaseTicketWritesThroughToCache() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        Ticket ticket = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        assertSame(ticket, ticketService.getTicketByPnr(ticket.getPnr()));
+        verify(ticketRepository, never()).findById(any());
+    }
+
+    @Test
+    void testRemoveUserTicketInvalidatesCache() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        Ticket ticket = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        when(ticketRepository.findById(ticket.getPnr())).thenReturn(Optional.empty());
+        when(ticketRepository.deleteIfUnchanged(ticket.getPnr(), 0L)).thenReturn(1);
+        ticketService.removeUserTicket(ticket.getPnr());
+        assertThrows(NoTicketFoundException.class, () -> ticketService.getTicketByPnr(ticket.getPnr()));
+    }
+
+    @Test
+    void testPurchaseTicketAsyncWithoutPipeline() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        CompletableFuture<Ticket> result = ticketService.purchaseTicketAsync(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        assertTrue(result.isDone());
+        assertEquals(1L, result.join().getPnr());
+    }
+
+    @Test
+    void testPurchaseTicketAsyncQueuesOnPipeline() {
+        BookingPipeline bookingPipeline = mock(BookingPipeline.class);
+        CompletableFuture<Object> queued = new CompletableFuture<>();
+        when(bookingPipeline.submit(eq("LF101"), any())).thenReturn(queued);
+        ticketService.bookingPipeline = bookingPipeline;
+        assertSame(queued, ticketService.purchaseTicketAsync(new User("firstName", "lastName", "email@domain.com"), null, null, null, null));
+        verify(seatAllocationService, never()).allocateNewSeat(any(), any());
+        verify(ticketRepository, never()).save(any());
+    }
+
+    @Test
+    void testPurchaseTicketAppendsToJournal() {
+        BookingJournal bookingJournal = mock(BookingJournal.class);
+        ticketService.bookingJournal = bookingJournal;
+        doAnswer(invocation -> {
+            invocation.<Ticket>getArgument(0).setPnr(42L);
+            return null;
+        }).when(bookingJournal).appendPurchase(any(Ticket.class));
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        Ticket ticket = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        verify(bookingJournal, times(1)).appendPurchase(ticket);
+        verify(ticketRepository, never()).save(any());
+        assertSame(ticket, ticketService.getTicketByPnr(42L));
+    }
+
+    @Test
+    void testJournaledBookingsAreNotAppendedAgainWhenThePipelineRetriesThem() {
+        BookingJournal bookingJournal = mock(BookingJournal.class);
+        ticketService.bookingJournal = bookingJournal;
+        doAnswer(invocation -> {
+            invocation.<Ticket>getArgument(0).setPnr(42L);
+            return null;
+        }).when(bookingJournal).appendPurchase(any(Ticket.class));
+        when(bookingJournal.appendSeatChange(any(Ticket.class), any(Seat.class))).thenReturn(true);
+        BookingPipeline bookingPipeline = mock(BookingPipeline.class);
+        // As the pipeline does when the batch transaction fails: the write is run again in a transaction of its own.
+        when(bookingPipeline.submit(eq("LF101"), any())).thenAnswer(invocation -> {
+            BookingCommand<?> command = invocation.getArgument(1);
+            command.apply();
+            command.write();
+            command.write();
+            return CompletableFuture.completedFuture(command.commit());
+        });
+        ticketService.bookingPipeline = bookingPipeline;
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        ticketService.purchaseTicketAsync(new User("firstName", "lastName", "email@domain.com"), null, null, null, null).join();
+        verify(bookingJournal, times(1)).appendPurchase(any(Ticket.class));
+
+        Ticket journaled = new Ticket(1L, journey, "London", "France", new User(), 20.0, new Seat("A", 1), 0L);
+        when(bookingJournal.findTicket(1L)).thenReturn(journaled);
+        Seat newSeat = new Seat("A", 2);
+        when(seatAllocationService.allocateSpecificSeat(eq(journey), eq(WHOLE_ROUTE), any(Seat.class))).thenReturn(newSeat);
+        assertSame(newSeat, ticketService.modifyUserTicketAsync(1L, new Seat("A", 2)).join().getSeatAllocated());
+        verify(bookingJournal, times(1)).appendSeatChange(any(Ticket.class), any(Seat.class));
+        verify(seatAllocationService, never()).manageVacatedSeat(any(), any(), same(newSeat));
+    }
+
+    @Test
+    void testModifyUserTicketRejectedByJournal() {
+        BookingJournal bookingJournal = mock(BookingJournal.class);
+        ticketService.bookingJournal = bookingJournal;
+        Ticket ticket = new Ticket(1L, journey, "London", "France", new User(), 20.0, new Seat("A", 1), 0L);
+        when(bookingJournal.findTicket(1L)).thenReturn(ticket);
+        when(seatAllocationService.allocateSpecificSeat(eq(journey), eq(WHOLE_ROUTE), any(Seat.class))).thenReturn(new Seat("A", 2));
+        assertThrows(TicketUpdateConflictException.class, () -> ticketService.modifyUserTicket(1L, new Seat("A", 2)));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(eq(journey), eq(WHOLE_ROUTE), any(Seat.class));
+        verify(ticketRepository, never()).updateSeatIfUnchanged(any(), any(), any(), any());
+    }
+
     @Test
     void testGetTicketByPnrNotFound() {
         Long pnr = 1L;
@@ -72,30 +454,158 @@ class TicketServiceTest {
         assertThrows(NoTicketFoundException.class, () -> ticketService.getTicketByPnr(pnr));
     }
 
+    @Test
+    void testGetTicketByReceiptCode() {
+        Long pnr = 1234L;
+        Ticket ticket = new Ticket();
+        ticket.setPnr(pnr);
+        when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
+        assertSame(ticket, ticketService.getTicketByReceiptCode(ticket.getReceiptCode().toLowerCase()));
+    }
+
+    @Test
+    void testGetTicketByInvalidReceiptCode() {
+        assertThrows(NoTicketFoundException.class, () -> ticketService.getTicketByReceiptCode("not-a-code"));
+        assertThrows(NoTicketFoundException.class, () -> ticketService.getTicketByReceiptCode("ZZZZZZZZZZZZZ"));
+        verifyNoInteractions(ticketRepository);
+    }
+
+    @Test
+    void testReceiptCodesRoundTripAndHideOrder() {
+        String previous = null;
+        for (long pnr = 1; pnr <= 1000; pnr++) {
+            String code = ReceiptCode.of(pnr);
+            assertEquals(13, code.length());
+            assertEquals(pnr, ReceiptCode.toPnr(code));
+            assertNotEquals(previous != null ? previous.substring(0, 6) : null, code.substring(0, 6));
+            previous = code;
+        }
+        assertEquals(Long.MAX_VALUE, ReceiptCode.toPnr(ReceiptCode.of(Long.MAX_VALUE)));
+    }
+
+    @Test
+    void testPurchaseRetriesSeatClaimedByAnotherInstance() {
+        SeatLegClaims seatLegClaims = mock(SeatLegClaims.class);
+        ticketService.seatLegClaims = seatLegClaims;
+        Seat taken = new Seat("A", 1);
+        Seat free = new Seat("A", 2);
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(taken, free);
+        doAnswer(invocation -> {
+            Ticket ticket = invocation.getArgument(0);
+            if (ticket.getSeatAllocated().equals(taken))
+                throw new DataIntegrityViolationException("seat_leg_claim");
+            ticket.setPnr(1L);
+            return null;
+        }).when(seatLegClaims).saveTicket(any(Ticket.class), eq(WHOLE_ROUTE));
+        when(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate())).thenReturn(List.of(
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 1, "London", "France")));
+
+        Ticket ticket = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+
+        assertTrue(ticket.getSeatAllocated().equals(free));
+        verify(seatLegClaims, times(2)).saveTicket(any(Ticket.class), eq(WHOLE_ROUTE));
+        verify(seatAllocationService, never()).manageVacatedSeat(journey, WHOLE_ROUTE, taken);
+        verify(ticketRepository, never()).save(any(Ticket.class));
+    }
+
+    @Test
+    void testPurchaseGivesUpAfterMaxClaimAttempts() {
+        SeatLegClaims seatLegClaims = mock(SeatLegClaims.class);
+        ticketService.seatLegClaims = seatLegClaims;
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1), new Seat("A", 2), new Seat("A", 3));
+        doAnswer(invocation -> {
+            throw new DataIntegrityViolationException("seat_leg_claim");
+        }).when(seatLegClaims).saveTicket(any(Ticket.class), eq(WHOLE_ROUTE));
+        when(ticketRepository.findSeatOccupancy("LF101", journey.getDepartureDate())).thenReturn(List.of(
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 1, "London", "France"),
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 2, "London", "France"),
+            new SeatOccupancy("LF101", journey.getDepartureDate(), "A", 3, "London", "France")));
+
+        assertThrows(SeatOccupiedException.class,
+            () -> ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null));
+        verify(seatLegClaims, times(bookingProperties.getCluster().getMaxClaimAttempts())).saveTicket(any(Ticket.class), eq(WHOLE_ROUTE));
+    }
+
+    @Test
+    void testClusteredModeReadsTicketsFromDatabase() {
+        ticketService.seatLegClaims = mock(SeatLegClaims.class);
+        Ticket ticket = new Ticket();
+        ticket.setPnr(1L);
+        ticket.setUser(new User("firstName", "lastName", "email@domain.com"));
+        when(ticketRepository.findById(1L)).thenReturn(Optional.of(ticket));
+        when(ticketRepository.findPnrsByEmail("email@domain.com")).thenReturn(List.of(1L));
+
+        ticketService.getTicketByPnr(1L);
+        assertEquals(List.of(ticket), ticketService.getTicketsByEmail("Email@Domain.com"));
+        verify(ticketRepository, times(2)).findById(1L);
+    }
+
+    @Test
+    void testRefreshClaimedSeatsRebuildsChangedSeatCharts() {
+        SeatLegClaims seatLegClaims = mock(SeatLegClaims.class);
+        when(ticketRepository.findSeatChart("LF101", journey.getDepartureDate())).thenReturn(List.of());
+        ticketService.refreshClaimedSeats();
+        SeatChartSnapshot before = ticketService.getSeatChartSnapshot(null, null);
+
+        ticketService.seatLegClaims = seatLegClaims;
+        when(seatLegClaims.refresh()).thenReturn(List.of(journey));
+        ticketService.refreshClaimedSeats();
+
+        assertNotEquals(before.eTag(), ticketService.getSeatChartSnapshot(null, null).eTag());
+    }
+
+    @Test
+    void testJournalFlushRebuildsChangedSeatCharts() {
+        BookingJournal bookingJournal = mock(BookingJournal.class);
+        ticketService.bookingJournal = bookingJournal;
+        ticketService.init();
+        ArgumentCaptor<Consumer<Journey>> flushed = ArgumentCaptor.captor();
+        verify(bookingJournal).onFlushed(flushed.capture());
+        when(ticketRepository.findSeatChart("LF101", journey.getDepartureDate())).thenReturn(List.of());
+        SeatChartSnapshot before = ticketService.getSeatChartSnapshot(null, null);
+        assertSame(before, ticketService.getSeatChartSnapshot(null, null));
+
+        flushed.getValue().accept(journey);
+
+        assertNotEquals(before.eTag(), ticketService.getSeatChartSnapshot(null, null).eTag());
+    }
+
+    @Test
+    void testPurchaseTicketTakesPnrFromIssuer() {
+        PnrIssuer pnrIssuer = mock(PnrIssuer.class);
+        when(pnrIssuer.next()).thenReturn(42L);
+        ticketService.pnrIssuer = pnrIssuer;
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        Ticket ticket = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        assertEquals(42L, ticket.getPnr());
+        verify(ticketRepository).save(ticket);
+    }
+
     @Test
     void testGetSeatChart() {
-        List<Ticket> tickets = List.of(new Ticket(), new Ticket());
-        when(ticketRepository.findAllByOrderBySeatAllocatedSectionAscSeatAllocatedSeatNumberAsc()).thenReturn(tickets);
-        List<SeatChartResponseDTO> result = ticketService.getSeatChart();
-        assertEquals(tickets.size(), result.size());
+        List<SeatChartEntry> entries = List.of(
+            new SeatChartEntry("first1", "last1", "one@domain.com", "A", 1, 1L),
+            new SeatChartEntry("first2", "last2", "two@domain.com", "B", 1, 2L));
+        when(ticketRepository.findSeatChart("LF101", journey.getDepartureDate())).thenReturn(entries);
+        List<SeatChartResponseDTO> result = ticketService.getSeatChart(null, null);
+        assertEquals(entries.size(), result.size());
+        assertEquals("two@domain.com", result.get(1).getUser().getEmail());
+        assertEquals("B", result.get(1).getSeat().getSection());
     }
 
     @Test
     void testGetSeatChartBySection() {
         String section = "A";
-        Ticket ticket1 = new Ticket();
-        ticket1.setSeatAllocated(new Seat("A", 1));
-        Ticket ticket2 = new Ticket();
-        ticket2.setSeatAllocated(new Seat("B", 1));
-        Ticket ticket3 = new Ticket();
-        ticket3.setSeatAllocated(new Seat("A", 2));
-        List<Ticket> tickets = List.of(ticket1, ticket2, ticket3);
-        when(ticketRepository.findBySeatAllocatedSectionOrderBySeatAllocatedSeatNumberAsc(section))
-            .thenReturn(tickets
+        List<SeatChartEntry> entries = List.of(
+            new SeatChartEntry("first1", "last1", "one@domain.com", "A", 1, 3L),
+            new SeatChartEntry("first2", "last2", "two@domain.com", "B", 1, 4L),
+            new SeatChartEntry("first3", "last3", "three@domain.com", "A", 2, 5L));
+        when(ticketRepository.findSeatChartBySection("LF101", journey.getDepartureDate(), section))
+            .thenReturn(entries
                 .stream()
-                .filter(ticket -> Objects.equals(ticket.getSeatAllocated().getSection(), section))
+                .filter(entry -> Objects.equals(entry.section(), section))
                 .collect(Collectors.toList()));
-        List<SeatChartResponseDTO> result = ticketService.getSeatChartBySection(section);
+        List<SeatChartResponseDTO> result = ticketService.getSeatChartBySection(null, null, section);
         for (SeatChartResponseDTO seatChartResponseDTO : result) {
             assertEquals(section, seatChartResponseDTO.getSeat().getSection());
         }
@@ -105,7 +615,234 @@ class TicketServiceTest {
     @Test
     void testGetSeatChartBySectionInvalidSection() {
         String section = "C";
-        assertThrows(NoSuchSectionException.class, () -> ticketService.getSeatChartBySection(section));
+        assertThrows(NoSuchSectionException.class, () -> ticketService.getSeatChartBySection(null, null, section));
+    }
+
+    @Test
+    void testGetSeatChartSnapshot() throws Exception {
+        when(ticketRepository.findSeatChart("LF101", journey.getDepartureDate()))
+            .thenReturn(List.of(new SeatChartEntry("first1", "last1", "one@domain.com", "A", 1, 6L)));
+        SeatChartSnapshot snapshot = ticketService.getSeatChartSnapshot(null, null);
+        assertEquals(1, objectMapper.readTree(snapshot.seatChart()).size());
+        assertEquals(1, objectMapper.readTree(snapshot.sections().get("A")).size());
+        assertEquals(0, objectMapper.readTree(snapshot.sections().get("B")).size());
+        assertSame(snapshot, ticketService.getSeatChartSnapshot(null, null));
+        verify(ticketRepository, times(1)).findSeatChart("LF101", journey.getDepartureDate());
+    }
+
+    @Test
+    void testGetSeatChartSnapshotOutsideBookingWindowIsNotCached() {
+        Journey farAhead = new Journey("LF101", LocalDate.of(2999, 1, 1));
+        when(seatAllocationService.resolveJourney(null, farAhead.getDepartureDate())).thenReturn(farAhead);
+        when(seatAllocationService.getTrainLayout(farAhead)).thenReturn(new TrainLayout(BookingProperties.Train.londonToFrance()));
+        when(ticketRepository.findSeatChart("LF101", farAhead.getDepartureDate())).thenReturn(List.of());
+        SeatChartSnapshot snapshot = ticketService.getSeatChartSnapshot(null, farAhead.getDepartureDate());
+        assertNull(snapshot.eTag());
+        assertNotSame(snapshot, ticketService.getSeatChartSnapshot(null, farAhead.getDepartureDate()));
+        verify(ticketRepository, times(2)).findSeatChart("LF101", farAhead.getDepartureDate());
+    }
+
+    @Test
+    void testGetSeatChartSnapshotRebuiltAfterPurchase() {
+        when(ticketRepository.findSeatChart("LF101", journey.getDepartureDate())).thenReturn(List.of());
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        SeatChartSnapshot before = ticketService.getSeatChartSnapshot(null, null);
+        ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        SeatChartSnapshot after = ticketService.getSeatChartSnapshot(null, null);
+        assertEquals(before.version() + 1, after.version());
+        assertNotEquals(before.eTag(), after.eTag());
+        verify(ticketRepository, times(2)).findSeatChart("LF101", journey.getDepartureDate());
+    }
+
+    @Test
+    void testGetSeatChartPage() {
+        when(ticketRepository.findSeatChartPage("LF101", journey.getDepartureDate(), "", 0, 0, Limit.of(3))).thenReturn(List.of(
+            new SeatChartEntry("first1", "last1", "one@domain.com", "A", 1, 1L),
+            new SeatChartEntry("first2", "last2", "two@domain.com", "A", 4, 2L),
+            new SeatChartEntry("first3", "last3", "three@domain.com", "B", 1, 3L)));
+        SeatChartPageDTO page = ticketService.getSeatChartPage(null, null, null, null, 2);
+        assertEquals(2, page.getSeats().size());
+        assertEquals("A:4:" + ReceiptCode.of(2L), page.getNextCursor());
+
+        when(ticketRepository.findSeatChartPage("LF101", journey.getDepartureDate(), "A", 4, 2, Limit.of(3))).thenReturn(List.of(
+            new SeatChartEntry("first3", "last3", "three@domain.com", "B", 1, 3L)));
+        SeatChartPageDTO lastPage = ticketService.getSeatChartPage(null, null, null, page.getNextCursor(), 2);
+        assertEquals(1, lastPage.getSeats().size());
+        assertNull(lastPage.getNextCursor());
+    }
+
+    @Test
+    void testGetSeatChartPageBySection() {
+        when(ticketRepository.findSeatChartPageBySection("LF101", journey.getDepartureDate(), "B", 7, 5, Limit.of(11))).thenReturn(List.of());
+        SeatChartPageDTO page = ticketService.getSeatChartPage(null, null, "B", "B:7:" + ReceiptCode.of(5L), 10);
+        assertTrue(page.getSeats().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void testGetSeatChartPageInvalidRequest() {
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, null, null, 0));
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, null, null, 501));
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, null, "A4", 10));
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, null, "A:x", 10));
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, null, "A:4", 10));
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, null, "A:4:not-a-code", 10));
+        assertThrows(InvalidPageRequestException.class, () -> ticketService.getSeatChartPage(null, null, "B", "A:4:" + ReceiptCode.of(1L), 10));
+        assertThrows(NoSuchSectionException.class, () -> ticketService.getSeatChartPage(null, null, "C", null, 10));
+    }
+
+    @Test
+    void testWriteSeatChart() throws Exception {
+        when(ticketRepository.streamSeatChart("LF101", journey.getDepartureDate(), "A")).thenReturn(Stream.of(
+            new SeatChartEntry("first1", "last1", "one@domain.com", "A", 1, 7L),
+            new SeatChartEntry("first2", "last2", "two@domain.com", "A", 2, 8L)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ticketService.writeSeatChart(null, null, "A", out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        SeatChartResponseDTO second = objectMapper.readValue(lines[1], SeatChartResponseDTO.class);
+        assertEquals("two@domain.com", second.getUser().getEmail());
+        assertEquals("A", second.getSeat().getSection());
+        assertEquals(2, second.getSeat().getSeatNumber());
+    }
+
+    @Test
+    void testWriteSeatChartInvalidSection() {
+        assertThrows(NoSuchSectionException.class, () -> ticketService.writeSeatChart(null, null, "C", new ByteArrayOutputStream()));
+        verify(ticketRepository, never()).streamSeatChart(any(), any(), any());
+    }
+
+    @Test
+    void testWriteManifest() throws Exception {
+        LocalDate to = journey.getDepartureDate().plusDays(1);
+        when(ticketRepository.streamManifest("LF101", journey.getDepartureDate(), to)).thenReturn(Stream.of(
+            new ManifestEntry(1L, "LF101", journey.getDepartureDate(), "London", "France", "first1", "last1", "one@domain.com", 20.0, "A", 1)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ticketService.writeManifest(null, null, to, out);
+        assertEquals(1L, objectMapper.readTree(out.toString(StandardCharsets.UTF_8).trim()).get("pnr").asLong());
+    }
+
+    @Test
+    void testWriteManifestInvalidDateRange() {
+        LocalDate to = journey.getDepartureDate().minusDays(1);
+        assertThrows(InvalidDateRangeException.class, () -> ticketService.writeManifest(null, null, to, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testGetTicketsByEmail() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1), new Seat("A", 2), new Seat("A", 3));
+        Ticket first = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        Ticket second = ticketService.purchaseTicket(new User("firstName", "lastName", "Email@Domain.com"), null, null, null, null);
+        ticketService.purchaseTicket(new User("other", "passenger", "other@domain.com"), null, null, null, null);
+        List<Ticket> result = ticketService.getTicketsByEmail("EMAIL@domain.com");
+        assertEquals(List.of(first.getPnr(), second.getPnr()), result.stream().map(Ticket::getPnr).toList());
+        verify(ticketRepository, never()).findAll();
+    }
+
+    @Test
+    void testGetTicketsByEmailAfterRemoval() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 1));
+        Ticket ticket = ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null);
+        when(ticketRepository.deleteIfUnchanged(ticket.getPnr(), 0L)).thenReturn(1);
+        ticketService.removeUserTicket(ticket.getPnr());
+        assertTrue(ticketService.getTicketsByEmail("email@domain.com").isEmpty());
+    }
+
+    @Test
+    void testGetTicketsByEmailAfterGroupPurchase() {
+        List<User> users = List.of(new User("first1", "last1", "family@domain.com"), new User("first2", "last2", "family@domain.com"));
+        when(seatAllocationService.allocateNewSeats(journey, WHOLE_ROUTE, 2, false)).thenReturn(List.of(new Seat("A", 1), new Seat("A", 2)));
+        List<Ticket> tickets = ticketService.purchaseTickets(users, null, null, null, null, false);
+        assertEquals(tickets, ticketService.getTicketsByEmail("family@domain.com"));
+    }
+
+    @Test
+    void testPurchaseTicketSoldOutJoinsWaitlist() {
+        BookingWaitlist bookingWaitlist = enableWaitlist();
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenThrow(TicketsSoldOutException.class);
+        WaitlistedException waitlisted = assertThrows(WaitlistedException.class,
+            () -> ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null));
+        WaitlistStatusDTO status = ticketService.getWaitlistStatus(waitlisted.getEntryId());
+        assertEquals("WAITING", status.getStatus());
+        assertEquals(1L, status.getPosition());
+        assertTrue(bookingWaitlist.hasWaiting(journey));
+        verify(ticketRepository, never()).save(any(Ticket.class));
+    }
+
+    @Test
+    void testPurchaseTicketSoldOutWithoutWaitlist() {
+        when(seatAllocationService.allocateNewSeat(journey, WHOLE_ROUTE)).thenThrow(TicketsSoldOutException.class);
+        assertThrows(TicketsSoldOutException.class,
+            () -> ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null));
+        assertThrows(NoSuchWaitlistEntryException.class, () -> ticketService.getWaitlistStatus("unknown"));
+    }
+
+    @Test
+    void testPurchaseTicketQueuesBehindWaitingPassengers() {
+        BookingWaitlist bookingWaitlist = enableWaitlist();
+        bookingWaitlist.join(journey, WHOLE_ROUTE, new User("first", "waiting", "waiting@domain.com"));
+        assertThrows(WaitlistedException.class,
+            () -> ticketService.purchaseTicket(new User("firstName", "lastName", "email@domain.com"), null, null, null, null));
+        verify(seatAllocationService, never()).allocateNewSeat(journey, WHOLE_ROUTE);
+    }
+
+    @Test
+    void testRemoveUserTicketHandsSeatToWaitlist() {
+        BookingWaitlist bookingWaitlist = enableWaitlist();
+        User waiting = new User("first", "waiting", "waiting@domain.com");
+        WaitlistEntry entry = bookingWaitlist.join(journey, WHOLE_ROUTE, waiting);
+        Ticket ticket = new Ticket();
+        ticket.setPnr(100L);
+        ticket.setJourney(journey);
+        ticket.setSeatAllocated(new Seat("A", 5));
+        ticket.setUser(new User("firstName", "lastName", "email@domain.com"));
+        ticket.setVersion(0L);
+        when(ticketRepository.findById(100L)).thenReturn(Optional.of(ticket));
+        when(ticketRepository.deleteIfUnchanged(100L, 0L)).thenReturn(1);
+        when(seatAllocationService.allocateWaitlistedSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("A", 5));
+
+        ticketService.removeUserTicket(100L);
+
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, ticket.getSeatAllocated());
+        assertEquals(WaitlistEntry.Status.PROMOTED, entry.getStatus());
+        Ticket promoted = ticketService.getTicketByPnr(entry.getPnr());
+        assertEquals(waiting, promoted.getUser());
+        assertTrue(new Seat("A", 5).equals(promoted.getSeatAllocated()));
+        assertEquals(List.of(promoted), ticketService.getTicketsByEmail("waiting@domain.com"));
+    }
+
+    @Test
+    void testWaitlistSeatHandOverFailurePutsPassengerBack() {
+        BookingWaitlist bookingWaitlist = enableWaitlist();
+        WaitlistEntry entry = bookingWaitlist.join(journey, WHOLE_ROUTE, new User("first", "waiting", "waiting@domain.com"));
+        Seat seat = new Seat("A", 5);
+        when(seatAllocationService.allocateWaitlistedSeat(journey, WHOLE_ROUTE)).thenReturn(seat);
+        when(ticketRepository.save(any(Ticket.class))).thenThrow(new DataAccessResourceFailureException("down"));
+
+        ticketService.promoteWaitlistedPassengers();
+
+        assertEquals(WaitlistEntry.Status.WAITING, entry.getStatus());
+        assertEquals(1L, bookingWaitlist.position(entry));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, seat);
+    }
+
+    @Test
+    void testPromoteWaitlistedPassengersFillsFreedSeats() throws Exception {
+        BookingWaitlist bookingWaitlist = enableWaitlist();
+        WaitlistEntry first = bookingWaitlist.join(journey, WHOLE_ROUTE, new User("first", "waiting", "first@domain.com"));
+        WaitlistEntry second = bookingWaitlist.join(journey, WHOLE_ROUTE, new User("second", "waiting", "second@domain.com"));
+        CompletableFuture<WaitlistStatusDTO> awaited = ticketService.awaitWaitlistStatus(first.getId(), 30);
+        when(seatAllocationService.allocateWaitlistedSeat(journey, WHOLE_ROUTE)).thenReturn(new Seat("B", 2), (Seat) null);
+
+        ticketService.promoteWaitlistedPassengers();
+
+        WaitlistStatusDTO status = awaited.get();
+        assertEquals("PROMOTED", status.getStatus());
+        assertEquals(first.getPnr(), status.getPnr());
+        assertNull(status.getPosition());
+        assertEquals("WAITING", ticketService.getWaitlistStatus(second.getId()).getStatus());
+        assertEquals(1L, ticketService.getWaitlistStatus(second.getId()).getPosition());
+        assertEquals("CANCELLED", ticketService.cancelWaitlistEntry(second.getId()).getStatus());
     }
 
     @Test
@@ -113,11 +850,30 @@ class TicketServiceTest {
         Long pnr = 1L;
         Ticket ticket = new Ticket();
         ticket.setPnr(pnr);
+        ticket.setJourney(journey);
         ticket.setSeatAllocated(new Seat());
+        ticket.setVersion(3L);
         when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
+        when(ticketRepository.deleteIfUnchanged(pnr, 3L)).thenReturn(1);
         ticketService.removeUserTicket(pnr);
-        verify(ticketRepository, times(1)).deleteById(pnr);
-        verify(seatAllocationService, times(1)).manageVacatedSeat(ticket.getSeatAllocated());
+        verify(ticketRepository, times(1)).deleteIfUnchanged(pnr, 3L);
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, ticket.getSeatAllocated());
+    }
+
+    @Test
+    void testRemoveUserTicketConflict() {
+        Long pnr = 1L;
+        Ticket ticket = new Ticket();
+        ticket.setPnr(pnr);
+        ticket.setJourney(journey);
+        ticket.setSeatAllocated(new Seat("A", 1));
+        ticket.setVersion(3L);
+        when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
+        when(ticketRepository.deleteIfUnchanged(pnr, 3L)).thenReturn(0);
+        assertThrows(TicketUpdateConflictException.class, () -> ticketService.removeUserTicket(pnr));
+        verify(seatAllocationService, never()).manageVacatedSeat(any(), any(), any());
+        ticketService.getTicketByPnr(pnr);
+        verify(ticketRepository, times(2)).findById(pnr);
     }
 
     @Test
@@ -132,15 +888,58 @@ class TicketServiceTest {
         Long pnr = 1L;
         Ticket ticket = new Ticket();
         ticket.setPnr(pnr);
+        ticket.setJourney(journey);
         Seat previousSeat = new Seat("A", 1);
         ticket.setSeatAllocated(previousSeat);
+        ticket.setVersion(3L);
         Seat requestedSeat = new Seat("B", 1);
         when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
-        when(seatAllocationService.allocateSpecificSeat(requestedSeat)).thenReturn(requestedSeat);
-        ticketService.modifyUserTicket(pnr, requestedSeat);
-        verify(seatAllocationService, times(1)).manageVacatedSeat(previousSeat);
-        verify(seatAllocationService, times(1)).allocateSpecificSeat(requestedSeat);
-        verify(ticketRepository, times(1)).save(ticket);
+        when(seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, requestedSeat)).thenReturn(requestedSeat);
+        when(ticketRepository.updateSeatIfUnchanged(pnr, 3L, "B", 1)).thenReturn(1);
+        Ticket result = ticketService.modifyUserTicket(pnr, requestedSeat);
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, previousSeat);
+        verify(seatAllocationService, times(1)).allocateSpecificSeat(journey, WHOLE_ROUTE, requestedSeat);
+        verify(ticketRepository, times(1)).updateSeatIfUnchanged(pnr, 3L, "B", 1);
+        assertEquals(requestedSeat, result.getSeatAllocated());
+        assertEquals(4L, result.getVersion());
+        assertSame(result, ticketService.getTicketByPnr(pnr));
+        assertEquals(previousSeat, ticket.getSeatAllocated());
+    }
+
+    @Test
+    void testModifyUserTicketConflictReleasesClaimedSeat() {
+        Long pnr = 1L;
+        Ticket ticket = new Ticket();
+        ticket.setPnr(pnr);
+        ticket.setJourney(journey);
+        Seat previousSeat = new Seat("A", 1);
+        ticket.setSeatAllocated(previousSeat);
+        ticket.setVersion(3L);
+        Seat requestedSeat = new Seat("B", 1);
+        when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
+        when(seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, requestedSeat)).thenReturn(requestedSeat);
+        when(ticketRepository.updateSeatIfUnchanged(pnr, 3L, "B", 1)).thenReturn(0);
+        assertThrows(TicketUpdateConflictException.class, () -> ticketService.modifyUserTicket(pnr, requestedSeat));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, requestedSeat);
+        verify(seatAllocationService, never()).manageVacatedSeat(journey, WHOLE_ROUTE, previousSeat);
+    }
+
+    @Test
+    void testModifyUserTicketUpdateFailureReleasesClaimedSeat() {
+        Long pnr = 1L;
+        Ticket ticket = new Ticket();
+        ticket.setPnr(pnr);
+        ticket.setJourney(journey);
+        Seat previousSeat = new Seat("A", 1);
+        ticket.setSeatAllocated(previousSeat);
+        ticket.setVersion(3L);
+        Seat requestedSeat = new Seat("B", 1);
+        when(ticketRepository.findById(pnr)).thenReturn(Optional.of(ticket));
+        when(seatAllocationService.allocateSpecificSeat(journey, WHOLE_ROUTE, requestedSeat)).thenReturn(requestedSeat);
+        when(ticketRepository.updateSeatIfUnchanged(pnr, 3L, "B", 1)).thenThrow(new DataAccessResourceFailureException("down"));
+        assertThrows(DataAccessResourceFailureException.class, () -> ticketService.modifyUserTicket(pnr, requestedSeat));
+        verify(seatAllocationService, times(1)).manageVacatedSeat(journey, WHOLE_ROUTE, requestedSeat);
+        verify(seatAllocationService, never()).manageVacatedSeat(journey, WHOLE_ROUTE, previousSeat);
     }
 
     @Test
@@ -161,4 +960,12 @@ class TicketServiceTest {
         when(ticketRepository.findById(pnr)).thenReturn(Optional.empty());
         assertThrows(NoTicketFoundException.class, () -> ticketService.modifyUserTicket(pnr, seat));
     }
-}
\ No newline at end of file
+
+    private BookingWaitlist enableWaitlist() {
+        BookingWaitlist bookingWaitlist = new BookingWaitlist();
+        bookingWaitlist.bookingProperties = bookingProperties;
+        bookingWaitlist.clock = Clock.systemUTC();
+        ticketService.bookingWaitlist = bookingWaitlist;
+        return bookingWaitlist;
+    }
+}